@@ -342,7 +342,7 @@ public class AndroidCollectorController extends CollectorController<CollectorVie
 	@Override
 	protected Logger createLogger() throws FileStorageException, IOException
 	{
-		return new AndroidLogger(fileStorageProvider.getProjectLogsFolder(project, true).getAbsolutePath(), LOG_PREFIX, true);
+		return new AndroidLogger(fileStorageProvider.getProjectLogsFolder(project, true).getAbsolutePath(), LOG_PREFIX, true, true, Logger.DEFAULT_ASYNC_BUFFER_CAPACITY, Logger.OverflowPolicy.BLOCK);
 	}
 
 }
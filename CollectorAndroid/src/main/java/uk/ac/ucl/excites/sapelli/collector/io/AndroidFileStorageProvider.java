@@ -46,6 +46,12 @@ public class AndroidFileStorageProvider extends FileStorageProvider
 		return createNoMediaIn(super.getTempFolder(create));
 	}
 	
+	@Override
+	public File getCacheFolder(boolean create) throws FileStorageException
+	{
+		return createNoMediaIn(super.getCacheFolder(create));
+	}
+	
 	@Override
 	public File getProjectInstallationFolder(ProjectDescriptor projectDescr, boolean create) throws FileStorageException
 	{
@@ -31,6 +31,8 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 	private TextToSpeech tts;
 	private Semaphore ttvInitialised;
 	private Semaphore ttvJobComplete;
+	private volatile String currentUtteranceID;
+	private int jobCount = 0;
 
 	public TextToVoice(Context context)
 	{
@@ -41,8 +43,10 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 	/**
 	 * Synchronous method that blocks the calling thread until the text-to-speech engine has been fully initialised (!).
 	 * Thus assumes that the calling thread is *not* the UI thread.
+	 * 
+	 * @throws InterruptedException when the calling thread is interrupted while waiting, the engine is then shut down again
 	 */
-	private void setupTTS()
+	private void setupTTS() throws InterruptedException
 	{
 		// Set up initialisation semaphore so thread blocks waiting for TTS init (else jobs will fail)
 		if(ttvInitialised == null)
@@ -71,7 +75,8 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 		}
 		catch(InterruptedException e)
 		{
-			e.printStackTrace();
+			destroy();
+			throw e;
 		}
 		Log.d("TTV","Init complete");
 
@@ -95,8 +100,9 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 	 * 
 	 * @param text - the text to synthesise into speech
 	 * @param filepath - the path of the file into which the speech audio should be stored
+	 * @throws InterruptedException when the calling thread is interrupted while waiting, the synthesis job is then stopped and the file may be incomplete
 	 */
-	public void processSpeechToFile(String text, String filepath, String languageCode) throws TTVSynthesisFailedException, TTVUnsupportedLanguageException
+	public void processSpeechToFile(String text, String filepath, String languageCode) throws TTVSynthesisFailedException, TTVUnsupportedLanguageException, InterruptedException
 	{
 		if(tts == null)
 			setupTTS();
@@ -110,9 +116,12 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 		// Instantiate semaphore so we can wait for the job to complete:
 		if(ttvJobComplete == null)
 			ttvJobComplete = new Semaphore(0);
+		else
+			ttvJobComplete.drainPermits();
 
-		// Start synthesis job:
-		if(synthesizeToFile(text, filepath) == TextToSpeech.ERROR)
+		// Start synthesis job (with a unique "utterance ID" so completion of an earlier, interrupted job cannot be mistaken for completion of this one):
+		currentUtteranceID = (++jobCount) + ":" + text;
+		if(synthesizeToFile(text, filepath, currentUtteranceID) == TextToSpeech.ERROR)
 			throw new TTVSynthesisFailedException(text);
 		
 		// Block thread until synthesis job completes:
@@ -122,32 +131,33 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 		}
 		catch(InterruptedException e)
 		{
-			e.printStackTrace();
+			currentUtteranceID = null;
+			tts.stop(); // abandon the synthesis job
+			throw e;
 		}
 		Log.d("TTV", "Job completed");
 	}
 	
-	private int synthesizeToFile(String textToSynthesize, String filepath)
+	private int synthesizeToFile(String textToSynthesize, String filepath, String utteranceID)
 	{
 		if(android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP /* = 21 */)
-			return synthesizeToFileLollipop(textToSynthesize, filepath);
+			return synthesizeToFileLollipop(textToSynthesize, filepath, utteranceID);
 		else
-			return synthesizeToFilePreLollipop(textToSynthesize, filepath);
+			return synthesizeToFilePreLollipop(textToSynthesize, filepath, utteranceID);
 	}
 
 	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
-	private int synthesizeToFileLollipop(String textToSynthesize, String filepath)
+	private int synthesizeToFileLollipop(String textToSynthesize, String filepath, String utteranceID)
 	{
-		return tts.synthesizeToFile(textToSynthesize, null, new File(filepath), textToSynthesize); // Use text to be synthesised as "utterance ID" for job
+		return tts.synthesizeToFile(textToSynthesize, null, new File(filepath), utteranceID);
 	}
 
 	@SuppressWarnings("deprecation")
-	private int synthesizeToFilePreLollipop(String textToSynthesize, String filepath)
+	private int synthesizeToFilePreLollipop(String textToSynthesize, String filepath, String utteranceID)
 	{
 		// Set params of synthesis job by creating a hash table:
 		HashMap<String, String> params = new HashMap<String, String>();
-		// use text to be synthesised as "utterance ID" for job:
-		params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, textToSynthesize);
+		params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceID);
 		
 		// Start synthesis job:
 		return tts.synthesizeToFile(textToSynthesize, params, filepath);
@@ -197,15 +207,16 @@ public class TextToVoice implements TextToSpeech.OnInitListener
 	}
 
 	/**
-	 * Called when the text-to-speech engine completes the synthesis of a job, identified by the text that the job was synthesising. Unblock the job dispatching
-	 * thread so it can process the next job.
+	 * Called when the text-to-speech engine completes the synthesis of a job, identified by its utterance ID. Unblock the job dispatching
+	 * thread so it can process the next job, unless the completed job was abandoned.
 	 * 
-	 * @param synthesisText - the text that was successfully synthesised.
+	 * @param utteranceID - the utterance ID of the job that was successfully synthesised.
 	 */
-	private void onTTSJobCompleted(String synthesisText)
+	private void onTTSJobCompleted(String utteranceID)
 	{
-		Log.d(TAG, "Completed synthesis for text: " + synthesisText);
-		ttvJobComplete.release();
+		Log.d(TAG, "Completed synthesis for utterance: " + utteranceID);
+		if(utteranceID != null && utteranceID.equals(currentUtteranceID))
+			ttvJobComplete.release();
 	}
 
 	/**
@@ -79,6 +79,7 @@ public class Backup implements RecordsTasks.QueryCallback, RecordsTasks.ExportCa
 			// Not back-upable:
 			case Downloads:
 			case Temp:
+			case Cache:
 			case DB: // in fact this is will always included in back-up but not directly, only after DB(s) has/have been copied to a temp folder
 			case OldDBVersions: // in fact this is will always included in back-up, but it isn't offered as a user choice
 			default:
@@ -100,6 +101,7 @@ public class Backup implements RecordsTasks.QueryCallback, RecordsTasks.ExportCa
 			// Not back-upable:
 			case Downloads:
 			case Temp:
+			case Cache:
 			case DB: // (see comment above)
 			case OldDBVersions: // (see comment above)
 			default:
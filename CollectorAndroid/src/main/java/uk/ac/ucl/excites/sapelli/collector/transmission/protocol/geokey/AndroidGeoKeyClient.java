@@ -19,22 +19,19 @@
 package uk.ac.ucl.excites.sapelli.collector.transmission.protocol.geokey;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-
-import com.loopj.android.http.RequestParams;
-import com.loopj.android.http.SyncHttpClient;
+import org.json.JSONTokener;
 
 import android.util.Log;
-import cz.msebera.android.httpclient.Header;
-import cz.msebera.android.httpclient.message.BasicHeader;
 import uk.ac.ucl.excites.sapelli.collector.CollectorApp;
 import uk.ac.ucl.excites.sapelli.collector.R;
 import uk.ac.ucl.excites.sapelli.collector.model.Form;
@@ -42,8 +39,6 @@ import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.VersionComparator;
-import uk.ac.ucl.excites.sapelli.shared.util.android.http.ChainableRequestParams;
-import uk.ac.ucl.excites.sapelli.shared.util.android.http.ResponseHandler;
 import uk.ac.ucl.excites.sapelli.storage.model.Attachment;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
 import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
@@ -51,6 +46,8 @@ import uk.ac.ucl.excites.sapelli.storage.util.TimeStampUtils;
 import uk.ac.ucl.excites.sapelli.storage.util.UnknownModelException;
 import uk.ac.ucl.excites.sapelli.transmission.model.transport.geokey.GeoKeyServer;
 import uk.ac.ucl.excites.sapelli.transmission.protocol.geokey.GeoKeyClient;
+import uk.ac.ucl.excites.sapelli.transmission.protocol.http.HTTPClient;
+import uk.ac.ucl.excites.sapelli.transmission.protocol.http.JavaHTTPClient;
 
 /**
  * @author mstevens
@@ -69,19 +66,32 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 	
 	static private final AuthMode AUTH_MODE = AuthMode.Header;
 	
-	static private SyncHttpClient HttpClient = new SyncHttpClient();
-	
 	static private final String TAG = AndroidGeoKeyClient.class.getSimpleName();
 	
 	// DYNAMIC ----------------------------------------------------------------
 	private final CollectorApp app;
 	
+	/**
+	 * Used for all requests, including the (parallel) uploading of attachments.
+	 */
+	private final HTTPClient httpClient;
+	
 	private GeoKeyServer server;
 	
 	public AndroidGeoKeyClient(CollectorApp app)
+	{
+		this(app, new JavaHTTPClient());
+	}
+	
+	/**
+	 * @param app
+	 * @param httpClient the {@link HTTPClient} to communicate with the server through (e.g. a stand-in for testing)
+	 */
+	public AndroidGeoKeyClient(CollectorApp app, HTTPClient httpClient)
 	{
 		super(app.collectorClient);
 		this.app = app;
+		this.httpClient = httpClient;
 	}
 
 	@Override
@@ -98,9 +108,8 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 	{
 		if(server == null)
 			return false;
-		ResponseHandler handler = getWithJSONResponse(
+		JSONResponse handler = getWithJSONResponse(
 			getAbsoluteUrl(server, PATH_API_GEOKEY + "info/"),
-			null,
 			null);
 		if(!checkResponseObject(handler, JSON_KEY_GEOKEY))
 		{
@@ -160,12 +169,14 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		if(!server.hasUserCredentials())
 			return true; // there's no user credentials so we cannot/don't have to log-in
 		//else: perform new login...
-		ResponseHandler handler = postWithJSONResponse(
+		Map<String, String> fields = getNewFields(null);
+		fields.put("username", server.getUserEmail());
+		fields.put("password", server.getUserPassword());
+		JSONResponse handler = postWithJSONResponse(
 			getAbsoluteUrl(server, PATH_API_GEOKEY_SAPELLI + "login/"),
 			null,
-			getNewRequestParams(null)
-				.putt("username", server.getUserEmail())
-				.putt("password", server.getUserPassword()));
+			fields,
+			null);
 		if(!checkResponseObject(handler, JSON_KEY_ACCESS_TOKEN))
 		{
 			if(handler.hasResponseObject() && JSON_VALUE_ERROR_DESCRIPTION_INVALID_CREDENTIALS.equalsIgnoreCase(handler.getResponseObject().optString(JSON_KEY_ERROR_DESCRIPTION)))
@@ -182,8 +193,7 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		// Get user display name:
 		handler = getWithJSONResponse(
 			getAbsoluteUrl(this.server, PATH_API_GEOKEY + "user/"), 
-			getNewHeaders(token),
-			null);
+			getNewHeaders(token));
 		if(!checkResponseObject(handler, JSON_KEY_USER_DISPLAY_NAME))
 			logError(handler, "Failed to get user info");
 		
@@ -232,10 +242,9 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		// Final check, ask the server:
 		if(checkValidity && token != null)
 		{
-			ResponseHandler handler = getWithJSONResponse(
+			JSONResponse handler = getWithJSONResponse(
 				getAbsoluteUrl(server, PATH_API_GEOKEY_SAPELLI + "login/"),
-				getNewHeaders(token),
-				null);
+				getNewHeaders(token));
 			if(!checkResponseObject(handler, JSON_KEY_LOGGED_IN) || !handler.getResponseObject().optBoolean(JSON_KEY_LOGGED_IN, false))
 				token = null;
 		}
@@ -294,10 +303,9 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 			return null;
 		
 		// Request project description:
-		ResponseHandler handler = getWithJSONResponse(
+		JSONResponse handler = getWithJSONResponse(
 			getAbsoluteUrl(server, PATH_API_GEOKEY_SAPELLI + "projects/description/" + project.getID() + "/" + project.getFingerPrint() + "/"),
-			getNewHeaders(token),
-			null);
+			getNewHeaders(token));
 		if(checkResponseObject(handler, JSON_KEY_GEOKEY_PROJECT_ID))
 		{
 			//Log.d(TAG, "ProjectInfo: " + handler.getResponseObject().toString());
@@ -387,42 +395,42 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		}
 		
 		/**
-		 * @param csvFile
-		 * @param deleteUponSuccess
-		 * @param deleteUponFailure
+		 * The CSV is sent as the request body using {@link AndroidGeoKeyClient#httpClient}, such that no temporary file is needed.
+		 * 
+		 * @param csv
 		 * @return whether or not uploading was successful
 		 */
 		@Override
-		public boolean uploadCSV(File csvFile, boolean deleteUponSuccess, boolean deleteUponFailure)
+		public boolean uploadCSV(HTTPClient.Body csv)
 		{
-			ResponseHandler handler = postWithJSONResponse(
-					getAbsoluteUrl(server, getSapelliProjectURL() + "csv_upload/"),
-					getNewHeaders(token),
-					getNewRequestParams(token).putt(PARAMETER_KEY_CVS_FILE, csvFile, "text/csv"));
-			if(checkResponseObject(handler, JSON_KEY_ADDED))
+			String url = getAbsoluteUrl(server, getSapelliProjectURL() + "csv_upload/");
+			try
 			{
-				JSONObject json = handler.getResponseObject();
-				Log.d(	TAG,
-						String.format(
-							"Uploaded CSV file: %d records added; %d records updated; %d duplicates ignored; %d location-less records ignored",
-							json.optInt(JSON_KEY_ADDED),
-							json.optInt(JSON_KEY_UPDATED),
-							json.optInt(JSON_KEY_IGNORED_DUPS),
-							json.optInt(JSON_KEY_IGNORED_NO_LOC)));
-				if(deleteUponSuccess)
-					FileUtils.deleteQuietly(csvFile);
-				return true;
+				HTTPClient.Response response = httpClient.post(url, getNewHeaders(token), getNewFields(token), Collections.singletonMap(PARAMETER_KEY_CVS_FILE, csv));
+				JSONObject json = new JSONObject(response.getBody());
+				if(response.isSuccessful() && json.has(JSON_KEY_ADDED))
+				{
+					Log.d(	TAG,
+							String.format(
+								"Uploaded CSV file: %d records added; %d records updated; %d duplicates ignored; %d location-less records ignored",
+								json.optInt(JSON_KEY_ADDED),
+								json.optInt(JSON_KEY_UPDATED),
+								json.optInt(JSON_KEY_IGNORED_DUPS),
+								json.optInt(JSON_KEY_IGNORED_NO_LOC)));
+					return true;
+				}
+				Log.e(TAG, "Could not upload CSV file" + (json.has(JSON_KEY_ERROR) ? "; server response: " + json.optString(JSON_KEY_ERROR) : "") + " [URL: " + url + "]");
 			}
-			else
+			catch(Exception e)
 			{
-				if(deleteUponFailure)
-					FileUtils.deleteQuietly(csvFile);
-				logError(handler, "Could not upload CSV file");
-				return false;
+				Log.e(TAG, "Could not upload CSV file [URL: " + url + "]", e);
 			}
+			return false;
 		}
 		
 		/**
+		 * Called from multiple threads at once, all requests are made using {@link AndroidGeoKeyClient#httpClient}.
+		 * 
 		 * @param record
 		 * @param attachments
 		 * @return whether or not uploading was successful
@@ -449,12 +457,14 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 				Log.e(TAG, "Server has no GeoKey category for form " + form.id);
 				return false;
 			}
-			ResponseHandler handler = postWithJSONResponse(
+			Map<String, String> fields = getNewFields(token);
+			fields.put("sap_rec_StartTime", TimeStampUtils.getISOTimestamp(Form.GetStartTime(record), true));
+			fields.put("sap_rec_DeviceID", Long.toString(Form.GetDeviceID(record)));
+			JSONResponse handler = postWithJSONResponse(
 					getAbsoluteUrl(server, getSapelliProjectURL() + "find_observation/" + gkCategoryID.toString() + "/"),
 					getNewHeaders(token),
-					getNewRequestParams(token)
-						.putt("sap_rec_StartTime", TimeStampUtils.getISOTimestamp(Form.GetStartTime(record), true))
-						.putt("sap_rec_DeviceID", Long.toString(Form.GetDeviceID(record))));
+					fields,
+					null);
 			if(!checkResponseObject(handler, JSON_KEY_OBSERVATION_ID))
 			{
 				logError(handler, "Could not get contribution ID for record (PK: " + record.getReference().toString() + ")"); // no such Project or observation
@@ -465,7 +475,7 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 			String contributionMediaURL = getAbsoluteUrl(server, getGeoKeyProjectURL() + "contributions/" + Integer.toString(contribution_id) + "/media/");
 			
 			// Get existing documents:
-			handler = getWithJSONResponse(contributionMediaURL, getNewHeaders(token), null);
+			handler = getWithJSONResponse(contributionMediaURL, getNewHeaders(token));
 			if(!checkResponseArray(handler))
 			{
 				logError(handler, "Could not get documents list for contribution with ID " + contribution_id);
@@ -495,13 +505,14 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 				}				
 				// Upload file:
 				client.logInfo("Attempting to uploading file \"" + name + "\"...");
+				fields = getNewFields(token);
+				fields.put(PARAMETER_KEY_NAME, name);
+				fields.put(PARAMETER_KEY_DESC, app.getString(R.string.uploadedFromAt, app.getBuildInfo().getNameAndVersion(), TimeStampUtils.getISOTimestamp(TimeStamp.now(), true)));
 				handler = postWithJSONResponse(
 					contributionMediaURL,
 					getNewHeaders(token),
-					getNewRequestParams(token)
-						.putt(PARAMETER_KEY_FILE, attachment.file, attachment.getMimeType())
-						.putt(PARAMETER_KEY_NAME, name)
-						.putt(PARAMETER_KEY_DESC, app.getString(R.string.uploadedFromAt, app.getBuildInfo().getNameAndVersion(), TimeStampUtils.getISOTimestamp(TimeStamp.now(), true))));
+					fields,
+					Collections.<String, HTTPClient.Body> singletonMap(PARAMETER_KEY_FILE, new HTTPClient.FileBody(attachment.file, attachment.getMimeType())));
 				if(!checkResponseObject(handler, JSON_KEY_NAME))
 				{
 					logError(handler, "Could not upload media file: " + attachment.file.getName());
@@ -515,30 +526,30 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		
 	}
 	
-	protected boolean checkResponseObject(ResponseHandler handler)
+	protected boolean checkResponseObject(JSONResponse handler)
 	{
 		return checkResponseObject(handler, null);
 	}
 	
-	private boolean checkResponseObject(ResponseHandler handler, String jsonKey)
+	private boolean checkResponseObject(JSONResponse handler, String jsonKey)
 	{
 		return	!handler.hasError() &&
 				handler.hasResponseObject() &&
 				(jsonKey == null || handler.getResponseObject().has(jsonKey));
 	}
 	
-	private boolean checkResponseArray(ResponseHandler handler)
+	private boolean checkResponseArray(JSONResponse handler)
 	{
 		return	!handler.hasError() &&
 				handler.hasResponseArray();
 	}
 	
-	private void logError(ResponseHandler handler, String msg)
+	private void logError(JSONResponse handler, String msg)
 	{
 		String logMsg = msg +
 			(handler.hasResponseObject() && handler.getResponseObject().has(JSON_KEY_ERROR) ?
 				"; server response: " + handler.getResponseObject().optString(JSON_KEY_ERROR) : "") +
-			" [URL: " + handler.getRequestURI() + "]";
+			" [URL: " + handler.getRequestURL() + "]";
 		if(handler.hasError())
 			Log.e(TAG, logMsg, handler.getError());
 		else
@@ -550,47 +561,129 @@ public class AndroidGeoKeyClient extends GeoKeyClient
 		return server.getUrl() + relativeUrl;
 	}
 	
-	private ChainableRequestParams getNewRequestParams(JSONObject token)
+	private Map<String, String> getNewFields(JSONObject token)
 	{
-		ChainableRequestParams params = new ChainableRequestParams();
+		Map<String, String> fields = new HashMap<String, String>();
 		if(token != null && (AUTH_MODE == AuthMode.RequestParam || AUTH_MODE == AuthMode.Both))
-			params.put(JSON_KEY_ACCESS_TOKEN, token.optString(JSON_KEY_ACCESS_TOKEN));
-		return params;
+			fields.put(JSON_KEY_ACCESS_TOKEN, token.optString(JSON_KEY_ACCESS_TOKEN));
+		return fields;
 	}
 	
-	private List<Header> getNewHeaders(JSONObject token)
+	private Map<String, String> getNewHeaders(JSONObject token)
 	{
-		List<Header> headerList = new ArrayList<Header>();
+		Map<String, String> headers = new HashMap<String, String>();
 		if(token != null && (AUTH_MODE == AuthMode.Header || AUTH_MODE == AuthMode.Both))
-			headerList.add(new BasicHeader("Authorization", token.optString(JSON_KEY_TOKEN_TYPE) + " " + token.optString(JSON_KEY_ACCESS_TOKEN)));
-		return headerList;
+			headers.put("Authorization", token.optString(JSON_KEY_TOKEN_TYPE) + " " + token.optString(JSON_KEY_ACCESS_TOKEN));
+		return headers;
 	}
 	
-	private ResponseHandler getWithJSONResponse(String absoluteUrl, List<Header> headers, RequestParams params)
+	private JSONResponse getWithJSONResponse(String absoluteUrl, Map<String, String> headers)
 	{
-		ResponseHandler handler = new ResponseHandler(absoluteUrl);
-		
-		// Blocking!:
-		HttpClient.get(app, absoluteUrl, toArray(headers), params, handler);
-		
+		JSONResponse handler = new JSONResponse(absoluteUrl);
+		try
+		{
+			// Blocking!:
+			handler.setResponse(httpClient.get(absoluteUrl, headers));
+		}
+		catch(IOException e)
+		{
+			handler.setError(e);
+		}
 		return handler;
 	}
 
-	private ResponseHandler postWithJSONResponse(String absoluteUrl, List<Header> headers, RequestParams params)
+	private JSONResponse postWithJSONResponse(String absoluteUrl, Map<String, String> headers, Map<String, String> fields, Map<String, HTTPClient.Body> files)
 	{
-		ResponseHandler handler = new ResponseHandler(absoluteUrl);
-		
-		// Blocking!:
-		HttpClient.post(app, absoluteUrl, toArray(headers), params, null /*contentType*/, handler);
-		
+		JSONResponse handler = new JSONResponse(absoluteUrl);
+		try
+		{
+			// Blocking!:
+			handler.setResponse(httpClient.post(absoluteUrl, headers, fields, files));
+		}
+		catch(IOException e)
+		{
+			handler.setError(e);
+		}
 		return handler;
 	}
 	
-	private Header[] toArray(List<Header> headers)
+	/**
+	 * Holds the JSON object or array sent back by the server in response to a request, and/or the error which occurred.
+	 * 
+	 * @author mstevens
+	 */
+	static private class JSONResponse
 	{
-		if(headers == null)
-			return null;
-		return headers.toArray(new Header[headers.size()]);
+		
+		private final String requestURL;
+		private JSONObject responseObject;
+		private JSONArray responseArray;
+		private Throwable error;
+		
+		public JSONResponse(String requestURL)
+		{
+			this.requestURL = requestURL;
+		}
+		
+		public void setResponse(HTTPClient.Response response)
+		{
+			if(!response.isSuccessful())
+				error = new IOException("HTTP status " + response.getStatusCode());
+			try
+			{
+				Object json = new JSONTokener(response.getBody()).nextValue();
+				if(json instanceof JSONObject)
+					responseObject = (JSONObject) json;
+				else if(json instanceof JSONArray)
+					responseArray = (JSONArray) json;
+			}
+			catch(JSONException e)
+			{
+				if(error == null)
+					error = e;
+			}
+		}
+		
+		public void setError(Throwable error)
+		{
+			this.error = error;
+		}
+		
+		public String getRequestURL()
+		{
+			return requestURL;
+		}
+		
+		public boolean hasResponseObject()
+		{
+			return responseObject != null;
+		}
+		
+		public JSONObject getResponseObject()
+		{
+			return responseObject;
+		}
+		
+		public boolean hasResponseArray()
+		{
+			return responseArray != null;
+		}
+		
+		public JSONArray getResponseArray()
+		{
+			return responseArray;
+		}
+		
+		public boolean hasError()
+		{
+			return error != null;
+		}
+		
+		public Throwable getError()
+		{
+			return error;
+		}
+		
 	}
 
 }
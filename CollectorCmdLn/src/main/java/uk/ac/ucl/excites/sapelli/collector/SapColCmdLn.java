@@ -18,8 +18,24 @@
 
 package uk.ac.ucl.excites.sapelli.collector;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -28,7 +44,6 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -40,10 +55,15 @@ import uk.ac.ucl.excites.sapelli.collector.load.ProjectLoader;
 import uk.ac.ucl.excites.sapelli.collector.model.Form;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.collector.transmission.protocol.geokey.GeoKeyFormDescriber;
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
 
 /**
  * Simple command-line interface to load/verify (and in the future store) Sapelli Collector projects
  * 
+ * In batch mode ({@code -batch}) many projects are parsed concurrently, within a single JVM and without extracting their
+ * contents, and the result for each project is written to stdout as a single line of JSON (i.e. as "JSON Lines").
+ * 
  * @author mstevens
  */
 public class SapColCmdLn
@@ -57,7 +77,20 @@ public class SapColCmdLn
 		options.addOption(loadFile);
 		options.addOption("json", false, "Produce JSON output");
 		options.addOption("geokey", false, "Produce 'sapelli_project_info' (JSON) for geokey_sapelli");
+		Option batch = Option.builder("batch").hasArgs().argName("folder|glob|list").desc("Sapelli projects to parse in batch: folders, glob patterns and/or text files listing one project file per line (- for stdin); produces one line of JSON per project").build();
+		options.addOption(batch);
+		Option threads = Option.builder("threads").hasArg().argName("n").desc("Number of projects to parse concurrently in batch mode (default: number of processors)").build();
+		options.addOption(threads);
 	}
+	
+	static private final String GLOB_CHARS = "*?[{";
+	
+	static private final JsonNodeFactory factory = new JsonNodeFactory(false);
+	
+	/**
+	 * Shared between all calls (and threads), ObjectMappers are thread-safe once configured and expensive to create.
+	 */
+	static private final ObjectMapper mapper = new ObjectMapper();
 
 	static FileStorageProvider fsp;
 	
@@ -98,6 +131,35 @@ public class SapColCmdLn
 		// ProjectStore projStore = new ProjectRecordStore(recStore, fsp);
 		// sapClient.setProjectStore(projStore); // !!!
 
+		if(cmd.hasOption("batch"))
+		{
+			int threads = Runtime.getRuntime().availableProcessors();
+			if(cmd.hasOption("threads"))
+			{
+				try
+				{
+					threads = Math.max(1, Integer.parseInt(cmd.getOptionValue("threads").trim()));
+				}
+				catch(NumberFormatException nfe)
+				{
+					System.err.println("Invalid number of threads: " + cmd.getOptionValue("threads"));
+					System.exit(1);
+				}
+			}
+			
+			int failures = 0;
+			try
+			{
+				failures = runBatch(getBatchFiles(cmd.getOptionValues("batch"), workingDir), threads, cmd.hasOption("geokey"));
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace(System.err);
+				System.exit(2);
+			}
+			System.exit(failures == 0 ? 0 : 2);
+		}
+		
 		if(cmd.hasOption("load"))
 		{
 			File sapFile = new File(cmd.getOptionValue("load"));
@@ -152,15 +214,12 @@ public class SapColCmdLn
 
 	static public void printProjectInfoJSON(File sapFile, Project project) throws IOException
 	{
-		// Create the node factory that gives us nodes.
-		JsonNodeFactory factory = new JsonNodeFactory(false);
-
-		// create a json factory to write the treenode as json. for the example
-		// we just write to console
-		JsonFactory jsonFactory = new JsonFactory();
-		JsonGenerator generator = jsonFactory.createGenerator(System.out);
-		ObjectMapper mapper = new ObjectMapper();
-
+		JsonGenerator generator = mapper.getFactory().createGenerator(System.out);
+		mapper.writeTree(generator, getProjectInfoJSON(sapFile, project));
+	}
+	
+	static public ObjectNode getProjectInfoJSON(File sapFile, Project project) throws IOException
+	{
 		// the root node
 		ObjectNode projectJSON = factory.objectNode();
 		
@@ -184,10 +243,8 @@ public class SapColCmdLn
 			formsJSON.add(formJSON);
 		}
 		projectJSON.set("forms", formsJSON);
-		
-		// Serialise:
-		mapper.writeTree(generator, projectJSON);
-	}	
+		return projectJSON;
+	}
 
 	/**
 	 * @param sapFile
@@ -197,17 +254,20 @@ public class SapColCmdLn
 	 */
 	static public void printProjectInfoForGeoKey(File sapFile, Project project) throws IOException
 	{
-		GeoKeyFormDescriber gkFormDescriber = new GeoKeyFormDescriber();
-		
-		// Create the node factory that gives us nodes.
-		JsonNodeFactory factory = new JsonNodeFactory(false);
-
-		// create a json factory to write the treenode as json. for the example
-		// we just write to console
-		JsonFactory jsonFactory = new JsonFactory();
-		JsonGenerator generator = jsonFactory.createGenerator(System.out);
-		ObjectMapper mapper = new ObjectMapper();
-
+		JsonGenerator generator = mapper.getFactory().createGenerator(System.out);
+		mapper.writeTree(generator, getProjectInfoForGeoKey(sapFile, project, new GeoKeyFormDescriber()));
+	}
+	
+	/**
+	 * @param sapFile
+	 * @param project
+	 * @param gkFormDescriber not thread-safe, so each thread must use its own instance
+	 * @return
+	 * @throws IOException
+	 * @see https://github.com/ExCiteS/geokey-sapelli
+	 */
+	static public ObjectNode getProjectInfoForGeoKey(File sapFile, Project project, GeoKeyFormDescriber gkFormDescriber) throws IOException
+	{
 		// the root node
 		ObjectNode projectJSON = factory.objectNode();
 		
@@ -228,9 +288,205 @@ public class SapColCmdLn
 				formsJSON.add(formNode);
 		}
 		projectJSON.set("forms", formsJSON);
+		return projectJSON;
+	}
+	
+	/**
+	 * Resolves the arguments of the -batch option to a list of Sapelli files. Each argument can be:
+	 * <ul>
+	 * <li>a folder, which is searched (recursively) for files with a Sapelli file extension;</li>
+	 * <li>a glob pattern (e.g. {@code projects/**}{@code /*.sap});</li>
+	 * <li>a Sapelli file;</li>
+	 * <li>any other (text) file, or {@code -} for stdin, listing one Sapelli file path per line.</li>
+	 * </ul>
+	 * Paths which do not exist are kept, so they are reported as failures instead of being silently ignored.
+	 * 
+	 * @param inputs
+	 * @param workingDir
+	 * @return
+	 * @throws IOException
+	 */
+	static public List<File> getBatchFiles(String[] inputs, File workingDir) throws IOException
+	{
+		List<File> sapFiles = new ArrayList<File>();
+		for(String input : inputs)
+		{
+			if("-".equals(input))
+			{
+				readFileList(System.in, workingDir, sapFiles);
+				continue;
+			}
+			File file = resolve(input, workingDir);
+			if(file.isDirectory())
+				addSapelliFiles(file, null, sapFiles);
+			else if(file.isFile())
+			{
+				if(ProjectLoader.HasSapelliFileExtension(file))
+					sapFiles.add(file);
+				else
+				{
+					InputStream in = new FileInputStream(file);
+					try
+					{
+						readFileList(in, file.getParentFile(), sapFiles);
+					}
+					finally
+					{
+						StreamHelpers.SilentClose(in);
+					}
+				}
+			}
+			else if(isGlob(input))
+			{
+				// Search from the deepest folder which is not part of the pattern:
+				File folder = file;
+				while(folder != null && isGlob(folder.getPath()))
+					folder = folder.getParentFile();
+				if(folder != null && folder.isDirectory())
+					addSapelliFiles(folder, FileSystems.getDefault().getPathMatcher("glob:" + file.getPath()), sapFiles);
+			}
+			else
+				sapFiles.add(file); // doesn't exist
+		}
+		return sapFiles;
+	}
+	
+	static private File resolve(String path, File workingDir)
+	{
+		File file = new File(path.trim());
+		return file.isAbsolute() ? file : new File(workingDir, path.trim());
+	}
+	
+	static private boolean isGlob(String path)
+	{
+		for(char c : GLOB_CHARS.toCharArray())
+			if(path.indexOf(c) != -1)
+				return true;
+		return false;
+	}
+	
+	static private void readFileList(InputStream in, File baseFolder, List<File> sapFiles) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		String line;
+		while((line = reader.readLine()) != null)
+			if(!line.trim().isEmpty())
+				sapFiles.add(resolve(line, baseFolder));
+	}
+	
+	/**
+	 * @param folder
+	 * @param matcher (may be null) if not null only files matched by it are added, otherwise only files with a Sapelli file extension
+	 * @param sapFiles
+	 */
+	static private void addSapelliFiles(File folder, PathMatcher matcher, List<File> sapFiles)
+	{
+		File[] children = folder.listFiles();
+		if(children == null)
+			return;
+		Arrays.sort(children); // for a predictable order
+		for(File child : children)
+		{
+			if(child.isDirectory())
+				addSapelliFiles(child, matcher, sapFiles);
+			else if(matcher != null ? matcher.matches(child.toPath()) : ProjectLoader.HasSapelliFileExtension(child))
+				sapFiles.add(child);
+		}
+	}
+	
+	/**
+	 * Parses the given Sapelli files concurrently, without extracting them, and writes one line of JSON to stdout for each of them as soon as it is done.
+	 * A file which cannot be parsed (for whatever reason, including errors such as {@link StackOverflowError}) does not affect the others,
+	 * it results in a line with its "source" and an "error" message.
+	 * 
+	 * @param sapFiles
+	 * @param threads
+	 * @param geokey whether to produce 'sapelli_project_info' for geokey_sapelli instead of the regular JSON output
+	 * @return the number of files which could not be parsed, or for which no result line could be written
+	 * @throws Exception
+	 */
+	static public int runBatch(List<File> sapFiles, int threads, final boolean geokey) throws Exception
+	{
+		final long startTime = System.currentTimeMillis();
+		final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+		final AtomicInteger succeeded = new AtomicInteger();
+		
+		// ProjectLoaders (with their parsers) and GeoKeyFormDescribers are not thread-safe but are reused by each thread:
+		final ThreadLocal<ProjectLoader> loaders = new ThreadLocal<ProjectLoader>()
+		{
+			@Override
+			protected ProjectLoader initialValue()
+			{
+				return new ProjectLoader(fsp);
+			}
+		};
+		final ThreadLocal<GeoKeyFormDescriber> gkFormDescribers = new ThreadLocal<GeoKeyFormDescriber>()
+		{
+			@Override
+			protected GeoKeyFormDescriber initialValue()
+			{
+				return new GeoKeyFormDescriber();
+			}
+		};
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for(final File sapFile : sapFiles)
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ObjectNode resultJSON;
+					boolean success = false;
+					try
+					{
+						ProjectLoader loader = loaders.get();
+						Project project = loader.loadParseOnly(sapFile);
+						if(geokey)
+						{
+							resultJSON = getProjectInfoForGeoKey(sapFile, project, gkFormDescribers.get());
+							resultJSON.put("source", sapFile.getAbsolutePath());
+						}
+						else
+							resultJSON = getProjectInfoJSON(sapFile, project);
+						if(!loader.getWarnings().isEmpty())
+						{
+							ArrayNode warningsJSON = resultJSON.putArray("warnings");
+							for(String warning : loader.getWarnings())
+								warningsJSON.add(warning);
+						}
+						success = true;
+					}
+					catch(Throwable t)
+					{	// (also errors, so that a single malformed project cannot take down its task without a trace)
+						resultJSON = factory.objectNode();
+						resultJSON.put("source", sapFile.getAbsolutePath());
+						resultJSON.put("error", ExceptionHelpers.getMessageAndCause(t));
+					}
+					try
+					{
+						String line = mapper.writeValueAsString(resultJSON);
+						synchronized(out)
+						{
+							out.write(line);
+							out.write('\n');
+							out.flush();
+						}
+						if(success)
+							succeeded.incrementAndGet();
+					}
+					catch(Throwable t)
+					{	// counts as a failure
+						t.printStackTrace(System.err);
+					}
+				}
+			});
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 		
-		// Serialise:
-		mapper.writeTree(generator, projectJSON);
+		int failures = sapFiles.size() - succeeded.get(); // (files of which the task did not complete count as failures too)
+		System.err.println("Parsed " + sapFiles.size() + " project(s), " + failures + " failure(s), in " + (System.currentTimeMillis() - startTime) + "ms.");
+		return failures;
 	}
 	
-}
\ No newline at end of file
+}
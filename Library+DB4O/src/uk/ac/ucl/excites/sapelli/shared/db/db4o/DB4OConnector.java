@@ -47,22 +47,37 @@ public final class DB4OConnector
 	}
 	
 	static public ObjectContainer open(File db4oFile, Class<?>... cascadeClasses) throws Exception
+	{
+		return open(db4oFile, newConfiguration(cascadeClasses));
+	}
+	
+	/**
+	 * Creates a new configuration with the default settings, to which callers may add further settings (e.g. field indexes) before passing it to {@link #open(File, EmbeddedConfiguration)}.
+	 * 
+	 * @param cascadeClasses classes for which activation, updates and deletion must cascade
+	 * @return
+	 */
+	static public EmbeddedConfiguration newConfiguration(Class<?>... cascadeClasses)
+	{
+		EmbeddedConfiguration dbConfig = Db4oEmbedded.newConfiguration();
+		//dbConfig.file().readOnly(readOnly);
+		dbConfig.common().updateDepth(UPDATE_DEPTH);
+		dbConfig.common().exceptionsOnNotStorable(true);
+		if(cascadeClasses != null)
+			for(Class<?> clazz : cascadeClasses)
+			{
+				dbConfig.common().objectClass(clazz).cascadeOnActivate(true);
+				dbConfig.common().objectClass(clazz).cascadeOnUpdate(true);
+				dbConfig.common().objectClass(clazz).cascadeOnDelete(true);
+			}
+		return dbConfig;
+	}
+	
+	static public ObjectContainer open(File db4oFile, EmbeddedConfiguration dbConfig) throws Exception
 	{
 		ObjectContainer objCont = null;
 		try
 		{
-			// Configure the db:
-			EmbeddedConfiguration dbConfig = Db4oEmbedded.newConfiguration();
-			//dbConfig.file().readOnly(readOnly);
-			dbConfig.common().updateDepth(UPDATE_DEPTH);
-			dbConfig.common().exceptionsOnNotStorable(true);
-			if(cascadeClasses != null)
-				for(Class<?> clazz : cascadeClasses)
-				{
-					dbConfig.common().objectClass(clazz).cascadeOnActivate(true);
-					dbConfig.common().objectClass(clazz).cascadeOnUpdate(true);
-					dbConfig.common().objectClass(clazz).cascadeOnDelete(true);
-				}
 			// Open the db:
 			objCont = Db4oEmbedded.openFile(dbConfig, db4oFile.getAbsolutePath()); // (throws various exceptions)
 		}
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
 import uk.ac.ucl.excites.sapelli.shared.db.db4o.DB4OConnector;
@@ -42,14 +43,19 @@ import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKey;
 import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
 import uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.AndConstraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.CompiledConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.constraints.Constraint;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.EqualityConstraint;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
 import uk.ac.ucl.excites.sapelli.storage.queries.sources.SourceBySchemata;
 
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
 import com.db4o.ext.ExtObjectContainer;
 import com.db4o.query.Predicate;
+import com.db4o.query.Query;
 
 /**
  * DB4O implementation of {@link RecordStore}.
@@ -58,6 +64,11 @@ import com.db4o.query.Predicate;
  * We have painstakingly tried to work around the most concerning of those, but nevertheless
  * it is essential that we move away from DB4O sooner rather than later.
  * 
+ * Because record values are held in arrays, which SODA queries cannot look into, every stored
+ * record is accompanied by a {@link RecordKey} object which holds its schema identifier and
+ * (serialised) primary key in indexed fields. Queries by schema and by primary key are answered
+ * using those indexes, so only the records which may actually match need to be activated.
+ * 
  * @author mstevens
  */
 public class DB4ORecordStore extends RecordStore
@@ -77,7 +88,14 @@ public class DB4ORecordStore extends RecordStore
 	{
 		super(client, false); // don't make use of roll-back tasks
 		this.filename = baseFilename + DATABASE_NAME_SUFFIX;
-		this.db4o = DB4OConnector.open(DB4OConnector.getFile(folder, filename), Record.class, Schema.class);
+		EmbeddedConfiguration dbConfig = DB4OConnector.newConfiguration(Record.class, Schema.class);
+		dbConfig.common().objectClass(Model.class).objectField("id").indexed(true);
+		dbConfig.common().objectClass(RecordKey.class).objectField(RecordKey.FIELD_SCHEMA_ID).indexed(true);
+		dbConfig.common().objectClass(RecordKey.class).objectField(RecordKey.FIELD_KEY).indexed(true);
+		dbConfig.common().objectClass(RecordKey.class).objectField(RecordKey.FIELD_RECORD).indexed(true);
+		dbConfig.common().objectClass(RecordKey.class).maximumActivationDepth(1); // never activate the record along with its key
+		dbConfig.common().objectClass(RecordKey.class).updateDepth(1); // storing a key must not cause the record to be updated
+		this.db4o = DB4OConnector.open(DB4OConnector.getFile(folder, filename), dbConfig);
 		
 		// Get or set the AutoIncrementDictionary:
 		ObjectSet<AutoIncrementDictionary> resultSet = db4o.query(AutoIncrementDictionary.class);
@@ -85,6 +103,24 @@ public class DB4ORecordStore extends RecordStore
 			this.autoIncrementDict = resultSet.get(0);
 		else
 			this.autoIncrementDict = new AutoIncrementDictionary();
+		
+		// Create the record keys if this is a database from before they were introduced:
+		if(db4o.query(RecordKey.class).isEmpty() && !db4o.query(Record.class).isEmpty())
+		{
+			for(Record record : retrieveAllDeletableRecords())
+			{
+				db4o.activate(record, ACTIVATION_DEPTH);
+				try
+				{
+					db4o.store(new RecordKey(record));
+				}
+				catch(Exception e)
+				{
+					client.logError("Could not create key for record: " + ExceptionHelpers.getMessageAndCause(e));
+				}
+			}
+			db4o.commit();
+		}
 	}
 	
 	/**
@@ -211,7 +247,10 @@ public class DB4ORecordStore extends RecordStore
 			// Insert, or update (i.e. replace; when allowed) the record:
 			boolean insert = previouslyStored == null;
 			if(insert || updateAllowed)
+			{
 				db4o.store(record);
+				storeKey(record);
+			}
 			return insert;
 		}
 		catch(Exception e)
@@ -249,51 +288,99 @@ public class DB4ORecordStore extends RecordStore
 	public List<Record> retrieveRecords(final RecordsQuery query)
 	{
 		final Source source = query.getSource();
+		final Constraint constraints = query.getConstraints();
 		
-		// Query for records:
-		ObjectSet<Record> resultSet = db4o.query(new Predicate<Record>()
-		{
-			private static final long serialVersionUID = 1L;
-
-			public boolean match(Record record)
+		// Query for (not yet activated) candidate records:
+		Iterable<Record> candidates;
+		Set<Schema> schemata = getIndexableSchemata(source);
+		if(schemata != null)
+		{	// Use the RecordKey indexes:
+			List<Record> records = new ArrayList<Record>();
+			for(Schema schema : schemata)
+				for(RecordKey key : queryKeys(schema, constraints))
+					records.add(key.record);
+			candidates = records;
+		}
+		else
+			candidates = db4o.query(new Predicate<Record>()
 			{
-				return	// Schema check, but without full comparison, because that is expensive AND requires the record(/schema) object to be activated to a deeper level than it is at this stage:
-						source instanceof SourceBySchemata ?
-							((SourceBySchemata) source).isValid(record, false) :
-							source.isValid(record);
-			}
-		});
+				private static final long serialVersionUID = 1L;
+	
+				public boolean match(Record record)
+				{
+					return	// Schema check, but without full comparison, because that is expensive AND requires the record(/schema) object to be activated to a deeper level than it is at this stage:
+							source instanceof SourceBySchemata ?
+								((SourceBySchemata) source).isValid(record, false) :
+								source.isValid(record);
+				}
+			});
 		
-		// Check for empty result:
-		if(!resultSet.hasNext())
-			return Collections.<Record> emptyList();
+		// Without constraints or ordering the limit can be applied before any surplus records are activated:
+		int limit = query.getLimit();
+		boolean earlyLimit = limit != RecordsQuery.NO_LIMIT && constraints == null && !query.getOrder().isDefined();
 		
-		// Activate result records, filter by query constraints & add to new ArrayList (list returned by DB4O doesn't allow sorting and possibly other things):
+		// Activate candidate records, filter by query constraints & add to new ArrayList (list returned by DB4O doesn't allow sorting and possibly other things):
+		CompiledConstraint filter = CompiledConstraint.Compile(new AndConstraint(source, constraints)); // source is only checked once per schema
 		List<Record> result = new ArrayList<Record>();
-		Constraint constraints = query.getConstraints();
-		while(resultSet.hasNext())
+		for(Record r : candidates)
 		{
-			Record r = resultSet.next();
 			db4o.activate(r, ACTIVATION_DEPTH);
 			// Filter again: by schema (this time using full comparison), and by contraint(s) (which doesn't work inside the Predicate's match() method, probably due to insufficiently deep activation)  
-			if(source.isValid(r) && (constraints == null || constraints.isValid(r))) 
+			if(filter.isValid(r))
+			{
 				result.add(r);
+				if(earlyLimit && result.size() == limit)
+					break;
+			}
 		}
 		
+		// Check for empty result:
+		if(result.isEmpty())
+			return Collections.<Record> emptyList();
+		
 		// Sort result:
 		query.getOrder().sort(result);
 		
 		// Apply limit if necessary & return result:
-		int limit = query.getLimit();
 		if(limit != RecordsQuery.NO_LIMIT && result.size() > limit)
 			return result.subList(0, limit);
 		else
 			return result;
 	}
 	
+	/**
+	 * When there are no constraints to check and no ordering to apply the references are
+	 * created from the (serialised) primary keys held by the {@link RecordKey}s, meaning no
+	 * record needs to be activated at all.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecordReferences(uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery)
+	 */
 	@Override
 	public List<RecordReference> retrieveRecordReferences(RecordsQuery query)
 	{
+		Set<Schema> schemata = getIndexableSchemata(query.getSource());
+		if(schemata != null && query.getConstraints() == null && !query.getOrder().isDefined())
+		{
+			int limit = query.getLimit();
+			List<RecordReference> result = new ArrayList<RecordReference>();
+			for(Schema schema : schemata)
+				for(RecordKey key : queryKeys(schema, null))
+				{
+					if(limit != RecordsQuery.NO_LIMIT && result.size() == limit)
+						return result;
+					try
+					{
+						result.add(schema.createRecordReference(key.primaryKey));
+					}
+					catch(Exception e)
+					{	// fall back to activating the record:
+						db4o.activate(key.record, ACTIVATION_DEPTH);
+						result.add(key.record.getReference());
+					}
+				}
+			return result;
+		}
+		
 		List<Record> records = retrieveRecords(query);
 		if(records == null)
 			return null;
@@ -302,7 +389,110 @@ public class DB4ORecordStore extends RecordStore
 			result.add(record.getReference());
 		return result;
 	}
-
+	
+	/**
+	 * @param source
+	 * @return the schemata the source includes, or {@code null} if the source cannot be resolved to a set of schemata (in which case the RecordKey indexes cannot be used)
+	 */
+	private Set<Schema> getIndexableSchemata(Source source)
+	{
+		if(source instanceof SourceBySchemata && ((SourceBySchemata) source).isByInclusion())
+			return ((SourceBySchemata) source).getSchemata();
+		else
+			return null;
+	}
+	
+	/**
+	 * Queries the RecordKey indexes for the keys of records of the given schema. If the given constraints pin down
+	 * all primary key columns only the matching key is looked up, otherwise all keys of the schema are returned.
+	 * Either way the result may contain records which do not match the constraints, so they must still be checked.
+	 * 
+	 * @param schema
+	 * @param constraints may be null
+	 * @return list of RecordKeys, whose records have not been activated
+	 */
+	private List<RecordKey> queryKeys(Schema schema, Constraint constraints)
+	{
+		Query soda = db4o.query();
+		soda.constrain(RecordKey.class);
+		String key = getLookupKey(schema, constraints);
+		if(key != null)
+			soda.descend(RecordKey.FIELD_KEY).constrain(key);
+		else
+			soda.descend(RecordKey.FIELD_SCHEMA_ID).constrain(RecordKey.GetSchemaID(schema));
+		return soda.<RecordKey> execute();
+	}
+	
+	/**
+	 * @param schema
+	 * @param constraints may be null
+	 * @return the RecordKey key of the record identified by the given constraints, or {@code null} if they do not include an equality constraint for each of the schema's primary key columns
+	 */
+	private String getLookupKey(Schema schema, Constraint constraints)
+	{
+		if(constraints == null)
+			return null;
+		List<Constraint> subConstraints = constraints instanceof AndConstraint ? ((AndConstraint) constraints).getSubConstraints() : Collections.singletonList(constraints);
+		List<Column<?>> keyColumns = schema.getPrimaryKey().getColumns(false);
+		Object[] keyPartValues = new Object[keyColumns.size()];
+		int found = 0;
+		for(Constraint constraint : subConstraints)
+			if(constraint instanceof EqualityConstraint)
+			{
+				EqualityConstraint equality = (EqualityConstraint) constraint;
+				if(!equality.isEqual() || equality.isValueNull() || equality.getColumnPointer().isSubColumn())
+					continue;
+				int k = keyColumns.indexOf(equality.getColumnPointer().getColumn());
+				if(k != -1 && keyPartValues[k] == null)
+				{
+					keyPartValues[k] = equality.getValue();
+					found++;
+				}
+			}
+		if(found < keyPartValues.length)
+			return null;
+		try
+		{
+			return RecordKey.GetKey(schema, schema.createRecordReference(keyPartValues).serialise());
+		}
+		catch(Exception e)
+		{
+			return null; // the index won't be used
+		}
+	}
+	
+	/**
+	 * Creates or updates the RecordKey of the given (stored) record.
+	 * 
+	 * @param record
+	 */
+	private void storeKey(Record record)
+	{
+		List<RecordKey> keys = queryKeys(record);
+		RecordKey key;
+		if(keys.isEmpty())
+			key = new RecordKey(record);
+		else
+		{
+			key = keys.get(0);
+			if(!key.update(record))
+				return; // key did not change
+		}
+		db4o.store(key);
+	}
+	
+	/**
+	 * @param record
+	 * @return the RecordKey(s) of the given (stored) record
+	 */
+	private List<RecordKey> queryKeys(Record record)
+	{
+		Query soda = db4o.query();
+		soda.constrain(RecordKey.class);
+		soda.descend(RecordKey.FIELD_RECORD).constrain(record).identity();
+		return soda.<RecordKey> execute();
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retrieveRecord(uk.ac.ucl.excites.sapelli.storage.queries.SingleRecordQuery)
 	 */
@@ -330,16 +520,11 @@ public class DB4ORecordStore extends RecordStore
 	@Override
 	public Model retrieveModel(final long modelID)
 	{
-		// Query for models:
-		ObjectSet<Model> resultSet = db4o.query(new Predicate<Model>()
-		{
-			private static final long serialVersionUID = 2L;
-
-			public boolean match(Model model)
-			{
-				return model.id == modelID;
-			}
-		});
+		// Query for models (using the index on the id field):
+		Query soda = db4o.query();
+		soda.constrain(Model.class);
+		soda.descend("id").constrain(modelID);
+		ObjectSet<Model> resultSet = soda.execute();
 		
 		// Check for empty result:
 		if(!resultSet.hasNext())
@@ -361,6 +546,8 @@ public class DB4ORecordStore extends RecordStore
 		{
 			if(db4o.ext().isStored(record))
 			{
+				for(RecordKey key : queryKeys(record))
+					db4o.delete(key);
 				db4o.delete(record);
 				return true;
 			}
@@ -419,6 +606,64 @@ public class DB4ORecordStore extends RecordStore
 		return false;
 	}
 	
+	/**
+	 * Helper class which is stored alongside each record to make it findable by schema and primary key using DB4O field indexes.
+	 * 
+	 * @author mstevens
+	 */
+	static private class RecordKey
+	{
+		
+		static public final String FIELD_SCHEMA_ID = "schemaID";
+		static public final String FIELD_KEY = "key";
+		static public final String FIELD_RECORD = "record";
+		
+		static private final Schema.Comparator SCHEMA_COMPARATOR = new Schema.Comparator();
+		
+		/**
+		 * @param schema
+		 * @return a number which uniquely identifies the schema, combining model ID and model schema number
+		 * 
+		 * @see Schema.Comparator#getSortCode(Schema)
+		 */
+		static public long GetSchemaID(Schema schema)
+		{
+			return SCHEMA_COMPARATOR.getSortCode(schema);
+		}
+		
+		static public String GetKey(Schema schema, String serialisedPrimaryKey)
+		{
+			return GetSchemaID(schema) + ":" + serialisedPrimaryKey; // (the schema ID cannot contain a colon, so this is unambiguous)
+		}
+		
+		private long schemaID;
+		private String key;
+		private String primaryKey;
+		private final Record record;
+		
+		public RecordKey(Record record)
+		{
+			this.record = record;
+			update(record);
+		}
+		
+		/**
+		 * @param record
+		 * @return whether or not the key has changed
+		 */
+		public boolean update(Record record)
+		{
+			String primaryKey = record.getReference().serialise();
+			if(primaryKey.equals(this.primaryKey))
+				return false;
+			this.schemaID = GetSchemaID(record.getSchema());
+			this.primaryKey = primaryKey;
+			this.key = GetKey(record.getSchema(), primaryKey);
+			return true;
+		}
+		
+	}
+	
 	/**
 	 * Helper class which does the book keeping for auto-incrementing primary keys
 	 * 
@@ -25,6 +25,7 @@ import com.almworks.sqlite4java.SQLiteBackup;
 import com.almworks.sqlite4java.SQLiteConnection;
 import com.almworks.sqlite4java.SQLiteException;
 
+import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient;
@@ -206,22 +207,32 @@ public class JavaSQLiteRecordStore extends SQLiteRecordStore
 	}
 	
 	/**
-	 * Performs a back-up of the database using the SQLite Online Backup API
+	 * Performs a back-up of the database using the SQLite Online Backup API.
+	 * 
+	 * The number of pages copied per step adapts to the time each step takes (see {@link StoreBackupper#getNextStepSize(int, long)}),
+	 * and between steps progress is reported, cancellation is checked and (optionally) a pause is held to let writers proceed.
 	 * 
 	 * @see com.almworks.sqlite4java.SQLiteBackup
 	 * @see <a href="http://www.sqlite.org/c3ref/backup_finish.html#sqlite3backupinit">SQLite Online Backup API</a>
 	 * @see <a href="http://www.sqlite.org/backup.html">Using the SQLite Online Backup API</a>
-	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#doBackup(java.io.File)
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.SQLiteRecordStore#doBackup(java.io.File, uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper)
 	 */
 	@Override
-	protected void doBackup(File destinationFile) throws Exception
+	protected void doBackup(File destinationFile, StoreBackupper backupper) throws Exception
 	{
 		SQLiteBackup backup = null;
 		try
 		{
 			backup = db.initializeBackup(destinationFile);
+			int stepSize = backupper.getStepSize();
 			while(!backup.isFinished())
-				backup.backupStep(32);
+			{
+				long stepStart = System.currentTimeMillis();
+				backup.backupStep(stepSize);
+				stepSize = backupper.getNextStepSize(stepSize, System.currentTimeMillis() - stepStart);
+				int total = backup.getPageCount();
+				backupper.stepCompleted(this, total - backup.getRemaining(), total);
+			}
 		}
 		finally
 		{
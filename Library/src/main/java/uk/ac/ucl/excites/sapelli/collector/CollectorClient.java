@@ -23,7 +23,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import uk.ac.ucl.excites.sapelli.collector.db.CollectorSQLRecordStoreUpgrader;
 import uk.ac.ucl.excites.sapelli.collector.db.ProjectRecordStore;
@@ -43,6 +45,7 @@ import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreOperationWithReturnN
 import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreSetter;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+import uk.ac.ucl.excites.sapelli.shared.util.CollectionUtils;
 import uk.ac.ucl.excites.sapelli.storage.db.sql.upgrades.Beta17UpgradeStep;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
@@ -340,6 +343,31 @@ public abstract class CollectorClient extends TransmissionClient
 		//else:
 		return Collections.<CollectorAttachment<?>> emptyList();
 	}
+	
+	/**
+	 * Overridden to look up the attachments of all records together, listing each project's attachment folder only once.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.StorageClient#getRecordAttachments(java.util.List)
+	 */
+	@Override
+	public Map<Record, ? extends List<? extends CollectorAttachment<?>>> getRecordAttachments(List<Record> records)
+	{
+		FileStorageProvider fsp = getFileStorageProvider();
+		if(fsp == null || records.isEmpty())
+			return Collections.<Record, List<CollectorAttachment<?>>> emptyMap();
+		// Find the projects:
+		Map<Model, Project> projectsByModel = new HashMap<Model, Project>();
+		for(Record record : records)
+		{
+			Model model = record.getSchema().model;
+			if(!projectsByModel.containsKey(model))
+				projectsByModel.put(model, getProject(model)); // may put null
+		}
+		List<Project> projects = new ArrayList<Project>(projectsByModel.size());
+		for(Project project : projectsByModel.values())
+			CollectionUtils.addIgnoreNull(projects, project);
+		return CollectorAttachmentUtils.getMediaFiles(projects, records, fsp, false);
+	}
 
 	@Override
 	public Payload createCustomPayload(int nonBuiltinType)
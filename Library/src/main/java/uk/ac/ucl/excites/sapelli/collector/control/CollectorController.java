@@ -1091,7 +1091,7 @@ public abstract class CollectorController<CUI extends CollectorUI<?, ?>> impleme
 	
 	protected Logger createLogger() throws FileStorageException, IOException
 	{
-		return new Logger(fileStorageProvider.getProjectLogsFolder(project, true).getAbsolutePath(), LOG_PREFIX, true);
+		return new Logger(fileStorageProvider.getProjectLogsFolder(project, true).getAbsolutePath(), LOG_PREFIX, true, true, Logger.DEFAULT_ASYNC_BUFFER_CAPACITY, Logger.OverflowPolicy.BLOCK);
 	}
 	
 }
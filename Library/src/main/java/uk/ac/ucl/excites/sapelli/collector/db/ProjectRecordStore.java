@@ -30,6 +30,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
 
@@ -174,6 +178,11 @@ public class ProjectRecordStore extends ProjectStore implements FormSchemaInfoPr
 	{
 		COLLECTOR_MANAGEMENT_MODEL.seal();
 	}
+	
+	/**
+	 * Maximum number of projects which are parsed concurrently when several need to be loaded at once.
+	 */
+	static private final int MAX_PARALLEL_PROJECT_PARSES = 4;
 			
 	// DYNAMICS--------------------------------------------
 	private final CollectorClient client;
@@ -233,6 +242,20 @@ public class ProjectRecordStore extends ProjectStore implements FormSchemaInfoPr
 		return rsWrapper.recordStore.retrieveRecord(getFSIRecordReference(form));
 	}
 	
+	/**
+	 * Retrieves the FSI records of the given project(s) in a single query: when there is only one project
+	 * only its own records are queried, otherwise the whole FSI table is read.
+	 * 
+	 * @param projDescrs
+	 * @return a {@link FormSchemaInfoProvider} holding the retrieved information
+	 */
+	private FormSchemaInfoProvider retrieveFSIProvider(List<ProjectDescriptor> projDescrs)
+	{
+		return new LoadedFSIProvider(projDescrs.size() == 1 ?
+			rsWrapper.recordStore.retrieveRecords(new RecordsQuery(FSI_SCHEMA, getProjectRecordReference(projDescrs.get(0)).getRecordQueryConstraint())) :
+			rsWrapper.recordStore.retrieveRecords(FSI_SCHEMA));
+	}
+	
 	public List<String> getByPassableFieldIDs(Record fsiRec)
 	{
 		if(fsiRec == null)
@@ -291,30 +314,107 @@ public class ProjectRecordStore extends ProjectStore implements FormSchemaInfoPr
 	{
 		if(projDescr == null)
 			return null;
+		List<Project> projects = loadProjects(Collections.singletonList(projDescr));
+		return projects.isEmpty() ? null : projects.get(0);
+	}
+	
+	/**
+	 * Loads the projects described by the given descriptors, taking them from the cache where possible.
+	 * The others are parsed (in parallel if there are several), using FSI records obtained with a single query.
+	 * Projects which cannot be parsed are deleted from the store and left out of the returned list.
+	 * 
+	 * @param projDescrs may contain {@code null}s and full {@link Project}s
+	 * @return list of loaded projects, in the same order as the given descriptors
+	 */
+	private List<Project> loadProjects(List<ProjectDescriptor> projDescrs)
+	{
+		// Find the projects which are not cached:
+		List<ProjectDescriptor> toParse = new ArrayList<ProjectDescriptor>();
+		for(ProjectDescriptor projDescr : projDescrs)
+			if(projDescr != null && !(projDescr instanceof Project) && !cache.containsKey(getCacheKey(projDescr)))
+				toParse.add(projDescr);
 		
-		// If the ProjectDescriptor is a full Project:
-		if(projDescr instanceof Project)
-			return (Project) projDescr;
-		
-		// Load project...
-		Project project = null;
+		// Parse them:
+		if(!toParse.isEmpty())
+		{
+			Project[] parsed = parseProjects(toParse);
+			for(int p = 0; p < parsed.length; p++)
+			{
+				// Check if we have a project:
+				if(parsed[p] == null)
+					// If not, delete the project:
+					delete(toParse.get(p));
+				else
+					// Add to cache:
+					cacheProject(parsed[p]);
+			}
+		}
 		
-		// First check the cache:
-		project = cache.get(getCacheKey(projDescr));
+		// Gather the projects:
+		List<Project> projects = new ArrayList<Project>(projDescrs.size());
+		for(ProjectDescriptor projDescr : projDescrs)
+			if(projDescr != null)
+				CollectionUtils.addIgnoreNull(projects, projDescr instanceof Project ? (Project) projDescr : cache.get(getCacheKey(projDescr)));
+		return projects;
+	}
+	
+	/**
+	 * Parses the projects described by the given descriptors. When there are several they are parsed concurrently,
+	 * on at most {@value #MAX_PARALLEL_PROJECT_PARSES} threads. Should a parallel parse fail to complete the project
+	 * is parsed on the calling thread instead.
+	 * 
+	 * @param projDescrs
+	 * @return array with the parsed projects (or {@code null} for those that could not be parsed), in the same order as the given descriptors
+	 */
+	private Project[] parseProjects(List<ProjectDescriptor> projDescrs)
+	{
+		final FormSchemaInfoProvider fsiProvider = retrieveFSIProvider(projDescrs);
+		final int count = projDescrs.size();
+		final File[] folders = new File[count];
+		for(int p = 0; p < count; p++)
+			folders[p] = getProjectFolder(projDescrs.get(p));
+		Project[] projects = new Project[count];
 		
-		// Parse project if we didn't get it from the cache: 
-		if(project == null)
+		int parallelism = Math.min(Math.min(count, MAX_PARALLEL_PROJECT_PARSES), Runtime.getRuntime().availableProcessors());
+		if(parallelism > 1)
 		{
-			project = ProjectLoader.ParseProjectXMLInFolder(getProjectFolder(projDescr), this); // pass this as FormSchemaInfoProvider
-			// Check if we have a project:
-			if(project == null)
-				// If not, delete the project:
-				delete(projDescr);
-			else
-				// Add to cache:
-				cacheProject((Project) project);
+			ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+			try
+			{
+				List<Future<Project>> futures = new ArrayList<Future<Project>>(count);
+				for(final File folder : folders)
+					futures.add(executor.submit(new Callable<Project>()
+					{
+						@Override
+						public Project call()
+						{
+							return ProjectLoader.ParseProjectXMLInFolder(folder, fsiProvider);
+						}
+					}));
+				for(int p = 0; p < count; p++)
+				{
+					try
+					{
+						projects[p] = futures.get(p).get();
+					}
+					catch(Exception e)
+					{
+						if(e instanceof InterruptedException)
+							Thread.currentThread().interrupt();
+						projects[p] = ProjectLoader.ParseProjectXMLInFolder(folders[p], fsiProvider); // don't treat the project as unparseable
+					}
+				}
+				return projects;
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
 		}
-		return project;
+		
+		for(int p = 0; p < count; p++)
+			projects[p] = ProjectLoader.ParseProjectXMLInFolder(folders[p], fsiProvider);
+		return projects;
 	}
 	
 	private void cacheProject(Project project)
@@ -331,10 +431,10 @@ public class ProjectRecordStore extends ProjectStore implements FormSchemaInfoPr
 	{
 		if(projRecs.isEmpty())
 			return Collections.<Project> emptyList();
-		List<Project> projects = new ArrayList<Project>(projRecs.size());
+		List<ProjectDescriptor> projDescrs = new ArrayList<ProjectDescriptor>(projRecs.size());
 		for(Record projRec : projRecs)
-			CollectionUtils.addIgnoreNull(projects, loadProject(getProjectOrDescriptor(projRec)));
-		return projects;
+			projDescrs.add(getProjectOrDescriptor(projRec));
+		return loadProjects(projDescrs);
 	}
 	
 	/**
@@ -795,24 +895,53 @@ public class ProjectRecordStore extends ProjectStore implements FormSchemaInfoPr
 		
 		// Retrieve FSI records:
 		List<byte[]> fsiRecordBytesList = PROJECT_SERIALISIATION_FSI_RECORDS_COLUMN.retrieveValue(serialisedProjectVS);
-		final List<Record> fsiRecords = new ArrayList<Record>(fsiRecordBytesList.size());
+		List<Record> fsiRecords = new ArrayList<Record>(fsiRecordBytesList.size());
 		for(byte[] fsiRecordBytes : fsiRecordBytesList)
 			fsiRecords.add(FSI_SCHEMA.createRecord(fsiRecordBytes, true));
 	
 		// Retrieve & parse Project XML:
 		return ProjectLoader.ParseProjectXML(
 			new ByteArrayInputStream(PROJECT_SERIALISIATION_XML_COLUMN.retrieveValue(serialisedProjectVS)),
-			new FormSchemaInfoProvider()
+			new LoadedFSIProvider(fsiRecords));
+	}
+	
+	/**
+	 * {@link FormSchemaInfoProvider} which answers from a set of previously retrieved FSI records, rather than
+	 * querying the store for each {@link Form}. Immutable after construction, and thus safe to share between threads.
+	 * 
+	 * @author mstevens
+	 */
+	static private class LoadedFSIProvider implements FormSchemaInfoProvider
+	{
+		
+		static private long GetKey(long projectID, long projectFingerPrint, int formPosition)
+		{
+			return ((((projectFingerPrint & 0xffffffffl) << Project.PROJECT_ID_SIZE) + projectID) * Project.MAX_FORMS) + formPosition;
+		}
+		
+		private final Map<Long, List<String>> byPassableFieldIDs;
+		
+		/**
+		 * @param fsiRecords
+		 */
+		public LoadedFSIProvider(List<Record> fsiRecords)
+		{
+			byPassableFieldIDs = new HashMap<Long, List<String>>(fsiRecords.size() * 2);
+			for(Record fsiRec : fsiRecords)
 			{
-				@Override
-				public List<String> getByPassableFieldIDs(Form form)
-				{
-					for(Record fsiRecord : fsiRecords)
-						if(FSI_FORM_POSITION_COLUMN.retrieveValue(fsiRecord).shortValue() == form.getPosition())
-							return ProjectRecordStore.this.getByPassableFieldIDs(fsiRecord);
-					return null;
-				}
-			});
+				RecordReference projRef = FSI_PROJECT_KEY_COLUMN.retrieveValue(fsiRec);
+				byPassableFieldIDs.put(
+					GetKey(PROJECT_ID_COLUMN.retrieveValue(projRef), PROJECT_FINGERPRINT_COLUMN.retrieveValue(projRef), FSI_FORM_POSITION_COLUMN.retrieveValue(fsiRec).intValue()),
+					FSI_BYPASSABLE_FIELD_IDS_COLUMN.retrieveValue(fsiRec));
+			}
+		}
+		
+		@Override
+		public List<String> getByPassableFieldIDs(Form form)
+		{
+			return byPassableFieldIDs.get(GetKey(form.project.getID(), form.project.getFingerPrint(), form.getPosition()));
+		}
+		
 	}
 	
 }
@@ -0,0 +1,125 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.collector.io;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.collector.model.ProjectDescriptor;
+import uk.ac.ucl.excites.sapelli.shared.io.FileStorageException;
+
+/**
+ * Snapshot of the files in a project's attachment folder, obtained with a single directory listing.
+ *
+ * Attachment file names are fully determined by the record, field and creation time offset (see
+ * {@link uk.ac.ucl.excites.sapelli.collector.model.fields.MediaField#generateFilename(uk.ac.ucl.excites.sapelli.storage.model.Record, long)}),
+ * so once the index is built finding out whether an attachment exists is a memory lookup instead of a file system query.
+ * Meant to be used for batches of records (e.g. exports, uploads); the index does not reflect changes made to the folder after it was built.
+ *
+ * @author mstevens
+ */
+public class AttachmentIndex
+{
+
+	// STATICS-------------------------------------------------------
+	/**
+	 * Builds an index of the attachment folder of the given project.
+	 *
+	 * @param fileStorageProvider
+	 * @param projDescr
+	 * @return the index (which will be empty if the folder does not exist or cannot be read)
+	 */
+	static public AttachmentIndex Build(FileStorageProvider fileStorageProvider, ProjectDescriptor projDescr)
+	{
+		try
+		{
+			return new AttachmentIndex(fileStorageProvider.getProjectAttachmentFolder(projDescr, false));
+		}
+		catch(FileStorageException fse)
+		{
+			return new AttachmentIndex(null);
+		}
+	}
+
+	// DYNAMICS------------------------------------------------------
+	private final File folder;
+	private final Set<String> fileNames;
+
+	/**
+	 * @param folder the folder to index, may be {@code null}
+	 */
+	public AttachmentIndex(File folder)
+	{
+		this.folder = folder;
+		String[] names = null;
+		try
+		{
+			if(folder != null)
+				names = folder.list(); // returns null if the folder does not exist
+		}
+		catch(SecurityException se)
+		{
+			se.printStackTrace(System.err);
+		}
+		if(names == null || names.length == 0)
+			fileNames = Collections.<String> emptySet();
+		else
+		{
+			fileNames = new HashSet<String>(names.length * 2);
+			Collections.addAll(fileNames, names);
+		}
+	}
+
+	/**
+	 * @return the indexed folder, may be {@code null}
+	 */
+	public File getFolder()
+	{
+		return folder;
+	}
+
+	/**
+	 * @param fileName
+	 * @return whether or not a file with the given name was present in the folder when the index was built
+	 */
+	public boolean contains(String fileName)
+	{
+		return fileNames.contains(fileName);
+	}
+
+	/**
+	 * @param fileName
+	 * @return a {@link File} for the given name, or {@code null} if no such file was present in the folder when the index was built
+	 */
+	public File getFile(String fileName)
+	{
+		return contains(fileName) ? new File(folder, fileName) : null;
+	}
+
+	/**
+	 * @return the number of files in the index
+	 */
+	public int size()
+	{
+		return fileNames.size();
+	}
+
+}
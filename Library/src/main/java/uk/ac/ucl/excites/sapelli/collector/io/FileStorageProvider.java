@@ -84,7 +84,12 @@ public class FileStorageProvider
 		/**
 		 * Folder for temporary files
 		 */
-		Temp
+		Temp,
+		
+		/**
+		 * Folder for cached files which can be regenerated when lost (e.g. synthesised audio, see {@link uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessScheduler})
+		 */
+		Cache
 	}
 	
 	// Subfolders of project installation folder:
@@ -174,6 +179,8 @@ public class FileStorageProvider
 				return getProjectsFolder(create);
 			case Temp:
 				return getTempFolder(create);
+			case Cache:
+				return getCacheFolder(create);
 			default:
 				return null;
 		}
@@ -275,6 +282,11 @@ public class FileStorageProvider
 		return getSubFolder(getSapelliFolder(), Folder.Temp.name(), create);
 	}
 	
+	public File getCacheFolder(boolean create) throws FileStorageException
+	{
+		return getSubFolder(getSapelliFolder(), Folder.Cache.name(), create);
+	}
+	
 	/**
 	 * Creates a folder with the given name inside of the Sapelli Temp folder
 	 * 
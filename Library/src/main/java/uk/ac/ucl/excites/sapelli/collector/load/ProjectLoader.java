@@ -19,23 +19,32 @@
 package uk.ac.ucl.excites.sapelli.collector.load;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 
 import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
 import uk.ac.ucl.excites.sapelli.collector.load.parse.ProjectParser;
+import uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessScheduler;
 import uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessTask;
 import uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessor;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
 import uk.ac.ucl.excites.sapelli.shared.io.FileStorageException;
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
 import uk.ac.ucl.excites.sapelli.shared.io.Unzipper;
 import uk.ac.ucl.excites.sapelli.shared.util.WarningKeeper;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
@@ -174,7 +183,7 @@ public class ProjectLoader implements WarningKeeper
 	// DYNAMICS ----------------------------------------------------------
 	/*package*/ final FileStorageProvider fileStorageProvider;
 	private final ProjectChecker checker;
-	private final PostProcessor postProcessor;
+	private final PostProcessScheduler postProcessScheduler;
 	private List<String> warnings;
 	
 	private final ProjectParser parser;
@@ -197,7 +206,7 @@ public class ProjectLoader implements WarningKeeper
 		if(fileStorageProvider == null)
 			throw new NullPointerException("fileStorageProvider cannot be null!");
 		this.fileStorageProvider = fileStorageProvider;
-		this.postProcessor = postProcessor;
+		this.postProcessScheduler = postProcessor != null ? new PostProcessScheduler(postProcessor, fileStorageProvider) : null;
 		this.checker = checker;
 		this.parser = new ProjectParser();
 	}
@@ -205,49 +214,41 @@ public class ProjectLoader implements WarningKeeper
 	/**
 	 * Extract the given sapelli file (provided as a File object) and parses the PROJECT.xml; returns the resulting Project object.
 	 * 
+	 * The PROJECT.xml is parsed directly from the archive, after which the files are inflated in parallel into a staging folder
+	 * next to the installation folder, which is then renamed to become the installation folder.
+	 * 
 	 * @param sapelliFile
 	 * @return the loaded Project
 	 * @throws Exception
 	 */
 	public Project load(File sapelliFile) throws Exception
 	{
-		return load(FileHelpers.openInputStream(sapelliFile, true));
-	}
-	
-	/**
-	 * Extract the given sapelli file (provided as an InputStream) and parses the PROJECT.xml; returns the resulting Project object.
-	 * 
-	 * @param sapelliFileInputStream
-	 * @return the loaded Project
-	 * @throws Exception
-	 */
-	public Project load(InputStream sapelliFileInputStream) throws Exception
-	{
+		if(sapelliFile == null || !sapelliFile.exists() || sapelliFile.length() == 0)
+			throw new IllegalArgumentException("Invalid Sapelli file");
+		
 		clearWarnings();
 		Project project = null;
 		File extractFolder = null;
+		ZipFile zipFile = null;
 		try
 		{
-			// STEP 0 - Create the extraction folder:
-			extractFolder = new File(fileStorageProvider.getTempFolder(true), "" + System.currentTimeMillis());
-			if(!FileHelpers.createDirectory(extractFolder))
-				throw new FileStorageException("Could not create folder to extract project file into.");
-			
-			// STEP 1 - Extract the content of the Sapelli file to a new subfolder of the temp folder:
+			// STEP 0 - Open the Sapelli file:
 			try
 			{
-				if(Unzipper.unzip(sapelliFileInputStream, extractFolder) == 0)
-					throw new Exception("Sapelli file is not a valid ZIP archive or does not contain any files.");
+				zipFile = new ZipFile(sapelliFile);
 			}
 			catch(IOException ioe)
 			{
-				throw new Exception("Error on extracting contents of Sapelli file.", ioe.getCause());
+				throw new Exception("Sapelli file is not a valid ZIP archive.", ioe);
 			}
 			
-			// STEP 2 - Parse PROJECT.xml:
+			// STEP 1 - Parse PROJECT.xml, directly from the archive:
 			try
-			{	
-				project = parser.parseProject(new File(extractFolder.getAbsolutePath() + File.separator + PROJECT_FILE));
+			{
+				ZipEntry projectEntry = Unzipper.getEntry(zipFile, PROJECT_FILE);
+				if(projectEntry == null)
+					throw new FileNotFoundException(PROJECT_FILE + " not found in archive.");
+				project = parser.parseProject(zipFile.getInputStream(projectEntry));
 			}
 			catch(Exception e)
 			{
@@ -256,59 +257,211 @@ public class ProjectLoader implements WarningKeeper
 			// Copy parser warnings:
 			addWarnings(parser.getWarnings());
 			
-			// STEP 3 - Check if project is acceptable:
+			// STEP 2 - Check if project is acceptable:
 			checkProject(project); // throws IllegalArgumentException if something is wrong
-
-			// STEP 4 - Create move extracted files to project folder:
+			
+			// STEP 3 - Extract the content of the Sapelli file to a staging folder next to the project folder (so it can be renamed afterwards):
+			File installFolder = fileStorageProvider.getProjectInstallationFolder(project, false);
+			extractFolder = new File(installFolder.getParentFile(), "." + installFolder.getName() + "_" + System.currentTimeMillis());
+			if(!FileHelpers.createDirectory(extractFolder))
+				throw new FileStorageException("Could not create folder to extract project file into.");
 			try
 			{
-				File installFolder = fileStorageProvider.getProjectInstallationFolder(project, true);
-				FileHelpers.moveDirectory(extractFolder, installFolder);
-				extractFolder = installFolder;
+				Unzipper.unzip(zipFile, extractFolder, Runtime.getRuntime().availableProcessors());
 			}
-			catch(Exception e)
+			catch(IOException ioe)
 			{
-				throw new Exception("Error on moving extracted files to project folder.", e);
+				throw new Exception("Error on extracting contents of Sapelli file.", ioe.getCause());
 			}
 			
+			// STEP 4 - Rename/move extracted files to project folder:
+			extractFolder = install(extractFolder, project);
+			
 			// STEP 5 - Run post-processing tasks:
-			List<PostProcessTask> tasks = parser.getPostProcessingTasks();
-			if(!tasks.isEmpty())
+			postProcess(project);
+		}
+		catch(Exception e)
+		{
+			// Delete staging or install folder:
+			FileUtils.deleteQuietly(extractFolder);
+			
+			// Re-throw Exception:
+			throw e;
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(zipFile);
+		}
+		
+		// Return project object:
+		return project;
+	}
+	
+	/**
+	 * Extract the given sapelli file (provided as an InputStream) and parses the PROJECT.xml; returns the resulting Project object.
+	 * 
+	 * The archive is read only once: PROJECT.xml is parsed while it is being extracted.
+	 * 
+	 * @param sapelliFileInputStream
+	 * @return the loaded Project
+	 * @throws Exception
+	 */
+	public Project load(InputStream sapelliFileInputStream) throws Exception
+	{
+		clearWarnings();
+		Project project = null;
+		File extractFolder = null;
+		try
+		{
+			// STEP 0 - Create the extraction folder:
+			extractFolder = new File(fileStorageProvider.getTempFolder(true), "" + System.currentTimeMillis());
+			if(!FileHelpers.createDirectory(extractFolder))
+				throw new FileStorageException("Could not create folder to extract project file into.");
+			
+			// STEP 1 - Extract the content of the Sapelli file to a new subfolder of the temp folder, parsing PROJECT.xml along the way:
+			project = extractAndParse(sapelliFileInputStream, extractFolder);
+			// Copy parser warnings:
+			addWarnings(parser.getWarnings());
+			
+			// STEP 2 - Check if project is acceptable:
+			checkProject(project); // throws IllegalArgumentException if something is wrong
+
+			// STEP 3 - Rename/move extracted files to project folder:
+			extractFolder = install(extractFolder, project);
+			
+			// STEP 4 - Run post-processing tasks:
+			postProcess(project);
+		}
+		catch(Exception e)
+		{
+			// Delete temp or install folder:
+			FileUtils.deleteQuietly(extractFolder);
+			
+			// Re-throw Exception:
+			throw e;
+		}
+		
+		// Return project object:
+		return project;
+	}
+	
+	/**
+	 * Extracts all entries of the given Sapelli file stream to the given folder, and parses the PROJECT.xml while it is being extracted.
+	 * 
+	 * @param sapelliFileInputStream
+	 * @param extractFolder
+	 * @return the parsed Project
+	 * @throws Exception
+	 */
+	private Project extractAndParse(InputStream sapelliFileInputStream, File extractFolder) throws Exception
+	{
+		Project project = null;
+		int entryCount = 0;
+		ZipInputStream zin = new ZipInputStream(sapelliFileInputStream);
+		try
+		{
+			byte[] buffer = new byte[Unzipper.BUFFER_SIZE];
+			for(ZipEntry ze = zin.getNextEntry(); ze != null; ze = zin.getNextEntry())
 			{
-				if(postProcessor != null)
-				{
-					postProcessor.initialise(project);
-					for(PostProcessTask task : tasks)
+				entryCount++;
+				File target = new File(extractFolder, ze.getName());
+				if(!FileHelpers.createDirectory(ze.isDirectory() ? target : target.getParentFile()))
+					throw new IOException("Could not create folder for: " + target.getAbsolutePath());
+				if(ze.isDirectory())
+					continue;
+				if(project == null && ze.getName().equalsIgnoreCase(PROJECT_FILE))
+				{	// Parse PROJECT.xml while writing it to the target file:
+					OutputStream fout = new FileOutputStream(target, false);
+					try
 					{
 						try
 						{
-							task.execute(postProcessor, project, this);
+							project = parser.parseProject(new TeeInputStream(new CloseShieldInputStream(zin), fout)); // the parser closes its input, the shield keeps zin open
 						}
 						catch(Exception e)
 						{
-							throw new Exception("Error on executing post-processing task", e);
+							throw new Exception("Error on parsing " + PROJECT_FILE, e);
 						}
+						// Write whatever the parser did not read:
+						for(int c = zin.read(buffer); c != -1; c = zin.read(buffer))
+							fout.write(buffer, 0, c);
+					}
+					finally
+					{
+						fout.close();
 					}
-					
-					postProcessor.freeResources();
 				}
 				else
-					addWarning("Unable to perform " + tasks.size() + " post-processing");
+					Unzipper.extractEntry(zin, target, buffer);
+				zin.closeEntry();
 			}
 		}
-		catch(Exception e)
+		catch(IOException ioe)
 		{
-			// Delete temp or install folder:
-			FileUtils.deleteQuietly(extractFolder);
-			
-			// Re-throw Exception:
-			throw e;
+			throw new Exception("Error on extracting contents of Sapelli file.", ioe);
 		}
-		
-		// Return project object:
+		finally
+		{
+			StreamHelpers.SilentClose(zin);
+		}
+		if(entryCount == 0)
+			throw new Exception("Sapelli file is not a valid ZIP archive or does not contain any files.");
+		if(project == null)
+			throw new Exception("Error on parsing " + PROJECT_FILE, new FileNotFoundException(PROJECT_FILE + " not found in archive."));
 		return project;
 	}
 	
+	/**
+	 * Moves the extracted files to the installation folder of the project.
+	 * When that folder does not exist yet (or is empty) this is a simple rename of the extraction folder.
+	 * 
+	 * @param extractFolder
+	 * @param project
+	 * @return the installation folder
+	 * @throws Exception
+	 */
+	private File install(File extractFolder, Project project) throws Exception
+	{
+		try
+		{
+			File installFolder = fileStorageProvider.getProjectInstallationFolder(project, false);
+			if(installFolder.isDirectory() && FileHelpers.isDirectoryEmpty(installFolder))
+				installFolder.delete(); // so extractFolder can be renamed
+			FileHelpers.moveDirectory(extractFolder, installFolder);
+			return installFolder;
+		}
+		catch(Exception e)
+		{
+			throw new Exception("Error on moving extracted files to project folder.", e);
+		}
+	}
+	
+	/**
+	 * Runs the post-processing tasks generated by the parser.
+	 * 
+	 * @param project
+	 * @throws Exception
+	 */
+	private void postProcess(Project project) throws Exception
+	{
+		List<PostProcessTask> tasks = parser.getPostProcessingTasks();
+		if(!tasks.isEmpty())
+		{
+			if(postProcessScheduler != null)
+				postProcessScheduler.execute(tasks, project, this);
+			else
+				addWarning("Unable to perform " + tasks.size() + " post-processing");
+		}
+	}
+	
+	/**
+	 * @return the scheduler used to execute post-processing tasks, or {@code null} if there is no post-processor
+	 */
+	public PostProcessScheduler getPostProcessScheduler()
+	{
+		return postProcessScheduler;
+	}
+	
 	/**
 	 * @param project
 	 * @throws IllegalArgumentException when the project is not acceptable
@@ -322,16 +475,55 @@ public class ProjectLoader implements WarningKeeper
 	/**
 	 * Parses the PROJECT.xml present in the given sapelli file (provided as a File object), without extracting the contents to storage and without executing load tasks; returns the resulting Project object.
 	 * 
+	 * The PROJECT.xml entry is located using the archive's central directory, so none of the other (media) entries are read.
+	 * 
 	 * @param sapelliFile
 	 * @return the loaded Project
 	 * @throws Exception
 	 */
-
 	public Project loadParseOnly(File sapelliFile) throws Exception
 	{
 		if(sapelliFile == null || !sapelliFile.exists() || sapelliFile.length() == 0)
 			throw new IllegalArgumentException("Invalid Sapelli file");
-		return loadParseOnly(new FileInputStream(sapelliFile));
+		
+		clearWarnings();
+		ZipFile zipFile = null;
+		try
+		{
+			// Open the Sapelli file:
+			try
+			{
+				zipFile = new ZipFile(sapelliFile);
+			}
+			catch(IOException ioe)
+			{
+				throw new Exception("Sapelli file is not a valid ZIP archive.", ioe);
+			}
+			
+			// Parse PROJECT.xml, directly from the archive:
+			Project project;
+			try
+			{
+				ZipEntry projectEntry = Unzipper.getEntry(zipFile, PROJECT_FILE);
+				if(projectEntry == null)
+					throw new FileNotFoundException(PROJECT_FILE + " not found in archive.");
+				project = parser.parseProject(zipFile.getInputStream(projectEntry));
+			}
+			catch(Exception e)
+			{
+				throw new Exception("Error on parsing " + PROJECT_FILE, e);
+			}
+			// Copy parser warnings:
+			addWarnings(parser.getWarnings());
+			// Check if project is acceptable:
+			checkProject(project); // throws IllegalArgumentException if something is wrong
+			// all OK:
+			return project;
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(zipFile);
+		}
 	}
 
 	/**
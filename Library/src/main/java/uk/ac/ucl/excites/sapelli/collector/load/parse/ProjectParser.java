@@ -34,7 +34,6 @@ import uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessTask;
 import uk.ac.ucl.excites.sapelli.collector.model.Form;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.collector.model.fields.Relationship;
-import uk.ac.ucl.excites.sapelli.shared.io.UnclosableBufferedInputStream;
 import uk.ac.ucl.excites.sapelli.shared.util.xml.DocumentParser;
 import uk.ac.ucl.excites.sapelli.shared.util.xml.XMLAttributes;
 import uk.ac.ucl.excites.sapelli.shared.util.xml.XMLHasher;
@@ -97,7 +96,7 @@ public class ProjectParser extends DocumentParser
 	// DYNAMICS-------------------------------------------------------
 	private Format format = DEFAULT_FORMAT;
 	private final String generatedAudioExtension;
-	private Integer fingerPrint;
+	private XMLHasher.Accumulator hashAccumulator;
 	private Project project;
 	private String startFormID;
 	private FormSchemaInfoProvider fsiProvider;
@@ -176,7 +175,6 @@ public class ProjectParser extends DocumentParser
 		// (Re)Initialise:
 		format = DEFAULT_FORMAT;
 		project = null;
-		fingerPrint = null;
 		startFormID = null;
 		this.fsiProvider = fsiProvider;
 		if(relationshipToFormID != null)
@@ -186,15 +184,18 @@ public class ProjectParser extends DocumentParser
 		if(postProcessingTasks != null)
 			postProcessingTasks.clear();
 		
-		// Get XML hash:
-		UnclosableBufferedInputStream ubInput = new UnclosableBufferedInputStream(input); // decorate stream to avoid it from being closed and to ensure we can use mark/reset
-		ubInput.mark(Integer.MAX_VALUE);
-		fingerPrint = (new XMLHasher()).getJavaHashCode(ubInput);
-		ubInput.reset();
-		ubInput.makeClosable();
-		
-		// Parse XML:
-		parse(ubInput); //!!!
+		// Parse XML, computing the XML hash (= project finger print) in the same pass:
+		hashAccumulator = new XMLHasher.Accumulator(false);
+		setHashAccumulator(hashAccumulator);
+		try
+		{
+			parse(input); //!!!
+		}
+		finally
+		{
+			setHashAccumulator(null);
+			hashAccumulator = null;
+		}
 		return project;
 	}
 
@@ -245,8 +246,8 @@ public class ProjectParser extends DocumentParser
 											attributes.getRequiredInteger(qName, ATTRIBUTE_PROJECT_ID, "because format is >= 2"), // id is required for format >= 2
 										attributes.getRequiredString(TAG_PROJECT, ATTRIBUTE_PROJECT_NAME, true, false),
 										attributes.getString(ATTRIBUTE_PROJECT_VARIANT, null, true, false),
-										attributes.getString(ATTRIBUTE_PROJECT_VERSION, Project.DEFAULT_VERSION, true, false),
-										fingerPrint);
+										attributes.getString(ATTRIBUTE_PROJECT_VERSION, Project.DEFAULT_VERSION, true, false));
+				// Note: the finger print is set when the closing tag is reached (see parseEndElement())
 				
 				// Set default language (or "en" if not specified):
 				String lang = attributes.getString(ATTRIBUTE_PROJECT_DEFAULT_LANG, null, true, false);
@@ -284,6 +285,10 @@ public class ProjectParser extends DocumentParser
 				throw new SAXException("A project such have at least 1 form!");
 			else
 			{
+				// Set finger print, all content relevant to the XML hash has been seen by now (must happen before any Form storage is initialised!):
+				if(!project.isFingerPrintSet())
+					project.setFingerPrint(hashAccumulator.getJavaHashCode());
+				
 				// Resolve startForm
 				Form startForm = project.getForm(startFormID); // will return null if startFormID is null or there is no form with that name, uses equalsIgnoreCase()
 				if(startForm != null)
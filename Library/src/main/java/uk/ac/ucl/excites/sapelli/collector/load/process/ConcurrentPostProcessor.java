@@ -0,0 +1,30 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.collector.load.process;
+
+/**
+ * Marker interface for {@link PostProcessor}s whose execute() methods can safely be called from multiple threads at once.
+ * Only tasks for such post-processors will be executed concurrently by the {@link PostProcessScheduler}.
+ * 
+ * @author mstevens
+ */
+public interface ConcurrentPostProcessor extends PostProcessor
+{
+
+}
@@ -0,0 +1,473 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.collector.load.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.io.FileUtils;
+
+import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
+import uk.ac.ucl.excites.sapelli.collector.model.Project;
+import uk.ac.ucl.excites.sapelli.shared.crypto.Hashing;
+import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
+import uk.ac.ucl.excites.sapelli.shared.util.WarningKeeper;
+
+/**
+ * Schedules the execution of the {@link PostProcessTask}s produced when parsing a project:
+ * <ul>
+ * <li>tasks with the same output file are executed only once;</li>
+ * <li>output files are cached (in the {@link FileStorageProvider.Folder#Cache} folder) by the content key of the task which produced them,
+ * 	   so unchanged tasks need not be executed again when a project is reinstalled or upgraded;</li>
+ * <li>when the {@link PostProcessor} is a {@link ConcurrentPostProcessor} tasks are executed concurrently on a bounded thread pool;</li>
+ * <li>tasks which do not finish within the timeout are cancelled and reported as a warning, their (possibly incomplete) output files are deleted and never cached;</li>
+ * <li>tasks which cannot be started within the timeout, because the pool thread(s) are still held by earlier tasks which did not stop when cancelled, are cancelled as well.</li>
+ * </ul>
+ * Post-processors should therefore stop executing a task when the executing thread is interrupted.
+ * 
+ * @author mstevens
+ */
+public class PostProcessScheduler
+{
+	
+	// STATICS -----------------------------------------------------------
+	static public final long DEFAULT_TASK_TIMEOUT_MS = 60 * 1000; // 1 minute
+	
+	static public final String CACHE_SUBFOLDER = "PostProcessing";
+	
+	static private final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Pool threads are daemons so tasks which ignore cancellation cannot keep the application alive
+	 */
+	static private final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	
+	// DYNAMICS ----------------------------------------------------------
+	private final PostProcessor postProcessor;
+	private final FileStorageProvider fileStorageProvider;
+	private int parallelism;
+	private long taskTimeoutMS = DEFAULT_TASK_TIMEOUT_MS;
+	private boolean useCache = true;
+	
+	/**
+	 * @param postProcessor
+	 * @param fileStorageProvider
+	 */
+	public PostProcessScheduler(PostProcessor postProcessor, FileStorageProvider fileStorageProvider)
+	{
+		if(postProcessor == null || fileStorageProvider == null)
+			throw new NullPointerException("postProcessor and fileStorageProvider cannot be null!");
+		this.postProcessor = postProcessor;
+		this.fileStorageProvider = fileStorageProvider;
+		this.parallelism = postProcessor instanceof ConcurrentPostProcessor ? Runtime.getRuntime().availableProcessors() : 1;
+	}
+	
+	/**
+	 * @return the maximum number of tasks executed at the same time
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism the maximum number of tasks to execute at the same time (must be 1 unless the post-processor is a {@link ConcurrentPostProcessor})
+	 */
+	public void setParallelism(int parallelism)
+	{
+		if(parallelism < 1 || (parallelism > 1 && !(postProcessor instanceof ConcurrentPostProcessor)))
+			throw new IllegalArgumentException("Invalid parallelism (" + parallelism + ") for this post-processor.");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the task timeout in milliseconds (0 means no timeout)
+	 */
+	public long getTaskTimeout()
+	{
+		return taskTimeoutMS;
+	}
+
+	/**
+	 * @param taskTimeoutMS the task timeout in milliseconds (0 means no timeout)
+	 */
+	public void setTaskTimeout(long taskTimeoutMS)
+	{
+		if(taskTimeoutMS < 0)
+			throw new IllegalArgumentException("Timeout cannot be negative.");
+		this.taskTimeoutMS = taskTimeoutMS;
+	}
+
+	/**
+	 * @return whether output files are looked up in and added to the cache
+	 */
+	public boolean isUseCache()
+	{
+		return useCache;
+	}
+
+	/**
+	 * @param useCache whether output files are looked up in and added to the cache
+	 */
+	public void setUseCache(boolean useCache)
+	{
+		this.useCache = useCache;
+	}
+	
+	/**
+	 * Executes the given tasks for the given project.
+	 * 
+	 * @param tasks
+	 * @param project
+	 * @param warningKeeper
+	 * @return the number of tasks which were actually executed (i.e. not skipped as duplicates, nor served from the cache)
+	 * @throws Exception when a task fails
+	 */
+	public int execute(List<PostProcessTask> tasks, Project project, WarningKeeper warningKeeper) throws Exception
+	{
+		// Remove duplicates:
+		Map<PostProcessTask, File> uniqueTasks = new LinkedHashMap<PostProcessTask, File>(tasks.size());
+		Map<File, PostProcessTask> outputFiles = new LinkedHashMap<File, PostProcessTask>(tasks.size());
+		for(PostProcessTask task : tasks)
+		{
+			File outputFile = task.getOutputFile(fileStorageProvider, project);
+			if(outputFile == null || !outputFiles.containsKey(outputFile))
+			{
+				uniqueTasks.put(task, outputFile);
+				if(outputFile != null)
+					outputFiles.put(outputFile, task);
+			}
+		}
+		
+		// Serve output files from cache when possible:
+		File cacheFolder = getCacheFolder();
+		final List<Job> jobs = new ArrayList<Job>(uniqueTasks.size());
+		for(Map.Entry<PostProcessTask, File> entry : uniqueTasks.entrySet())
+		{
+			Job job = new Job(entry.getKey(), entry.getValue(), getCacheFile(cacheFolder, entry.getKey(), entry.getValue()));
+			if(job.cacheFile != null && job.cacheFile.isFile())
+			{
+				try
+				{
+					FileHelpers.copyFile(job.cacheFile, job.outputFile);
+					continue; // no need to execute the task
+				}
+				catch(IOException ignore) {} // execute the task instead
+			}
+			jobs.add(job);
+		}
+		if(jobs.isEmpty())
+			return 0;
+		
+		// Execute tasks:
+		postProcessor.initialise(project);
+		try
+		{
+			if(parallelism == 1 && taskTimeoutMS == 0)
+				for(Job job : jobs)
+					job.execute(project, warningKeeper);
+			else
+			{	// Pool thread(s) and this thread report warnings concurrently:
+				SynchronisedWarningKeeper synchronisedWarningKeeper = new SynchronisedWarningKeeper(warningKeeper);
+				try
+				{
+					executeOnPool(jobs, project, synchronisedWarningKeeper);
+				}
+				finally
+				{
+					synchronisedWarningKeeper.close(); // cancelled tasks which are still running must no longer touch the given warningKeeper
+				}
+			}
+		}
+		finally
+		{
+			postProcessor.freeResources();
+		}
+		return jobs.size();
+	}
+	
+	private void executeOnPool(List<Job> jobs, final Project project, final WarningKeeper warningKeeper) throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, jobs.size()), DAEMON_THREAD_FACTORY);
+		try
+		{
+			// Submit all jobs:
+			List<Future<Void>> results = new ArrayList<Future<Void>>(jobs.size());
+			for(final Job job : jobs)
+				results.add(executor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						job.execute(project, warningKeeper);
+						return null;
+					}
+				}));
+			
+			// Wait for completion, timing each job from the moment it was started:
+			boolean poolBlocked = false;
+			for(int j = 0; j < jobs.size(); j++)
+			{
+				Job job = jobs.get(j);
+				Future<Void> result = results.get(j);
+				if(taskTimeoutMS == 0)
+				{
+					result.get();
+					continue;
+				}
+				/* All earlier jobs have finished or have been cancelled by now, so if this one does not get started within
+				 * the timeout the pool thread(s) must be held by cancelled jobs which do not stop when interrupted: */
+				long startDeadline = poolBlocked ? 0 : System.currentTimeMillis() + taskTimeoutMS;
+				while(true)
+				{
+					long startTime = job.startTime;
+					long waitMS = (startTime != 0 ? startTime + taskTimeoutMS : startDeadline) - System.currentTimeMillis();
+					try
+					{
+						if(waitMS > 0)
+							result.get(waitMS, TimeUnit.MILLISECONDS);
+						else if(job.cancel(result))
+						{
+							if(startTime != 0)
+								warningKeeper.addWarning("Post-processing task for " + job.getName() + " did not finish within " + taskTimeoutMS + "ms and has been cancelled.");
+							else
+							{
+								poolBlocked = true;
+								warningKeeper.addWarning("Post-processing task for " + job.getName() + " could not be started because an earlier, cancelled task did not stop, it has been cancelled as well.");
+							}
+						}
+						break;
+					}
+					catch(TimeoutException te)
+					{
+						continue; // check again (the job may have started later than we started waiting)
+					}
+				}
+				if(job.startTime != 0 && !result.isCancelled())
+					poolBlocked = false; // a pool thread has become available again
+			}
+		}
+		catch(ExecutionException ee)
+		{
+			throw new Exception("Error on executing post-processing task", ee.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @return the folder in which post-processing output files are cached, or {@code null} if the cache is not used or not accessible
+	 */
+	private File getCacheFolder()
+	{
+		if(!useCache)
+			return null;
+		try
+		{
+			return FileHelpers.getSubDirectory(fileStorageProvider.getCacheFolder(true), CACHE_SUBFOLDER, true);
+		}
+		catch(Exception e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Cache files are named after a hash of the content key of the task which produced them (and of the type of post-processor which executed it).
+	 * 
+	 * @param cacheFolder
+	 * @param task
+	 * @param outputFile
+	 * @return the cache file for the output of the given task, or {@code null} if it cannot be cached
+	 */
+	private File getCacheFile(File cacheFolder, PostProcessTask task, File outputFile)
+	{
+		if(cacheFolder == null || outputFile == null)
+			return null;
+		String contentKey = task.getContentKey();
+		if(contentKey == null)
+			return null;
+		byte[] hash = Hashing.getSHA256Hash((postProcessor.getClass().getName() + "\n" + contentKey).getBytes(UTF8));
+		if(hash == null)
+			return null;
+		String extension = FileHelpers.getFileExtension(outputFile);
+		return new File(cacheFolder, BinaryHelpers.toHexadecimealString(hash, false) + (extension.isEmpty() ? "" : "." + extension));
+	}
+	
+	/**
+	 * A unique task to be executed
+	 */
+	private final class Job
+	{
+		
+		final PostProcessTask task;
+		final File outputFile;
+		final File cacheFile;
+		volatile long startTime = 0;
+		private boolean cancelled = false;
+		private boolean completed = false;
+		
+		public Job(PostProcessTask task, File outputFile, File cacheFile)
+		{
+			this.task = task;
+			this.outputFile = outputFile;
+			this.cacheFile = cacheFile;
+		}
+		
+		public String getName()
+		{
+			return outputFile != null ? outputFile.getName() : "project";
+		}
+		
+		public void execute(Project project, WarningKeeper warningKeeper) throws Exception
+		{
+			startTime = System.currentTimeMillis();
+			task.execute(postProcessor, project, warningKeeper);
+			
+			synchronized(this)
+			{
+				if(cancelled)
+				{	// the output file may be incomplete (even if the task returned normally):
+					deleteOutput();
+					return;
+				}
+				addToCache();
+				completed = true;
+			}
+		}
+		
+		/**
+		 * Cancels the job, unless it completed in the meantime, and deletes its output file (which may be incomplete).
+		 * The output file is deleted again if the task still finishes later on.
+		 * 
+		 * @param result
+		 * @return whether the job was cancelled
+		 */
+		public synchronized boolean cancel(Future<Void> result)
+		{
+			if(completed)
+				return false;
+			cancelled = true;
+			result.cancel(true);
+			deleteOutput();
+			return true;
+		}
+		
+		private void deleteOutput()
+		{
+			if(outputFile != null)
+				FileUtils.deleteQuietly(outputFile);
+		}
+		
+		private void addToCache()
+		{
+			// Written to a temporary file first, so incomplete files never end up in the cache:
+			if(cacheFile != null && outputFile.isFile())
+			{
+				File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+				try
+				{
+					FileHelpers.copyFile(outputFile, tempFile);
+					if(!tempFile.renameTo(cacheFile))
+						tempFile.delete();
+				}
+				catch(IOException ioe)
+				{
+					tempFile.delete(); // not being able to cache is no reason to fail
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Allows a {@link WarningKeeper} which is not thread-safe to be used by concurrently executing tasks.
+	 * Once closed warnings are no longer passed on.
+	 */
+	static private final class SynchronisedWarningKeeper implements WarningKeeper
+	{
+		
+		private final WarningKeeper warningKeeper;
+		private boolean closed = false;
+		
+		public SynchronisedWarningKeeper(WarningKeeper warningKeeper)
+		{
+			this.warningKeeper = warningKeeper;
+		}
+
+		@Override
+		public synchronized void addWarning(String warning)
+		{
+			if(!closed)
+				warningKeeper.addWarning(warning);
+		}
+
+		@Override
+		public synchronized void addWarnings(Collection<String> warnings)
+		{
+			if(!closed)
+				warningKeeper.addWarnings(warnings);
+		}
+		
+		public synchronized void close()
+		{
+			closed = true;
+		}
+
+		@Override
+		public synchronized List<String> getWarnings()
+		{
+			return new ArrayList<String>(warningKeeper.getWarnings());
+		}
+
+		@Override
+		public synchronized void clearWarnings()
+		{
+			warningKeeper.clearWarnings();
+		}
+		
+	}
+	
+}
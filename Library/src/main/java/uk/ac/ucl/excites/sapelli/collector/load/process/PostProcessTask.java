@@ -18,6 +18,9 @@
 
 package uk.ac.ucl.excites.sapelli.collector.load.process;
 
+import java.io.File;
+
+import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.shared.util.WarningKeeper;
 
@@ -30,4 +33,21 @@ public interface PostProcessTask
 
 	public void execute(PostProcessor executor, Project project, WarningKeeper warningKeeper) throws Exception;
 	
+	/**
+	 * Tasks with the same output file are considered to be duplicates, only one of them will be executed by the {@link PostProcessScheduler}.
+	 * 
+	 * @param fileStorageProvider
+	 * @param project
+	 * @return the file produced by the task, or {@code null} if it does not produce one
+	 */
+	public File getOutputFile(FileStorageProvider fileStorageProvider, Project project);
+	
+	/**
+	 * Tasks with the same content key produce identical output files, regardless of the project they belong to.
+	 * This allows the {@link PostProcessScheduler} to cache output files across project (re)installations. 
+	 * 
+	 * @return a String describing the input of the task, or {@code null} if the output cannot be cached
+	 */
+	public String getContentKey();
+	
 }
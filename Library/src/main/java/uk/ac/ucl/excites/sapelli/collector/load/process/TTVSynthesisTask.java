@@ -18,7 +18,11 @@
 
 package uk.ac.ucl.excites.sapelli.collector.load.process;
 
+import java.io.File;
+
+import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
+import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.WarningKeeper;
 
 /**
@@ -75,4 +79,24 @@ public class TTVSynthesisTask implements PostProcessTask
 		executor.execute(this, project, warningKeeper);
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessTask#getOutputFile(uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider, uk.ac.ucl.excites.sapelli.collector.model.Project)
+	 */
+	@Override
+	public File getOutputFile(FileStorageProvider fileStorageProvider, Project project)
+	{
+		return fileStorageProvider.getProjectSoundFile(project, audioFileRelativePath);
+	}
+	
+	/**
+	 * The same text, in the same language, synthesised to the same file type should always result in the same audio.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.collector.load.process.PostProcessTask#getContentKey()
+	 */
+	@Override
+	public String getContentKey()
+	{
+		return TTVSynthesisTask.class.getSimpleName() + "\n" + language + "\n" + FileHelpers.getFileExtension(audioFileRelativePath) + "\n" + textToSynthesise;
+	}
+
 }
@@ -78,6 +78,27 @@ public class Project extends ProjectDescriptor
 		this.logging = DEFAULT_LOGGING;
 	}
 	
+	/**
+	 * Creates a Project of which the finger print is not yet known, the Model and heartbeat schema
+	 * will only be initialised once the finger print has been set using {@link #setFingerPrint(int)}.
+	 * 
+	 * @param id
+	 * @param name
+	 * @param variant
+	 * @param version
+	 */
+	public Project(int id, String name, String variant, String version)
+	{
+		super(id, name, variant, version);
+		
+		// Forms list:
+		this.forms = new ArrayList<Form>();
+		// Project language (for TTV):
+		this.defaultLanguage = DEFAULT_DEFAULT_LANGUAGE;
+		// Logging:
+		this.logging = DEFAULT_LOGGING;
+	}
+	
 	/**
 	 * @param id
 	 */
@@ -86,7 +107,27 @@ public class Project extends ProjectDescriptor
 	{
 		super.initialise(id); // !!!
 		
-		// Initialise Model (important this should remain last):
+		// Model & heartbeat schema depend on both id & finger print:
+		if(isFingerPrintSet())
+			initialiseModel();
+	}
+	
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.collector.model.ProjectDescriptor#setFingerPrint(int)
+	 */
+	@Override
+	public void setFingerPrint(int fingerPrint)
+	{
+		super.setFingerPrint(fingerPrint);
+		
+		// Initialise the Model now if the id was already known:
+		if(PROJECT_ID_FIELD.inEffectiveRange(id))
+			initialiseModel();
+	}
+	
+	private void initialiseModel()
+	{
+		// Initialise Model (important this should remain first):
 		this.model = new Model(CollectorClient.GetModelID(this), this.toString(false).replaceAll(" ", "_"));
 		
 		// Heartbeat schema (Important: never put this before the model initialisation!):
@@ -22,7 +22,8 @@ public class ProjectDescriptor implements Comparable<ProjectDescriptor>
 
 	//DYNAMICS------------------------------------------------------------
 	protected int id = Integer.MIN_VALUE; // don't init to 0 because that is an acceptable project id, nor -1 because that is used as temporary indication of a v1x project
-	protected final int fingerPrint;
+	protected int fingerPrint;
+	private boolean fingerPrintSet;
 	protected final String name;
 	protected String variant;
 	protected String version;
@@ -41,6 +42,25 @@ public class ProjectDescriptor implements Comparable<ProjectDescriptor>
 	 * @param fingerPrint - hash code computed against XML (ignoring comments and whitespace; see XMLHasher) 
 	 */
 	public ProjectDescriptor(int id, String name, String variant, String version, int fingerPrint)
+	{
+		this(id, name, variant, version, Integer.valueOf(fingerPrint));
+	}
+	
+	/**
+	 * Creates a ProjectDescriptor of which the finger print is not yet known, it must be set later using {@link #setFingerPrint(int)}.
+	 * Used when the finger print is computed while the project XML is being parsed.
+	 * 
+	 * @param id
+	 * @param name
+	 * @param variant
+	 * @param version
+	 */
+	protected ProjectDescriptor(int id, String name, String variant, String version)
+	{
+		this(id, name, variant, version, null);
+	}
+	
+	private ProjectDescriptor(int id, String name, String variant, String version, Integer fingerPrint)
 	{
 		if(name == null || name.isEmpty())
 			throw new IllegalArgumentException("A valid name is required");
@@ -54,7 +74,11 @@ public class ProjectDescriptor implements Comparable<ProjectDescriptor>
 		this.version = version;
 		
 		// Finger print:
-		this.fingerPrint = fingerPrint; // must be set before initialise() is called!
+		if(fingerPrint != null)
+		{
+			this.fingerPrint = fingerPrint; // must be set before initialise() is called!
+			this.fingerPrintSet = true;
+		}
 		
 		// Project id:
 		if(id == PROJECT_ID_V1X_TEMP)
@@ -142,9 +166,33 @@ public class ProjectDescriptor implements Comparable<ProjectDescriptor>
 	 */
 	public int getFingerPrint()
 	{
+		if(!fingerPrintSet)
+			throw new IllegalStateException("Finger print is not yet known.");
 		return fingerPrint;
 	}
 	
+	/**
+	 * @return whether the finger print has been set
+	 */
+	public boolean isFingerPrintSet()
+	{
+		return fingerPrintSet;
+	}
+	
+	/**
+	 * Sets the finger print of a ProjectDescriptor that was created without one.
+	 * Can be called only once!
+	 * 
+	 * @param fingerPrint - hash code computed against XML (ignoring comments and whitespace; see XMLHasher)
+	 */
+	public void setFingerPrint(int fingerPrint)
+	{
+		if(fingerPrintSet)
+			throw new IllegalStateException("Finger print cannot be changed after it has been set.");
+		this.fingerPrint = fingerPrint;
+		this.fingerPrintSet = true;
+	}
+	
 	@Override
 	public String toString()
 	{
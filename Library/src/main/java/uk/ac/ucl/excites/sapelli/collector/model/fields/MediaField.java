@@ -22,12 +22,15 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import uk.ac.ucl.excites.sapelli.collector.control.FieldVisitor;
+import uk.ac.ucl.excites.sapelli.collector.io.AttachmentIndex;
 import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
 import uk.ac.ucl.excites.sapelli.collector.model.Field;
 import uk.ac.ucl.excites.sapelli.collector.model.FieldParameters;
@@ -454,6 +457,57 @@ public abstract class MediaField extends Field
 		return files;
 	}
 	
+	/**
+	 * Returns a list of the files attached to this field and record, using the given {@link AttachmentIndex}
+	 * (of this field's project) instead of querying the file system.
+	 * 
+	 * @param attachmentIndex
+	 * @param record
+	 * @return the list of attachments
+	 */
+	public List<MediaFile> getAttachments(AttachmentIndex attachmentIndex, Record record)
+	{
+		// Check if we have a record:
+		if(record == null)
+			return Collections.<MediaFile> emptyList();
+		
+		// Get offsets:
+		List<Long> offsets = getCurrentAttachmentOffsets(record);
+		if(offsets == null || offsets.isEmpty())
+			return Collections.<MediaFile> emptyList(); // return an empty list
+		
+		// Construct list of files:	
+		List<MediaFile> files = new ArrayList<MediaFile>(offsets.size());
+		for(Long offset : offsets)
+			CollectionUtils.addIgnoreNull(files, getAttachmentFromOffset(attachmentIndex, record, offset));
+		return files;
+	}
+	
+	/**
+	 * Returns the files attached to this field for each of the given records.
+	 * The project's attachment folder is listed only once, regardless of the number of records.
+	 * 
+	 * @param fileStorageProvider
+	 * @param records
+	 * @return a map with the list of attachments of each record which has at least one
+	 */
+	public Map<Record, List<MediaFile>> getAttachments(FileStorageProvider fileStorageProvider, List<Record> records)
+	{
+		Map<Record, List<MediaFile>> attachmentsByRecord = new HashMap<Record, List<MediaFile>>();
+		AttachmentIndex attachmentIndex = null;
+		for(Record record : records)
+		{
+			if(getAttachmentCount(record) == 0)
+				continue;
+			if(attachmentIndex == null)
+				attachmentIndex = AttachmentIndex.Build(fileStorageProvider, form.getProject()); // only list the folder if there is something to look for
+			List<MediaFile> attachments = getAttachments(attachmentIndex, record);
+			if(!attachments.isEmpty())
+				attachmentsByRecord.put(record, attachments);
+		}
+		return attachmentsByRecord;
+	}
+	
 	public MediaFile getAttachment(FileStorageProvider fileStorageProvider, Record record, int index)
 	{
 		if(record == null)
@@ -488,6 +542,24 @@ public abstract class MediaField extends Field
 			return null;
 	}
 	
+	/**
+	 * @param attachmentIndex index of the attachment folder of this field's project
+	 * @param record
+	 * @param creationTimeOffset
+	 * @return a MediaFile instance or null if no such file was present when the index was built
+	 */
+	public MediaFile getAttachmentFromOffset(AttachmentIndex attachmentIndex, Record record, Long creationTimeOffset)
+	{
+		if(creationTimeOffset == null)
+			return null;
+		// Look up corresponding file:
+		File file = attachmentIndex.getFile(generateFilename(record, creationTimeOffset));
+		if(file != null)
+			return new MediaFile(this, record, creationTimeOffset, file);
+		else
+			return null;
+	}
+	
 	/**
 	 * Returns the most recently attached file.
 	 * @param fileStorageProvider
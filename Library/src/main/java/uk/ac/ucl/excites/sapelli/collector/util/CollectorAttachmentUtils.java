@@ -24,13 +24,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import uk.ac.ucl.excites.sapelli.collector.io.AttachmentIndex;
 import uk.ac.ucl.excites.sapelli.collector.io.FileStorageProvider;
 import uk.ac.ucl.excites.sapelli.collector.model.Field;
 import uk.ac.ucl.excites.sapelli.collector.model.Form;
 import uk.ac.ucl.excites.sapelli.collector.model.MediaFile;
 import uk.ac.ucl.excites.sapelli.collector.model.Project;
 import uk.ac.ucl.excites.sapelli.collector.model.fields.MediaField;
-import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 
@@ -60,10 +60,12 @@ public final class CollectorAttachmentUtils
 	}
 	
 	/**
+	 * The attachment folder of each project is listed (at most) once, after which attachments are looked up in memory (see {@link AttachmentIndex}).
+	 * 
 	 * @param projects
 	 * @param records
 	 * @param fsp
-	 * @param excludeNonExisting whether or not to exclude non-existing MediaFiles
+	 * @param excludeNonExisting ignored: only files which were found in the attachment folder are returned, so non-existing MediaFiles are always excluded
 	 * @return
 	 */
 	static public Map<Record, List<MediaFile>> getMediaFiles(List<Project> projects, List<Record> records, FileStorageProvider fsp, boolean excludeNonExisting)
@@ -90,24 +92,33 @@ public final class CollectorAttachmentUtils
 		}
 		// Scan for attachments:
 		Map<Record, List<MediaFile>> record2attachments = new HashMap<Record, List<MediaFile>>(records.size());
+		Map<Project, AttachmentIndex> project2index = new HashMap<Project, AttachmentIndex>();
 		for(Form form : recordsByForm.keySet())
+		{
+			// Get media fields:
+			List<MediaField> mediaFields = new ArrayList<MediaField>();
+			for(Field field : form.getFields())
+				if(field instanceof MediaField)
+					mediaFields.add((MediaField) field);
+			if(mediaFields.isEmpty())
+				continue;
 			for(Record record : recordsByForm.get(form))
 			{
 				List<MediaFile> attachments = new ArrayList<MediaFile>();
-				for(Field field : form.getFields())
-					if(field instanceof MediaField)
-					{
-						MediaField mf = (MediaField) field;
-						for(int i = 0; i < mf.getAttachmentCount(record); i++)
-						{
-							MediaFile attachment = mf.getAttachment(fsp, record, i);
-							if(attachment != null && (!excludeNonExisting || FileHelpers.isReadableFile(attachment.file)))
-								attachments.add(attachment);
-						}
-					}
+				for(MediaField mf : mediaFields)
+				{
+					if(mf.getAttachmentCount(record) == 0)
+						continue;
+					// Get (or build) the index of the project's attachment folder:
+					AttachmentIndex index = project2index.get(form.project);
+					if(index == null)
+						project2index.put(form.project, index = AttachmentIndex.Build(fsp, form.project));
+					attachments.addAll(mf.getAttachments(index, record));
+				}
 				if(!attachments.isEmpty())
 					record2attachments.put(record, attachments);
 			}
+		}
 		return record2attachments;
 	}
 
@@ -0,0 +1,185 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.collections;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with primitive long keys and non-null object values, using open addressing with linear probing.
+ * Lookups do not allocate (no key boxing, no entry objects). Not thread-safe.
+ *
+ * @author mstevens
+ *
+ * @param <V>
+ */
+public final class LongObjectHashMap<V>
+{
+
+	static private final int DEFAULT_CAPACITY = 16;
+	static private final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values; // null = empty slot
+	private int size = 0;
+
+	public LongObjectHashMap()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 */
+	public LongObjectHashMap(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	static private int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing to spread sequential keys
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int indexOf(long key)
+	{
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while(values[i] != null)
+		{
+			if(keys[i] == key)
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1 - i; // not found, encode free slot
+	}
+
+	/**
+	 * @param key
+	 * @return the value associated with the given key, or {@code null} if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		int i = indexOf(key);
+		return i >= 0 ? (V) values[i] : null;
+	}
+
+	public boolean containsKey(long key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @param key
+	 * @param value must not be {@code null}
+	 * @return the previous value associated with the given key, or {@code null} if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		if(value == null)
+			throw new NullPointerException("Null values are not supported");
+		int i = indexOf(key);
+		if(i >= 0)
+		{
+			V previous = (V) values[i];
+			values[i] = value;
+			return previous;
+		}
+		if(size + 1 > keys.length * LOAD_FACTOR)
+		{
+			grow();
+			i = indexOf(key);
+		}
+		i = -1 - i;
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @return the value which was associated with the given key, or {@code null} if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		int i = indexOf(key);
+		if(i < 0)
+			return null;
+		V previous = (V) values[i];
+		// Shift back subsequent entries of the same probe sequence (so no "tombstones" are needed):
+		int mask = keys.length - 1;
+		int gap = i;
+		int j = i;
+		while(true)
+		{
+			j = (j + 1) & mask;
+			if(values[j] == null)
+				break;
+			int home = hash(keys[j]) & mask;
+			// Move entry j into the gap if its home slot does not lie (cyclically) in (gap, j]:
+			if(gap <= j ? (home <= gap || home > j) : (home <= gap && home > j))
+			{
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = null;
+		size--;
+		return previous;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length << 1];
+		values = new Object[oldValues.length << 1];
+		for(int o = 0; o < oldKeys.length; o++)
+			if(oldValues[o] != null)
+			{
+				int i = -1 - indexOf(oldKeys[o]);
+				keys[i] = oldKeys[o];
+				values[i] = oldValues[o];
+			}
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer/single-consumer ring buffer.
+ *
+ * Each slot carries a sequence number which tells producers and the consumer whether the slot is free
+ * to be written or ready to be read (based on D. Vyukov's bounded MPMC queue, simplified for a single consumer).
+ * Producers claim slots with a single compare-and-set, so {@link #offer(Object)} never blocks.
+ *
+ * @author mstevens
+ *
+ * @param <E>
+ */
+public final class RingBuffer<E>
+{
+
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong(0); // next position to write (shared by producers)
+	private volatile long head = 0; // next position to read (only written by the consumer)
+
+	/**
+	 * @param minimumCapacity will be rounded up to the next power of 2
+	 */
+	public RingBuffer(int minimumCapacity)
+	{
+		if(minimumCapacity < 1 || minimumCapacity > (1 << 30))
+			throw new IllegalArgumentException("Invalid capacity: " + minimumCapacity);
+		int capacity = Integer.highestOneBit(minimumCapacity);
+		if(capacity < minimumCapacity)
+			capacity <<= 1;
+		this.mask = capacity - 1;
+		this.elements = new AtomicReferenceArray<E>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++)
+			sequences.set(i, i);
+	}
+
+	/**
+	 * May be called by any thread.
+	 *
+	 * @param element must not be {@code null}
+	 * @return whether the element was added, {@code false} if the buffer is full
+	 */
+	public boolean offer(E element)
+	{
+		if(element == null)
+			throw new NullPointerException("Cannot add null elements");
+		while(true)
+		{
+			long pos = tail.get();
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - pos;
+			if(diff == 0)
+			{	// slot is free, try to claim it:
+				if(tail.compareAndSet(pos, pos + 1))
+				{
+					elements.lazySet(index, element);
+					sequences.set(index, pos + 1); // publish
+					return true;
+				}
+			}
+			else if(diff < 0)
+				return false; // full
+			// else: another producer claimed the slot, try again
+		}
+	}
+
+	/**
+	 * Must only be called by the single consumer thread.
+	 *
+	 * @return the oldest element, or {@code null} if the buffer is empty
+	 */
+	public E poll()
+	{
+		long pos = head;
+		int index = (int) (pos & mask);
+		if(sequences.get(index) != pos + 1)
+			return null; // empty (or the producer of the next element has not published it yet)
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.set(index, pos + mask + 1); // free slot for the next round
+		head = pos + 1;
+		return element;
+	}
+
+	/**
+	 * @return the (approximate) number of elements in the buffer
+	 */
+	public int size()
+	{
+		long size = tail.get() - head;
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	public int capacity()
+	{
+		return mask + 1;
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.crypto;
+
+import uk.ac.ucl.excites.sapelli.shared.io.BitArray;
+import uk.ac.ucl.excites.sapelli.shared.util.BinaryHelpers;
+
+/**
+ * Table-driven "slicing-by-8" implementation of the CRC16 algorithm used by {@link CRC16Digest},
+ * which it produces identical hashes to. It processes 8 bytes per iteration and allows hashing
+ * directly over a {@link BitArray}, without going through streams or a {@link java.security.MessageDigest}.
+ *
+ * @author mstevens
+ */
+public final class CRC16
+{
+
+	private CRC16() {} // should not be instantiated
+
+	/**
+	 * SLICES[k][n] is the CRC contribution of byte value n followed by k zero bytes.
+	 * SLICES[0] is {@link CRC16Digest#CRC16_TABLE}.
+	 */
+	static private final int[][] SLICES = new int[8][256];
+	static
+	{
+		for(int n = 0; n < 256; n++)
+			SLICES[0][n] = CRC16Digest.CRC16_TABLE[n];
+		for(int k = 1; k < 8; k++)
+			for(int n = 0; n < 256; n++)
+				SLICES[k][n] = (SLICES[k - 1][n] >>> 8) ^ SLICES[0][SLICES[k - 1][n] & 0xff];
+	}
+
+	/**
+	 * @param data
+	 * @return the CRC16 hash of the given bytes
+	 */
+	static public int compute(byte[] data)
+	{
+		return compute(data, 0, data.length);
+	}
+
+	/**
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return the CRC16 hash of the given range of bytes
+	 */
+	static public int compute(byte[] data, int offset, int length)
+	{
+		final int[] t0 = SLICES[0], t1 = SLICES[1], t2 = SLICES[2], t3 = SLICES[3], t4 = SLICES[4], t5 = SLICES[5], t6 = SLICES[6], t7 = SLICES[7];
+		int crc = 0x0000;
+		int i = offset;
+		final int end = offset + length;
+		for(; i + 8 <= end; i += 8)
+		{
+			crc ^= (data[i] & 0xff) | (data[i + 1] & 0xff) << 8;
+			crc =	t7[crc & 0xff] ^ t6[crc >>> 8] ^
+					t5[data[i + 2] & 0xff] ^ t4[data[i + 3] & 0xff] ^ t3[data[i + 4] & 0xff] ^
+					t2[data[i + 5] & 0xff] ^ t1[data[i + 6] & 0xff] ^ t0[data[i + 7] & 0xff];
+		}
+		for(; i < end; i++)
+			crc = (crc >>> 8) ^ t0[(crc ^ data[i]) & 0xff];
+		return crc;
+	}
+
+	/**
+	 * Computes the CRC16 hash of the given bits, as if they were first converted using {@link BitArray#toByteArray()}
+	 * (i.e. MSB first, with the last byte zero-padded), but without materialising that byte array.
+	 *
+	 * @param bits
+	 * @return the CRC16 hash
+	 */
+	static public int compute(BitArray bits)
+	{
+		final int[] t0 = SLICES[0], t1 = SLICES[1], t2 = SLICES[2], t3 = SLICES[3], t4 = SLICES[4], t5 = SLICES[5], t6 = SLICES[6], t7 = SLICES[7];
+		int crc = 0x0000;
+		int i = 0;
+		final int end = BinaryHelpers.bytesNeeded(bits.length());
+		for(; i + 8 <= end; i += 8)
+		{
+			crc ^= bits.getByte(i) | bits.getByte(i + 1) << 8;
+			crc =	t7[crc & 0xff] ^ t6[crc >>> 8] ^
+					t5[bits.getByte(i + 2)] ^ t4[bits.getByte(i + 3)] ^ t3[bits.getByte(i + 4)] ^
+					t2[bits.getByte(i + 5)] ^ t1[bits.getByte(i + 6)] ^ t0[bits.getByte(i + 7)];
+		}
+		for(; i < end; i++)
+			crc = (crc >>> 8) ^ t0[(crc ^ bits.getByte(i)) & 0xff];
+		return crc;
+	}
+
+}
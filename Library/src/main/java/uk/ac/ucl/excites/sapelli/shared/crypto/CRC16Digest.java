@@ -71,7 +71,7 @@ public class CRC16Digest extends MessageDigest
 	@Override
 	protected void engineUpdate(byte[] input, int offset, int len)
 	{
-		for(int b = offset; b < len; b++)
+		for(int b = offset; b < offset + len; b++)
 			engineUpdate(input[b]);
 	}
 
@@ -25,6 +25,8 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import uk.ac.ucl.excites.sapelli.shared.io.BitArray;
+
 /**
  * Hash algorithms
  * 
@@ -116,13 +118,28 @@ public final class Hashing
 			return new BigInteger(result.hash);
 	}
 	
+	/**
+	 * Computes a 16 bit CRC hash code from the provided data.
+	 * Gives the same result as digesting with {@link CRC16Digest} but is considerably faster.
+	 * 
+	 * @param byteArray
+	 * @return the hash code
+	 */
 	static public int getCRC16Hash(byte[] byteArray)
 	{
-		HashResult result = digest(CRC16Digest.NAME, new ByteArrayInputStream(byteArray));
-		if(result == null)
-			return 0;
-		else
-			return (result.hash[0] & 0xFF) << 8 | (result.hash[1] & 0xFF);
+		return CRC16.compute(byteArray);
+	}
+	
+	/**
+	 * Computes a 16 bit CRC hash code from the provided bits, giving the same result as
+	 * {@code getCRC16Hash(bits.toByteArray())} but without materialising the byte array.
+	 * 
+	 * @param bits
+	 * @return the hash code
+	 */
+	static public int getCRC16Hash(BitArray bits)
+	{
+		return CRC16.compute(bits);
 	}
 	
 	/**
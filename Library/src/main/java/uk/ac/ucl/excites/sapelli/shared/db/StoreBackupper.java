@@ -34,23 +34,83 @@ import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 public class StoreBackupper implements StoreUser
 {
 	
+	// STATIC -------------------------------------------------------
+	/**
+	 * Default number of units (e.g. database pages) copied per backup step
+	 */
+	static public final int DEFAULT_STEP_SIZE = 32;
+	
+	/**
+	 * Default upper bound for the adaptive step size
+	 */
+	static public final int DEFAULT_MAX_STEP_SIZE = 4096;
+	
+	/**
+	 * Default duration (in ms) a single backup step should ideally take, step sizes are adapted to stay close to it
+	 */
+	static public final int DEFAULT_TARGET_STEP_DURATION_MS = 50;
+	
 	public static void Backup(File destinationFolder, boolean labelFilesAsBackup, Store store) throws DBException
 	{
-		// Create backupper instance:
-		StoreBackupper backupper = new StoreBackupper(destinationFolder, labelFilesAsBackup);
-		// Add store for backup:
-		backupper.addStoreForBackup(store);
-		// Run backup:
-		backupper.backup();
+		new StoreBackupper(destinationFolder, labelFilesAsBackup).run(store);
 	}
 
 	public static void Backup(File destinationFolder, boolean labelFilesAsBackup, StoreHandle<?>... storesHandlesToBackup) throws DBException
+	{
+		new StoreBackupper(destinationFolder, labelFilesAsBackup).run(storesHandlesToBackup);
+	}
+	
+	// DYNAMIC ------------------------------------------------------
+	private final File destinationFolder;
+	private final boolean labelFilesAsBackup;
+	private final Stack<Store> toBackup;
+	private final Set<Store> backedUp;
+	
+	private int stepSize = DEFAULT_STEP_SIZE;
+	private int maxStepSize = DEFAULT_MAX_STEP_SIZE;
+	private int targetStepDurationMS = DEFAULT_TARGET_STEP_DURATION_MS;
+	private int stepPauseMS = 0;
+	private boolean incremental = false;
+	private ProgressListener progressListener;
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * @param destinationFolder
+	 * @param labelFilesAsBackup whether or not the files which are created should be labels (in their filename) as backups or not (in which case the name of the original file, if there is one, will be used)
+	 */
+	public StoreBackupper(File destinationFolder, boolean labelFilesAsBackup)
+	{
+		this.destinationFolder = destinationFolder;
+		this.labelFilesAsBackup = labelFilesAsBackup;
+		toBackup = new Stack<Store>();
+		backedUp = new HashSet<Store>();
+	}
+	
+	/**
+	 * Backs up the given Store(s), and any Stores they depend on.
+	 * 
+	 * @param stores
+	 * @throws DBException
+	 */
+	public void run(Store... stores) throws DBException
+	{
+		if(stores != null)
+			for(Store store : stores)
+				addStoreForBackup(store);
+		backup();
+	}
+	
+	/**
+	 * Backs up the Stores held by the given StoreHandle(s), and any Stores they depend on.
+	 * 
+	 * @param storesHandlesToBackup
+	 * @throws DBException
+	 */
+	public void run(StoreHandle<?>... storesHandlesToBackup) throws DBException
 	{
 		// Check if we were actually passed at least 1 StoreHandle:
 		if(storesHandlesToBackup == null || storesHandlesToBackup.length == 0)
 			return;
-		// Create backupper instance:
-		StoreBackupper backupper = new StoreBackupper(destinationFolder, labelFilesAsBackup);
 		
 		// Add stores for backup:
 		for(StoreHandle<?> storeHandle : storesHandlesToBackup)
@@ -58,40 +118,23 @@ public class StoreBackupper implements StoreUser
 			Store store = null;
 			try
 			{
-				store = storeHandle.getStore(backupper);
+				store = storeHandle.getStore(this);
 			}
 			catch(DBException ignore) {}
-			backupper.addStoreForBackup(store);
+			addStoreForBackup(store);
 		}
 		// Run backup:
 		try
 		{
-			backupper.backup();
+			backup();
 		}
 		// Unregister with handles:
 		finally
 		{
 			for(StoreHandle<?> storeHandle : storesHandlesToBackup)
-				storeHandle.doneUsing(backupper);
+				storeHandle.doneUsing(this);
 		}
 	}
-	
-	private final File destinationFolder;
-	private final boolean labelFilesAsBackup;
-	private final Stack<Store> toBackup;
-	private final Set<Store> backedUp;
-	
-	/**
-	 * @param destinationFolder
-	 * @param labelFilesAsBackup whether or not the files which are created should be labels (in their filename) as backups or not (in which case the name of the original file, if there is one, will be used)
-	 */
-	private StoreBackupper(File destinationFolder, boolean labelFilesAsBackup)
-	{
-		this.destinationFolder = destinationFolder;
-		this.labelFilesAsBackup = labelFilesAsBackup;
-		toBackup = new Stack<Store>();
-		backedUp = new HashSet<Store>();
-	}
 
 	public void addStoreForBackup(Store store)
 	{
@@ -103,6 +146,9 @@ public class StoreBackupper implements StoreUser
 	{
 		if(!toBackup.isEmpty())
 		{
+			// Check for cancellation:
+			checkCancelled();
+			
 			// Backup store at the top of the stack:
 			Store bStore = toBackup.pop();
 			bStore.backup(this, destinationFolder);
@@ -121,4 +167,148 @@ public class StoreBackupper implements StoreUser
 		return labelFilesAsBackup;
 	}
 	
+	/**
+	 * @return the number of units (e.g. database pages) Stores should copy in their first backup step
+	 */
+	public int getStepSize()
+	{
+		return stepSize;
+	}
+
+	/**
+	 * @param stepSize the number of units (e.g. database pages) Stores should copy in their first backup step, must be > 0
+	 * @param maxStepSize the upper bound for the step size as it is adapted by {@link #getNextStepSize(int, long)}, must be >= stepSize
+	 * @param targetStepDurationMS the duration (in ms) a single step should ideally take, if <= 0 the step size is never adapted
+	 */
+	public void setStepSize(int stepSize, int maxStepSize, int targetStepDurationMS)
+	{
+		if(stepSize <= 0 || maxStepSize < stepSize)
+			throw new IllegalArgumentException("Invalid step size (" + stepSize + ") or maximum step size (" + maxStepSize + ")");
+		this.stepSize = stepSize;
+		this.maxStepSize = maxStepSize;
+		this.targetStepDurationMS = targetStepDurationMS;
+	}
+	
+	/**
+	 * Adapts the step size based on the duration of the previous step: it is doubled (up to the maximum)
+	 * when the step took less than half of the target duration and halved when it took longer than the target.
+	 * 
+	 * @param stepSize the size of the previous step
+	 * @param stepDurationMS the duration of the previous step
+	 * @return the size for the next step
+	 */
+	public int getNextStepSize(int stepSize, long stepDurationMS)
+	{
+		if(targetStepDurationMS <= 0)
+			return stepSize;
+		if(stepDurationMS * 2 < targetStepDurationMS)
+			return Math.min(stepSize * 2, maxStepSize);
+		if(stepDurationMS > targetStepDurationMS)
+			return Math.max(stepSize / 2, 1);
+		return stepSize;
+	}
+	
+	/**
+	 * @param stepPauseMS the number of milliseconds to pause between backup steps, giving other users of the Store (e.g. writers) a chance to proceed
+	 */
+	public void setStepPause(int stepPauseMS)
+	{
+		this.stepPauseMS = Math.max(0, stepPauseMS);
+	}
+	
+	/**
+	 * @return whether Stores are asked to only write what changed since an earlier backup at the same destination
+	 */
+	public boolean isIncremental()
+	{
+		return incremental;
+	}
+
+	/**
+	 * Note: incremental backups only make sense if files are *not* labelled as backups, as otherwise each
+	 * backup gets a new (time stamped) file name and there is no earlier backup to update.
+	 * 
+	 * @param incremental whether Stores should only write what changed since an earlier backup at the same destination (if supported)
+	 */
+	public void setIncremental(boolean incremental)
+	{
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @param progressListener may be {@code null}
+	 */
+	public void setProgressListener(ProgressListener progressListener)
+	{
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * Requests cancellation of the backup, may be called from any thread.
+	 * Stores check for this between backup steps.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+	
+	/**
+	 * @return whether cancellation has been requested
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+	
+	/**
+	 * @throws DBException if cancellation has been requested
+	 */
+	public void checkCancelled() throws DBException
+	{
+		if(cancelled)
+			throw new DBException("Backup cancelled");
+	}
+	
+	/**
+	 * To be called by Stores between backup steps. Reports progress, pauses if a step pause was set, and checks for cancellation.
+	 * 
+	 * @param store the Store being backed up
+	 * @param done the number of units (e.g. database pages) done so far
+	 * @param total the total number of units (e.g. database pages) 
+	 * @throws DBException if cancellation has been requested
+	 */
+	public void stepCompleted(Store store, long done, long total) throws DBException
+	{
+		if(progressListener != null)
+			progressListener.backupProgress(store, done, total);
+		if(stepPauseMS > 0 && done < total)
+			try
+			{
+				Thread.sleep(stepPauseMS);
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				cancel();
+			}
+		checkCancelled();
+	}
+	
+	/**
+	 * Callback interface for backup progress reporting.
+	 * 
+	 * @author mstevens
+	 */
+	public interface ProgressListener
+	{
+		
+		/**
+		 * @param store the Store being backed up
+		 * @param done the number of units (e.g. database pages) done so far
+		 * @param total the total number of units (e.g. database pages) 
+		 */
+		public void backupProgress(Store store, long done, long total);
+		
+	}
+	
 }
@@ -159,6 +159,25 @@ public class BitArray implements Iterable<Boolean>
 		return bytes;
 	}
 	
+	/**
+	 * Returns the value of the byte at the given index, as it would appear in the array returned by {@link #toByteArray()}
+	 * (i.e. MSB first, with bits beyond the length of the array set to 0), without allocating anything.
+	 * 
+	 * @param byteIndex
+	 * @return the byte value in range [0, 255]
+	 */
+	public int getByte(int byteIndex)
+	{
+		int from = byteIndex * Byte.SIZE;
+		if(byteIndex < 0 || from >= length)
+			throw new IndexOutOfBoundsException("byteIndex (" + byteIndex + ") out of bounds [0, " + (BinaryHelpers.bytesNeeded(length) - 1) + "]!");
+		int to = Math.min(from + Byte.SIZE, length);
+		int b = 0;
+		for(int i = bits.nextSetBit(from); i >= 0 && i < to; i = bits.nextSetBit(i + 1))
+			b |= 1 << (7 - (i - from)); // MSB is read first
+		return b;
+	}
+	
 	/**
 	 * Writes the bits to a {@link BitOutputStream}
 	 * 
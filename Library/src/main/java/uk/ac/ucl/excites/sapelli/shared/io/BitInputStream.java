@@ -302,7 +302,16 @@ public abstract class BitInputStream extends InputStream
 			throw new IllegalArgumentException("Cannot store more than 64 bits in a variable of type long; use readBigInteger() instead.");
 		if(numberOfBits == 64 && !signed)
 			throw new IllegalArgumentException("Cannot safely store unsigned values of more than 63 bits in a variable of type long; use readBigInteger() instead.");
-		return readBigInteger(numberOfBits, signed).longValue();
+		if(numberOfBits < 0)
+			throw new IllegalArgumentException("numberOfBits (" + numberOfBits + ") cannot be negative!");
+		// Read the value bit by bit, the most significant bit is read first ("MSB 0" bit numbering):
+		long value = 0l;
+		for(int i = 0; i < numberOfBits; i++)
+			value = (value << 1) | (readBit() ? 1l : 0l); //throws IOException and EOFException
+		// Sign-extend negative values (a 64 bit value does not need this):
+		if(signed && numberOfBits > 0 && numberOfBits < Long.SIZE)
+			value = (value << (Long.SIZE - numberOfBits)) >> (Long.SIZE - numberOfBits);
+		return value;
 	}
 	
 	/**
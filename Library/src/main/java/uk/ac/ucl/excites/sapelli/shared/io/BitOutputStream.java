@@ -211,28 +211,20 @@ public abstract class BitOutputStream extends OutputStream
 	public void write(long value, int numberOfBits, boolean signed/*, ByteOrder order*/) throws IOException
 	{
 		//TODO add support for little-endian byte order (and perhaps LSB 0 bit numbering)
-		write(BigInteger.valueOf(value), numberOfBits, signed);
-		/*
-		//Version without conversion to BigInteger (works just as well; kept for reference only):
-		//Do checks:
-		if(numberOfBits < 1)
-			throw new IllegalArgumentException("Invalid number of bits (" + numberOfBits + ").");
-		if(signed)
-		{	//Signed
-			if(value < (long) (- Math.pow(2, numberOfBits - 1)) || value > (long) (Math.pow(2, numberOfBits - 1) - 1))
-				throw new IllegalArgumentException("Signed value (" + value + ") does not fit in " + numberOfBits + " bits.");
+		if(numberOfBits < 0 || numberOfBits > Long.SIZE || (!signed && value < 0l))
+		{	// Let the BigInteger version deal with these cases (i.e. sign-extension beyond 64 bits or throwing the appropriate exception):
+			write(BigInteger.valueOf(value), numberOfBits, signed);
+			return;
 		}
-		else
-		{	//Unsigned
-			if(value < 0l)
-				throw new IllegalArgumentException("Cannot write negative value as unsigned integer.");
-			if(value > (long) (Math.pow(2, numberOfBits) - 1))
-				throw new IllegalArgumentException("Unsigned value (" + value + ") does not fit in " + numberOfBits + " bits.");
+		// Check if value fits (any long fits in 64 bits, signed or unsigned, the latter as long as it is not negative):
+		if(numberOfBits < Long.SIZE && (value < BigIntegerUtils.GetMinLongValue(numberOfBits, signed) || value > BigIntegerUtils.GetMaxLongValue(numberOfBits, signed)))
+		{
+			write(BigInteger.valueOf(value), numberOfBits, signed); // will throw IllegalArgumentException
+			return;
 		}
-		//Write the bits (MSB first):
+		// Write the bits (MSB first):
 		for(int i = numberOfBits - 1; i >= 0; i--)
-			write((value >> i) % 2l != 0);
-		*/
+			write(((value >>> i) & 1l) != 0);
 	}
 	
 	/**
@@ -23,9 +23,18 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 
@@ -47,6 +56,17 @@ public final class FileHelpers
 	// Strategies for opening FileConnection on a non-existing file:
 	static final public int FILE_DOES_NOT_EXIST_STRATEGY_REJECT = 1;
 	static final public int FILE_DOES_NOT_EXIST_STRATEGY_CREATE = 2;
+	
+	/**
+	 * Maximum number of bytes passed to a single {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} call,
+	 * also determines how often progress is reported.
+	 */
+	static final private long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024; // 8 MB
+	
+	/**
+	 * Size of the buffer used when {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} makes no progress
+	 */
+	static final private int BUFFER_SIZE = 256 * 1024; // 256 KB
 
 	/**
 	 * This class should never be instantiated 
@@ -163,26 +183,38 @@ public final class FileHelpers
 	 */
 	public static void copyFile(File srcFile, File dstFile) throws IOException
 	{
-		InputStream in = null;
-		OutputStream out = null;
+		copy(srcFile, dstFile, null);
+	}
+	
+	/**
+	 * Copies a file. If the destination exists it is overwritten.
+	 * The bytes are transferred by the file system/kernel where possible (i.e. without passing through the Java heap).
+	 * 
+	 * @param srcFile
+	 * @param dstFile
+	 * @param listener to report progress to (may be null)
+	 * @throws IOException
+	 */
+	public static void copyFile(File srcFile, File dstFile, ProgressListener listener) throws IOException
+	{
+		copy(srcFile, dstFile, listener != null ? new Progress(srcFile.length(), listener) : null);
+	}
+	
+	static private void copy(File srcFile, File dstFile, Progress progress) throws IOException
+	{
+		FileInputStream in = null;
+		FileOutputStream out = null;
 		try
 		{
 			in = new FileInputStream(srcFile);
-			// Get the parent directory
-			File parentDir = new File(dstFile.getParentFile().getAbsolutePath());
-			parentDir.mkdirs();
-
+			// Create the parent directory
+			createParentDirectory(dstFile);
+			
 			// Create file if it doesn't exist (if it exists it will be overwritten)
-			if(!dstFile.exists())
-				dstFile.createNewFile();
-
 			out = new FileOutputStream(dstFile);
-
+			
 			// Transfer bytes from in to out
-			byte[] buf = new byte[1024];
-			int len;
-			while((len = in.read(buf)) > 0)
-				out.write(buf, 0, len);
+			transfer(in.getChannel(), out.getChannel(), progress);
 			in.close();
 			out.close();
 		}
@@ -193,6 +225,36 @@ public final class FileHelpers
 			throw new IOException("Error on copying file", e);
 		}
 	}
+	
+	static private void transfer(FileChannel src, FileChannel dst, Progress progress) throws IOException
+	{
+		long size = src.size();
+		long position = 0;
+		while(position < size)
+		{
+			long transferred = src.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), dst);
+			if(transferred <= 0)
+				break; // no progress (may happen on some platforms), continue below
+			position += transferred;
+			if(progress != null)
+				progress.add(transferred);
+		}
+		if(position < size)
+		{	// Fall back to copying through a (large) buffer:
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			src.position(position);
+			while(src.read(buffer) != -1)
+			{
+				buffer.flip();
+				int count = buffer.remaining();
+				while(buffer.hasRemaining())
+					dst.write(buffer);
+				buffer.clear();
+				if(progress != null)
+					progress.add(count);
+			}
+		}
+	}
 
 	/**
 	 * Move a file. If the destination exists it is overwritten.
@@ -242,6 +304,7 @@ public final class FileHelpers
 	
 	/**
 	 * Moves a directory. Files that already exist in the destination directory are overwritten. Files that exist in the destination directory but not in the source are left alone.
+	 * If the destination directory does not exist yet the source directory is renamed, if possible.
 	 * 
 	 * @param srcDir
 	 * @param dstDir
@@ -249,6 +312,22 @@ public final class FileHelpers
 	 * @throws IllegalArgumentException
 	 */
 	public static void moveDirectory(File srcDir, File dstDir) throws IOException, IllegalArgumentException
+	{
+		moveDirectory(srcDir, dstDir, null);
+	}
+	
+	/**
+	 * Moves a directory. Files that already exist in the destination directory are overwritten. Files that exist in the destination directory but not in the source are left alone.
+	 * If the destination directory does not exist yet the source directory is renamed, if possible. Otherwise the contents are renamed where possible, and
+	 * the remaining files (e.g. when the destination is on another file system) are copied in parallel.
+	 * 
+	 * @param srcDir
+	 * @param dstDir
+	 * @param listener to report copying progress to (may be null), note that it will be called from multiple threads
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 */
+	public static void moveDirectory(File srcDir, File dstDir, ProgressListener listener) throws IOException, IllegalArgumentException
 	{
 		if(!srcDir.exists())
 			throw new IllegalArgumentException("Source directory does not exist");
@@ -257,21 +336,134 @@ public final class FileHelpers
 		
 		// Create destination if needed:
 		if(!dstDir.exists())
+		{	// Try to simply rename (only works when on the same file system), otherwise create dstDir and move contents:
+			if(srcDir.renameTo(dstDir))
+				return;
 			createDirectory(dstDir);
+		}
 		else if(!dstDir.isDirectory())
 			throw new IllegalArgumentException("Destination exists but is not a directory!");
 		
-		// Move contents (recursive calls will happen for subdirectories):
-		for(File source : srcDir.listFiles())
-			moveFileOrDirectory(source, new File(dstDir.getAbsolutePath() + File.separator + source.getName()));
+		// Move contents by renaming where possible, and collect the files which must be copied:
+		List<File[]> toCopy = new ArrayList<File[]>();
+		long bytesToCopy = moveByRenaming(srcDir, dstDir, toCopy);
 		
-		// Check if srcDir is empty:
-		if(!isDirectoryEmpty(srcDir))
-			throw new IOException("Some contents may not have been moved or copied.");
+		// Copy the remaining files & delete the originals:
+		if(!toCopy.isEmpty())
+			copyAndDelete(toCopy, new Progress(bytesToCopy, listener));
 		
-		// Delete srcDir:
-		if(!srcDir.delete())
-			throw new IOException("Could not delete source directory (" + srcDir.getAbsolutePath() + ").");
+		// Delete (sub)directories of srcDir, which should all be empty now:
+		if(!deleteEmptyDirectories(srcDir))
+			throw new IOException("Some contents may not have been moved or copied, or source directory (" + srcDir.getAbsolutePath() + ") could not be deleted.");
+	}
+	
+	/**
+	 * @param srcDir
+	 * @param dstDir
+	 * @param toCopy list to add source & destination of files that could not be renamed to
+	 * @return the total size of the files that could not be renamed
+	 * @throws IOException
+	 */
+	static private long moveByRenaming(File srcDir, File dstDir, List<File[]> toCopy) throws IOException
+	{
+		long bytesToCopy = 0;
+		for(File source : srcDir.listFiles())
+		{
+			File destination = new File(dstDir, source.getName());
+			if(source.isDirectory())
+			{
+				if(!destination.exists() && source.renameTo(destination))
+					continue;
+				if(!createDirectory(destination))
+					throw new IOException("Could not create directory: " + destination.getAbsolutePath());
+				bytesToCopy += moveByRenaming(source, destination, toCopy);
+			}
+			else if(!source.renameTo(destination))
+			{
+				toCopy.add(new File[] { source, destination });
+				bytesToCopy += source.length();
+			}
+		}
+		return bytesToCopy;
+	}
+	
+	/**
+	 * Copies files, using as many threads as there are processors, and deletes the originals.
+	 * 
+	 * @param files list of source & destination pairs
+	 * @param progress
+	 * @throws IOException
+	 */
+	static private void copyAndDelete(List<File[]> files, final Progress progress) throws IOException
+	{
+		final Queue<File[]> queue = new ConcurrentLinkedQueue<File[]>(files);
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), files.size());
+		if(threads <= 1)
+		{
+			for(File[] file : files)
+				copyAndDelete(file[0], file[1], progress);
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<Void>> results = new ArrayList<Future<Void>>(threads);
+			for(int t = 0; t < threads; t++)
+				results.add(executor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						File[] file = null;
+						while((file = queue.poll()) != null)
+							try
+							{
+								copyAndDelete(file[0], file[1], progress);
+							}
+							catch(IOException ioe)
+							{
+								queue.clear(); // stop the other threads as soon as possible
+								throw ioe;
+							}
+						return null;
+					}
+				}));
+			for(Future<Void> result : results)
+				result.get();
+		}
+		catch(ExecutionException ee)
+		{
+			throw ee.getCause() instanceof IOException ? (IOException) ee.getCause() : new IOException("Error on copying files", ee.getCause());
+		}
+		catch(InterruptedException ie)
+		{
+			throw new IOException("Interrupted while copying files", ie);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	static private void copyAndDelete(File srcFile, File dstFile, Progress progress) throws IOException
+	{
+		copy(srcFile, dstFile, progress);
+		if(!srcFile.delete())
+			throw new IOException("Unable to delete " + srcFile.getAbsolutePath());
+	}
+	
+	/**
+	 * Deletes the given directory and all its subdirectories, provided they contain no files.
+	 * 
+	 * @param directory
+	 * @return whether the directory was deleted
+	 */
+	static private boolean deleteEmptyDirectories(File directory)
+	{
+		for(File sub : directory.listFiles())
+			if(!sub.isDirectory() || !deleteEmptyDirectories(sub))
+				return false;
+		return directory.delete();
 	}
 	
 	/**
@@ -502,4 +694,45 @@ public final class FileHelpers
 		return new FileInputStream(file);
 	}
 
+	/**
+	 * Callback interface for reporting the progress of copy & move operations
+	 * 
+	 * @author mstevens
+	 */
+	public interface ProgressListener
+	{
+		
+		/**
+		 * @param bytesDone the number of bytes copied so far
+		 * @param bytesTotal the total number of bytes to copy (files moved by renaming are not included as they require no copying)
+		 */
+		public void transferProgress(long bytesDone, long bytesTotal);
+		
+	}
+	
+	/**
+	 * Keeps track of the number of copied bytes, shared by all threads involved in a copy/move operation
+	 */
+	static private final class Progress
+	{
+		
+		private final long bytesTotal;
+		private final ProgressListener listener;
+		private long bytesDone = 0;
+		
+		Progress(long bytesTotal, ProgressListener listener)
+		{
+			this.bytesTotal = bytesTotal;
+			this.listener = listener;
+		}
+		
+		public synchronized void add(long bytes)
+		{
+			bytesDone += bytes;
+			if(listener != null)
+				listener.transferProgress(bytesDone, bytesTotal);
+		}
+		
+	}
+
 }
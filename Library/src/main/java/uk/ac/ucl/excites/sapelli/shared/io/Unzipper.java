@@ -22,7 +22,20 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -31,6 +44,22 @@ import java.util.zip.ZipInputStream;
  */
 public final class Unzipper
 {
+	
+	static public final int BUFFER_SIZE = 64 * 1024; // 64 KB
+	
+	/**
+	 * Sorts entries from largest to smallest (unknown sizes last), to spread the work evenly over the extraction threads
+	 */
+	static private final Comparator<ZipEntry> LARGEST_FIRST = new Comparator<ZipEntry>()
+	{
+		@Override
+		public int compare(ZipEntry lhs, ZipEntry rhs)
+		{
+			long lSize = lhs.getSize();
+			long rSize = rhs.getSize();
+			return lSize < rSize ? 1 : (lSize == rSize ? 0 : -1);
+		}
+	};
 
 	private Unzipper() {}
 	
@@ -49,6 +78,7 @@ public final class Unzipper
 		{
 			String extractionPath = extractionFolder.getAbsolutePath() + File.separator;
 			ZipInputStream zin = new ZipInputStream(zipFileStream);
+			byte[] buffer = new byte[BUFFER_SIZE];
 			int entryCount = 0;
 			ZipEntry ze = null;
 			while((ze = zin.getNextEntry()) != null)
@@ -63,13 +93,7 @@ public final class Unzipper
 					}
 				}
 				else
-				{
-					FileOutputStream fout = new FileOutputStream(extractionPath + ze.getName(), false);
-					byte[] buffer = new byte[4096];
-					for(int c = zin.read(buffer); c != -1; c = zin.read(buffer))
-						fout.write(buffer, 0, c);
-					fout.close();
-				}
+					extractEntry(zin, new File(extractionPath + ze.getName()), buffer);
 				zin.closeEntry();
 			}
 			zin.close();
@@ -81,6 +105,177 @@ public final class Unzipper
 		}
 	}
 	
+	/**
+	 * Extracts the given ZIP file, inflating entries in parallel using as many threads as there are processors.
+	 * 
+	 * @param zipFile
+	 * @param extractionFolder
+	 * @return the number of extracted entries
+	 * @throws IOException - always wraps around a causing Exception
+	 * @see #unzip(ZipFile, File, int)
+	 */
+	static public int unzip(File zipFile, File extractionFolder) throws IOException
+	{
+		ZipFile zip = null;
+		try
+		{
+			zip = new ZipFile(zipFile);
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on opening archive", e);
+		}
+		try
+		{
+			return unzip(zip, extractionFolder, Runtime.getRuntime().availableProcessors());
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(zip);
+		}
+	}
+	
+	/**
+	 * Extracts the given ZIP file. Thanks to the random access offered by {@link ZipFile} the entries can be inflated
+	 * in parallel by up to {@code parallelism} threads, each of which reuses a single buffer. All folders are created
+	 * before any file is extracted, so the order of the entries in the archive does not matter.
+	 * 
+	 * @param zipFile
+	 * @param extractionFolder
+	 * @param parallelism the maximum number of threads to use
+	 * @return the number of extracted entries
+	 * @throws IOException - always wraps around a causing Exception
+	 */
+	static public int unzip(final ZipFile zipFile, File extractionFolder, int parallelism) throws IOException
+	{
+		try
+		{
+			final String extractionPath = extractionFolder.getAbsolutePath() + File.separator;
+			
+			// Create folders & list files:
+			List<ZipEntry> fileEntries = new ArrayList<ZipEntry>(zipFile.size());
+			int entryCount = 0;
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while(entries.hasMoreElements())
+			{
+				ZipEntry ze = entries.nextElement();
+				entryCount++;
+				File target = new File(extractionPath + ze.getName());
+				if(!FileHelpers.createDirectory(ze.isDirectory() ? target : target.getParentFile()))
+					throw new IOException("Could not create folder for: " + target.getAbsolutePath());
+				if(!ze.isDirectory())
+					fileEntries.add(ze);
+			}
+			
+			// Extract files:
+			int threads = Math.min(parallelism, fileEntries.size());
+			if(threads <= 1)
+			{
+				byte[] buffer = new byte[BUFFER_SIZE];
+				for(ZipEntry ze : fileEntries)
+					extractEntry(zipFile, ze, extractionPath, buffer);
+			}
+			else
+			{
+				Collections.sort(fileEntries, LARGEST_FIRST);
+				final Queue<ZipEntry> queue = new ConcurrentLinkedQueue<ZipEntry>(fileEntries);
+				ExecutorService executor = Executors.newFixedThreadPool(threads);
+				try
+				{
+					List<Future<Void>> results = new ArrayList<Future<Void>>(threads);
+					for(int t = 0; t < threads; t++)
+						results.add(executor.submit(new Callable<Void>()
+						{
+							@Override
+							public Void call() throws Exception
+							{
+								byte[] buffer = new byte[BUFFER_SIZE];
+								ZipEntry ze = null;
+								while((ze = queue.poll()) != null)
+									try
+									{
+										extractEntry(zipFile, ze, extractionPath, buffer);
+									}
+									catch(Exception e)
+									{
+										queue.clear(); // stop the other threads as soon as possible
+										throw e;
+									}
+								return null;
+							}
+						}));
+					for(Future<Void> result : results)
+						result.get();
+				}
+				catch(ExecutionException ee)
+				{
+					throw ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+				}
+				finally
+				{
+					executor.shutdownNow();
+				}
+			}
+			return entryCount;
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on unzipping archive", e);
+		}
+	}
+	
+	static private void extractEntry(ZipFile zipFile, ZipEntry ze, String extractionPath, byte[] buffer) throws IOException
+	{
+		InputStream in = zipFile.getInputStream(ze);
+		try
+		{
+			extractEntry(in, new File(extractionPath + ze.getName()), buffer);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes the (remaining) contents of the given entry stream to the target file. The entry stream is not closed.
+	 * 
+	 * @param entryStream
+	 * @param target
+	 * @param buffer
+	 * @throws IOException
+	 */
+	static public void extractEntry(InputStream entryStream, File target, byte[] buffer) throws IOException
+	{
+		FileOutputStream fout = new FileOutputStream(target, false);
+		try
+		{
+			for(int c = entryStream.read(buffer); c != -1; c = entryStream.read(buffer))
+				fout.write(buffer, 0, c);
+		}
+		finally
+		{
+			fout.close();
+		}
+	}
+	
+	/**
+	 * @param zipFile
+	 * @param filename
+	 * @return the entry with the given name (case-insensitive), or {@code null} if the archive has no such entry
+	 */
+	static public ZipEntry getEntry(ZipFile zipFile, String filename)
+	{
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while(entries.hasMoreElements())
+		{
+			ZipEntry ze = entries.nextElement();
+			if(ze.getName().equalsIgnoreCase(filename))
+				return ze;
+		}
+		return null;
+	}
+	
 	public static InputStream getInputStreamForFileInZip(InputStream zipFileStream, String filename) throws IOException
 	{
 		ZipInputStream zin = new ZipInputStream(zipFileStream);
@@ -0,0 +1,64 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonically increasing, thread-safe counter. Updates are ignored while the owning {@link MetricsRegistry} is disabled.
+ *
+ * @author mstevens
+ */
+public final class Counter
+{
+
+	private final MetricsRegistry registry;
+	private final AtomicLong value = new AtomicLong(0);
+
+	Counter(MetricsRegistry registry)
+	{
+		this.registry = registry;
+	}
+
+	public void increment()
+	{
+		if(registry.enabled)
+			value.incrementAndGet();
+	}
+
+	/**
+	 * @param delta
+	 */
+	public void add(long delta)
+	{
+		if(registry.enabled && delta != 0)
+			value.addAndGet(delta);
+	}
+
+	public long get()
+	{
+		return value.get();
+	}
+
+	void reset()
+	{
+		value.set(0);
+	}
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of non-negative long values (typically latencies in nanoseconds), in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power-of-2 range is split into {@value #SUB_BUCKET_COUNT} equally wide
+ * sub-buckets, so any value can be recorded in a fixed amount of memory, in constant time and without locking, with a
+ * relative error of at most 1/{@value #SUB_BUCKET_COUNT} (~3%). Exact count, sum, minimum and maximum are kept as well.
+ * Updates are ignored while the owning {@link MetricsRegistry} is disabled.
+ *
+ * @author mstevens
+ */
+public final class Histogram
+{
+
+	// STATIC -------------------------------------------------------
+	static public final String UNIT_NANOSECONDS = "ns";
+	static public final String UNIT_MILLISECONDS = "ms";
+	static public final String UNIT_COUNT = "count";
+	static public final String UNIT_PERMILLE = "permille";
+
+	static private final int SUB_BUCKET_BITS = 5;
+	static public final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static private final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+	static private final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/**
+	 * Value returned by {@link #startTimer()} when the registry is disabled.
+	 */
+	static private final long TIMER_DISABLED = Long.MIN_VALUE;
+
+	static int getBucketIndex(long value)
+	{
+		if(value < SUB_BUCKET_COUNT)
+			return (int) value; // linear range
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+		return SUB_BUCKET_COUNT + ((exponent - SUB_BUCKET_BITS) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * @param index
+	 * @return the highest value which would be counted in the bucket with the given index
+	 */
+	static long getBucketUpperBound(int index)
+	{
+		if(index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = (index - SUB_BUCKET_COUNT) >>> SUB_BUCKET_BITS;
+		long lowerBound = ((long) (SUB_BUCKET_COUNT + (index & SUB_BUCKET_MASK))) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private final MetricsRegistry registry;
+	private final String unit;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong sum = new AtomicLong(0);
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	Histogram(MetricsRegistry registry, String unit)
+	{
+		this.registry = registry;
+		this.unit = unit;
+	}
+
+	/**
+	 * @param value negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if(!registry.enabled)
+			return;
+		if(value < 0)
+			value = 0;
+		buckets.incrementAndGet(getBucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while(value < (current = min.get()) && !min.compareAndSet(current, value));
+		while(value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	/**
+	 * @return a start time to pass to {@link #recordSince(long)}
+	 */
+	public long startTimer()
+	{
+		return registry.enabled ? System.nanoTime() : TIMER_DISABLED;
+	}
+
+	/**
+	 * Records the number of nanoseconds elapsed since the given start time.
+	 *
+	 * @param startNS value obtained from {@link #startTimer()}
+	 */
+	public void recordSince(long startNS)
+	{
+		if(startNS != TIMER_DISABLED)
+			record(System.nanoTime() - startNS);
+	}
+
+	public String getUnit()
+	{
+		return unit;
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	/**
+	 * @return the smallest recorded value, or 0 if nothing has been recorded
+	 */
+	public long getMin()
+	{
+		return getCount() == 0 ? 0 : min.get();
+	}
+
+	/**
+	 * @return the largest recorded value, or 0 if nothing has been recorded
+	 */
+	public long getMax()
+	{
+		return getCount() == 0 ? 0 : max.get();
+	}
+
+	public double getMean()
+	{
+		long n = getCount();
+		return n == 0 ? 0.0d : getSum() / (double) n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the (approximate) value below or at which the given percentage of recorded values lies, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long n = getCount();
+		if(n == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(Math.min(100.0d, Math.max(0.0d, percentile)) / 100.0d * n));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += buckets.get(i);
+			if(seen >= target)
+				return Math.max(getMin(), Math.min(getBucketUpperBound(i), getMax()));
+		}
+		return getMax(); // only reachable when racing with concurrent updates
+	}
+
+	void reset()
+	{
+		for(int i = 0; i < BUCKET_COUNT; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+}
@@ -0,0 +1,295 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.shared.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
+
+/**
+ * Lightweight, dependency-free registry of named {@link Counter}s, {@link Gauge}s and {@link Histogram}s.
+ *
+ * Metrics are created on first use and live as long as the registry. Instrumented code typically holds on to them in
+ * static final fields, so recording a value costs no more than a volatile read (when disabled) or a few atomic
+ * operations (when enabled). Registries are disabled by default.
+ *
+ * The current state can be obtained as a JSON document, either in-process (see {@link #toJSON()}) or as a file
+ * (see {@link #dumpToFile(File)}).
+ *
+ * @author mstevens
+ */
+public final class MetricsRegistry
+{
+
+	// STATIC -------------------------------------------------------
+	static private final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	static private final double[] DUMPED_PERCENTILES = { 50.0d, 90.0d, 99.0d, 99.9d };
+	static private final String[] DUMPED_PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	/**
+	 * @return the process-wide registry used by Sapelli's own instrumentation
+	 */
+	static public MetricsRegistry getDefault()
+	{
+		return DEFAULT;
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	volatile boolean enabled = false;
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param enabled whether or not metrics should be updated
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param name
+	 * @return the {@link Counter} with the given name, created if needed
+	 */
+	public Counter counter(String name)
+	{
+		Counter counter = counters.get(name);
+		if(counter == null)
+		{
+			Counter newCounter = new Counter(this);
+			counter = counters.putIfAbsent(name, newCounter);
+			if(counter == null)
+				counter = newCounter;
+		}
+		return counter;
+	}
+
+	/**
+	 * @param name
+	 * @param unit see constants in {@link Histogram}
+	 * @return the {@link Histogram} with the given name, created if needed (in which case the given unit is used)
+	 */
+	public Histogram histogram(String name, String unit)
+	{
+		Histogram histogram = histograms.get(name);
+		if(histogram == null)
+		{
+			Histogram newHistogram = new Histogram(this, unit);
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if(histogram == null)
+				histogram = newHistogram;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers a {@link Gauge}, replacing any previous one with the same name.
+	 *
+	 * @param name
+	 * @param gauge
+	 */
+	public void gauge(String name, Gauge gauge)
+	{
+		if(gauge == null)
+			throw new NullPointerException("gauge cannot be null");
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @param name
+	 */
+	public void removeGauge(String name)
+	{
+		gauges.remove(name);
+	}
+
+	/**
+	 * Resets all counters and histograms to 0.
+	 */
+	public void reset()
+	{
+		for(Counter counter : counters.values())
+			counter.reset();
+		for(Histogram histogram : histograms.values())
+			histogram.reset();
+	}
+
+	/**
+	 * @return a JSON representation of the current state of all metrics
+	 */
+	public String toJSON()
+	{
+		StringWriter writer = new StringWriter();
+		try
+		{
+			writeJSON(writer);
+		}
+		catch(IOException ignore) {} // won't happen with a StringWriter
+		return writer.toString();
+	}
+
+	/**
+	 * Writes the current state of all metrics to the given file, as a JSON document.
+	 * The file is replaced in one go so readers never see a partially written dump.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void dumpToFile(File file) throws IOException
+	{
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		Writer writer = null;
+		try
+		{
+			writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charset.forName("UTF-8"));
+			writeJSON(writer);
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(writer);
+		}
+		if(!tempFile.renameTo(file))
+		{	// renameTo() does not replace existing files on all platforms
+			if(!file.delete() || !tempFile.renameTo(file))
+				throw new IOException("Could not write metrics to " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeJSON(Writer writer) throws IOException
+	{
+		writer.write("{\n\t\"timestamp\": ");
+		writeString(writer, TimeUtils.ISOWithMSFormatter.print(System.currentTimeMillis()));
+		writer.write(",\n\t\"enabled\": " + enabled);
+
+		// Counters:
+		writer.write(",\n\t\"counters\": {");
+		boolean first = true;
+		for(Map.Entry<String, Counter> entry : counters.entrySet())
+		{
+			writer.write(first ? "\n\t\t" : ",\n\t\t");
+			first = false;
+			writeString(writer, entry.getKey());
+			writer.write(": " + entry.getValue().get());
+		}
+		writer.write(first ? "}" : "\n\t}");
+
+		// Gauges:
+		writer.write(",\n\t\"gauges\": {");
+		first = true;
+		for(Map.Entry<String, Gauge> entry : gauges.entrySet())
+		{
+			writer.write(first ? "\n\t\t" : ",\n\t\t");
+			first = false;
+			writeString(writer, entry.getKey());
+			writer.write(": ");
+			double value;
+			try
+			{
+				value = entry.getValue().getValue();
+			}
+			catch(Exception e)
+			{
+				value = Double.NaN;
+			}
+			writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+		}
+		writer.write(first ? "}" : "\n\t}");
+
+		// Histograms:
+		writer.write(",\n\t\"histograms\": {");
+		first = true;
+		for(Map.Entry<String, Histogram> entry : histograms.entrySet())
+		{
+			Histogram histogram = entry.getValue();
+			writer.write(first ? "\n\t\t" : ",\n\t\t");
+			first = false;
+			writeString(writer, entry.getKey());
+			writer.write(": { \"unit\": ");
+			writeString(writer, histogram.getUnit());
+			writer.write(", \"count\": " + histogram.getCount());
+			writer.write(", \"sum\": " + histogram.getSum());
+			writer.write(", \"min\": " + histogram.getMin());
+			writer.write(", \"max\": " + histogram.getMax());
+			writer.write(", \"mean\": " + histogram.getMean());
+			for(int p = 0; p < DUMPED_PERCENTILES.length; p++)
+				writer.write(", \"" + DUMPED_PERCENTILE_NAMES[p] + "\": " + histogram.getValueAtPercentile(DUMPED_PERCENTILES[p]));
+			writer.write(" }");
+		}
+		writer.write(first ? "}" : "\n\t}");
+
+		writer.write("\n}\n");
+		writer.flush();
+	}
+
+	private void writeString(Writer writer, String str) throws IOException
+	{
+		writer.write('"');
+		for(int i = 0; i < str.length(); i++)
+		{
+			char c = str.charAt(i);
+			switch(c)
+			{
+				case '"' :
+					writer.write("\\\"");
+					break;
+				case '\\' :
+					writer.write("\\\\");
+					break;
+				case '\n' :
+					writer.write("\\n");
+					break;
+				case '\r' :
+					writer.write("\\r");
+					break;
+				case '\t' :
+					writer.write("\\t");
+					break;
+				default :
+					if(c < 0x20)
+						writer.write(String.format("\\u%04x", (int) c));
+					else
+						writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+
+}
@@ -66,6 +66,45 @@ public final class BigIntegerUtils
 												(long) (Math.pow(2, size) - 1));*/
 	}
 	
+	/**
+	 * Version of {@link #GetMinValue(int, boolean)} which avoids BigInteger arithmetic.
+	 * 
+	 * @param numberOfBits
+	 * @param signed
+	 * @return
+	 * @throws IllegalArgumentException if the number of bits is negative, or if the value does not fit in a long (i.e. when signed and numberOfBits > 64)
+	 */
+	static public long GetMinLongValue(int numberOfBits, boolean signed)
+	{
+		if(numberOfBits < 0)
+			throw new IllegalArgumentException("Number of bits cannot be negative!");
+		if(!signed || numberOfBits == 0)
+			return 0l;
+		if(numberOfBits > Long.SIZE)
+			throw new IllegalArgumentException("Minimum value of a signed " + numberOfBits + " bit integer does not fit in a long!");
+		return numberOfBits == Long.SIZE ? Long.MIN_VALUE : -(1l << (numberOfBits - 1));
+	}
+	
+	/**
+	 * Version of {@link #GetMaxValue(int, boolean)} which avoids BigInteger arithmetic.
+	 * 
+	 * @param numberOfBits
+	 * @param signed
+	 * @return
+	 * @throws IllegalArgumentException if the number of bits is negative, or if the value does not fit in a long (i.e. when numberOfBits > 64 if signed, or > 63 if unsigned)
+	 */
+	static public long GetMaxLongValue(int numberOfBits, boolean signed)
+	{
+		if(numberOfBits < 0)
+			throw new IllegalArgumentException("Number of bits cannot be negative!");
+		if(numberOfBits == 0)
+			return 0l;
+		int valueBits = signed ? numberOfBits - 1 : numberOfBits;
+		if(valueBits >= Long.SIZE)
+			throw new IllegalArgumentException("Maximum value of a" + (signed ? " " : "n un") + "signed " + numberOfBits + " bit integer does not fit in a long!");
+		return valueBits == Long.SIZE - 1 ? Long.MAX_VALUE : (1l << valueBits) - 1l;
+	}
+	
 	/**
 	 * @param numberOfBits
 	 * @return
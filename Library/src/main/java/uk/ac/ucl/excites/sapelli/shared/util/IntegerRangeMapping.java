@@ -150,6 +150,13 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	private final BigInteger hiBound;
 	
+	/**
+	 * The bounds as longs, lazily computed to speed up checking, writing and reading of long values.
+	 * 
+	 * @see #getLongBounds()
+	 */
+	private transient LongBounds longBounds;
+	
 	/**
 	 * Creates an {@link IntegerRangeMapping} [x, y] (inclusive!) with x = 0 and y = {@code hiBound}.
 	 * 
@@ -345,6 +352,9 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public boolean inRange(long logicalValue, boolean strict)
 	{
+		LongBounds bounds = getLongBounds();
+		if(bounds.fit)
+			return bounds.lo <= logicalValue && logicalValue <= (strict ? bounds.hi : bounds.effectiveHi);
 		return inRange(BigInteger.valueOf(logicalValue), strict);
 	}
 	
@@ -416,7 +426,15 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public void write(long logicalValue, BitOutputStream to) throws IllegalArgumentException, IOException
 	{
-		write(BigInteger.valueOf(logicalValue), to);
+		LongBounds bounds = getLongBounds();
+		if(!bounds.fit)
+			write(BigInteger.valueOf(logicalValue), to);
+		else
+		{
+			if(logicalValue < bounds.lo || logicalValue > bounds.effectiveHi)
+				throw new IllegalArgumentException("Logical value (" + logicalValue + ") does not fit in effective logical range: " + getRangeString(false));
+			to.write(logicalValue - bounds.lo, size, false);
+		}
 	}
 
 	/**
@@ -439,6 +457,8 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public BigInteger read(BitInputStream from) throws IOException
 	{
+		if(getLongBounds().fit)
+			return BigInteger.valueOf(readLong(from));
 		return toLogicalValue(from.readBigInteger(size, false));
 	}
 	
@@ -449,6 +469,9 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public long readLong(BitInputStream from) throws IOException
 	{
+		LongBounds bounds = getLongBounds();
+		if(bounds.fit)
+			return from.readInteger(size, false) + bounds.lo;
 		return read(from).longValue();
 	}
 	
@@ -459,7 +482,7 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public int readInt(BitInputStream from) throws IOException
 	{
-		return read(from).intValue();
+		return (int) readLong(from);
 	}
 	
 	/**
@@ -469,7 +492,7 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public short readShort(BitInputStream from) throws IOException
 	{
-		return read(from).shortValue();
+		return (short) readLong(from);
 	}
 	
 	/**
@@ -479,7 +502,17 @@ public class IntegerRangeMapping implements Serializable
 	 */
 	public byte readByte(BitInputStream from) throws IOException
 	{
-		return read(from).byteValue();
+		return (byte) readLong(from);
+	}
+	
+	/**
+	 * @return the bounds as longs (check {@link LongBounds#fit} before using them)
+	 */
+	private LongBounds getLongBounds()
+	{
+		if(longBounds == null)
+			longBounds = new LongBounds(this); // benign race: all threads compute the same (immutable) result
+		return longBounds;
 	}
 	
 	public String toString()
@@ -518,4 +551,30 @@ public class IntegerRangeMapping implements Serializable
 		return hash;
 	}
 	
+	/**
+	 * Immutable holder of the bounds of an {@link IntegerRangeMapping} as longs.
+	 * 
+	 * Only used when the bounds and all raw values fit in a long (i.e. when {@link #fit} is {@code true}),
+	 * in which case values can be checked, written and read without BigInteger arithmetic.
+	 */
+	static private final class LongBounds
+	{
+		
+		final boolean fit;
+		final long lo;
+		final long hi;
+		final long effectiveHi;
+		
+		LongBounds(IntegerRangeMapping mapping)
+		{
+			BigInteger effectiveHiBound = mapping.highBound(false);
+			// Raw values must be readable as unsigned longs (see BitInputStream#readInteger(int, boolean)) and all logical ones must fit in a long:
+			fit = mapping.size < Long.SIZE - 1 && mapping.loBound.bitLength() < Long.SIZE && effectiveHiBound.bitLength() < Long.SIZE;
+			lo = fit ? mapping.loBound.longValue() : 0l;
+			hi = fit ? mapping.hiBound.longValue() : 0l;
+			effectiveHi = fit ? effectiveHiBound.longValue() : 0l;
+		}
+		
+	}
+	
 }
@@ -20,26 +20,69 @@ package uk.ac.ucl.excites.sapelli.shared.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import org.joda.time.DateTime;
-
+import uk.ac.ucl.excites.sapelli.shared.collections.RingBuffer;
 import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
 import uk.ac.ucl.excites.sapelli.shared.io.text.FileWriter;
 
 
 /**
+ * Logger which writes lines to a (text) log file and optionally echoes them to an output stream.
+ * 
+ * By default lines are formatted and written synchronously, on the caller's thread.
+ * In asynchronous mode callers only place lines in a bounded, lock-free {@link RingBuffer}, which is drained by a
+ * background writer thread. The writer formats the lines and writes them in batches, with a single file flush per
+ * batch ("group commit"). A batch is written as soon as {@link #ASYNC_FLUSH_BATCH_SIZE} lines are waiting, or at
+ * the latest {@link #ASYNC_FLUSH_INTERVAL_MS} milliseconds after a line was added.
+ * What happens when the buffer is full is determined by the {@link OverflowPolicy}.
+ * Asynchronous loggers must be {@link #close()}d to write out any lines still in the buffer and to stop the writer thread.
+ * 
  * @author Michalis Vitos, mstevens, benelliott
  *
  */
 public class Logger
 {
 	
+	// STATIC -------------------------------------------------------
 	public static final String FIELD_SEPARATOR = ";";
 	public static final String LOG_EXTENSION = ".log";
 	
+	public static final int DEFAULT_ASYNC_BUFFER_CAPACITY = 1024;
+	public static final int ASYNC_FLUSH_BATCH_SIZE = 64;
+	public static final long ASYNC_FLUSH_INTERVAL_MS = 250;
+	
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	private static final long BLOCKED_PRODUCER_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+	
+	/**
+	 * Determines what happens when a line is added to an asynchronous logger whose buffer is full.
+	 */
+	public static enum OverflowPolicy
+	{
+		/**
+		 * The caller waits until the writer has made room in the buffer
+		 */
+		BLOCK,
+		
+		/**
+		 * The line is discarded and counted (see {@link Logger#getDroppedLineCount()})
+		 */
+		DROP
+	}
+	
+	// DYNAMIC ------------------------------------------------------
 	private FileWriter fileWriter;
 	protected final boolean printToOutputStream;
 	
+	private final RingBuffer<Entry> buffer; // null when synchronous
+	private final OverflowPolicy overflowPolicy;
+	private final AtomicLong droppedLines = new AtomicLong(0);
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+	
 	/**
 	 * 
 	 * @param folderPath path to the folder in which the log file is saved
@@ -62,9 +105,42 @@ public class Logger
 	 */
 	public Logger(String folderPath, String baseFileName, boolean timestampFilename, boolean printToOutputStream) throws IOException
 	{
+		this(folderPath, baseFileName, timestampFilename, printToOutputStream, 0, null);
+	}
+	
+	/**
+	 * Creates an asynchronous logger, unless bufferCapacity is 0.
+	 * 
+	 * @param folderPath path to the folder in which the log file is saved
+	 * @param baseFileName base filename for the log file
+	 * @param timestampFilename whether or not to suffix the base filename with a timestamp (precise to the second of file creation)
+	 * @param printToOutputStream whether or not to also echo log statements to the standard output stream (e.g. System.out or Android Logcat)
+	 * @param bufferCapacity maximum number of lines waiting to be written (will be rounded up to a power of 2), or 0 to log synchronously
+	 * @param overflowPolicy what to do when the buffer is full, may be null if bufferCapacity is 0
+	 * @throws IOException from file system I/O
+	 */
+	public Logger(String folderPath, String baseFileName, boolean timestampFilename, boolean printToOutputStream, int bufferCapacity, OverflowPolicy overflowPolicy) throws IOException
+	{
+		if(bufferCapacity < 0)
+			throw new IllegalArgumentException("bufferCapacity cannot be negative");
+		if(bufferCapacity > 0 && overflowPolicy == null)
+			throw new NullPointerException("overflowPolicy cannot be null for an asynchronous logger");
 		this.fileWriter = new FileWriter(folderPath + File.separator + baseFileName + (timestampFilename ? TimeUtils.getTimestampForFileName() : "") + LOG_EXTENSION);
 		this.printToOutputStream = printToOutputStream;
 		fileWriter.open(FileHelpers.FILE_EXISTS_STRATEGY_APPEND, FileHelpers.FILE_DOES_NOT_EXIST_STRATEGY_CREATE);
+		if(bufferCapacity > 0)
+		{
+			this.buffer = new RingBuffer<Entry>(bufferCapacity);
+			this.overflowPolicy = overflowPolicy;
+			this.writerThread = new WriterThread(this, fileWriter.getFile().getName());
+			writerThread.start();
+		}
+		else
+		{
+			this.buffer = null;
+			this.overflowPolicy = null;
+			this.writerThread = null;
+		}
 	}
 
 	/**
@@ -110,17 +186,18 @@ public class Logger
 	 */
 	public void addLine(boolean timestamp, String... fields)
 	{
-		TransactionalStringBuilder bff = new TransactionalStringBuilder(FIELD_SEPARATOR);
-		if(timestamp)
-			bff.append(getTime());
-		if(fields != null)
-			for(String field : fields)
-				bff.append(field);
-		
-		// To stream:
-		printToOutputStream(bff.toString());
-		// To file:
-		writeLine(bff.toString());
+		long time = timestamp ? System.currentTimeMillis() : NO_TIMESTAMP;
+		if(buffer != null)
+			// Formatting, printing & writing happens on the writer thread (the fields array must therefore not be modified by the caller afterwards):
+			enqueue(new Entry(time, fields));
+		else
+		{
+			String line = formatLine(time, fields);
+			// To stream:
+			printToOutputStream(line);
+			// To file:
+			writeLine(line);
+		}
 	}
 
 	/**
@@ -128,9 +205,12 @@ public class Logger
 	 */
 	public void addBlankLine()
 	{
-		// To stream: nope, don't reproduce blank lines on System.out
-		// To file:
-		writeLine("");
+		if(buffer != null)
+			enqueue(Entry.BLANK);
+		else
+			// To stream: nope, don't reproduce blank lines on System.out
+			// To file:
+			writeLine("");
 	}
 	
 	/**
@@ -149,10 +229,84 @@ public class Logger
 	private void writeLine(String str)
 	{
 		if(fileWriter == null || !fileWriter.isWritable())
-			throw new IllegalStateException("Logger " + fileWriter.getFullPath() + "has been closed or file is not writable.");
+			throw new IllegalStateException("Logger " + (fileWriter != null ? fileWriter.getFullPath() + " " : "") + "has been closed or file is not writable.");
 		fileWriter.writeLine(str);
 	}
 	
+	/**
+	 * Places the entry in the buffer, applying the {@link OverflowPolicy} if it is full.
+	 * 
+	 * @param entry
+	 */
+	private void enqueue(Entry entry)
+	{
+		if(closed)
+			throw new IllegalStateException("Logger has been closed.");
+		if(!buffer.offer(entry))
+		{
+			if(overflowPolicy == OverflowPolicy.DROP)
+			{
+				droppedLines.incrementAndGet();
+				return;
+			}
+			// BLOCK: wake up the writer and wait for room...
+			LockSupport.unpark(writerThread);
+			while(!buffer.offer(entry))
+			{
+				if(closed)
+					throw new IllegalStateException("Logger has been closed.");
+				LockSupport.parkNanos(this, BLOCKED_PRODUCER_PARK_NS);
+			}
+		}
+		if(buffer.size() >= ASYNC_FLUSH_BATCH_SIZE)
+			LockSupport.unpark(writerThread); // a full batch is waiting: don't wait for the flush interval
+	}
+	
+	/**
+	 * Writes out all entries currently in the buffer. Must only be called by a single thread at a time.
+	 * 
+	 * @param bff reusable buffer
+	 * @param maxEntries maximum number of entries to write
+	 * @return the number of entries written
+	 */
+	private int drain(StringBuilder bff, int maxEntries)
+	{
+		int count = 0;
+		Entry entry;
+		while(count < maxEntries && (entry = buffer.poll()) != null)
+		{
+			if(entry == Entry.BLANK)
+				bff.append('\n'); // don't reproduce blank lines on output stream
+			else
+			{
+				String line = formatLine(entry.time, entry.fields);
+				printToOutputStream(line);
+				bff.append(line).append('\n');
+			}
+			count++;
+		}
+		if(count > 0)
+		{
+			if(fileWriter != null && fileWriter.isWritable())
+				fileWriter.write(bff.toString()); // one write & flush for the whole batch
+			else
+				droppedLines.addAndGet(count);
+			bff.setLength(0);
+		}
+		return count;
+	}
+	
+	private String formatLine(long time, String[] fields)
+	{
+		TransactionalStringBuilder bff = new TransactionalStringBuilder(FIELD_SEPARATOR);
+		if(time != NO_TIMESTAMP)
+			bff.append(getTime(time));
+		if(fields != null)
+			for(String field : fields)
+				bff.append(field);
+		return bff.toString();
+	}
+	
 	protected void printToOutputStream(String line)
 	{
 		if(printToOutputStream)
@@ -166,11 +320,58 @@ public class Logger
 		super.finalize();
 	}
 
+	/**
+	 * @return whether lines are written by a background thread
+	 */
+	public boolean isAsynchronous()
+	{
+		return buffer != null;
+	}
+	
+	/**
+	 * @return the number of lines which were discarded because the buffer was full (when using {@link OverflowPolicy#DROP}) or the file was not writable
+	 */
+	public long getDroppedLineCount()
+	{
+		return droppedLines.get();
+	}
+	
 	/**
 	 * Closes the log file. Nothing can be added to it after this method has been called.
+	 * Asynchronous loggers first write out all lines still in the buffer.
 	 */
 	public void close()
 	{
+		if(buffer != null)
+		{
+			synchronized(this)
+			{
+				if(closed)
+					return;
+				closed = true;
+			}
+			if(writerThread != Thread.currentThread())
+			{
+				LockSupport.unpark(writerThread);
+				boolean interrupted = false;
+				while(writerThread.isAlive())
+				{
+					try
+					{
+						writerThread.join();
+					}
+					catch(InterruptedException ie)
+					{
+						interrupted = true;
+					}
+				}
+				if(interrupted)
+					Thread.currentThread().interrupt();
+				// Write out entries added by producers which were racing with close():
+				drain(new StringBuilder(), Integer.MAX_VALUE);
+			}
+		}
+		closed = true;
 		if(fileWriter != null)
 		{
 			fileWriter.dispose();
@@ -182,11 +383,68 @@ public class Logger
 	 * Return the time in two formats, one in ISO8601 and one in "pretty ISO" format ("yyyy-MM-dd HH:mm:ss"), which should be correctly interpreted by (most)
 	 * Excel installations.
 	 * 
+	 * @param time in ms since the epoch
 	 * @return
 	 */
-	private String getTime()
+	private String getTime(long time)
+	{
+		return TimeUtils.ISOWithMSFormatter.print(time);
+	}
+	
+	/**
+	 * A line waiting to be written by an asynchronous logger.
+	 * 
+	 * @author mstevens
+	 */
+	private static final class Entry
+	{
+		
+		static final Entry BLANK = new Entry(NO_TIMESTAMP, null);
+		
+		final long time;
+		final String[] fields;
+		
+		Entry(long time, String[] fields)
+		{
+			this.time = time;
+			this.fields = fields;
+		}
+		
+	}
+	
+	/**
+	 * Background thread which drains the buffer of an asynchronous logger.
+	 * 
+	 * @author mstevens
+	 */
+	private static final class WriterThread extends Thread
 	{
-		return TimeUtils.ISOWithMSFormatter.print(DateTime.now());
+		
+		private final Logger logger;
+		
+		WriterThread(Logger logger, String logName)
+		{
+			super("Logger-" + logName);
+			this.logger = logger;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run()
+		{
+			final long flushIntervalNS = TimeUnit.MILLISECONDS.toNanos(ASYNC_FLUSH_INTERVAL_MS);
+			StringBuilder bff = new StringBuilder();
+			while(true)
+			{
+				boolean closing = logger.closed; // read *before* draining so that nothing added before close() is missed
+				if(logger.drain(bff, ASYNC_FLUSH_BATCH_SIZE) == ASYNC_FLUSH_BATCH_SIZE)
+					continue; // there may be more waiting
+				if(closing)
+					break;
+				LockSupport.parkNanos(this, flushIntervalNS);
+			}
+		}
+		
 	}
 
 }
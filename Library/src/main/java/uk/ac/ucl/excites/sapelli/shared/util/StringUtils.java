@@ -25,7 +25,6 @@ import java.util.List;
 import java.util.Locale;
 
 import org.apache.commons.io.Charsets;
-import org.apache.commons.lang3.ArrayUtils;
 
 /**
  * @author mstevens
@@ -54,9 +53,41 @@ public final class StringUtils
 	 */
 	static public int sizeBytes(String string, Charset charset)
 	{
+		if(Charsets.UTF_8.equals(charset))
+			return sizeBytesUTF8(string);
 		return string.getBytes(charset).length;
 	}
 	
+	/**
+	 * Computes the number of bytes a given string takes up when encoded as UTF-8, without actually encoding it.
+	 * Matches {@link String#getBytes(Charset)}, which replaces unpaired surrogates by '?'.
+	 * 
+	 * @param string
+	 * @return number of bytes that would be used to write the string
+	 */
+	static private int sizeBytesUTF8(String string)
+	{
+		int length = string.length();
+		int bytes = length;
+		for(int i = 0; i < length; i++)
+		{
+			char c = string.charAt(i);
+			if(c < 0x80)
+				continue; // 1 byte
+			else if(c < 0x800)
+				bytes += 1; // 2 bytes
+			else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1)))
+			{
+				bytes += 2; // 4 bytes for the pair
+				i++;
+			}
+			else if(c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE)
+				bytes += 2; // 3 bytes
+			// else: unpaired surrogate, replaced by '?' (1 byte)
+		}
+		return bytes;
+	}
+	
 	/**
 	 * Returns the number bytes a given string takes up when encoded as UTF-8 
 	 * 
@@ -225,19 +256,59 @@ public final class StringUtils
 	{
 		if(str == null)
 			return str;
-		if(avoid == null)
-			avoid = new char[0];
+		return appendEscapedByDoublingAndWrapping(new StringBuilder(str.length() + 2), str, wrapDelimiter, forceWrapping, avoid).toString();
+	}
+	
+	/**
+	 * Single-pass variant of {@link #escapeByDoublingAndWrapping(String, char, boolean, char...)} which
+	 * appends the escaped {@code str}ing to the given {@link StringBuilder} instead of returning a new String.
+	 * 
+	 * @param bldr the StringBuilder to append to
+	 * @param str may be null, in which case nothing is appended
+	 * @param wrapDelimiter
+	 * @param forceWrapping
+	 * @param avoid - maybe empty, in which case only occurrences of wrapDelimiter itself will cause unforced wrapping
+	 * @return the given StringBuilder
+	 * 
+	 * @see #escapeByDoublingAndWrapping(String, char, boolean, char...)
+	 */
+	static public StringBuilder appendEscapedByDoublingAndWrapping(final StringBuilder bldr, final String str, final char wrapDelimiter, final boolean forceWrapping, final char... avoid)
+	{
+		if(str == null)
+			return bldr;
+		final int length = str.length();
+		// Find out whether wrapping and/or doubling is needed:
 		boolean needsWrapping = forceWrapping;
-		StringBuilder bldr = new StringBuilder(str.length());
-		for(char c : str.toCharArray())
+		boolean needsDoubling = false;
+		for(int i = 0; i < length && !needsDoubling; i++)
 		{
+			char c = str.charAt(i);
 			if(c == wrapDelimiter)
-				bldr.append(wrapDelimiter); // escape wrapDelimiter occurrences by doubling them
-			if(c == wrapDelimiter || ArrayUtils.contains(avoid, c))
-				needsWrapping = true;
-			bldr.append(c);
-		}			
-		return (needsWrapping ? wrapDelimiter : "") + bldr.toString() + (needsWrapping ? wrapDelimiter : "");
+				needsWrapping = needsDoubling = true;
+			else if(!needsWrapping && avoid != null)
+				for(char a : avoid)
+					if(c == a)
+					{
+						needsWrapping = true;
+						break;
+					}
+		}
+		// Append:
+		if(needsWrapping)
+			bldr.append(wrapDelimiter);
+		if(needsDoubling)
+			for(int i = 0; i < length; i++)
+			{
+				char c = str.charAt(i);
+				if(c == wrapDelimiter)
+					bldr.append(wrapDelimiter); // escape wrapDelimiter occurrences by doubling them
+				bldr.append(c);
+			}
+		else
+			bldr.append(str);
+		if(needsWrapping)
+			bldr.append(wrapDelimiter);
+		return bldr;
 	}
 	
 	/**
@@ -254,17 +325,54 @@ public final class StringUtils
 	{
 		if(str == null || str.length() < 2)
 			return str;
-		boolean wrapped = (str.charAt(0) == wrapDelimiter) && (str.charAt(str.length() - 1) == wrapDelimiter);
-		// Remove outer wrapDelimiters and replace inner doubled wrapDelimiters by single ones:
-		return str.substring(wrapped ? 1 : 0, str.length() - (wrapped ? 1 : 0)).replace("" + wrapDelimiter + wrapDelimiter, "" + wrapDelimiter); 
+		return deescapeByDoublingAndWrapping(str, 0, str.length(), wrapDelimiter);
+	}
+	
+	/**
+	 * Variant of {@link #deescapeByDoublingAndWrapping(String, char)} which operates on the
+	 * {@code str}ing region from {@code start} (inclusive) to {@code end} (exclusive). This allows
+	 * parsers to de-escape values in place, without first copying them out of the enclosing String.
+	 * 
+	 * @param str should not be {@code null}
+	 * @param start
+	 * @param end
+	 * @param wrapDelimiter
+	 * @return the de-escaped region, or the region itself if nothing needed to be de-escaped
+	 * 
+	 * @see #deescapeByDoublingAndWrapping(String, char)
+	 */
+	static public String deescapeByDoublingAndWrapping(final String str, int start, int end, final char wrapDelimiter)
+	{
+		// Remove outer wrapDelimiters:
+		if(end - start >= 2 && str.charAt(start) == wrapDelimiter && str.charAt(end - 1) == wrapDelimiter)
+		{
+			start++;
+			end--;
+		}
+		// Look for the first doubled wrapDelimiter:
+		int d = start;
+		while(d < end - 1 && !(str.charAt(d) == wrapDelimiter && str.charAt(d + 1) == wrapDelimiter))
+			d++;
+		if(d >= end - 1)
+			return str.substring(start, end); // nothing to replace
+		// Replace inner doubled wrapDelimiters by single ones:
+		StringBuilder bldr = new StringBuilder(end - start);
+		bldr.append(str, start, d);
+		for(int i = d; i < end; i++)
+		{
+			char c = str.charAt(i);
+			bldr.append(c);
+			if(c == wrapDelimiter && i + 1 < end && str.charAt(i + 1) == wrapDelimiter)
+				i++; // skip 2nd occurrence
+		}
+		return bldr.toString();
 	}
 	
 	static public int countOccurances(String haystack, char needle)
 	{
 		int count = 0;
-		for(char c : haystack.toCharArray())
-			if(c == needle)
-				count++;
+		for(int i = haystack.indexOf(needle); i != -1; i = haystack.indexOf(needle, i + 1))
+			count++;
 		return count;
 	}
 	
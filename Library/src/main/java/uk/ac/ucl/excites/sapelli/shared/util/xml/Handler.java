@@ -48,6 +48,8 @@ public abstract class Handler extends DefaultHandler implements WarningKeeper
 	private SubtreeParser<?> activeSubtreeParser;
 	
 	private List<String> warnings;
+	
+	private XMLHasher.Accumulator hashAccumulator;
 
 	public Handler()
 	{
@@ -102,10 +104,23 @@ public abstract class Handler extends DefaultHandler implements WarningKeeper
 	{
 		return activeSubtreeParser;
 	}
+	
+	/**
+	 * Sets an {@link XMLHasher.Accumulator} to which all tags, attributes and character chunks will be passed
+	 * as they are parsed. This allows the hash code of the document to be computed in the same pass.
+	 * 
+	 * @param hashAccumulator the accumulator to use, or {@code null} to stop hashing
+	 */
+	protected void setHashAccumulator(XMLHasher.Accumulator hashAccumulator)
+	{
+		this.hashAccumulator = hashAccumulator;
+	}
 
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
 	{
+		if(hashAccumulator != null)
+			hashAccumulator.startElement(qName, attributes);
 		XMLAttributes tagAttributes = new XMLAttributes(attributes);
 		try
 		{
@@ -181,6 +196,9 @@ public abstract class Handler extends DefaultHandler implements WarningKeeper
 	@Override
 	public void characters(char ch[], int start, int length) throws SAXException
 	{
+		if(hashAccumulator != null)
+			hashAccumulator.characters(ch, start, length);
+		
 		// Try delegating to active SubtreeParser:
 		if(activeSubtreeParser != null)
 			activeSubtreeParser.parseCharacters(ch, start, length);
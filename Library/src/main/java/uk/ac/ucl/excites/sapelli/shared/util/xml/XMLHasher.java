@@ -41,8 +41,7 @@ public class XMLHasher extends DocumentParser
 	static private final Charset UTF8 = Charset.forName("UTF-8");
 	static private final int MULTIPLIER = 31;
 
-	private int hashCode = 1;
-	private CRC32 crc = null;
+	private Accumulator accumulator = null;
 	
 	/**
 	 * Returns a signed 32bit hash code, computed in "Java-style" (i.e. similarly to {@link Object#hashCode()})
@@ -67,12 +66,13 @@ public class XMLHasher extends DocumentParser
 	{
 		try
 		{
+			accumulator = new Accumulator(false);
 			parse(input);
-			return hashCode;
+			return accumulator.getJavaHashCode();
 		}
 		finally
 		{	// Reset:
-			hashCode = 1;
+			accumulator = null;
 		}
 	}
 	
@@ -99,60 +99,131 @@ public class XMLHasher extends DocumentParser
 	{
 		try
 		{
-			crc = new CRC32();
+			accumulator = new Accumulator(true);
 			parse(input);
-			return crc.getValue();
+			return accumulator.getCRC32HashCode();
 		}
 		finally
 		{	// Reset:
-			crc = null;
+			accumulator = null;
 		}
 	}
 	
-	private void update(String str)
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
 	{
-		if(str != null)
-		{
-			if(crc == null)
-				hashCode = MULTIPLIER * hashCode + str.hashCode();
-			else
-			{
-				if(str.isEmpty())
-					crc.update(0);
-				else
-					crc.update(str.getBytes(UTF8));
-			}
-		}
+		accumulator.startElement(qName, attributes);
 	}
 	
+	/**
+	 * @see Accumulator#characters(char[], int, int)
+	 */
 	@Override
-	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+	public void characters(char ch[], int start, int length) throws SAXException
 	{
-		// Tag
-		update(qName);
-		
-		// Attributes
-		for(int i = 0; i < attributes.getLength(); i++)
-		{
-			update(attributes.getQName(i));
-			update(attributes.getValue(i));
-		}
+		accumulator.characters(ch, start, length);
 	}
 	
 	/**
-	 * Character chunks are trimmed and only is the result is non-empty they are used in the hash computation.
-	 * Note: the difference with handling attributes values ({@see #startElement(String, String, String, Attributes)}),
-	 * which are not trimmed and included when empty, is deliberate. We do this because on Android more whitespace-only
-	 * character chunks tend to be generated than on desktop java, which causes different hashes to be computed. 
+	 * Accumulates the hash code from SAX events, allowing it to be computed while the same document is being parsed
+	 * for another purpose (see {@link Handler#setHashAccumulator(Accumulator)}) instead of in a separate pass.
+	 * Produces exactly the same hash codes as {@link XMLHasher}.
 	 * 
-	 * @see uk.ac.ucl.excites.sapelli.shared.util.xml.Handler#characters(char[], int, int)
+	 * @author mstevens
 	 */
-	@Override
-	public void characters(char ch[], int start, int length) throws SAXException
+	static public class Accumulator
 	{
-		String charblock = new String(ch, start, length).trim(); // always trim "inter-tag" char blocks ...
-		if(!charblock.isEmpty()) // and do not include them when empty
-			update(charblock);
+		
+		private int hashCode = 1;
+		private final CRC32 crc;
+		
+		/**
+		 * @param crc32 whether to compute a CRC32 hash code ({@code true}) or a "Java-style" one ({@code false})
+		 */
+		public Accumulator(boolean crc32)
+		{
+			this.crc = crc32 ? new CRC32() : null;
+		}
+		
+		private void update(String str)
+		{
+			if(str != null)
+			{
+				if(crc == null)
+					hashCode = MULTIPLIER * hashCode + str.hashCode();
+				else
+				{
+					if(str.isEmpty())
+						crc.update(0);
+					else
+						crc.update(str.getBytes(UTF8));
+				}
+			}
+		}
+		
+		public void startElement(String qName, Attributes attributes)
+		{
+			// Tag
+			update(qName);
+			
+			// Attributes
+			for(int i = 0; i < attributes.getLength(); i++)
+			{
+				update(attributes.getQName(i));
+				update(attributes.getValue(i));
+			}
+		}
+		
+		/**
+		 * Character chunks are trimmed and only is the result is non-empty they are used in the hash computation.
+		 * Note: the difference with handling attributes values ({@see #startElement(String, Attributes)}),
+		 * which are not trimmed and included when empty, is deliberate. We do this because on Android more whitespace-only
+		 * character chunks tend to be generated than on desktop java, which causes different hashes to be computed.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.shared.util.xml.Handler#characters(char[], int, int)
+		 */
+		public void characters(char ch[], int start, int length)
+		{
+			// Always trim "inter-tag" char blocks (same as String#trim()) ...
+			int end = start + length;
+			while(start < end && ch[start] <= ' ')
+				start++;
+			while(start < end && ch[end - 1] <= ' ')
+				end--;
+			// ... and do not include them when empty:
+			if(start == end)
+				return;
+			if(crc == null)
+			{	// Equivalent to update(new String(ch, start, end - start)), without creating the String:
+				int strHash = 0;
+				for(int c = start; c < end; c++)
+					strHash = MULTIPLIER * strHash + ch[c];
+				hashCode = MULTIPLIER * hashCode + strHash;
+			}
+			else
+				update(new String(ch, start, end - start));
+		}
+		
+		/**
+		 * @return a signed 32bit hash code, computed in "Java-style" (i.e. similarly to {@link Object#hashCode()})
+		 */
+		public int getJavaHashCode()
+		{
+			if(crc != null)
+				throw new IllegalStateException("This accumulator computes a CRC32 hash code.");
+			return hashCode;
+		}
+		
+		/**
+		 * @return an unsigned 32bit hash code, computed using CRC32
+		 */
+		public long getCRC32HashCode()
+		{
+			if(crc == null)
+				throw new IllegalStateException("This accumulator computes a Java-style hash code.");
+			return crc.getValue();
+		}
+		
 	}
 
 }
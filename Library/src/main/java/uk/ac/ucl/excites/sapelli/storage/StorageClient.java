@@ -288,6 +288,25 @@ public abstract class StorageClient implements StorageObserver, Console
 	 */
 	public abstract List<? extends Attachment> getRecordAttachments(Record record);
 	
+	/**
+	 * Returns the {@link Attachment}s of each of the given records. The default implementation simply calls
+	 * {@link #getRecordAttachments(Record)} for each record, subclasses may override this to resolve attachments in bulk.
+	 * 
+	 * @param records should not be {@code null}
+	 * @return a {@link Map} with a {@link List} with the {@link Attachment}s associated with each record (records without attachments may be left out), note that the attachment files do *not* necessarily exist
+	 */
+	public Map<Record, ? extends List<? extends Attachment>> getRecordAttachments(List<Record> records)
+	{
+		Map<Record, List<? extends Attachment>> attachmentsByRecord = new HashMap<Record, List<? extends Attachment>>();
+		for(Record record : records)
+		{
+			List<? extends Attachment> attachments = getRecordAttachments(record);
+			if(attachments != null && !attachments.isEmpty())
+				attachmentsByRecord.put(record, attachments);
+		}
+		return attachmentsByRecord;
+	}
+	
 	/**
 	 * @param modelID
 	 * @return a {@link Model} instance with the given ID
@@ -29,6 +29,9 @@ import java.util.Stack;
 import uk.ac.ucl.excites.sapelli.shared.db.Store;
 import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Histogram;
+import uk.ac.ucl.excites.sapelli.shared.metrics.MetricsRegistry;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient;
 import uk.ac.ucl.excites.sapelli.storage.StorageClient.RecordOperation;
 import uk.ac.ucl.excites.sapelli.storage.db.exceptions.DBConstraintException;
@@ -37,6 +40,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.RecordReference;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
@@ -58,6 +62,21 @@ public abstract class RecordStore extends Store
 	static public final String DATABASE_NAME_SUFFIX = "-RecordStore";
 	static public final String BACKUP_SUFFIX = "_Backup_"; // to be followed by a timestamp
 	
+	// Metrics (shared by all RecordStore instances):
+	static protected final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+	static private final Histogram STORE_LATENCY = METRICS.histogram("storage.store.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram STORE_BATCH_LATENCY = METRICS.histogram("storage.store.batch.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram INSERT_LATENCY = METRICS.histogram("storage.insert.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram DELETE_LATENCY = METRICS.histogram("storage.delete.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram DELETE_BATCH_LATENCY = METRICS.histogram("storage.delete.batch.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram TRANSACTION_DURATION = METRICS.histogram("storage.transaction.duration", Histogram.UNIT_NANOSECONDS);
+	static private final Counter RECORDS_INSERTED = METRICS.counter("storage.records.inserted");
+	static private final Counter RECORDS_UPDATED = METRICS.counter("storage.records.updated");
+	static private final Counter RECORDS_UNCHANGED = METRICS.counter("storage.records.unchanged");
+	static private final Counter RECORDS_DELETED = METRICS.counter("storage.records.deleted");
+	static private final Counter TRANSACTIONS_COMMITTED = METRICS.counter("storage.transactions.committed");
+	static private final Counter TRANSACTIONS_ROLLED_BACK = METRICS.counter("storage.transactions.rolledBack");
+	
 	// DYNAMIC ----------------------------------------------------------------
 	protected final StorageClient client;
 	protected boolean loggingEnabled = false;
@@ -73,6 +92,11 @@ public abstract class RecordStore extends Store
 	 */
 	private final Stack<List<RollbackTask>> rollbackTasks;
 	
+	/**
+	 * Start time of the current outer-most transaction, for metrics
+	 */
+	private long transactionStartNS;
+	
 	/**
 	 * @param client
 	 * @param useRollbackTasks whether or not the subclass will/might make use of roll-back tasks 
@@ -94,7 +118,8 @@ public abstract class RecordStore extends Store
 	{
 		doStartTransaction(); // throws DBException
 		
-		openTransactions++; // !!!
+		if(openTransactions++ == 0) // !!!
+			transactionStartNS = TRANSACTION_DURATION.startTimer();
 		
 		if(rollbackTasks != null)
 			rollbackTasks.push(Collections.<RollbackTask> emptyList()); // will be replaced by proper ArrayList when needed
@@ -145,7 +170,11 @@ public abstract class RecordStore extends Store
 		{
 			doCommitTransaction(); // throws DBException
 			
-			openTransactions--; // !!!
+			if(--openTransactions == 0) // !!!
+			{
+				TRANSACTION_DURATION.recordSince(transactionStartNS);
+				TRANSACTIONS_COMMITTED.increment();
+			}
 			
 			// Deal with roll-back tasks if needed:
 			if(rollbackTasks != null)
@@ -188,7 +217,11 @@ public abstract class RecordStore extends Store
 		// Perform actual roll-back:
 		doRollbackTransaction(); // throws DBException
 		// Reduce number of open transactions:
-		openTransactions--;
+		if(--openTransactions == 0)
+		{
+			TRANSACTION_DURATION.recordSince(transactionStartNS);
+			TRANSACTIONS_ROLLED_BACK.increment();
+		}
 		// Run RollbackTasks associated with the rolled-back transaction:
 		if(rollbackTasks != null)
 			for(RollbackTask task : rollbackTasks.pop())
@@ -276,6 +309,7 @@ public abstract class RecordStore extends Store
 		if(!isStorable(record))
 			throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record.toString(false)));
 		Boolean insert = null;
+		long startNS = STORE_LATENCY.startTimer();
 		try
 		{
 			insert = doStore(record);
@@ -285,6 +319,8 @@ public abstract class RecordStore extends Store
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		STORE_LATENCY.recordSince(startNS);
+		countStored(insert);
 		// Inform client:
 		if(insert == null)
 			return; // record was unchanged
@@ -311,6 +347,7 @@ public abstract class RecordStore extends Store
 		if(!isStorable(record))
 			throw new IllegalArgumentException(String.format("Record (%s) cannot be inserted!", record.toString(false)));
 		boolean inserted = false;
+		long startNS = INSERT_LATENCY.startTimer();
 		try
 		{
 			inserted = doInsert(record);
@@ -320,6 +357,8 @@ public abstract class RecordStore extends Store
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		INSERT_LATENCY.recordSince(startNS);
+		countStored(inserted ? Boolean.TRUE : null);
 		// Inform client if a real insert happened:
 		if(inserted)
 			client.storageEvent(RecordOperation.Inserted, record.getReference(), this);
@@ -337,6 +376,7 @@ public abstract class RecordStore extends Store
 	public void store(List<Record> records) throws DBException, IllegalArgumentException, IllegalStateException
 	{
 		Boolean[] insert = new Boolean[records.size()]; 
+		long startNS = STORE_BATCH_LATENCY.startTimer();
 		startTransaction();
 		int r = 0;
 		try
@@ -353,11 +393,13 @@ public abstract class RecordStore extends Store
 			throw new DBException(e);
 		}
 		commitTransaction();
+		STORE_BATCH_LATENCY.recordSince(startNS);
 		// Inform client:
 		r = 0;
 		for(Record record : records)
 		{
 			Boolean inserted = insert[r++];
+			countStored(inserted);
 			if(inserted == null)
 				continue; // record was unchanged
 			else if(inserted)
@@ -367,6 +409,92 @@ public abstract class RecordStore extends Store
 		}
 	}
 	
+	/**
+	 * Store the rows of a {@link RecordBatch}. A record that already exists will be updated. A transaction will be used. If there is a problem
+	 * with storing one of the records the whole operation will be rolled back.
+	 * Values of auto-incrementing primary key columns which are assigned while storing are set in the batch.
+	 * 
+	 * Unless the store holds on to the {@link Record} instances it is given (see {@link #retainsRecordInstances()}) all rows are stored
+	 * through a single Record instance.
+	 * 
+	 * @param batch - the rows to store or update
+	 * @throws DBException in case of a database problem
+	 * @throws IllegalArgumentException when a row cannot be stored
+	 * @throws IllegalStateException when the columns that are part of the primary key have not all been assigned a value
+	 */
+	public void store(RecordBatch batch) throws DBException, IllegalArgumentException, IllegalStateException
+	{
+		int size = batch.size();
+		Boolean[] insert = new Boolean[size];
+		RecordReference[] references = new RecordReference[size];
+		IntegerColumn autoKeyCol = batch.getSchema().getAutoIncrementingPrimaryKeyColumn();
+		boolean reuseRecord = !retainsRecordInstances();
+		long startNS = STORE_BATCH_LATENCY.startTimer();
+		startTransaction();
+		try
+		{
+			Record record = null;
+			for(int r = 0; r < size; r++)
+			{
+				if(record == null || !reuseRecord)
+					record = batch.getRecord(r);
+				else
+					batch.copyInto(r, record);
+				if(!isStorable(record))
+					throw new IllegalArgumentException(String.format("Record (%s) cannot be stored!", record.toString(false)));
+				insert[r] = doStore(record);
+				if(autoKeyCol != null)
+					batch.setValue(r, autoKeyCol, autoKeyCol.retrieveValue(record)); // the key may have been assigned
+				if(insert[r] != null)
+					references[r] = record.getReference();
+			}
+		}
+		catch(Exception e)
+		{
+			rollbackTransactions();
+			throw new DBException(e);
+		}
+		commitTransaction();
+		STORE_BATCH_LATENCY.recordSince(startNS);
+		// Inform client:
+		for(int r = 0; r < size; r++)
+		{
+			countStored(insert[r]);
+			if(insert[r] == null)
+				continue; // record was unchanged
+			else if(insert[r])
+				client.storageEvent(RecordOperation.Inserted, references[r], this);
+			else
+				client.storageEvent(RecordOperation.Updated, references[r], this);
+		}
+	}
+	
+	/**
+	 * Whether or not the store holds on to {@link Record} instances passed to {@link #doStore(Record)} (as object databases do).
+	 * If it does not a single Record instance may be reused to store many rows (see {@link #store(RecordBatch)}).
+	 * 
+	 * @return {@code true} by default
+	 */
+	protected boolean retainsRecordInstances()
+	{
+		return true;
+	}
+	
+	/**
+	 * Updates the metrics counters for rows written.
+	 * 
+	 * @param insert result of {@link #doStore(Record)}
+	 */
+	private void countStored(Boolean insert)
+	{
+		if(insert == null)
+			RECORDS_UNCHANGED.increment();
+		else if(insert)
+			RECORDS_INSERTED.increment();
+		else
+			RECORDS_UPDATED.increment();
+	}
+	
 	/**
 	 * Stores (insert or update/replace) a record
 	 * 
@@ -479,15 +607,18 @@ public abstract class RecordStore extends Store
 	{
 		if(!isStorable(record))
 			return;
+		long startNS = DELETE_LATENCY.startTimer();
 		try
 		{
-			doDelete(record);
+			if(doDelete(record))
+				RECORDS_DELETED.increment();
 		}
 		catch(DBException e)
 		{
 			rollbackTransactions(); // !!!
 			throw e;
 		}
+		DELETE_LATENCY.recordSince(startNS);
 		// Inform client:
 		client.storageEvent(RecordOperation.Deleted, record.getReference(), this);
 	}
@@ -541,6 +672,7 @@ public abstract class RecordStore extends Store
 	 */
 	public void delete(Collection<Record> records) throws DBException
 	{
+		long startNS = DELETE_BATCH_LATENCY.startTimer();
 		startTransaction();
 		List<Record> deleted = new ArrayList<Record>(records.size());
 		try
@@ -558,6 +690,8 @@ public abstract class RecordStore extends Store
 			throw e;
 		}
 		commitTransaction();
+		DELETE_BATCH_LATENCY.recordSince(startNS);
+		RECORDS_DELETED.add(deleted.size());
 		// Inform client:
 		for(Record record : deleted)
 			client.storageEvent(RecordOperation.Deleted, record.getReference(), this);
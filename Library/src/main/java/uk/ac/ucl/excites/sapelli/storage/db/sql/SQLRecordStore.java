@@ -30,7 +30,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import uk.ac.ucl.excites.sapelli.shared.collections.LongObjectHashMap;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Histogram;
 import uk.ac.ucl.excites.sapelli.shared.util.CollectionUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.shared.util.TransactionalStringBuilder;
@@ -102,6 +105,19 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	// STATIC ------------------------------------------------------------
 	static protected final String SPACE = " ";
 	
+	static private final Histogram RETRIEVE_LATENCY = METRICS.histogram("storage.retrieve.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram RETRIEVE_SINGLE_LATENCY = METRICS.histogram("storage.retrieve.single.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Counter ROWS_READ = METRICS.counter("storage.rows.read");
+	
+	/**
+	 * @param schema
+	 * @return a primitive key which uniquely identifies the given schema, based on the same information as its meta record reference (i.e. model ID & schema number)
+	 */
+	static private long GetTableKey(Schema schema)
+	{
+		return (schema.model.id << 8) | schema.modelSchemaNumber; // model IDs are 56 bits, schema numbers fit in 8
+	}
+	
 	// DYNAMIC -----------------------------------------------------------
 	private STable modelsTable;
 	private STable schemataTable;
@@ -136,6 +152,12 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	 */
 	private final Map<RecordReference, STable> tables;
 	
+	/**
+	 * Allocation-free lookup cache for the {@link #tables} map, keyed by {@link #GetTableKey(Schema)}.
+	 * Must be kept in sync with the tables map (i.e. it should never contain tables that are not in there). 
+	 */
+	private final LongObjectHashMap<STable> tablesByKey = new LongObjectHashMap<STable>();
+	
 	/**
 	 * If non-null (all) SQL statements/queries will use parameters instead of literal values
 	 */
@@ -346,8 +368,14 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		}
 		else
 		{
-			schemaMetaRecordRef = schema.getMetaRecordReference(); // get reference to schemaMetaRecord
-			table = tables.get(schemaMetaRecordRef); // lookup in tables cache
+			table = tablesByKey.get(GetTableKey(schema)); // fast lookup
+			if(table == null)
+			{
+				schemaMetaRecordRef = schema.getMetaRecordReference(); // get reference to schemaMetaRecord
+				table = tables.get(schemaMetaRecordRef); // lookup in tables cache
+				if(table != null)
+					tablesByKey.put(GetTableKey(schema), table);
+			}
 		}
 		
 		// If not found, generate new SQLTable object for the Schema:
@@ -355,7 +383,10 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		{
 			table = getTableFactory().generateTable(schema);
 			if(!Model.META_MODEL.contains(schema)) // the "tables" map is only for tables of "real" (non-meta) schemata!
+			{
 				tables.put(schemaMetaRecordRef, table);
+				tablesByKey.put(GetTableKey(schema), table);
+			}
 		}
 		
 		// If requested then create the actual table in the database if it is not there:
@@ -411,6 +442,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				if(!table.isInDB(true)) // true: really check against db
 				{	// The table doesn't exist in the db, so forget about it:
 					tablesIt.remove(); // removes entry from tables map
+					tablesByKey.remove(GetTableKey(table.schema));
 				}
 				// When the table does exist, check if table if it is empty:
 				else if(table.isEmpty())
@@ -421,6 +453,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 					emptyTables.add(tableEntry);
 					// we can already remove its entry from tables map
 					tablesIt.remove();
+					tablesByKey.remove(GetTableKey(table.schema));
 				}
 				// Release table resources:
 				table.release();
@@ -643,6 +676,17 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		return getTable(record.getSchema(), true).store(record, true); // getTable() will create table in db if it is not there
 	}
 	
+	/**
+	 * Records are turned into SQL statements and are not held on to.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#retainsRecordInstances()
+	 */
+	@Override
+	protected boolean retainsRecordInstances()
+	{
+		return false;
+	}
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.db.RecordStore#doInsert(uk.ac.ucl.excites.sapelli.storage.model.Record)
 	 */
@@ -774,6 +818,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	private <R extends RecordValueSet<?>> List<R> retrieveRecordValueSets(RecordsQuery query, Collection<Schema> schemata, SelectRunner<R, STable> selectRunner)
 	{
 		List<R> resultAcc = null;
+		long startNS = RETRIEVE_LATENCY.startTimer();
 		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
 		for(Schema s : schemata)
 		{
@@ -795,7 +840,11 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				client.logError("Error in retrieveRecordValueSets()", dbE);
 			}
 		}
-		return resultAcc != null ? resultAcc : Collections.<R> emptyList();
+		RETRIEVE_LATENCY.recordSince(startNS);
+		if(resultAcc == null)
+			return Collections.<R> emptyList();
+		ROWS_READ.add(resultAcc.size());
+		return resultAcc;
 	}
 
 	/* (non-Javadoc)
@@ -805,6 +854,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 	public Record retrieveRecord(SingleRecordQuery query)
 	{
 		List<Record> candidates = null;
+		long startNS = RETRIEVE_SINGLE_LATENCY.startTimer();
 		// Run subqueries for each schema in the query, or all known schemata (if the query is for "any" schema):
 		RecordsQuery recsQuery = query.getRecordsQuery();
 		for(Schema s : getSchemata(recsQuery.getSource()))
@@ -827,7 +877,11 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				client.logError("Error in retrieveRecord(SingleRecordQuery)", dbE);
 			}
 		}
-		return query.execute(candidates, false); // reduce to 1 record (execute() will return null when passed a null list)
+		Record result = query.execute(candidates, false); // reduce to 1 record (execute() will return null when passed a null list)
+		RETRIEVE_SINGLE_LATENCY.recordSince(startNS);
+		if(result != null)
+			ROWS_READ.increment();
+		return result;
 	}
 	
 	protected abstract String getNullString();
@@ -936,6 +990,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			if(table.getUnsanitisedName().equals(unsanitisedTableName))
 			{
 				tableIt.remove(); // delete from tables map
+				tablesByKey.remove(GetTableKey(table.schema));
 				return table;
 			}
 		}
@@ -976,7 +1031,9 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				schemataTable.update(oldSchemaMetaRecord);
 				
 				// Delete table from tables map:
-				tables.remove(oldSchemaMetaRecord.getReference()); // new STable will be constructed & added to the tables map when the renamed table is first accessed				
+				STable oldTable = tables.remove(oldSchemaMetaRecord.getReference()); // new STable will be constructed & added to the tables map when the renamed table is first accessed				
+				if(oldTable != null)
+					tablesByKey.remove(GetTableKey(oldTable.schema));
 			}
 			
 			// Update tables map entries:
@@ -985,7 +1042,10 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 			{
 				STable table = tableIt.next().getValue();
 				if(table.getUnsanitisedName().equals(oldTableName)) // in case this didn't happen above
+				{
 					tableIt.remove();
+					tablesByKey.remove(GetTableKey(table.schema));
+				}
 				else if(table.getUnsanitisedName().equals(newTableName))
 					table.isInDB(true); // force checking if table exists!
 			}
@@ -1678,6 +1738,18 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		 */
 		public void setUseBLOBsForAllListColumns(boolean enable) throws DBException;
 		
+		/**
+		 * Makes the TableFactory use BLOB-based SQLColumns, holding the compact binary encoding of the values,
+		 * to represent {@link PolygonColumn}s and {@link LineColumn}s. Decoding those is considerably faster than
+		 * parsing the String representation of long lists of Locations.
+		 * Note that this choice is not recorded in the database itself, so it must be made consistently each time
+		 * a database is initialised, and should only be enabled for new databases.
+		 * 
+		 * @param enable whether or not the TableFactory will use BLOB-based SQLColumns to represent {@link PolygonColumn}s and {@link LineColumn}s
+		 * @throws DBException when called outside of initialisation phase
+		 */
+		public void setUseBLOBsForLocationListColumns(boolean enable) throws DBException;
+		
 	}
 	
 	/**
@@ -1699,6 +1771,7 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		
 		private boolean insertBoolColsForAllOptionalValueSetCols = true; // !!!
 		private boolean useBLOBsForAllListColumns = false; // !!!
+		private boolean useBLOBsForLocationListColumns = false; // !!!
 		
 		/**
 		 * Note:
@@ -1768,6 +1841,14 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 				throw new DBException("Changing 'useBLOBsForAllListColumns' is only allowed during initialisation/upgrade!");
 			useBLOBsForAllListColumns = enable;
 		}
+		
+		@Override
+		public void setUseBLOBsForLocationListColumns(boolean enable) throws DBException
+		{
+			if(!isInitialising())
+				throw new DBException("Changing 'useBLOBsForLocationListColumns' is only allowed during initialisation!");
+			useBLOBsForLocationListColumns = enable;
+		}
 
 		/* (non-Javadoc)
 		 * @see uk.ac.ucl.excites.sapelli.storage.visitors.SchemaTraverser#enter(uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn)
@@ -1853,13 +1934,13 @@ public abstract class SQLRecordStore<SRS extends SQLRecordStore<SRS, STable, SCo
 		@Override
 		public void visit(PolygonColumn polyCol)
 		{
-			visitListColumn(polyCol, !useBLOBsForAllListColumns);
+			visitListColumn(polyCol, !(useBLOBsForAllListColumns || useBLOBsForLocationListColumns));
 		}
 		
 		@Override
 		public void visit(LineColumn lineCol)
 		{
-			visitListColumn(lineCol, !useBLOBsForAllListColumns);
+			visitListColumn(lineCol, !(useBLOBsForAllListColumns || useBLOBsForLocationListColumns));
 		}
 		
 		@Override
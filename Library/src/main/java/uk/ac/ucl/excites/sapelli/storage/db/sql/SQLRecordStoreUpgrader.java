@@ -38,6 +38,9 @@ import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.AutoIncrementingPrimaryKey;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.PrimaryKey;
+import uk.ac.ucl.excites.sapelli.storage.queries.Order;
+import uk.ac.ucl.excites.sapelli.storage.queries.RecordsQuery;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
 
 /**
  * @author mstevens
@@ -46,6 +49,11 @@ import uk.ac.ucl.excites.sapelli.storage.model.indexes.PrimaryKey;
 public abstract class SQLRecordStoreUpgrader
 {
 	
+	/**
+	 * The default maximum number of records held in memory at once by {@link UpgradeOperations#convertTable(SQLRecordStore, TableConverter, SQLRecordStore.SQLTable)}.
+	 */
+	static public final int DEFAULT_CONVERSION_CHUNK_SIZE = 1000;
+	
 	private final List<String> warnings;
 	protected final UpgradeCallback callback;
 	protected final File backupFolder;
@@ -232,6 +240,143 @@ public abstract class SQLRecordStoreUpgrader
 			return recordStore.getTableFactory();
 		}
 		
+		/**
+		 * Generates a new {@link SQLRecordStore.SQLTable} instance for the given Schema, without registering it in the
+		 * record store's tables map. This allows a table in its pre-upgrade form (e.g. under a temporary name) to
+		 * be accessed alongside the table for the new version of the same Schema.
+		 * 
+		 * @param recordStore
+		 * @param schema
+		 * @return
+		 * @throws DBException
+		 * @see TableFactory#generateTable(Schema)
+		 */
+		public SQLRecordStore<?, ?, ?>.SQLTable generateTable(SQLRecordStore<?, ?, ?> recordStore, Schema schema) throws DBException
+		{
+			return recordStore.getTableFactory().generateTable(schema);
+		}
+		
+		/**
+		 * Moves all records from the given source table, which must be compatible with {@link TableConverter#getOldSchema()},
+		 * into the table for the new schema (which is created if needed), converting them on the way. Afterwards the source table
+		 * is dropped.
+		 * 
+		 * When the conversion only consists of adding columns with default values (or of nothing at all), and the SQL representation
+		 * of all other columns is unchanged, this is done with a single set-based {@code INSERT INTO ... SELECT ... FROM} statement.
+		 * Otherwise records are converted in bounded chunks, ordered by primary key. Each chunk is deleted from the source table once it
+		 * has been stored in the new one, so memory use is constant and the source table itself acts as a checkpoint: if the conversion
+		 * is interrupted it can be resumed by calling this method again with the same source table.
+		 * 
+		 * @param recordStore
+		 * @param tableConverter
+		 * @param sourceTable an {@link SQLRecordStore.SQLTable} for the old schema, obtained from {@link #generateTable(SQLRecordStore, Schema)}
+		 * @throws DBException
+		 */
+		public void convertTable(SQLRecordStore<?, ?, ?> recordStore, TableConverter tableConverter, SQLRecordStore<?, ?, ?>.SQLTable sourceTable) throws DBException
+		{
+			convertTable(recordStore, tableConverter, sourceTable, DEFAULT_CONVERSION_CHUNK_SIZE);
+		}
+		
+		/**
+		 * @param recordStore
+		 * @param tableConverter
+		 * @param sourceTable an {@link SQLRecordStore.SQLTable} for the old schema, obtained from {@link #generateTable(SQLRecordStore, Schema)}
+		 * @param chunkSize maximum number of records held in memory at once
+		 * @throws DBException
+		 * @see #convertTable(SQLRecordStore, TableConverter, SQLRecordStore.SQLTable)
+		 */
+		public void convertTable(SQLRecordStore<?, ?, ?> recordStore, TableConverter tableConverter, SQLRecordStore<?, ?, ?>.SQLTable sourceTable, int chunkSize) throws DBException
+		{
+			if(sourceTable.isInDB(true))
+			{
+				// Get (and if needed create) the table for the new schema:
+				SQLRecordStore<?, ?, ?>.SQLTable targetTable = recordStore.getTable(tableConverter.getNewSchema(), true);
+				
+				String insertSelectSQL = getInsertSelectStatement(recordStore, tableConverter, sourceTable, targetTable);
+				if(insertSelectSQL != null)
+					// Set-based copy:
+					recordStore.executeSQL(insertSelectSQL);
+				else if(!sourceTable.schema.hasPrimaryKey())
+					// We cannot delete converted records one by one, so convert all at once:
+					recordStore.store(tableConverter.convertRecords(sourceTable.select(new RecordsQuery(sourceTable.schema))));
+				else
+				{
+					// Order by primary key:
+					List<ColumnPointer<?>> keyPartCPs = new ArrayList<ColumnPointer<?>>();
+					for(SQLRecordStore<?, ?, ?>.SQLColumn<?, ?> keyPartCol : sourceTable.getKeyPartSQLColumns())
+						keyPartCPs.add(keyPartCol.sourceColumnPointer);
+					RecordsQuery chunkQuery = new RecordsQuery(sourceTable.schema, Order.By(keyPartCPs.toArray(new ColumnPointer<?>[keyPartCPs.size()])), chunkSize);
+					
+					// Convert chunk by chunk:
+					List<Record> chunk;
+					while(!(chunk = sourceTable.select(chunkQuery)).isEmpty())
+					{
+						recordStore.store(tableConverter.convertRecords(chunk));
+						for(Record oldRecord : chunk)
+							sourceTable.delete(oldRecord); // checkpoint
+					}
+				}
+			}
+			
+			// Drop the source table:
+			sourceTable.release();
+			recordStore.dropTable(sourceTable.getUnsanitisedName(), false);
+		}
+		
+		/**
+		 * @return an {@code INSERT INTO ... SELECT ... FROM} statement which copies all records of the source table into the
+		 * 	target table, or {@code null} if the conversion cannot be expressed as such (i.e. if values need to be converted)
+		 */
+		private String getInsertSelectStatement(SQLRecordStore<?, ?, ?> recordStore, TableConverter tableConverter, SQLRecordStore<?, ?, ?>.SQLTable sourceTable, SQLRecordStore<?, ?, ?>.SQLTable targetTable)
+		{
+			if(!tableConverter.onlyAddsColumnsWithDefaultValues())
+				return null;
+			
+			// Index source columns by name:
+			Map<String, SQLRecordStore<?, ?, ?>.SQLColumn<?, ?>> sourceColumns = new HashMap<String, SQLRecordStore<?, ?, ?>.SQLColumn<?, ?>>();
+			for(SQLRecordStore<?, ?, ?>.SQLColumn<?, ?> sourceCol : sourceTable.sqlColumns.values())
+				sourceColumns.put(sourceCol.sanitisedName, sourceCol);
+			
+			// Record holding the default values of added columns:
+			Record defaults = tableConverter.getNewSchema().createRecord();
+			
+			StringBuilder targetNames = new StringBuilder();
+			StringBuilder selection = new StringBuilder();
+			for(SQLRecordStore<?, ?, ?>.SQLColumn<?, ?> targetCol : targetTable.sqlColumns.values())
+			{
+				if(targetNames.length() > 0)
+				{
+					targetNames.append(", ");
+					selection.append(", ");
+				}
+				targetNames.append(targetCol.sanitisedName);
+				SQLRecordStore<?, ?, ?>.SQLColumn<?, ?> sourceCol = sourceColumns.remove(targetCol.sanitisedName);
+				if(sourceCol != null)
+				{
+					if(!sourceCol.type.equals(targetCol.type))
+						return null; // SQL representation has changed
+					selection.append(sourceCol.sanitisedName);
+				}
+				else
+				{
+					// Find top-level column:
+					ColumnPointer<?> topCP = targetCol.sourceColumnPointer;
+					while(topCP.isSubColumn())
+						topCP = topCP.getParentPointer();
+					ColumnReplacer cr = tableConverter.getColumnReplacer(topCP.getColumn());
+					if(!(cr instanceof DefaultValueColumnAdder))
+						return null; // new SQL column which does not correspond to an added column
+					if(topCP.getColumn().retrieveValue(defaults) == null)
+						topCP.getColumn().storeObject(defaults, cr.convertValue(topCP.getColumn(), null));
+					selection.append(targetCol.retrieveAsLiteral(defaults, true));
+				}
+			}
+			if(!sourceColumns.isEmpty())
+				return null; // source columns would be lost
+			
+			return String.format("INSERT INTO %1$s (%2$s) SELECT %3$s FROM %4$s;", targetTable.sanitisedName, targetNames, selection, sourceTable.sanitisedName);
+		}
+		
 		/**
 		 * Calls {@link SQLRecordStore#cleanup()}.
 		 * 
@@ -298,6 +443,19 @@ public abstract class SQLRecordStoreUpgrader
 			if(isTransparent())
 				return newSchema;
 			// else:
+			return getOldSchema(newSchema.tableName);
+		}
+		
+		/**
+		 * Returns a recreation of the old schema, as {@link #getOldSchema()} does, but with the given table name.
+		 * This is useful to access the pre-upgrade table after it has been renamed. Unlike {@link #getOldSchema()}
+		 * this method never returns the new schema itself, even if the converter is transparent.
+		 * 
+		 * @param oldTableName
+		 * @return
+		 */
+		public Schema getOldSchema(String oldTableName)
+		{
 			// Construct a fake recreation of the Schema (and its Model) with "v1x" MediaField columns, this "oldSchema" should be compatible with table as it currently exists in the database:
 			Model oldModel;
 			if(newModel.hasDefaultSchemaFlags())
@@ -310,7 +468,7 @@ public abstract class SQLRecordStoreUpgrader
 				new Schema(oldModel, "Fake_" + s, "FakeTable_" + s, 0);
 			
 			// Create (& insert into the oldModel) a replica of the newSchema, with the old version of the columns that have been changed:
-			Schema oldSchema = new Schema(oldModel, newSchema.getName(), newSchema.tableName, oldSchemaFlags);
+			Schema oldSchema = new Schema(oldModel, newSchema.getName(), oldTableName, oldSchemaFlags);
 			for(Column<?> newColumn : newSchema.getColumns(false))
 			{
 				ColumnReplacer cr = getColumnReplacer(newColumn);
@@ -400,6 +558,17 @@ public abstract class SQLRecordStoreUpgrader
 			return columnReplacers.isEmpty() && newSchema.flags == oldSchemaFlags;
 		}
 		
+		/**
+		 * @return whether the only difference between old and new schema is the addition of columns with default values (i.e. whether all ColumnReplacers are {@link DefaultValueColumnAdder}s)
+		 */
+		public boolean onlyAddsColumnsWithDefaultValues()
+		{
+			for(ColumnReplacer cr : columnReplacers)
+				if(!(cr instanceof DefaultValueColumnAdder))
+					return false;
+			return true;
+		}
+		
 		/**
 		 * @param newColumn - must be a real (non-virtual) and top-level column! We don't yet support direct replacing of subcolumns of ValueSetColumns or singleColumn of ListColumns
 		 * @return a {@link ColumnReplacer} instance matching the given new column, or {@code null} if the given column is unchanged from the old schema
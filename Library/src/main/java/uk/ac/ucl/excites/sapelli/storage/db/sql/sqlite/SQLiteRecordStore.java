@@ -20,7 +20,10 @@ package uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -30,7 +33,9 @@ import org.apache.commons.io.FileUtils;
 
 import uk.ac.ucl.excites.sapelli.shared.db.StoreBackupper;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
 import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.CollectionUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
@@ -49,6 +54,7 @@ import uk.ac.ucl.excites.sapelli.storage.db.sql.sqlite.types.SQLiteStringColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
 import uk.ac.ucl.excites.sapelli.storage.model.RecordValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
@@ -78,6 +84,13 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	
 	// Statics----------------------------------------------
 	static public final String DATABASE_FILE_EXTENSION = "sqlite3";
+	static private final int DATABASE_HEADER_SIZE = 100; // bytes
+	static private final int DEFAULT_PAGE_SIZE = 1024; // bytes
+	static protected final int MAX_INCREMENTAL_BACKUP_RESTARTS = 3;
+	static private final String BACKUP_TEMP_FILE_SUFFIX = ".tmp";
+	static private final String BACKUP_OLD_FILE_SUFFIX = ".old";
+	static private final String WAL_FILE_SUFFIX = "-wal";
+	static private final int WAL_HEADER_SIZE = 32; // bytes
 	static public final String PARAM_PLACEHOLDER = "?";
 	
 	static public final String NULL_STRING = "NULL";
@@ -96,6 +109,10 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	
 	static private final boolean LOG_QUALIFIED_QUERIES = false;
 	
+	static private final Counter STATEMENTS_COMPILED = METRICS.counter("storage.sqlite.statements.compiled");
+	static private final Counter STATEMENT_CACHE_HITS = METRICS.counter("storage.sqlite.statements.cacheHits");
+	static private final Counter QUERIES_EXECUTED = METRICS.counter("storage.sqlite.queries.executed");
+	
 	/**
 	 * Test method
 	 */
@@ -341,13 +358,37 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			else
 				// Using original file name
 				backupDB = new File(destinationFolder, currentDB.getName());
-			// Perform the actual back-up:
+			// Perform the actual back-up, into a temporary file which only replaces the destination file once complete:
+			File tempDB = new File(destinationFolder, backupDB.getName() + BACKUP_TEMP_FILE_SUFFIX);
 			try
 			{
-				doBackup(backupDB);
+				if(backuper.isIncremental() && backupDB.exists())
+				{
+					FileUtils.copyFile(backupDB, tempDB); // the earlier back-up remains untouched until the new one is complete
+					doIncrementalBackup(tempDB, backuper);
+				}
+				else
+					doBackup(tempDB, backuper);
+				if(!tempDB.renameTo(backupDB))
+				{	// The earlier back-up could not be replaced directly, move it aside (rather than delete it) until the new one is in place:
+					File oldDB = new File(destinationFolder, backupDB.getName() + BACKUP_OLD_FILE_SUFFIX);
+					FileUtils.deleteQuietly(oldDB);
+					if(!backupDB.renameTo(oldDB))
+						throw new IOException("Could not rename " + backupDB.getName() + " to " + oldDB.getName());
+					if(!tempDB.renameTo(backupDB))
+					{
+						oldDB.renameTo(backupDB); // restore the earlier back-up
+						throw new IOException("Could not rename " + tempDB.getName() + " to " + backupDB.getName());
+					}
+					FileUtils.deleteQuietly(oldDB);
+				}
 			}
 			catch(Exception e)
 			{
+				// Don't leave behind partial/inconsistent back-ups:
+				FileUtils.deleteQuietly(tempDB);
+				if(backuper.isCancelled())
+					throw new DBException("Back-up of SQLite database to " + backupDB.getAbsolutePath() + " was cancelled", e);
 				throw new DBException("Failed to back-up SQLite database to: " + backupDB.getAbsolutePath(), e);
 			}
 		}
@@ -356,15 +397,226 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 	}
 	
 	/**
-	 * Back-up by means of file copy.
+	 * Back-up by means of file copy, in steps of (initially) {@link StoreBackupper#getStepSize()} pages, see {@link #copyPages(File, StoreBackupper, boolean)}.
 	 * May be overridden.
 	 * 
 	 * @param destinationFile
+	 * @param backupper
+	 * @throws Exception
+	 */
+	protected void doBackup(File destinationFile, StoreBackupper backupper) throws Exception
+	{
+		copyPages(destinationFile, backupper, true);
+	}
+	
+	/**
+	 * Incrementally updates an earlier back-up by comparing the database file with the back-up
+	 * page by page and only (over)writing the pages which have changed, see {@link #copyPages(File, StoreBackupper, boolean)}.
+	 * 
+	 * Databases in WAL mode are backed-up in full, using {@link #doBackup(File, StoreBackupper)}.
+	 * 
+	 * @param destinationFile a copy of an earlier back-up of the database
+	 * @param backupper
+	 * @throws Exception
+	 */
+	protected void doIncrementalBackup(File destinationFile, StoreBackupper backupper) throws Exception
+	{
+		copyPages(destinationFile, backupper, false);
+	}
+	
+	/**
+	 * Copies the database file to the destination file page by page, in steps of (initially) {@link StoreBackupper#getStepSize()} pages,
+	 * skipping pages which are already present, unchanged, in the destination file. Each step happens within a read transaction (ensuring
+	 * no other connection commits changes to the database file meanwhile), which is ended between steps to let writers proceed. If the
+	 * database has been changed between steps the copy starts over (again skipping unchanged pages), so the result is always a consistent
+	 * copy; after {@link #MAX_INCREMENTAL_BACKUP_RESTARTS} restarts the remainder is copied in a single step.
+	 * 
+	 * Databases in WAL mode do not update the file change counter, so they are copied in a single step (in full mode), or using
+	 * {@link #doBackup(File, StoreBackupper)} (in incremental mode). Before that step the write-ahead log is checkpointed into the
+	 * database file (see {@link #checkpointWAL()}). If the checkpoint could not be completed, or the log was written to between
+	 * the checkpoint and the start of the read transaction, the step is repeated (up to {@link #MAX_INCREMENTAL_BACKUP_RESTARTS}
+	 * times), so that the copied database file holds all committed transactions.
+	 * 
+	 * @param destinationFile
+	 * @param backupper
+	 * @param full whether to discard the current contents of the destination file
 	 * @throws Exception
+	 * @see <a href="https://www.sqlite.org/fileformat2.html#the_database_header">SQLite database header</a>
+	 */
+	private void copyPages(File destinationFile, StoreBackupper backupper, boolean full) throws Exception
+	{
+		File currentDB = getDatabaseFile();
+		RandomAccessFile source = null;
+		RandomAccessFile destination = null;
+		try
+		{
+			source = new RandomAccessFile(currentDB, "r");
+			boolean wal = source.length() >= DATABASE_HEADER_SIZE && readHeaderByte(source, 18) == 2; // file format write version 2 means WAL
+			if(wal && !full)
+			{
+				StreamHelpers.SilentClose(source);
+				doBackup(destinationFile, backupper); // full back-up
+				return;
+			}
+			File walFile = new File(currentDB.getPath() + WAL_FILE_SUFFIX);
+			destination = new RandomAccessFile(destinationFile, "rw");
+			if(full)
+				destination.setLength(0);
+			final int pageSize = getPageSize(source);
+			byte[] sourcePage = new byte[pageSize];
+			byte[] destinationPage = new byte[pageSize];
+			long changeCounter = -1;
+			long total;
+			long page = 0;
+			int stepSize = backupper.getStepSize();
+			int restarts = 0;
+			boolean finished = false;
+			while(!finished)
+			{
+				long stepStart = System.currentTimeMillis();
+				long[] walState = wal ? getWALState(walFile) : null;
+				boolean checkpointed = wal && checkpointWAL(); // (cannot be done within a transaction)
+				startTransaction();
+				try
+				{
+					doesTableExist(Model.MODEL_SCHEMA); // reading acquires the shared lock, which is held until the transaction ends
+					if(wal)
+					{	// Unless a transaction was committed since the checkpoint the database file now holds all of them, and cannot change until the read transaction ends:
+						long[] walStateNow = getWALState(walFile);
+						if(!checkpointed || (walStateNow[0] != 0 && !Arrays.equals(walState, walStateNow)))
+						{
+							if(++restarts > MAX_INCREMENTAL_BACKUP_RESTARTS)
+								throw new IOException("Could not checkpoint the write-ahead log of the database");
+							continue;
+						}
+					}
+					// Check if the database was changed since the previous step:
+					else if(source.length() >= DATABASE_HEADER_SIZE)
+					{
+						source.seek(24);
+						long counter = source.readInt() & 0xFFFFFFFFL; // file change counter
+						if(changeCounter != -1 && counter != changeCounter)
+						{	// restart comparison:
+							page = 0;
+							restarts++;
+						}
+						changeCounter = counter;
+					}
+					// Compare & copy pages:
+					final long length = source.length();
+					total = (length + pageSize - 1) / pageSize; // (including a trailing partial page, should there be one)
+					long destinationLength = destination.length();
+					for(long end = wal || restarts > MAX_INCREMENTAL_BACKUP_RESTARTS ? total : Math.min(page + stepSize, total); page < end; page++)
+					{
+						long offset = page * pageSize;
+						int pageLength = (int) Math.min(pageSize, length - offset);
+						source.seek(offset);
+						source.readFully(sourcePage, 0, pageLength);
+						if(pageLength == pageSize && offset + pageSize <= destinationLength)
+						{
+							destination.seek(offset);
+							destination.readFully(destinationPage);
+							if(Arrays.equals(sourcePage, destinationPage))
+								continue; // unchanged
+						}
+						destination.seek(offset);
+						destination.write(sourcePage, 0, pageLength);
+					}
+					if(page >= total)
+					{
+						destination.setLength(length);
+						finished = true;
+					}
+				}
+				finally
+				{
+					commitTransaction();
+				}
+				stepSize = backupper.getNextStepSize(stepSize, System.currentTimeMillis() - stepStart);
+				backupper.stepCompleted(this, page, total);
+			}
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(source);
+			StreamHelpers.SilentClose(destination);
+		}
+	}
+	
+	/**
+	 * Checkpoints the write-ahead log into the database file and truncates it. Must not be called within a transaction.
+	 * SQLite versions before 3.8.8 do not know the TRUNCATE mode and do a passive checkpoint instead, which leaves the log
+	 * file in place.
+	 * 
+	 * @return whether all frames in the log were copied into the database file
+	 * @see <a href="https://www.sqlite.org/pragma.html#pragma_wal_checkpoint">PRAGMA wal_checkpoint</a>
+	 */
+	private boolean checkpointWAL()
+	{
+		SQLiteCursor cursor = null;
+		try
+		{
+			cursor = executeQuery(	"PRAGMA wal_checkpoint(TRUNCATE);",
+									Collections.<SQLiteColumn<?, ?>> emptyList(),
+									Collections.<String> emptyList());
+			// Columns: 1 if the checkpoint was blocked, number of frames in the log, number of frames checkpointed
+			return cursor != null && cursor.moveToNext() && cursor.getLong(0) == 0 && cursor.getLong(1) == cursor.getLong(2);
+		}
+		catch(DBException e)
+		{
+			client.logError("Error in checkpointWAL()", e);
+			return false;
+		}
+		finally
+		{
+			if(cursor != null)
+				cursor.close();
+		}
+	}
+	
+	/**
+	 * Any write to the log either appends frames to it, or (after a completed checkpoint) restarts it with a new salt-1 value
+	 * in its header.
+	 * 
+	 * @param walFile
+	 * @return the length of the write-ahead log file and the salt-1 value in its header (or -1 if there is no header)
+	 * @throws IOException
+	 * @see <a href="https://www.sqlite.org/fileformat2.html#walformat">WAL file format</a>
+	 */
+	private long[] getWALState(File walFile) throws IOException
+	{
+		long length = walFile.length();
+		if(length < WAL_HEADER_SIZE)
+			return new long[] { length, -1 };
+		RandomAccessFile wal = new RandomAccessFile(walFile, "r");
+		try
+		{
+			wal.seek(16);
+			return new long[] { length, wal.readInt() & 0xFFFFFFFFL };
+		}
+		finally
+		{
+			wal.close();
+		}
+	}
+	
+	/**
+	 * @param databaseFile
+	 * @return the page size of the database
+	 * @throws IOException
 	 */
-	protected void doBackup(File destinationFile) throws Exception
+	private int getPageSize(RandomAccessFile databaseFile) throws IOException
+	{
+		if(databaseFile.length() < DATABASE_HEADER_SIZE)
+			return DEFAULT_PAGE_SIZE;
+		int pageSize = (readHeaderByte(databaseFile, 16) << 8) | readHeaderByte(databaseFile, 17);
+		return pageSize == 1 ? 65536 : (pageSize >= 512 ? pageSize : DEFAULT_PAGE_SIZE);
+	}
+	
+	private int readHeaderByte(RandomAccessFile databaseFile, int offset) throws IOException
 	{
-		FileUtils.copyFile(getDatabaseFile(), destinationFile);
+		databaseFile.seek(offset);
+		return databaseFile.readUnsignedByte();
 	}
 	
 	/**
@@ -609,6 +861,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 		{
 			RecordsDeleteHelper deleteHelper = new RecordsDeleteHelper(this, query);
 			SQLiteStatement deleteByQStatement = generateStatement(deleteHelper.getQuery(), deleteHelper.getParameterColumns());
+			STATEMENTS_COMPILED.increment();
 			
 			// Bind parameters:
 			deleteByQStatement.bindAll(deleteHelper.getSapArguments());
@@ -633,6 +886,7 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 			try
 			{
 				// Execute query (also binds parameters) to get cursor:
+				QUERIES_EXECUTED.increment();
 				cursor = executeQuery(recordValueSetSelectHelper.getQuery(), recordValueSetSelectHelper.getParameterColumns(), recordValueSetSelectHelper.getSapArguments());
 				// Deal with cursor:
 				if(cursor == null || !cursor.hasRow())
@@ -710,9 +964,13 @@ public abstract class SQLiteRecordStore extends SQLRecordStore<SQLiteRecordStore
 				{
 					StatementHelper helper = getHelper();
 					statement = generateStatement(helper.getQuery(), helper.getParameterColumns());
+					STATEMENTS_COMPILED.increment();
 				}
 				else
+				{
 					statement.clearAllBindings(); // clear bindings for reuse
+					STATEMENT_CACHE_HITS.increment();
+				}
 				// Return:
 				return statement;
 			}
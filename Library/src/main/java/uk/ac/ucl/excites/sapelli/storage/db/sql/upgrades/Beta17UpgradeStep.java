@@ -70,6 +70,11 @@ import uk.ac.ucl.excites.sapelli.storage.util.UnknownModelException;
 public abstract class Beta17UpgradeStep<C extends StorageClient> extends UpgradeStep<C>
 {
 	
+	/**
+	 * Suffix appended to the (new) name of a table while its records are being converted.
+	 */
+	static public final String UPGRADING_TABLE_NAME_SUFFIX = "_upgrading";
+	
 	/**
 	 * @param client
 	 * @param fromVersion
@@ -148,21 +153,19 @@ public abstract class Beta17UpgradeStep<C extends StorageClient> extends Upgrade
 		// Loop over all schemata:
 		for(Schema schema : schemata)
 		{
+			String oldName = getOldTableName(schema);
+			String upgradingName = schema.tableName + UPGRADING_TABLE_NAME_SUFFIX;
+			
+			// Check if a previous attempt at converting the table was interrupted:
+			boolean resuming = upgradeOps.doesTableExist(recordStore, upgradingName);
+			
 			// Check if there is a table, with the old name (which is not necessarily different from the new name), for the schema:
-			if(!upgradeOps.doesTableExist(recordStore, getOldTableName(schema)))
+			if(!resuming && !upgradeOps.doesTableExist(recordStore, oldName))
 				continue; // if there is no table we are done with this Schema
 			
 			// Remember (new) table so we don't delete the table below:
 			keepTables.add(schema.tableName); // !!!
 			
-			//	Store new schemata (for new tablename) record:
-			recordStore.store(schema.getMetaRecord()); // this also achieves adding new "flags" and "tableName" columns
-			
-			//	Rename table if necessary:
-			String oldName = getOldTableName(schema);
-			if(!oldName.equals(schema.tableName))
-				upgradeOps.renameTable(recordStore, oldName, schema.tableName);
-			
 			// Get a TableConverter for the schema:
 			TableConverter tableConverter = new TableConverter(schema, schema.flags & ~StorageClient.SCHEMA_FLAG_TRACK_LOSSLESSNESS); // un-set the lossless flag on the old schema
 			
@@ -197,9 +200,20 @@ public abstract class Beta17UpgradeStep<C extends StorageClient> extends Upgrade
 			customiseTableConverter(schema, tableConverter);
 			
 			// Check if we need to do anything:
-			if(tableConverter.isTransparent() && !hasValueSetColWithAllOptionalSubCols && !hasListColumnThatNeedsConversion)
-				// this schema/table does not need conversion.
+			if(!resuming && tableConverter.isTransparent() && !hasValueSetColWithAllOptionalSubCols && !hasListColumnThatNeedsConversion)
+			{	// this schema/table does not need conversion...
+				//	Store new schemata (for new tablename) record:
+				recordStore.store(schema.getMetaRecord()); // this also achieves adding new "flags" and "tableName" columns
+				
+				//	Rename table if necessary:
+				if(!oldName.equals(schema.tableName))
+					upgradeOps.renameTable(recordStore, oldName, schema.tableName);
 				continue;
+			}
+			
+			// Move existing table out of the way (unless this was already done by an interrupted attempt):
+			if(!resuming)
+				upgradeOps.renameTable(recordStore, oldName, upgradingName);
 			
 			if(hasValueSetColWithAllOptionalSubCols)
 				// Temporarily disable the use of boolean columns to represent optional ValueSetColumns:
@@ -214,14 +228,8 @@ public abstract class Beta17UpgradeStep<C extends StorageClient> extends Upgrade
 				//	so we can read from the existing BLOB-backed ListColumns:
 				upgradeOps.getTableFactory(recordStore).setUseBLOBsForAllListColumns(true);
 			
-			// Make sure a new SQLTable instance will be constructed based on the old schema: 
-			upgradeOps.forgetTable(recordStore, schema.tableName);
-			
-			// Get all current records by querying the db with the oldSchema:
-			List<Record> oldRecords = recordStore.retrieveRecords(tableConverter.getOldSchema());
-
-			// Drop table (this will also get rid of the above-mentioned SQLTable instance):
-			upgradeOps.dropTable(recordStore, schema.tableName, false);
+			// Get an (uncached) SQLTable instance, based on the old schema, to read the renamed table:
+			SQLRecordStore<?, ?, ?>.SQLTable oldTable = upgradeOps.generateTable(recordStore, tableConverter.getOldSchema(upgradingName));
 			
 			if(hasValueSetColWithAllOptionalSubCols)
 				// Re-enable the use of boolean columns to represent optional ValueSetColumns:
@@ -231,8 +239,13 @@ public abstract class Beta17UpgradeStep<C extends StorageClient> extends Upgrade
 				// Switch off use of BLOB-based SQLColumn for all ListColumns:
 				upgradeOps.getTableFactory(recordStore).setUseBLOBsForAllListColumns(false);
 			
-			// Re-insert all converted records in new table (which will have the boolean column representing the ValueSetColumn):
-			recordStore.store(tableConverter.convertRecords(oldRecords));
+			// Make sure a new SQLTable instance will be constructed based on the new schema: 
+			upgradeOps.forgetTable(recordStore, schema.tableName);
+			
+			/* Move all records to the new table (which will have the boolean column representing the ValueSetColumn),
+			 * either with a single INSERT INTO ... SELECT statement or in chunks of converted records. This also
+			 * registers the new table in the Schemata table, and drops the old (renamed) table afterwards: */
+			upgradeOps.convertTable(recordStore, tableConverter, oldTable);
 		}
 		
 		// Delete unknown/unupgradable tables:
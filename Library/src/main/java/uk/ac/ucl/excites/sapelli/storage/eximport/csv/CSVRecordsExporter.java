@@ -20,6 +20,7 @@ package uk.ac.ucl.excites.sapelli.storage.eximport.csv;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +45,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ListColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.ListLikeColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
@@ -261,51 +263,12 @@ public class CSVRecordsExporter extends SimpleExporter
 				getColumnPointers(schema);
 				
 				// Write header:
-				writer.openTransaction(); // output will be buffered
-				try
-				{
-					// Column names (separated by the separator):
-					for(ColumnPointer<?> cp : columnPointers)
-						writer.write((!writer.isTransactionBufferEmpty() ? separator.getSeparatorChar() : "") + cp.getQualifiedColumnName());
-					// Postfix (assuming separator is ,): ,modelID=XXXXXXXXXXXXXXXX,modelSchemaNumber=YY,schemaName="abcdef",
-					writer.write(	separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_ID + "=" + schema.getModelID() +
-									separator.getSeparatorChar() + Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER + "=" + schema.getModelSchemaNumber() +
-									separator.getSeparatorChar() + Schema.ATTRIBUTE_SCHEMA_NAME + "=" + escapeAndQuote(schema.getName(), true) +
-									separator.getSeparatorChar() + ATTRIBUTE_EXPORTED_AT + "=" + ExportedAtFormatter.print(timestamp) +
-									separator.getSeparatorChar());
-					writer.write(LINE_ENDING);
-				}
-				catch(Exception e)
-				{
-					writer.rollbackTransaction(); // !!!
-					throw e;
-				}
-				writer.commitTransaction(); // write out buffer
+				writer.write(getHeaderLine(schema, timestamp));
 				
 				// Write records:
 				for(Record r : entry.getValue())
 				{
-					writer.openTransaction(); // output will be buffered
-					try
-					{
-						boolean first = true;
-						for(ColumnPointer<?> cp : columnPointers)
-						{
-							if(!first)
-								writer.write(separator.getSeparatorChar());
-							else
-								first = false;							
-							writer.write(valueStringProvider.getValueString(cp.getColumn(), cp.getValueSet(r, false), ""));
-							// will write nothing (i.e. "") when the value is not set (i.e. null value is represented by an empty String)
-						}
-						writer.write(LINE_ENDING);
-					}
-					catch(Exception e)
-					{
-						writer.rollbackTransaction(); // !!!
-						throw e;
-					}
-					writer.commitTransaction(); // write out buffer
+					writer.write(getRecordLine(r)); // line is fully built before it is written out
 					exportedForSchema.add(r);
 				}
 				csvFiles.add(writer.getFile());
@@ -336,6 +299,103 @@ public class CSVRecordsExporter extends SimpleExporter
 		}
 	}
 	
+	/**
+	 * Streams a CSV representation of the given records, all of the given schema, to the given {@link Writer},
+	 * without going through an intermediate file. This allows the CSV to be written directly into (for example)
+	 * the body of an HTTP request.
+	 * 
+	 * Unlike {@link #export(List, String)} this method does not filter out records of unexportable schemata.
+	 * 
+	 * @param schema
+	 * @param records all assumed to be of the given schema
+	 * @param out the writer to write to, will be flushed but not closed
+	 * @throws IOException
+	 */
+	public void export(Schema schema, List<Record> records, Writer out) throws IOException
+	{
+		valueStringProvider.reset();
+		getColumnPointers(schema);
+		out.write(getHeaderLine(schema, DateTime.now()));
+		for(Record r : records)
+			out.write(getRecordLine(r));
+		out.flush();
+	}
+	
+	/**
+	 * Streams a CSV representation of the rows of the given {@link RecordBatch} to the given {@link Writer}, using a single
+	 * {@link Record} instance for all rows.
+	 * 
+	 * @param batch
+	 * @param out the writer to write to, will be flushed but not closed
+	 * @throws IOException
+	 * @see #export(Schema, List, Writer)
+	 */
+	public void export(RecordBatch batch, Writer out) throws IOException
+	{
+		Schema schema = batch.getSchema();
+		valueStringProvider.reset();
+		getColumnPointers(schema);
+		out.write(getHeaderLine(schema, DateTime.now()));
+		Record record = schema.createRecord();
+		for(int r = 0; r < batch.size(); r++)
+		{
+			batch.copyInto(r, record);
+			out.write(getRecordLine(record));
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Header line: column names (separated by the separator), followed by the postfix
+	 * (assuming separator is ,): <code>,modelID=XXXXXXXXXXXXXXXX,modelSchemaNumber=YY,schemaName="abcdef",exportedAt=TTTTTTTTTTTTTTT,</code>
+	 * 
+	 * Assumes {@link #getColumnPointers(Schema)} has been called for the schema. 
+	 * 
+	 * @param schema
+	 * @param timestamp
+	 * @return
+	 */
+	private String getHeaderLine(Schema schema, DateTime timestamp)
+	{
+		StringBuilder bldr = new StringBuilder();
+		for(ColumnPointer<?> cp : columnPointers)
+		{
+			if(bldr.length() != 0)
+				bldr.append(separator.getSeparatorChar());
+			bldr.append(cp.getQualifiedColumnName());
+		}
+		bldr.append(separator.getSeparatorChar()).append(Schema.ATTRIBUTE_MODEL_ID).append('=').append(schema.getModelID());
+		bldr.append(separator.getSeparatorChar()).append(Schema.ATTRIBUTE_MODEL_SCHEMA_NUMBER).append('=').append(schema.getModelSchemaNumber());
+		bldr.append(separator.getSeparatorChar()).append(Schema.ATTRIBUTE_SCHEMA_NAME).append('=').append(escapeAndQuote(schema.getName(), true));
+		bldr.append(separator.getSeparatorChar()).append(ATTRIBUTE_EXPORTED_AT).append('=').append(ExportedAtFormatter.print(timestamp));
+		bldr.append(separator.getSeparatorChar());
+		bldr.append(LINE_ENDING);
+		return bldr.toString();
+	}
+	
+	/**
+	 * Assumes {@link #getColumnPointers(Schema)} has been called for the schema of the record.
+	 * 
+	 * @param record
+	 * @return
+	 */
+	private String getRecordLine(Record record)
+	{
+		StringBuilder bldr = new StringBuilder();
+		boolean first = true;
+		for(ColumnPointer<?> cp : columnPointers)
+		{
+			if(!first)
+				bldr.append(separator.getSeparatorChar());
+			else
+				first = false;
+			bldr.append(valueStringProvider.getValueString(cp.getColumn(), cp.getValueSet(record, false), ""));
+			// will write nothing (i.e. "") when the value is not set (i.e. null value is represented by an empty String)
+		}
+		bldr.append(LINE_ENDING);
+		return bldr.toString();
+	}
+	
 	protected List<ColumnPointer<?>> getColumnPointers(Schema schema)
 	{
 		columnPointers.clear();
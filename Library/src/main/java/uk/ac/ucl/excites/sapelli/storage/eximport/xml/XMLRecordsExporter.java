@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import org.apache.commons.io.Charsets;
@@ -48,6 +47,7 @@ import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ValueSetColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.queries.Order;
 import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
 import uk.ac.ucl.excites.sapelli.storage.util.UnexportableRecordsException;
 
@@ -177,16 +177,7 @@ public class XMLRecordsExporter extends SimpleExporter
 			return ExportResult.NothingToExport();
 		
 		// Sort records by Schema (& Model):
-		Collections.sort(records, new Comparator<Record>()
-		{
-			Schema.Comparator schemaComparator = new Schema.Comparator();
-			
-			@Override
-			public int compare(Record r1, Record r2)
-			{
-				return schemaComparator.compare(r1.getSchema(), r2.getSchema());
-			}
-		});
+		Order.By(Order.BY_MODEL_SCHEMA).sort(records);
 		
 		// Export:
 		List<Record> exported = new ArrayList<Record>();
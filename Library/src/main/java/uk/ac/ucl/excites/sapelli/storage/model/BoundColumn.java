@@ -0,0 +1,113 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+/**
+ * A (non-virtual) {@link Column} bound to its position in the {@link ValueSet}s of a given {@link ColumnSet}.
+ * 
+ * Gives access to the column's values without looking up the position by name, or checking column compatibility, for every
+ * single value. Values held as primitives (see {@link ValueSetLayout}) are read without boxing.
+ * 
+ * Must only be used with ValueSets of the ColumnSet it was bound to.
+ * 
+ * @author mstevens
+ */
+public final class BoundColumn
+{
+
+	// STATIC -------------------------------------------------------
+	/**
+	 * @param columnSet
+	 * @param column
+	 * @return a BoundColumn, or {@code null} if the column is virtual, or not part of the columnSet, nor compatible with a column by the same name that is
+	 */
+	static public BoundColumn Bind(ColumnSet columnSet, Column<?> column)
+	{
+		if(columnSet == null || column == null || column instanceof VirtualColumn)
+			return null;
+		int position = columnSet.getColumnPosition(column.name);
+		if(position == ColumnSet.UNKNOWN_COLUMN_POSITION)
+			return null;
+		Column<?> setColumn = columnSet.getColumn(position);
+		if(column != setColumn && !column.isCompatible(setColumn))
+			return null;
+		return new BoundColumn(column, position);
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	public final Column<?> column;
+	private final int position;
+
+	private BoundColumn(Column<?> column, int position)
+	{
+		this.column = column;
+		this.position = position;
+	}
+
+	/**
+	 * @param valueSet
+	 * @return whether or not the column's value is {@code null}
+	 */
+	public boolean isNull(ValueSet<?> valueSet)
+	{
+		return valueSet.isNullAt(position);
+	}
+
+	/**
+	 * @param valueSet
+	 * @return the column's value (boxed if needed), may be {@code null}
+	 */
+	public Object getValue(ValueSet<?> valueSet)
+	{
+		return valueSet.getValueAt(position);
+	}
+
+	/**
+	 * Integer values are returned as is, time stamps as their ms since epoch, other {@link Number}s are converted.
+	 * 
+	 * @param valueSet
+	 * @return the column's value as a long, must not be {@code null} (check with {@link #isNull(ValueSet)} first)
+	 */
+	public long getLong(ValueSet<?> valueSet)
+	{
+		return valueSet.getLayout().getLong(valueSet.values, valueSet.primitives, position, 0L);
+	}
+
+	/**
+	 * @param valueSet
+	 * @return the column's value as a double, must not be {@code null} (check with {@link #isNull(ValueSet)} first)
+	 */
+	public double getDouble(ValueSet<?> valueSet)
+	{
+		return valueSet.getLayout().getDouble(valueSet.values, valueSet.primitives, position, 0.0d);
+	}
+
+	/**
+	 * @param valueSet
+	 * @return the column's value as a boolean, must not be {@code null} (check with {@link #isNull(ValueSet)} first)
+	 */
+	public boolean getBoolean(ValueSet<?> valueSet)
+	{
+		ValueSetLayout layout = valueSet.getLayout();
+		if(layout.getKind(position) == ValueSetLayout.KIND_BOOLEAN)
+			return layout.getBoolean(valueSet.primitives, position);
+		return ((Boolean) layout.get(valueSet.values, valueSet.primitives, position)).booleanValue();
+	}
+
+}
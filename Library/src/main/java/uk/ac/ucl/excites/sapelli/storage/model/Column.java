@@ -66,6 +66,11 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 
 	static public final char ILLEGAL_NAME_CHAR_REPLACEMENT = '_';
 
+	/**
+	 * Returned by {@link #getSize(Object, boolean)} & co. when the size of a value cannot be determined without actually encoding it.
+	 */
+	static public final int UNKNOWN_SIZE = -1;
+
 	/**
 	 * @param name the String to be sanitised for use as a Column name
 	 * @return a version of the given name which is acceptable for use as a Column name
@@ -491,6 +496,40 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 		return (T) valueSet.getValue(this);
 	}
 	
+	/**
+	 * Retrieves previously stored value for this column from the given valueSet as a primitive long, without boxing if the valueSet holds it as such.
+	 * For use by subclasses of which the values are {@link Number}s or {@link uk.ac.ucl.excites.sapelli.storage.types.TimeStamp}s (in which case the ms since the epoch are returned).
+	 * 
+	 * @param valueSet the {@link ValueSet} to retrieve the value from, should not be {@code null}
+	 * @param nullReplacement value to return if there is no value
+	 * @return stored value as a long
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	protected final long retrievePrimitiveLong(ValueSet<?> valueSet, long nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("valueSet is null!");
+		return valueSet.getLongValue(this, nullReplacement);
+	}
+	
+	/**
+	 * Retrieves previously stored value for this column from the given valueSet as a primitive double, without boxing if the valueSet holds it as such.
+	 * For use by subclasses of which the values are {@link Number}s.
+	 * 
+	 * @param valueSet the {@link ValueSet} to retrieve the value from, should not be {@code null}
+	 * @param nullReplacement value to return if there is no value
+	 * @return stored value as a double
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	protected final double retrievePrimitiveDouble(ValueSet<?> valueSet, double nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		if(valueSet == null)
+			throw new NullPointerException("valueSet is null!");
+		return valueSet.getDoubleValue(this, nullReplacement);
+	}
+	
 	/**
 	 * Retrieves previously stored value for this column from the given valueSet and converts it to a String representation.
 	 * 
@@ -1364,6 +1403,69 @@ public abstract class Column<T> implements Serializable, Comparator<ValueSet<?>>
 	 */
 	protected abstract int getMaximumValueSize(boolean lossless);
 
+	/**
+	 * Returns the number of bits the given {@code <T>} value would take up when written to a binary representation
+	 * (see {@link #writeValue(Object, BitOutputStream, boolean)}), including the presence-bit in case of an optional column.
+	 * The size is computed analytically, the value is not actually encoded, nor validated.
+	 *
+	 * @param value the value to compute the size of, may be {@code null} if column is optional
+	 * @param lossless whether to assume lossless ({@code true}) or lossy ({@code false}) value encoding
+	 * @return the size in number of bits, or {@link #UNKNOWN_SIZE} if it cannot be determined without encoding the value (or if the value is {@code null} on a non-optional column)
+	 */
+	public final int getSize(T value, boolean lossless)
+	{
+		if(value == null)
+			return optional ? 1 : UNKNOWN_SIZE; // just the presence-bit, or an error upon writing
+		int valueSize = getValueSize(value, lossless);
+		return valueSize == UNKNOWN_SIZE ? UNKNOWN_SIZE : getMaximumTotalSize(valueSize);
+	}
+
+	/**
+	 * Returns the number of bits the given {@link Object} value would take up when written to a binary representation.
+	 *
+	 * @param value the value to compute the size of (as {@link Object}), may be {@code null} if column is optional
+	 * @param lossless whether to assume lossless ({@code true}) or lossy ({@code false}) value encoding
+	 * @return the size in number of bits, or {@link #UNKNOWN_SIZE}
+	 * @throws ClassCastException when the value cannot be converted/casted to the column's type {@code <T>}
+	 * @see #getSize(Object, boolean)
+	 */
+	public final int getObjectSize(Object value, boolean lossless) throws ClassCastException
+	{
+		return getSize(cast(value), lossless);
+	}
+
+	/**
+	 * Returns the number of bits the value of this column in the given valueSet would take up when written to a binary representation.
+	 *
+	 * @param valueSet should not be {@code null}
+	 * @param lossless whether to assume lossless ({@code true}) or lossy ({@code false}) value encoding
+	 * @return the size in number of bits, or {@link #UNKNOWN_SIZE}
+	 * @throws NullPointerException if the valueSet is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 * @see #getSize(Object, boolean)
+	 */
+	public final int retrieveSize(ValueSet<?> valueSet, boolean lossless) throws NullPointerException, InvalidColumnException
+	{
+		return getSize(retrieveValue(valueSet), lossless);
+	}
+
+	/**
+	 * Returns the number of bits the given (non-{@code null}) value takes up when written to a binary representation,
+	 * _without_ the presence-bit in case of an optional column.
+	 * 
+	 * The default implementation only knows the answer for columns whose values always take up the same number of bits.
+	 * Subclasses with variable-size values should override this if they can compute the size more cheaply than by encoding the value.
+	 *
+	 * @param value the value, assumed to be non-{@code null}
+	 * @param lossless whether to assume lossless ({@code true}) or lossy ({@code false}) value encoding
+	 * @return the size in number of bits, or {@link #UNKNOWN_SIZE}
+	 */
+	protected int getValueSize(T value, boolean lossless)
+	{
+		int minSize = getMinimumValueSize(lossless);
+		return minSize == getMaximumValueSize(lossless) ? minSize : UNKNOWN_SIZE;
+	}
+
 	/**
 	 * Returns the minimum effective number of bits values for this column take
 	 * up when written to a most-efficient (possibly lossy) binary representation,
@@ -26,6 +26,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.storage.model.indexes.Index;
@@ -53,6 +55,12 @@ public class ColumnSet implements Serializable
 	protected final boolean useVirtualVersions;
 	private boolean sealed = false;
 	
+	/**
+	 * Cached {@link #hashCode()} value, only used once the ColumnSet is sealed (0 = not computed yet).
+	 * Because it is a single int field, caching is safe without synchronisation (the same idiom as used in {@link String#hashCode()}).
+	 */
+	private transient int columnSetHashCode = 0;
+	
 	public ColumnSet(String name, boolean useVirtualVersions)
 	{
 		this.name = name;
@@ -80,6 +88,22 @@ public class ColumnSet implements Serializable
 	 */
 	private transient List<Column<?>> allColumns;
 	
+	/**
+	 * Cache of compiled {@link SerialisationPlan}s, only used once the ColumnSet is sealed (lazily initialised).
+	 */
+	private transient volatile ConcurrentMap<SerialisationPlan.Key, SerialisationPlan> serialisationPlans;
+	
+	/**
+	 * Layout of the {@link ValueSet}s of this ColumnSet, only used once the ColumnSet is sealed (lazily initialised).
+	 * Not volatile because it is read upon every value access, and all fields of {@link ValueSetLayout} are final.
+	 */
+	private transient ValueSetLayout valueSetLayout;
+	
+	/**
+	 * Unpacked layout for {@link ValueSet}s of this ColumnSet which do not use {@link #valueSetLayout} (lazily initialised).
+	 */
+	private transient ValueSetLayout unpackedValueSetLayout;
+	
 	/**
 	 * Add a series of new, non-virtual columns to the ColumnSet. The columns' virtual versions are added only if {@link #useVirtualVersions} is {@code true}.
 	 * 
@@ -337,6 +361,61 @@ public class ColumnSet implements Serializable
 		}
 	}
 	
+	/**
+	 * Returns a plan to write/read values of the columns returned by {@link #getColumns(boolean, Set)} to/from binary representations.
+	 * Once the ColumnSet is sealed plans are only compiled once per combination of arguments.
+	 * 
+	 * @param includeVirtual whether or not to include the values corresponding to virtual columns
+	 * @param skipColumns columns *not* to include the values of
+	 * @param lossless whether to use lossless ({@code true}) or lossy ({@code false}) encoding
+	 * @return the plan
+	 */
+	public SerialisationPlan getSerialisationPlan(boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless)
+	{
+		if(!sealed)
+			return SerialisationPlan.Compile(this, includeVirtual, skipColumns, lossless); // columns may still change, so don't cache
+		ConcurrentMap<SerialisationPlan.Key, SerialisationPlan> plans = serialisationPlans;
+		if(plans == null)
+			serialisationPlans = plans = new ConcurrentHashMap<SerialisationPlan.Key, SerialisationPlan>(); // benign race: at worst some plans get compiled twice
+		SerialisationPlan.Key key = new SerialisationPlan.Key(includeVirtual, skipColumns, lossless);
+		SerialisationPlan plan = plans.get(key);
+		if(plan == null)
+		{
+			plan = SerialisationPlan.Compile(this, includeVirtual, skipColumns, lossless);
+			plans.putIfAbsent(key.copy(), plan);
+		}
+		return plan;
+	}
+	
+	/**
+	 * @return the layout with which {@link ValueSet}s of this ColumnSet store their values
+	 */
+	ValueSetLayout getValueSetLayout()
+	{
+		if(!sealed)
+			return ValueSetLayout.Compile(this); // columns may still change, so don't cache
+		ValueSetLayout layout = valueSetLayout;
+		if(layout == null)
+			valueSetLayout = layout = ValueSetLayout.Compile(this); // benign race
+		return layout;
+	}
+	
+	/**
+	 * @return the layout with which {@link ValueSet}s of this ColumnSet store their values if they cannot use the one returned by {@link #getValueSetLayout()}
+	 * @see ValueSetLayout#Unpacked(int)
+	 */
+	ValueSetLayout getUnpackedValueSetLayout()
+	{
+		ValueSetLayout layout = unpackedValueSetLayout;
+		if(layout == null)
+		{
+			layout = ValueSetLayout.Unpacked(getNumberOfColumns(false));
+			if(sealed)
+				unpackedValueSetLayout = layout; // benign race
+		}
+		return layout;
+	}
+	
 	/**
 	 * @return an unordered collection of the virtual columns in the schema
 	 */
@@ -594,6 +673,9 @@ public class ColumnSet implements Serializable
 		if(obj instanceof ColumnSet)
 		{
 			ColumnSet that = (ColumnSet) obj;
+			// Quick check for sealed ColumnSets (the cached hashCode covers both the name and the columns):
+			if(checkNames && checkColumns && this.sealed && that.sealed && this.getColumnSetHashCode() != that.getColumnSetHashCode())
+				return false;
 			// Schema & model name:
 			if(checkNames && !this.name.equals(that.name))
 				return false;
@@ -607,13 +689,32 @@ public class ColumnSet implements Serializable
 			return false;
 	}
 	
+	/**
+	 * Once the ColumnSet is sealed its hashCode is only computed once.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
 	@Override
 	public int hashCode()
 	{
-		int hash = 1;
-		hash = 31 * hash + Objects.hashCode(name);
-		hash = 31 * hash + realColumns.hashCode();
-		hash = 31 * hash + (sealed ? 0 : 1);
+		return getColumnSetHashCode();
+	}
+	
+	/**
+	 * @return the hashCode computed at the ColumnSet level (i.e. unaffected by subclass overrides of {@link #hashCode()})
+	 */
+	private int getColumnSetHashCode()
+	{
+		int hash = columnSetHashCode;
+		if(hash == 0)
+		{
+			hash = 1;
+			hash = 31 * hash + Objects.hashCode(name);
+			hash = 31 * hash + realColumns.hashCode();
+			hash = 31 * hash + (sealed ? 0 : 1);
+			if(sealed)
+				columnSetHashCode = hash;
+		}
 		return hash;
 	}
 	
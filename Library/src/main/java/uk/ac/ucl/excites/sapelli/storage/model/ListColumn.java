@@ -385,52 +385,57 @@ public abstract class ListColumn<L extends List<T>, T> extends Column<L> impleme
 	@Override
 	public L parse(String listString, boolean undelimited) throws ParseException, IllegalArgumentException, NullPointerException
 	{
+		int start = 0;
+		int end = listString.length();
 		if(!undelimited)
 		{
 			// Perform delimiter checks:
-			if(listString.length() < 2)
+			if(end < 2)
 				throw new ParseException("String is not delimited by " + serialisationDelimiter, 0);
 			if(listString.charAt(0) != serialisationDelimiter)
 				throw new ParseException("String does not begin with " + serialisationDelimiter, 0);
-			if(listString.charAt(listString.length() - 1) != serialisationDelimiter)
-				throw new ParseException("String does not end with " + serialisationDelimiter, listString.length() - 1);
-			// Remove serialisation delimiters:
-			listString =  StringUtils.deescapeByDoublingAndWrapping(listString, serialisationDelimiter);
+			if(listString.charAt(end - 1) != serialisationDelimiter)
+				throw new ParseException("String does not end with " + serialisationDelimiter, end - 1);
+			// Skip serialisation delimiters, only de-escape (i.e. copy) if there are doubled ones inside:
+			int innerDelimiter = listString.indexOf(serialisationDelimiter, 1);
+			if(innerDelimiter != -1 && innerDelimiter < end - 1)
+			{
+				listString = StringUtils.deescapeByDoublingAndWrapping(listString, serialisationDelimiter);
+				end = listString.length();
+			}
+			else
+			{
+				start = 1;
+				end--;
+			}
 		}
 		
-		// Parse:
+		// Parse (single pass, splitting the string by looking for separators outside of delimited values):
 		List<T> parsedValues = new ArrayList<>(StringUtils.countOccurances(listString, serialisationSeparator));
-		final char valueDelimiter = singleColumn.getSerialisationDelimiter() != null ? singleColumn.getSerialisationDelimiter() : DEFAULT_VALUE_SERIALISATION_DELIMITER;
+		final boolean singleColDelimiting = singleColumn.isApplyingSerialisationDelimiting();
+		final char valueDelimiter = singleColDelimiting ? singleColumn.getSerialisationDelimiter() : DEFAULT_VALUE_SERIALISATION_DELIMITER;
 		int valueDelimiterCount = 0;
-		StringBuilder valueStringBldr = new StringBuilder();
-		for(char c : listString.toCharArray())
+		int valueStart = start;
+		for(int i = start; i < end; i++)
 		{
+			char c = listString.charAt(i);
 			if(c == valueDelimiter)
-			{	// count the number of valueDelimiters we've passed
+				// count the number of valueDelimiters we've passed
 				valueDelimiterCount++;
-				// Append char:
-				valueStringBldr.append(c); // !!!
-			}
 			else if(c == serialisationSeparator && valueDelimiterCount % 2 == 0)
 			{	// if delimiterCount is even this means we are not *inside* a value and this is an actual serialisation separator
-				String valueString = valueStringBldr.toString();
-				
 				// If the column does not apply it's own serialisation delimiting then
 				//	it could be that valueString is wrapped using the default value serialisation delimiters:
-				if(!singleColumn.isApplyingSerialisationDelimiting())
-					valueString = StringUtils.deescapeByDoublingAndWrapping(valueString, DEFAULT_VALUE_SERIALISATION_DELIMITER);
+				String valueString = singleColDelimiting ?
+					listString.substring(valueStart, i) :
+					StringUtils.deescapeByDoublingAndWrapping(listString, valueStart, i, DEFAULT_VALUE_SERIALISATION_DELIMITER);
 				
 				// Parse value:
 				parsedValues.add(singleColumn.stringToValue(valueString)); // if the column applies it's own delimiters these will be removed/deescaped; validation will be performed
 				
 				// We are done with this column:
 				valueDelimiterCount = 0; // !!!
-				valueStringBldr.setLength(0); // reset valueString builder!
-			}
-			else
-			{	
-				// Append char:
-				valueStringBldr.append(c); // !!!
+				valueStart = i + 1;
 			}
 		}
 		
@@ -466,20 +471,28 @@ public abstract class ListColumn<L extends List<T>, T> extends Column<L> impleme
 	public String toString(L values, boolean undelimited)
 	{
 		StringBuilder bldr = new StringBuilder();
+		// unless undelimited, wrap in serialisationDelimiters (this allows us to preserve the difference between a null list and an empty list):
+		if(!undelimited)
+			bldr.append(serialisationDelimiter);
+		final boolean singleColDelimiting = singleColumn.isApplyingSerialisationDelimiting();
 		for(T value : values)
 		{
 			String valueString = singleColumn.valueToString(value); // will return empty String for null values
 			
 			// 	If the column does not apply it's own serialisation delimiting then
 			//	 we may have to wrap the valueString in the default value serialisation delimiters:
-			if(!singleColumn.isApplyingSerialisationDelimiting())
-				valueString = StringUtils.escapeByDoublingAndWrapping(valueString, DEFAULT_VALUE_SERIALISATION_DELIMITER, /*don't force:*/ false, serialisationSeparator);
-			
-			bldr.append(valueString == null ? "" /*just in case*/ : valueString);
+			if(!singleColDelimiting)
+				StringUtils.appendEscapedByDoublingAndWrapping(bldr, valueString, DEFAULT_VALUE_SERIALISATION_DELIMITER, /*don't force:*/ false, serialisationSeparator);
+			else if(valueString != null)
+				bldr.append(valueString);
 			bldr.append(serialisationSeparator); // there are as many separators as elements (this allows us to preserve the difference between an empty list and a list with 1 null element)
 		}
-		 // unless undelimited, wrap in serialisationDelimiters (this allows us to preserve the difference between a null list and an empty list):
-		return undelimited ? bldr.toString() : StringUtils.escapeByDoublingAndWrapping(bldr.toString(), serialisationDelimiter, /*force:*/ true);
+		if(undelimited)
+			return bldr.toString();
+		// Occurrences of the serialisationDelimiter inside the list must be doubled (rare, so we only then pay for a copy):
+		if(bldr.indexOf(String.valueOf(serialisationDelimiter), 1) != -1)
+			return StringUtils.escapeByDoublingAndWrapping(bldr.substring(1), serialisationDelimiter, /*force:*/ true);
+		return bldr.append(serialisationDelimiter).toString();
 	}
 	
 	/* (non-Javadoc)
@@ -495,6 +508,23 @@ public abstract class ListColumn<L extends List<T>, T> extends Column<L> impleme
 			singleColumn.writeValue(value, bitStream, lossless);
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.Column#getValueSize(java.lang.Object, boolean)
+	 */
+	@Override
+	protected int getValueSize(L values, boolean lossless)
+	{
+		int total = sizeField.size();
+		for(T value : values)
+		{
+			int elementSize = singleColumn.getSize(value, lossless); // includes presence-bit if singleColumn is optional
+			if(elementSize == UNKNOWN_SIZE)
+				return UNKNOWN_SIZE;
+			total += elementSize;
+		}
+		return total;
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.model.Column#read(uk.ac.ucl.excites.sapelli.shared.io.BitInputStream, boolean)
 	 */
@@ -66,10 +66,10 @@ public class Record extends RecordValueSet<Schema>
 		if(values != null)
 		{
 			Column<?> autoKeyCol = columnSet.getAutoIncrementingPrimaryKeyColumn();
-			if(this.values.length == values.length)
+			if(getNumberOfValues() == values.length)
 			{
 				// Init from given values:
-				for(int c = 0; c < this.values.length; c++)
+				for(int c = 0; c < values.length; c++)
 				{
 					Column<?> col = columnSet.getColumn(c);
 					if(col == autoKeyCol && values[c] == null)
@@ -79,7 +79,7 @@ public class Record extends RecordValueSet<Schema>
 				}
 			}
 			else
-				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + this.values.length + ").");
+				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + getNumberOfValues() + ").");
 		}
 	}
 	
@@ -157,7 +157,7 @@ public class Record extends RecordValueSet<Schema>
 	{
 		if(force)
 		{		
-			if(newSchema.getNumberOfColumns(false) != values.length)
+			if(newSchema.getNumberOfColumns(false) != getNumberOfValues())
 				throw new IndexOutOfBoundsException("The new schema has a different number of columns than the number of values in this record!");
 		}
 		else
@@ -165,7 +165,7 @@ public class Record extends RecordValueSet<Schema>
 			if(!columnSet.equals(newSchema, true, true, false)) // also checks columns, but not indexes
 				throw new IllegalArgumentException("The provived schema is not compatible with this record!");
 		}
-		this.columnSet = newSchema; // we accept the new one
+		replaceColumnSet(newSchema); // we accept the new one
 	}
 	
 	/**
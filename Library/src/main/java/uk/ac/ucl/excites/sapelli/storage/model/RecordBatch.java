@@ -0,0 +1,1116 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
+import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
+
+/**
+ * Holds the values of a number of rows (records) of a single {@link Schema}, column by column.
+ *
+ * Values of {@link IntegerColumn}s, {@link FloatColumn}s, {@link BooleanColumn}s and {@link TimeStampColumn}s are held in primitive arrays,
+ * values of {@link StringColumn}s are dictionary-encoded (each distinct String is held once), all other values are held in object arrays.
+ * Each column has a bitmap to tell {@code null} values apart.
+ *
+ * Records are added by copying their values in (see {@link #add(Record)}), and can be obtained by copying them out again, either into a new
+ * {@link Record} (see {@link #getRecord(int)}) or into an existing one (see {@link #copyInto(int, Record)}). The latter allows bulk operations
+ * to process any number of rows using a single Record instance. Individual values can be read without creating Records through {@link Row} views.
+ *
+ * Not thread-safe.
+ *
+ * @author mstevens
+ */
+public class RecordBatch
+{
+
+	// STATIC -------------------------------------------------------
+	static private final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * @param schema
+	 * @param records all assumed to be of the given schema
+	 * @return a batch holding the values of the given records
+	 */
+	static public RecordBatch Of(Schema schema, Collection<Record> records)
+	{
+		RecordBatch batch = new RecordBatch(schema, records.size());
+		batch.addAll(records);
+		return batch;
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private final Schema schema;
+	private final ColumnVector[] vectors;
+	private int size = 0;
+	private int capacity;
+
+	/**
+	 * @param schema
+	 */
+	public RecordBatch(Schema schema)
+	{
+		this(schema, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param schema
+	 * @param initialCapacity expected number of rows
+	 */
+	public RecordBatch(Schema schema, int initialCapacity)
+	{
+		if(schema == null)
+			throw new NullPointerException("Schema cannot be null!");
+		if(!schema.isSealed())
+			throw new IllegalStateException("Schema must be sealed before records based on it can be created!");
+		this.schema = schema;
+		this.capacity = Math.max(1, initialCapacity);
+		this.vectors = new ColumnVector[schema.getNumberOfColumns(false)];
+		for(int p = 0; p < vectors.length; p++)
+		{
+			Column<?> column = schema.getColumn(p);
+			if(column instanceof IntegerColumn)
+				vectors[p] = new LongVector(capacity);
+			else if(column instanceof FloatColumn)
+				vectors[p] = new DoubleVector(capacity);
+			else if(column instanceof BooleanColumn)
+				vectors[p] = new BooleanVector(capacity);
+			else if(column instanceof TimeStampColumn)
+				vectors[p] = new TimeStampVector(capacity);
+			else if(column instanceof StringColumn)
+				vectors[p] = new StringVector(capacity);
+			else
+				vectors[p] = new ObjectVector(column, capacity);
+		}
+	}
+
+	/**
+	 * @return the schema
+	 */
+	public Schema getSchema()
+	{
+		return schema;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Removes all rows.
+	 */
+	public void clear()
+	{
+		for(ColumnVector vector : vectors)
+			vector.clear(size);
+		size = 0;
+	}
+
+	private void checkSchema(ValueSet<?> record)
+	{
+		if(record.getColumnSet() != schema && !schema.equals(record.getColumnSet()))
+			throw new IllegalArgumentException("Record is not of schema " + schema.getName() + "!");
+	}
+
+	private void checkRow(int row)
+	{
+		if(row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+	}
+
+	private void ensureCapacity(int minimumCapacity)
+	{
+		if(minimumCapacity <= capacity)
+			return;
+		capacity = Math.max(minimumCapacity, capacity + (capacity >> 1));
+		for(ColumnVector vector : vectors)
+			vector.grow(capacity);
+	}
+
+	/**
+	 * Adds a row holding (copies of) the values of the given record.
+	 *
+	 * @param record must be of the batch's schema
+	 * @return the index of the new row
+	 * @throws IllegalArgumentException if the record is of another schema
+	 */
+	public int add(Record record) throws IllegalArgumentException
+	{
+		checkSchema(record);
+		ensureCapacity(size + 1);
+		load(record, size);
+		return size++;
+	}
+
+	/**
+	 * @param records must all be of the batch's schema
+	 * @throws IllegalArgumentException if a record is of another schema
+	 */
+	public void addAll(Collection<Record> records) throws IllegalArgumentException
+	{
+		ensureCapacity(size + records.size());
+		for(Record record : records)
+			add(record);
+	}
+
+	/**
+	 * Replaces the values of the given row by (copies of) those of the given record.
+	 *
+	 * @param row
+	 * @param record must be of the batch's schema
+	 * @throws IllegalArgumentException if the record is of another schema
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	public void set(int row, Record record) throws IllegalArgumentException, IndexOutOfBoundsException
+	{
+		checkSchema(record);
+		checkRow(row);
+		load(record, row);
+	}
+
+	/**
+	 * Replaces the value of a single column in the given row.
+	 *
+	 * @param row
+	 * @param column
+	 * @param value may be {@code null}, should be valid for the column (it is not validated)
+	 * @throws InvalidColumnException when the column is not part of the schema
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	public <T> void setValue(int row, Column<T> column, T value) throws InvalidColumnException, IndexOutOfBoundsException
+	{
+		checkRow(row);
+		setValueAt(row, getPosition(column), value);
+	}
+
+	/**
+	 * @param row
+	 * @param position
+	 * @param value may be {@code null}
+	 */
+	void setValueAt(int row, int position, Object value)
+	{
+		if(!vectors[position].set(row, value))
+		{
+			toObjectVector(position);
+			vectors[position].set(row, value);
+		}
+	}
+
+	/**
+	 * @param row
+	 * @param position
+	 * @param value
+	 */
+	void setLongAt(int row, int position, long value)
+	{
+		ColumnVector vector = vectors[position];
+		if(vector instanceof LongVector)
+			((LongVector) vector).setLong(row, value);
+		else
+			setValueAt(row, position, Long.valueOf(value));
+	}
+
+	/**
+	 * @param row
+	 * @param position
+	 * @return the (boxed) value at the given row and position, may be {@code null}
+	 */
+	Object getValueAt(int row, int position)
+	{
+		return vectors[position].get(row);
+	}
+
+	/**
+	 * @param row
+	 * @param position
+	 * @return whether the value at the given row and position is not {@code null}
+	 */
+	boolean isValuePresentAt(int row, int position)
+	{
+		return vectors[position].isPresent(row);
+	}
+
+	/**
+	 * @param row
+	 * @param position
+	 * @return the value at the given row and position, which is assumed to be a non-{@code null} integer
+	 */
+	long getLongAt(int row, int position)
+	{
+		ColumnVector vector = vectors[position];
+		if(vector instanceof LongVector)
+			return ((LongVector) vector).values[row];
+		return ((Number) vector.get(row)).longValue();
+	}
+
+	private void load(ValueSet<?> record, int row)
+	{
+		for(int p = 0; p < vectors.length; p++)
+			if(!vectors[p].load(record, p, row))
+			{	// value of an unexpected type (which only happens when checks were bypassed), fall back to object storage:
+				toObjectVector(p);
+				vectors[p].load(record, p, row);
+			}
+	}
+
+	private void toObjectVector(int position)
+	{
+		ObjectVector objectVector = new ObjectVector(null, capacity); // don't copy: the values are not of the column's type
+		for(int r = 0; r < size; r++)
+			objectVector.set(r, vectors[position].get(r));
+		vectors[position] = objectVector;
+	}
+
+	/**
+	 * @param row
+	 * @return a new {@link Record} holding (copies of) the values of the given row
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	public Record getRecord(int row) throws IndexOutOfBoundsException
+	{
+		Record record = schema.createRecord();
+		copyInto(row, record);
+		return record;
+	}
+
+	/**
+	 * Overwrites all values of the given record with (copies of) the values of the given row.
+	 *
+	 * @param row
+	 * @param record must be of the batch's schema
+	 * @throws IllegalArgumentException if the record is of another schema
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	public void copyInto(int row, Record record) throws IllegalArgumentException, IndexOutOfBoundsException
+	{
+		checkSchema(record);
+		checkRow(row);
+		for(int p = 0; p < vectors.length; p++)
+			vectors[p].store(row, record, p);
+	}
+
+	/**
+	 * @return a list view of the batch in which each call to {@link List#get(int)} creates a new {@link Record}
+	 */
+	public List<Record> asRecordList()
+	{
+		return new AbstractList<Record>()
+		{
+			@Override
+			public Record get(int index)
+			{
+				return getRecord(index);
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return a new list with a new {@link Record} for each row
+	 */
+	public List<Record> toRecords()
+	{
+		return new ArrayList<Record>(asRecordList());
+	}
+
+	/**
+	 * @param row
+	 * @return a view on the given row
+	 * @throws IndexOutOfBoundsException if there is no such row
+	 */
+	public Row getRow(int row) throws IndexOutOfBoundsException
+	{
+		checkRow(row);
+		return new Row(row);
+	}
+
+	/**
+	 * Writes all rows to the given bitStream, as {@link ValueSet#writeToBitStream(BitOutputStream, SerialisationPlan)} would for each of them.
+	 * Values are written straight from the column vectors, unless the plan involves virtual columns, in which case each row is copied into
+	 * a (single) Record first.
+	 *
+	 * @param bitStream
+	 * @param plan a plan obtained from the schema of this batch
+	 * @throws IOException
+	 */
+	public void writeToBitStream(BitOutputStream bitStream, SerialisationPlan plan) throws IOException
+	{
+		if(!plan.isApplicable(this))
+		{
+			Record record = schema.createRecord();
+			for(int r = 0; r < size; r++)
+			{
+				copyInto(r, record);
+				record.writeToBitStream(bitStream, plan);
+			}
+			return;
+		}
+		for(int r = 0; r < size; r++)
+		{
+			try
+			{
+				plan.write(this, r, bitStream);
+			}
+			catch(Exception e)
+			{
+				throw new IOException("Error on attempting to write row " + r, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the given number of rows from the given bitStream, as {@link ValueSet#readFromBitStream(BitInputStream, SerialisationPlan)} would for each of them,
+	 * and adds them to the batch. Values are stored straight into the column vectors, unless the plan involves virtual columns, in which case each row is
+	 * read into a (single) Record first. Values of columns not included in the plan are left {@code null} (or the column default).
+	 *
+	 * @param bitStream
+	 * @param plan a plan obtained from the schema of this batch
+	 * @param numberOfRows
+	 * @throws IOException
+	 */
+	public void readFromBitStream(BitInputStream bitStream, SerialisationPlan plan, int numberOfRows) throws IOException
+	{
+		ensureCapacity(size + numberOfRows);
+		if(!plan.isApplicable(this))
+		{
+			Record record = schema.createRecord();
+			for(int r = 0; r < numberOfRows; r++)
+			{
+				record.readFromBitStream(bitStream, plan);
+				load(record, size++);
+			}
+			return;
+		}
+		// Which columns are read (the others get their default value):
+		boolean[] read = new boolean[vectors.length];
+		for(Column<?> column : plan.getColumns())
+			read[getPosition(column)] = true;
+		for(int r = 0; r < numberOfRows; r++)
+		{
+			for(int p = 0; p < vectors.length; p++)
+				if(!read[p])
+					setValueAt(size, p, schema.getColumn(p).defaultValue);
+			try
+			{
+				plan.read(this, size, bitStream);
+			}
+			catch(Exception e)
+			{
+				throw new IOException("Error on attempting to read row " + size, e);
+			}
+			size++;
+		}
+	}
+
+	/**
+	 * @param column
+	 * @return the position of the column in the schema
+	 * @throws InvalidColumnException when the column is not part of the schema, nor compatible with a column by the same name that is
+	 */
+	private int getPosition(Column<?> column) throws InvalidColumnException
+	{
+		int position = schema.getColumnPosition(column.name);
+		if(position == Schema.UNKNOWN_COLUMN_POSITION)
+			throw new InvalidColumnException("The schema has no such column (\"" + column.name + "\").", column);
+		Column<?> schemaColumn = schema.getColumn(position);
+		if(column != schemaColumn && !column.isCompatible(schemaColumn))
+			throw new InvalidColumnException("Schema mismatch: incompatible column.", column);
+		return position;
+	}
+
+	/**
+	 * A view on a single row of a {@link RecordBatch}, through which values can be read without creating a {@link Record}.
+	 * The view reflects later changes to the row.
+	 */
+	public final class Row
+	{
+
+		private final int row;
+
+		private Row(int row)
+		{
+			this.row = row;
+		}
+
+		/**
+		 * @return the index of the row in the batch
+		 */
+		public int getIndex()
+		{
+			return row;
+		}
+
+		/**
+		 * @param column
+		 * @return the value of the given column (may be {@code null}), which should not be modified
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T getValue(Column<T> column) throws InvalidColumnException
+		{
+			return (T) vectors[getPosition(column)].get(row);
+		}
+
+		/**
+		 * @param column
+		 * @return whether or not the given column has a non-{@code null} value
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		public boolean isValuePresent(Column<?> column) throws InvalidColumnException
+		{
+			return vectors[getPosition(column)].isPresent(row);
+		}
+
+		/**
+		 * @param column
+		 * @param nullReplacement
+		 * @return the value of the given column, or the nullReplacement if it is {@code null}
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		public long getLong(IntegerColumn column, long nullReplacement) throws InvalidColumnException
+		{
+			ColumnVector vector = vectors[getPosition(column)];
+			if(!vector.isPresent(row))
+				return nullReplacement;
+			if(vector instanceof LongVector)
+				return ((LongVector) vector).values[row];
+			return ((Number) vector.get(row)).longValue();
+		}
+
+		/**
+		 * @param column
+		 * @param nullReplacement
+		 * @return the value of the given column, or the nullReplacement if it is {@code null}
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		public double getDouble(FloatColumn column, double nullReplacement) throws InvalidColumnException
+		{
+			ColumnVector vector = vectors[getPosition(column)];
+			if(!vector.isPresent(row))
+				return nullReplacement;
+			if(vector instanceof DoubleVector)
+				return ((DoubleVector) vector).values[row];
+			return ((Number) vector.get(row)).doubleValue();
+		}
+
+		/**
+		 * @param column
+		 * @param nullReplacement
+		 * @return the value of the given column, or the nullReplacement if it is {@code null}
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		public boolean getBoolean(BooleanColumn column, boolean nullReplacement) throws InvalidColumnException
+		{
+			ColumnVector vector = vectors[getPosition(column)];
+			if(!vector.isPresent(row))
+				return nullReplacement;
+			if(vector instanceof BooleanVector)
+				return ((BooleanVector) vector).getBit(row);
+			return ((Boolean) vector.get(row)).booleanValue();
+		}
+
+		/**
+		 * @param column
+		 * @param nullReplacement
+		 * @return the ms since the epoch of the time stamp of the given column, or the nullReplacement if it is {@code null}
+		 * @throws InvalidColumnException when the column is not part of the schema
+		 */
+		public long getMsSinceEpoch(TimeStampColumn column, long nullReplacement) throws InvalidColumnException
+		{
+			ColumnVector vector = vectors[getPosition(column)];
+			if(!vector.isPresent(row))
+				return nullReplacement;
+			if(vector instanceof TimeStampVector)
+				return ((TimeStampVector) vector).msSinceEpoch[row];
+			return ((TimeStamp) vector.get(row)).getMsSinceEpoch();
+		}
+
+		/**
+		 * Overwrites all values of the given record with (copies of) the values of this row.
+		 *
+		 * @param record
+		 * @see RecordBatch#copyInto(int, Record)
+		 */
+		public void copyInto(Record record)
+		{
+			RecordBatch.this.copyInto(row, record);
+		}
+
+		/**
+		 * @return a new {@link Record} holding (copies of) the values of this row
+		 * @see RecordBatch#getRecord(int)
+		 */
+		public Record toRecord()
+		{
+			return getRecord(row);
+		}
+
+	}
+
+	/**
+	 * Holds the values of 1 column.
+	 */
+	static private abstract class ColumnVector
+	{
+
+		/**
+		 * 1 bit per row, set if the value is not {@code null}
+		 */
+		protected long[] presence;
+
+		ColumnVector(int capacity)
+		{
+			presence = new long[(capacity + Long.SIZE - 1) / Long.SIZE];
+		}
+
+		final boolean isPresent(int row)
+		{
+			return (presence[row >>> 6] & (1L << row)) != 0;
+		}
+
+		final void setPresent(int row, boolean present)
+		{
+			if(present)
+				presence[row >>> 6] |= (1L << row);
+			else
+				presence[row >>> 6] &= ~(1L << row);
+		}
+
+		void grow(int capacity)
+		{
+			presence = Arrays.copyOf(presence, (capacity + Long.SIZE - 1) / Long.SIZE);
+		}
+
+		/**
+		 * @param size current number of rows
+		 */
+		void clear(int size)
+		{
+			Arrays.fill(presence, 0L);
+		}
+
+		/**
+		 * Copies the value at the given position in the given ValueSet into the given row.
+		 *
+		 * @param source
+		 * @param position
+		 * @param row
+		 * @return whether or not the value could be held, {@code false} means it has an unexpected type
+		 */
+		abstract boolean load(ValueSet<?> source, int position, int row);
+
+		/**
+		 * Copies the value of the given row to the given position in the given ValueSet.
+		 *
+		 * @param row
+		 * @param target
+		 * @param position
+		 */
+		abstract void store(int row, ValueSet<?> target, int position);
+
+		/**
+		 * @param row
+		 * @param value may be {@code null}
+		 * @return whether or not the value could be held, {@code false} means it has an unexpected type
+		 */
+		abstract boolean set(int row, Object value);
+
+		/**
+		 * @param row
+		 * @return the (boxed) value of the given row, may be {@code null}
+		 */
+		abstract Object get(int row);
+
+	}
+
+	static private final class LongVector extends ColumnVector
+	{
+
+		long[] values;
+
+		LongVector(int capacity)
+		{
+			super(capacity);
+			values = new long[capacity];
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			ValueSetLayout layout = source.getLayout();
+			if(layout.getKind(position) == ValueSetLayout.KIND_LONG)
+			{
+				boolean present = !layout.isNull(source.values, source.primitives, position);
+				setPresent(row, present);
+				values[row] = present ? layout.getSlot(source.primitives, position) : 0L;
+				return true;
+			}
+			return set(row, source.getValueAt(position));
+		}
+
+		void setLong(int row, long value)
+		{
+			setPresent(row, true);
+			values[row] = value;
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			if(isPresent(row))
+				target.setLongAt(position, values[row]);
+			else
+				target.setValueAt(position, null);
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			if(value != null && !(value instanceof Long))
+				return false;
+			setPresent(row, value != null);
+			values[row] = value != null ? ((Long) value).longValue() : 0L;
+			return true;
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return isPresent(row) ? Long.valueOf(values[row]) : null;
+		}
+
+	}
+
+	static private final class DoubleVector extends ColumnVector
+	{
+
+		double[] values;
+
+		DoubleVector(int capacity)
+		{
+			super(capacity);
+			values = new double[capacity];
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			ValueSetLayout layout = source.getLayout();
+			if(layout.getKind(position) == ValueSetLayout.KIND_DOUBLE)
+			{
+				boolean present = !layout.isNull(source.values, source.primitives, position);
+				setPresent(row, present);
+				values[row] = present ? Double.longBitsToDouble(layout.getSlot(source.primitives, position)) : 0.0d;
+				return true;
+			}
+			return set(row, source.getValueAt(position));
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			if(isPresent(row))
+				target.setDoubleAt(position, values[row]);
+			else
+				target.setValueAt(position, null);
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			if(value != null && !(value instanceof Double))
+				return false;
+			setPresent(row, value != null);
+			values[row] = value != null ? ((Double) value).doubleValue() : 0.0d;
+			return true;
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return isPresent(row) ? Double.valueOf(values[row]) : null;
+		}
+
+	}
+
+	static private final class BooleanVector extends ColumnVector
+	{
+
+		/**
+		 * 1 bit per row
+		 */
+		long[] bits;
+
+		BooleanVector(int capacity)
+		{
+			super(capacity);
+			bits = new long[presence.length];
+		}
+
+		boolean getBit(int row)
+		{
+			return (bits[row >>> 6] & (1L << row)) != 0;
+		}
+
+		void setBit(int row, boolean value)
+		{
+			if(value)
+				bits[row >>> 6] |= (1L << row);
+			else
+				bits[row >>> 6] &= ~(1L << row);
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			bits = Arrays.copyOf(bits, presence.length);
+		}
+
+		@Override
+		void clear(int size)
+		{
+			super.clear(size);
+			Arrays.fill(bits, 0L);
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			ValueSetLayout layout = source.getLayout();
+			if(layout.getKind(position) == ValueSetLayout.KIND_BOOLEAN)
+			{
+				boolean present = !layout.isNull(source.values, source.primitives, position);
+				setPresent(row, present);
+				setBit(row, present && layout.getBoolean(source.primitives, position));
+				return true;
+			}
+			return set(row, source.getValueAt(position));
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			if(isPresent(row))
+				target.setBooleanAt(position, getBit(row));
+			else
+				target.setValueAt(position, null);
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			if(value != null && !(value instanceof Boolean))
+				return false;
+			setPresent(row, value != null);
+			setBit(row, value != null && ((Boolean) value).booleanValue());
+			return true;
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return isPresent(row) ? Boolean.valueOf(getBit(row)) : null;
+		}
+
+	}
+
+	static private final class TimeStampVector extends ColumnVector
+	{
+
+		long[] msSinceEpoch;
+		int[] quarterHourOffsets;
+
+		TimeStampVector(int capacity)
+		{
+			super(capacity);
+			msSinceEpoch = new long[capacity];
+			quarterHourOffsets = new int[capacity];
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			msSinceEpoch = Arrays.copyOf(msSinceEpoch, capacity);
+			quarterHourOffsets = Arrays.copyOf(quarterHourOffsets, capacity);
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			ValueSetLayout layout = source.getLayout();
+			if(layout.getKind(position) == ValueSetLayout.KIND_TIMESTAMP)
+			{
+				boolean present = !layout.isNull(source.values, source.primitives, position);
+				setPresent(row, present);
+				msSinceEpoch[row] = present ? layout.getTimeStampMsSinceEpoch(source.primitives, position) : 0L;
+				quarterHourOffsets[row] = present ? layout.getTimeStampOffset(source.primitives, position) : 0;
+				return true;
+			}
+			return set(row, source.getValueAt(position));
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			if(isPresent(row))
+				target.setTimeStampAt(position, msSinceEpoch[row], quarterHourOffsets[row]);
+			else
+				target.setValueAt(position, null);
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			if(value != null && value.getClass() != TimeStamp.class)
+				return false;
+			setPresent(row, value != null);
+			msSinceEpoch[row] = value != null ? ((TimeStamp) value).getMsSinceEpoch() : 0L;
+			quarterHourOffsets[row] = value != null ? ((TimeStamp) value).getQuarterHourOffsetWrtUTC() : 0;
+			return true;
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return isPresent(row) ? new TimeStamp(msSinceEpoch[row], quarterHourOffsets[row]) : null;
+		}
+
+	}
+
+	/**
+	 * Dictionary-encoded Strings. Each dictionary entry keeps count of the rows using it, entries which are no longer used are
+	 * removed and their codes are reused.
+	 */
+	static private final class StringVector extends ColumnVector
+	{
+
+		int[] codes;
+		final List<String> dictionary = new ArrayList<String>(); // null entries are unused
+		int[] useCounts = new int[DEFAULT_CAPACITY];
+		final Map<String, Integer> codesByString = new HashMap<String, Integer>();
+		final List<Integer> unusedCodes = new ArrayList<Integer>();
+
+		StringVector(int capacity)
+		{
+			super(capacity);
+			codes = new int[capacity];
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			codes = Arrays.copyOf(codes, capacity);
+		}
+
+		@Override
+		void clear(int size)
+		{
+			super.clear(size);
+			dictionary.clear();
+			Arrays.fill(useCounts, 0);
+			codesByString.clear();
+			unusedCodes.clear();
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			return set(row, source.getValueAt(position));
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			target.setValueAt(position, get(row));
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			if(value != null && !(value instanceof String))
+				return false;
+			if(isPresent(row))
+				release(codes[row]);
+			setPresent(row, value != null);
+			if(value != null)
+				codes[row] = use((String) value);
+			return true;
+		}
+
+		/**
+		 * @param string
+		 * @return the code of the given String, which is added to the dictionary if needed
+		 */
+		private int use(String string)
+		{
+			Integer code = codesByString.get(string);
+			if(code == null)
+			{
+				if(unusedCodes.isEmpty())
+				{
+					code = dictionary.size();
+					dictionary.add(string);
+					if(code == useCounts.length)
+						useCounts = Arrays.copyOf(useCounts, code + (code >> 1));
+				}
+				else
+				{
+					code = unusedCodes.remove(unusedCodes.size() - 1);
+					dictionary.set(code, string);
+				}
+				codesByString.put(string, code);
+			}
+			useCounts[code]++;
+			return code;
+		}
+
+		/**
+		 * Removes the String with the given code from the dictionary if it is no longer used.
+		 *
+		 * @param code
+		 */
+		private void release(int code)
+		{
+			if(--useCounts[code] == 0)
+			{
+				codesByString.remove(dictionary.set(code, null));
+				unusedCodes.add(code);
+			}
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return isPresent(row) ? dictionary.get(codes[row]) : null;
+		}
+
+	}
+
+	/**
+	 * Any other values. If a column is given values are copied on the way in and out (like {@link ValueSet#ValueSet(ValueSet)} does),
+	 * so rows and records never share mutable values.
+	 */
+	static private final class ObjectVector extends ColumnVector
+	{
+
+		final Column<?> column; // may be null
+		Object[] values;
+
+		ObjectVector(Column<?> column, int capacity)
+		{
+			super(capacity);
+			this.column = column;
+			values = new Object[capacity];
+		}
+
+		@Override
+		void grow(int capacity)
+		{
+			super.grow(capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void clear(int size)
+		{
+			super.clear(size);
+			Arrays.fill(values, 0, size, null);
+		}
+
+		@Override
+		boolean load(ValueSet<?> source, int position, int row)
+		{
+			return set(row, copy(source.getValueAt(position)));
+		}
+
+		@Override
+		void store(int row, ValueSet<?> target, int position)
+		{
+			target.setValueAt(position, copy(values[row]));
+		}
+
+		private Object copy(Object value)
+		{
+			return column != null ? column.copyObject(value, false) : value;
+		}
+
+		@Override
+		boolean set(int row, Object value)
+		{
+			setPresent(row, value != null);
+			values[row] = value;
+			return true;
+		}
+
+		@Override
+		Object get(int row)
+		{
+			return values[row];
+		}
+
+	}
+
+}
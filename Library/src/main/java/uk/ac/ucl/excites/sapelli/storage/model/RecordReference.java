@@ -184,9 +184,8 @@ public class RecordReference extends RecordValueSet<PrimaryKey>
 		
 		// Match for key parts:
 		AndConstraint constraints = new AndConstraint();
-		int c = 0;
-		for(Object keyPart : values)
-			constraints.addConstraint(new EqualityConstraint(columnSet.getColumn(c++), keyPart));
+		for(Column<?> keyPartCol : columnSet.getColumns(false))
+			constraints.addConstraint(new EqualityConstraint(keyPartCol, keyPartCol.retrieveValue(this))); // (values of primitive columns are not held in the values array)
 		
 		return constraints.reduce();
 	}
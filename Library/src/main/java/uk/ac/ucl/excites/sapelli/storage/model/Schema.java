@@ -103,6 +103,12 @@ public class Schema extends ColumnSet implements Serializable
 	 */
 	private List<Index> indexes;
 	
+	/**
+	 * Cached {@link #hashCode()} value, only used once the Schema is sealed (0 = not computed yet).
+	 * Reset when indexes are added, which is allowed after sealing.
+	 */
+	private transient int schemaHashCode = 0;
+	
 	/**
 	 * Create a new schema instance which will be add to the provided {@link Model}.
 	 * The Schema will use the default schema flags of the Model, if the model does not have
@@ -349,6 +355,8 @@ public class Schema extends ColumnSet implements Serializable
 			indexes = new ArrayList<Index>();
 		// Add to the indexes:
 		indexes.add(index);
+		// Indexes are part of the hashCode:
+		schemaHashCode = 0;
 	}
 	
 	@Override
@@ -624,6 +632,9 @@ public class Schema extends ColumnSet implements Serializable
 		if(obj instanceof Schema)
 		{
 			Schema that = (Schema) obj;
+			// Quick check for sealed Schemata (the cached hashCode covers everything that is compared below, except the model name):
+			if(checkNames && checkColumns && checkIndexes && this.isSealed() && that.isSealed() && this.hashCode() != that.hashCode())
+				return false;
 			// Compare as ColumnSets:
 			if(!super.equals(that, checkNames, checkColumns))
 				return false;
@@ -650,15 +661,26 @@ public class Schema extends ColumnSet implements Serializable
 			return false;
 	}
 	
+	/**
+	 * Once the Schema is sealed its hashCode is only computed once (and again after indexes are added).
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ColumnSet#hashCode()
+	 */
 	@Override
 	public int hashCode()
 	{
-		int hash = super.hashCode();
-		hash = 31 * hash + tableName.hashCode();
-		hash = 31 * hash + ((int) (model.getID() ^ (model.getID() >>> 32))); // do not use model.hashCode() here!
-		hash = 31 * hash + modelSchemaNumber;
-		hash = 31 * hash + getIndexes().hashCode(); // contains primary key
-		hash = 31 * hash + flags;
+		int hash = schemaHashCode;
+		if(hash == 0)
+		{
+			hash = super.hashCode();
+			hash = 31 * hash + tableName.hashCode();
+			hash = 31 * hash + ((int) (model.getID() ^ (model.getID() >>> 32))); // do not use model.hashCode() here!
+			hash = 31 * hash + modelSchemaNumber;
+			hash = 31 * hash + getIndexes().hashCode(); // contains primary key
+			hash = 31 * hash + flags;
+			if(isSealed())
+				schemaHashCode = hash;
+		}
 		return hash;
 	}
 	
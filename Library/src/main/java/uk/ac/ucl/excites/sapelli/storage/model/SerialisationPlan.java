@@ -0,0 +1,531 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
+import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidValueException;
+
+/**
+ * Precompiled plan for writing/reading the values of a {@link ValueSet} to/from a binary representation.
+ *
+ * A plan is a flat array of steps, one per written/read column, with the position of each column's value in the
+ * {@link ValueSet#values} array resolved in advance. This avoids having to filter the column list, look up column
+ * positions by name and check column compatibility for every single value. Integer columns get a specialised step
+ * which avoids repeated validation. Subcolumns of {@link ValueSetColumn}s are handled by the plan of the
+ * {@link ValueSetColumn} itself (see {@link ValueSetColumn#getSerialisationPlan(boolean)}).
+ * Plans which only deal with real columns can also write/read the rows of a {@link RecordBatch} directly.
+ *
+ * Plans are immutable, and therefore thread-safe. Plans for sealed {@link ColumnSet}s are cached
+ * (see {@link ColumnSet#getSerialisationPlan(boolean, Set, boolean)}).
+ *
+ * The produced binary representation is identical to the one produced by {@link ValueSet#writeColumnsToBitStream(BitOutputStream, List, boolean)}.
+ *
+ * @author mstevens
+ */
+public final class SerialisationPlan
+{
+
+	// STATIC -------------------------------------------------------
+	/**
+	 * @param columnSet
+	 * @param includeVirtual whether or not to include the values corresponding to virtual columns
+	 * @param skipColumns columns *not* to include the values of
+	 * @param lossless whether to use lossless ({@code true}) or lossy ({@code false}) encoding
+	 * @return a new plan
+	 */
+	static SerialisationPlan Compile(ColumnSet columnSet, boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless)
+	{
+		List<Column<?>> columns = columnSet.getColumns(includeVirtual, skipColumns);
+		Step[] steps = new Step[columns.size()];
+		int s = 0;
+		for(Column<?> column : columns)
+			steps[s++] = column instanceof VirtualColumn ?
+							new VirtualColumnStep(column) :
+							CreateStep(column, column, columnSet.getColumnPosition(column.name));
+		return new SerialisationPlan(columnSet, columns, columns, steps, lossless);
+	}
+
+	/**
+	 * @param valueSetColumn
+	 * @param lossless whether to use lossless ({@code true}) or lossy ({@code false}) encoding
+	 * @return a new plan for the subcolumns of the given {@link ValueSetColumn}, taking into account skipped and swapped subcolumns
+	 */
+	static SerialisationPlan Compile(ValueSetColumn<?, ?> valueSetColumn, boolean lossless)
+	{
+		ColumnSet columnSet = valueSetColumn.columnSet;
+		List<Column<?>> columns = new ArrayList<Column<?>>();
+		List<Column<?>> binaryColumns = new ArrayList<Column<?>>();
+		List<Step> steps = new ArrayList<Step>();
+		for(Column<?> subCol : columnSet.getColumns(false))
+			if(lossless || !valueSetColumn.isColumnSkipped(subCol)) // never skip a column if lossless
+			{
+				Column<?> binaryCol = valueSetColumn.getBinaryColumn(subCol);
+				columns.add(subCol);
+				binaryColumns.add(binaryCol);
+				steps.add(CreateStep(subCol, binaryCol, columnSet.getColumnPosition(subCol.name)));
+			}
+		return new SerialisationPlan(columnSet, columns, binaryColumns, steps.toArray(new Step[steps.size()]), lossless);
+	}
+
+	@SuppressWarnings("unchecked")
+	static private Step CreateStep(Column<?> schemaColumn, Column<?> binaryColumn, int position)
+	{
+		if(schemaColumn != binaryColumn)
+			return new SwappedColumnStep(schemaColumn, binaryColumn, position);
+		if(schemaColumn.getClass() == IntegerColumn.class) // exact class only, subclasses may behave differently
+			return new IntegerColumnStep((IntegerColumn) schemaColumn, position);
+		return new ColumnStep<Object>((Column<Object>) schemaColumn, position);
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	private final ColumnSet columnSet;
+	private final List<Column<?>> columns;
+	private final Column<?>[] binaryColumns;
+	private final Step[] steps;
+	private final boolean lossless;
+	/**
+	 * The steps as {@link ColumnStep}s, or {@code null} if there are steps of another kind (in which case the plan cannot work on {@link RecordBatch}es directly)
+	 */
+	private final ColumnStep<?>[] columnSteps;
+
+	/**
+	 * @param columnSet
+	 * @param columns the columns whose values are to be written/read
+	 * @param binaryColumns the columns to use for writing/reading the values of the corresponding {@code columns}
+	 * @param steps
+	 * @param lossless
+	 */
+	private SerialisationPlan(ColumnSet columnSet, List<Column<?>> columns, List<Column<?>> binaryColumns, Step[] steps, boolean lossless)
+	{
+		this.columnSet = columnSet;
+		this.columns = Collections.unmodifiableList(columns);
+		this.binaryColumns = binaryColumns.toArray(new Column<?>[binaryColumns.size()]);
+		this.steps = steps;
+		this.lossless = lossless;
+		ColumnStep<?>[] columnSteps = new ColumnStep<?>[steps.length];
+		for(int s = 0; s < steps.length; s++)
+		{
+			if(!(steps[s] instanceof ColumnStep))
+			{
+				columnSteps = null;
+				break;
+			}
+			columnSteps[s] = (ColumnStep<?>) steps[s];
+		}
+		this.columnSteps = columnSteps;
+	}
+
+	/**
+	 * @return the columns whose values are written/read by this plan, in order
+	 */
+	public List<Column<?>> getColumns()
+	{
+		return columns;
+	}
+
+	/**
+	 * @return whether values are losslessly ({@code true}) or lossyly ({@code false}) encoded
+	 */
+	public boolean isLossless()
+	{
+		return lossless;
+	}
+
+	/**
+	 * Writes the values of the given valueSet to the given bitStream.
+	 *
+	 * @param valueSet
+	 * @param bitStream
+	 * @throws NullPointerException if a value is {@code null} on an non-optional column
+	 * @throws InvalidColumnException when the valueSet does not have a compatible {@link ColumnSet}
+	 * @throws InvalidValueException if a value does not pass the validation test
+	 * @throws IOException if an I/O error happens upon writing to the bitStream
+	 */
+	public void write(ValueSet<?> valueSet, BitOutputStream bitStream) throws NullPointerException, InvalidColumnException, InvalidValueException, IOException
+	{
+		if(!isApplicable(valueSet))
+		{	// Positions may differ, use the columns the slow way:
+			for(int c = 0; c < steps.length; c++)
+				binaryColumns[c].writeObject(columns.get(c).retrieveValue(valueSet), bitStream, lossless);
+			return;
+		}
+		for(Step step : steps)
+			step.write(valueSet, bitStream, lossless);
+	}
+
+	/**
+	 * Reads values from the given bitStream and stores them in the given valueSet.
+	 * Values of virtual columns are read but not stored (i.e. they are skipped in the stream).
+	 *
+	 * @param valueSet
+	 * @param bitStream
+	 * @throws NullPointerException if a read value is {@code null} on an non-optional column
+	 * @throws InvalidColumnException when the valueSet does not have a compatible {@link ColumnSet}
+	 * @throws InvalidValueException if a read value does not pass the validation test
+	 * @throws IOException if an I/O error happens upon reading from the bitStream
+	 * @throws UnsupportedOperationException if the given valueSet is an {@link UnmodifiableValueSet}
+	 */
+	public void read(ValueSet<?> valueSet, BitInputStream bitStream) throws NullPointerException, InvalidColumnException, InvalidValueException, IOException, UnsupportedOperationException
+	{
+		if(valueSet instanceof UnmodifiableValueSet)
+			throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+		if(!isApplicable(valueSet))
+		{	// Positions may differ, use the columns the slow way:
+			for(int c = 0; c < steps.length; c++)
+			{
+				Column<?> column = columns.get(c);
+				if(column instanceof VirtualColumn)
+					column.readValue(bitStream, lossless);
+				else if(binaryColumns[c] == column)
+					column.readAndStoreValue(valueSet, bitStream, lossless);
+				else
+					column.storeObject(valueSet, binaryColumns[c].readValue(bitStream, lossless));
+			}
+			return;
+		}
+		for(Step step : steps)
+			step.read(valueSet, bitStream, lossless);
+	}
+
+	/**
+	 * @param batch
+	 * @return whether the plan can write/read the rows of the given batch directly (see {@link #write(RecordBatch, int, BitOutputStream)}
+	 * 			and {@link #read(RecordBatch, int, BitInputStream)}), which is the case if it only deals with real, unswapped columns of the batch's schema
+	 */
+	boolean isApplicable(RecordBatch batch)
+	{
+		return columnSteps != null && isApplicable(batch.getSchema());
+	}
+
+	/**
+	 * Writes the values of the given row of the given batch to the given bitStream, without copying them into a {@link ValueSet}.
+	 *
+	 * @param batch
+	 * @param row
+	 * @param bitStream
+	 * @throws NullPointerException if a value is {@code null} on an non-optional column
+	 * @throws InvalidValueException if a value does not pass the validation test
+	 * @throws IOException if an I/O error happens upon writing to the bitStream
+	 * @see #isApplicable(RecordBatch)
+	 */
+	void write(RecordBatch batch, int row, BitOutputStream bitStream) throws NullPointerException, InvalidValueException, IOException
+	{
+		for(ColumnStep<?> step : columnSteps)
+			step.write(batch, row, bitStream, lossless);
+	}
+
+	/**
+	 * Reads values from the given bitStream and stores them in the given row of the given batch, without copying them from a {@link ValueSet}.
+	 * Values of columns which are not part of the plan are left untouched.
+	 *
+	 * @param batch
+	 * @param row
+	 * @param bitStream
+	 * @throws NullPointerException if a read value is {@code null} on an non-optional column
+	 * @throws InvalidValueException if a read value does not pass the validation test
+	 * @throws IOException if an I/O error happens upon reading from the bitStream
+	 * @see #isApplicable(RecordBatch)
+	 */
+	void read(RecordBatch batch, int row, BitInputStream bitStream) throws NullPointerException, InvalidValueException, IOException
+	{
+		for(ColumnStep<?> step : columnSteps)
+			step.read(batch, row, bitStream, lossless);
+	}
+
+	/**
+	 * @param valueSet
+	 * @return whether the precomputed positions can be used with the given valueSet
+	 */
+	private boolean isApplicable(ValueSet<?> valueSet)
+	{
+		return isApplicable(valueSet.columnSet);
+	}
+
+	/**
+	 * @param columnSet
+	 * @return whether the precomputed positions can be used with values of the given columnSet
+	 */
+	private boolean isApplicable(ColumnSet columnSet)
+	{
+		return this.columnSet == columnSet || this.columnSet.equals(columnSet);
+	}
+
+	/**
+	 * A single write/read step, dealing with the value of one column.
+	 */
+	static private abstract class Step
+	{
+
+		abstract void write(ValueSet<?> valueSet, BitOutputStream bitStream, boolean lossless) throws IOException;
+
+		abstract void read(ValueSet<?> valueSet, BitInputStream bitStream, boolean lossless) throws IOException;
+
+	}
+
+	/**
+	 * Generic step for a "real" (non-virtual) column, reads/writes the value array (or the {@link RecordBatch} column) directly.
+	 */
+	static private class ColumnStep<T> extends Step
+	{
+
+		final Column<T> column;
+		final int position;
+
+		ColumnStep(Column<T> column, int position)
+		{
+			this.column = column;
+			this.position = position;
+		}
+
+		@Override
+		void write(ValueSet<?> valueSet, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			column.writeObject(valueSet.getValueAt(position), bitStream, lossless); // validates value
+		}
+
+		@Override
+		void read(ValueSet<?> valueSet, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			valueSet.setValueAt(position, column.readValue(bitStream, lossless)); // validates value
+		}
+
+		void write(RecordBatch batch, int row, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			column.writeObject(batch.getValueAt(row, position), bitStream, lossless); // validates value
+		}
+
+		void read(RecordBatch batch, int row, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			batch.setValueAt(row, position, column.readValue(bitStream, lossless)); // validates value
+		}
+
+	}
+
+	/**
+	 * Step for {@link IntegerColumn}s, which avoids calling {@link IntegerColumn#validate(Long)} for values in the allowed range,
+	 * and avoids boxing values held as primitives (see {@link ValueSetLayout}).
+	 */
+	static private final class IntegerColumnStep extends ColumnStep<Long>
+	{
+
+		final IntegerColumn integerColumn;
+		final long minValue;
+		final long maxValue;
+
+		IntegerColumnStep(IntegerColumn column, int position)
+		{
+			super(column, position);
+			this.integerColumn = column;
+			this.minValue = column.getMinValue();
+			this.maxValue = column.getMaxValue();
+		}
+
+		@Override
+		void write(ValueSet<?> valueSet, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			ValueSetLayout layout = valueSet.getLayout();
+			boolean present = !layout.isNull(valueSet.values, valueSet.primitives, position);
+			if(column.optional)
+				bitStream.write(present); // write "presence"-bit
+			else if(!present)
+				throw new NullPointerException("Non-optional value is null!");
+			if(present)
+			{
+				long value = layout.getLong(valueSet.values, valueSet.primitives, position, 0L);
+				if(value < minValue || value > maxValue)
+					column.validate(value); // will throw InvalidValueException
+				integerColumn.writePrimitive(value, bitStream);
+			}
+		}
+
+		@Override
+		void read(ValueSet<?> valueSet, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			if(column.optional && !bitStream.readBit()) // in case of optional column: only read value if "presence"-bit is true
+			{
+				valueSet.setValueAt(position, null);
+				return;
+			}
+			long value = integerColumn.readPrimitive(bitStream);
+			if(value < minValue || value > maxValue)
+				column.validate(value); // will throw InvalidValueException
+			valueSet.setLongAt(position, value);
+		}
+
+		@Override
+		void write(RecordBatch batch, int row, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			boolean present = batch.isValuePresentAt(row, position);
+			if(column.optional)
+				bitStream.write(present); // write "presence"-bit
+			else if(!present)
+				throw new NullPointerException("Non-optional value is null!");
+			if(present)
+			{
+				long value = batch.getLongAt(row, position);
+				if(value < minValue || value > maxValue)
+					column.validate(value); // will throw InvalidValueException
+				integerColumn.writePrimitive(value, bitStream);
+			}
+		}
+
+		@Override
+		void read(RecordBatch batch, int row, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			if(column.optional && !bitStream.readBit()) // in case of optional column: only read value if "presence"-bit is true
+			{
+				batch.setValueAt(row, position, null);
+				return;
+			}
+			long value = integerColumn.readPrimitive(bitStream);
+			if(value < minValue || value > maxValue)
+				column.validate(value); // will throw InvalidValueException
+			batch.setLongAt(row, position, value);
+		}
+
+	}
+
+	/**
+	 * Step for a subcolumn of a {@link ValueSetColumn} which has been swapped for another column for binary storage.
+	 *
+	 * @see ValueSetColumn#swapColumn(Column, Column)
+	 */
+	static private final class SwappedColumnStep extends Step
+	{
+
+		final Column<?> schemaColumn;
+		final Column<?> binaryColumn;
+		final int position;
+
+		SwappedColumnStep(Column<?> schemaColumn, Column<?> binaryColumn, int position)
+		{
+			this.schemaColumn = schemaColumn;
+			this.binaryColumn = binaryColumn;
+			this.position = position;
+		}
+
+		@Override
+		void write(ValueSet<?> valueSet, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			binaryColumn.writeObject(valueSet.getValueAt(position), bitStream, lossless);
+		}
+
+		@Override
+		void read(ValueSet<?> valueSet, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			schemaColumn.storeObject(valueSet, binaryColumn.readValue(bitStream, lossless)); // converts & validates using the schema column
+		}
+
+	}
+
+	/**
+	 * Step for a {@link VirtualColumn}, whose values are computed upon writing and skipped upon reading.
+	 */
+	static private final class VirtualColumnStep extends Step
+	{
+
+		final Column<?> column;
+
+		VirtualColumnStep(Column<?> column)
+		{
+			this.column = column;
+		}
+
+		@Override
+		void write(ValueSet<?> valueSet, BitOutputStream bitStream, boolean lossless) throws IOException
+		{
+			column.retrieveAndWriteValue(valueSet, bitStream, lossless);
+		}
+
+		@Override
+		void read(ValueSet<?> valueSet, BitInputStream bitStream, boolean lossless) throws IOException
+		{
+			column.readValue(bitStream, lossless); // read but don't store values of virtual columns (i.e. we skip them in the stream)
+		}
+
+	}
+
+	/**
+	 * Key for caching plans of a {@link ColumnSet}.
+	 */
+	static final class Key
+	{
+
+		final boolean includeVirtual;
+		final Set<? extends Column<?>> skipColumns;
+		final boolean lossless;
+
+		/**
+		 * @param includeVirtual
+		 * @param skipColumns will not be copied (see {@link #copy()})
+		 * @param lossless
+		 */
+		Key(boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless)
+		{
+			this.includeVirtual = includeVirtual;
+			this.skipColumns = skipColumns == null || skipColumns.isEmpty() ? ColumnSet.SKIP_NONE : skipColumns;
+			this.lossless = lossless;
+		}
+
+		/**
+		 * @return a copy of the key which is safe to store (i.e. the set of skipped columns cannot be changed by the caller)
+		 */
+		Key copy()
+		{
+			return skipColumns.isEmpty() ? this : new Key(includeVirtual, Collections.unmodifiableSet(new HashSet<Column<?>>(skipColumns)), lossless);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = 1;
+			hash = 31 * hash + (includeVirtual ? 0 : 1);
+			hash = 31 * hash + (lossless ? 0 : 1);
+			hash = 31 * hash + skipColumns.hashCode();
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if(this == obj)
+				return true;
+			if(obj instanceof Key)
+			{
+				Key that = (Key) obj;
+				return	this.includeVirtual == that.includeVirtual &&
+						this.lossless == that.lossless &&
+						this.skipColumns.equals(that.skipColumns);
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -134,6 +134,15 @@ public class UnmodifiableValueSet<CS extends ColumnSet> extends ValueSet<CS>
 		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
 	}
 
+	/* (non-Javadoc)
+	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#readFromBitStream(uk.ac.ucl.excites.sapelli.shared.io.BitInputStream, uk.ac.ucl.excites.sapelli.storage.model.SerialisationPlan)
+	 */
+	@Override
+	public void readFromBitStream(BitInputStream bitStream, SerialisationPlan plan) throws UnsupportedOperationException
+	{
+		throw new UnsupportedOperationException("Cannot set or change values in an " + UnmodifiableValueSet.class.getSimpleName());
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.model.ValueSet#readColumnsFromBitStream(uk.ac.ucl.excites.sapelli.shared.io.BitInputStream, java.util.List, boolean)
 	 */
@@ -39,6 +39,7 @@ import uk.ac.ucl.excites.sapelli.shared.util.StringUtils;
 import uk.ac.ucl.excites.sapelli.shared.util.TransactionalStringBuilder;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.LosslessFlagColumn;
 import uk.ac.ucl.excites.sapelli.storage.types.Location;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
 import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
 import uk.ac.ucl.excites.sapelli.storage.util.InvalidValueException;
 
@@ -62,7 +63,15 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	// Dynamics------------------------------------------------------
 	protected /*final*/ CS columnSet; // not final (for now) for Record#setSchema() methods
 	
-	protected final Object[] values;
+	/**
+	 * Values of non-primitive columns, or of all columns if the layout is unpacked (see {@link #getLayout()}).
+	 */
+	protected Object[] values;
+	
+	/**
+	 * Values of primitive columns, {@code null} if the layout is unpacked (see {@link #getLayout()}).
+	 */
+	protected long[] primitives;
 	
 	/**
 	 * Creates a new, ValueSet with the given ColumnSet, with each Column's value set to its defaultValue (usually {@code null}).
@@ -76,10 +85,16 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		if(!columnSet.isSealed())
 			throw new IllegalStateException("Schema must be sealed before records based on it can be created!");
 		this.columnSet = columnSet;
-		values = new Object[columnSet.getNumberOfColumns(false)];
+		ValueSetLayout layout = columnSet.getValueSetLayout();
+		this.values = layout.newObjects();
+		this.primitives = layout.newPrimitives();
 		// Initialise values with the defaultValue of each Column (usually null):
-		for(int c = 0; c < this.values.length; c++)
-			this.values[c] = columnSet.getColumn(c).defaultValue;
+		for(int c = 0; c < layout.size; c++)
+		{
+			Object defaultValue = columnSet.getColumn(c).defaultValue;
+			if(defaultValue != null)
+				setValueAt(c, defaultValue);
+		}
 	}
 	
 	/**
@@ -97,14 +112,14 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		this(columnSet);
 		if(values != null)
 		{	
-			if(this.values.length == values.length)
+			if(getNumberOfValues() == values.length)
 			{
 				// Init from given values:
-				for(int c = 0; c < this.values.length; c++)
+				for(int c = 0; c < values.length; c++)
 					columnSet.getColumn(c).storeObject(this, values[c]); // validation (and possibly conversion) will be applied
 			}
 			else
-				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + this.values.length + ").");
+				throw new IllegalArgumentException("Unexpected number of values (given: " + values.length + "; expected: " + getNumberOfValues() + ").");
 		}
 	}
 	
@@ -146,10 +161,10 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		this(another.columnSet);
 		
 		//(Deep) copy of values:
-		for(int c = 0; c < this.values.length; c++)
+		for(int c = 0; c < getNumberOfValues(); c++)
 		{
 			Column<?> col = columnSet.getColumn(c);
-			this.values[c] = col.copyObject(another.values[c], false); // cast, don't convert
+			setValueAt(c, col.copyObject(another.getValueAt(c), false)); // cast, don't convert
 		}
 	}
 	
@@ -171,7 +186,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	protected void setValue(Column<?> column, Object value) throws InvalidColumnException
 	{
-		values[getPosition(column)] = value; // set value in array
+		setValueAt(getPosition(column), value);
 	}
 	
 	/**
@@ -183,7 +198,179 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	protected final Object getValue(Column<?> column) throws InvalidColumnException
 	{
-		return values[getPosition(column)]; // return value from array
+		return getValueAt(getPosition(column));
+	}
+	
+	/**
+	 * The layout is not kept in the ValueSet itself, to save memory. It is the one of the columnSet, unless the ValueSet
+	 * has no primitives array, which is the case if it was unpacked, or stored or serialised before packed layouts existed.
+	 * 
+	 * @return the {@link ValueSetLayout} describing how the values are stored
+	 */
+	final ValueSetLayout getLayout()
+	{
+		ValueSetLayout layout = columnSet.getValueSetLayout();
+		return primitives == null && layout.isPacked() ? columnSet.getUnpackedValueSetLayout() : layout;
+	}
+	
+	/**
+	 * @return the number of values (= the number of non-virtual columns in the columnSet)
+	 */
+	protected final int getNumberOfValues()
+	{
+		return getLayout().size;
+	}
+	
+	/**
+	 * @param position
+	 * @return the value at the given position (may be {@code null})
+	 */
+	final Object getValueAt(int position)
+	{
+		return getLayout().get(values, primitives, position);
+	}
+	
+	/**
+	 * Stores a value at the given position, without any checks.
+	 * If the value does not have the type the layout expects at that position (which only happens when checks are bypassed elsewhere) the ValueSet is unpacked.
+	 * 
+	 * @param position
+	 * @param value may be {@code null}
+	 */
+	final void setValueAt(int position, Object value)
+	{
+		if(!getLayout().set(values, primitives, position, value))
+		{
+			unpack();
+			values[position] = value;
+		}
+	}
+	
+	/**
+	 * @param position
+	 * @return whether or not the value at the given position is {@code null}
+	 */
+	final boolean isNullAt(int position)
+	{
+		return getLayout().isNull(values, primitives, position);
+	}
+	
+	/**
+	 * Stores a non-{@code null} long value at the given position, without boxing if the layout holds it as a primitive.
+	 * 
+	 * @param position
+	 * @param value
+	 */
+	final void setLongAt(int position, long value)
+	{
+		if(!getLayout().setLong(primitives, position, value))
+			setValueAt(position, Long.valueOf(value));
+	}
+	
+	/**
+	 * Stores a non-{@code null} double value at the given position, without boxing if the layout holds it as a primitive.
+	 * 
+	 * @param position
+	 * @param value
+	 */
+	final void setDoubleAt(int position, double value)
+	{
+		if(!getLayout().setDouble(primitives, position, value))
+			setValueAt(position, Double.valueOf(value));
+	}
+	
+	/**
+	 * Stores a non-{@code null} boolean value at the given position, without boxing if the layout holds it as a primitive.
+	 * 
+	 * @param position
+	 * @param value
+	 */
+	final void setBooleanAt(int position, boolean value)
+	{
+		if(!getLayout().setBoolean(primitives, position, value))
+			setValueAt(position, Boolean.valueOf(value));
+	}
+	
+	/**
+	 * Stores a non-{@code null} {@link TimeStamp} at the given position, without creating one if the layout holds it as primitives.
+	 * 
+	 * @param position
+	 * @param msSinceEpoch
+	 * @param quarterHourOffsetWrtUTC
+	 */
+	final void setTimeStampAt(int position, long msSinceEpoch, int quarterHourOffsetWrtUTC)
+	{
+		if(!getLayout().setTimeStamp(primitives, position, msSinceEpoch, quarterHourOffsetWrtUTC))
+			setValueAt(position, new TimeStamp(msSinceEpoch, quarterHourOffsetWrtUTC));
+	}
+	
+	/**
+	 * @param column
+	 * @param nullReplacement
+	 * @return the value of the given column as a long (without boxing if the value is stored as a primitive), or nullReplacement if it is {@code null}
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	final long getLongValue(Column<?> column, long nullReplacement) throws InvalidColumnException
+	{
+		return getLayout().getLong(values, primitives, getPosition(column), nullReplacement);
+	}
+	
+	/**
+	 * @param column
+	 * @param nullReplacement
+	 * @return the value of the given column as a double (without boxing if the value is stored as a primitive), or nullReplacement if it is {@code null}
+	 * @throws InvalidColumnException when the column does not exist in the record's schema, because it is virtual, or because it is incompatible with the schema column by the same name
+	 */
+	final double getDoubleValue(Column<?> column, double nullReplacement) throws InvalidColumnException
+	{
+		return getLayout().getDouble(values, primitives, getPosition(column), nullReplacement);
+	}
+	
+	/**
+	 * Switches to the unpacked layout, keeping all values.
+	 */
+	private void unpack()
+	{
+		ValueSetLayout current = getLayout();
+		if(!current.isPacked())
+			return;
+		Object[] all = new Object[current.size];
+		for(int p = 0; p < current.size; p++)
+			all[p] = current.get(values, primitives, p);
+		values = all;
+		primitives = null;
+	}
+	
+	/**
+	 * Replaces the columnSet, moving the values into the layout of the new one if needed.
+	 * The new columnSet is expected to have the same number of (non-virtual) columns.
+	 * 
+	 * @param newColumnSet
+	 */
+	protected final void replaceColumnSet(CS newColumnSet)
+	{
+		ValueSetLayout current = getLayout();
+		ValueSetLayout target = newColumnSet.getValueSetLayout();
+		if(!current.equals(target))
+		{
+			Object[] oldValues = values;
+			long[] oldPrimitives = primitives;
+			values = target.newObjects();
+			primitives = target.newPrimitives();
+			for(int p = 0; p < current.size; p++)
+			{
+				Object value = current.get(oldValues, oldPrimitives, p);
+				if(!target.set(values, primitives, p, value))
+				{	// value of an unexpected type (the new columnSet was forced), fall back to unpacked layout:
+					values = new Object[current.size];
+					for(int q = 0; q < current.size; q++)
+						values[q] = current.get(oldValues, oldPrimitives, q);
+					primitives = null;
+					break;
+				}
+			}
+		}
+		this.columnSet = newColumnSet;
 	}
 	
 	/**
@@ -586,8 +773,9 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 			// 	If the column does not apply it's own serialisation delimiting then
 			//	 we may have to wrap the valueString in the default serialisation delimiters:
 			if(!col.isApplyingSerialisationDelimiting())
-				valueString = StringUtils.escapeByDoublingAndWrapping(valueString, DEFAULT_SERIALISATION_DELIMITER, /*don't force:*/ false, SERIALISATION_SEPARATOR);
-			bldr.append(valueString == null ? "" /*just in case*/ : valueString);
+				StringUtils.appendEscapedByDoublingAndWrapping(bldr, valueString, DEFAULT_SERIALISATION_DELIMITER, /*don't force:*/ false, SERIALISATION_SEPARATOR);
+			else if(valueString != null)
+				bldr.append(valueString);
 		}
 		return bldr.toString();
 	}
@@ -621,29 +809,47 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	{
 		if(serialisedValueSet == null)
 			throw new IllegalArgumentException("Cannot parse null String, it represents a null ValueSet object");
-
+		return parse(serialisedValueSet, 0, serialisedValueSet.length(), includeVirtual, skipColumns);
+	}
+	
+	/**
+	 * Deserialise the values of a ValueSet from the region of the given String between {@code start} (inclusive)
+	 * and {@code end} (exclusive). Allows enclosing parsers to avoid copying out the serialised ValueSet first.
+	 * 
+	 * @param serialisedValueSet should not be {@code null}
+	 * @param start
+	 * @param end
+	 * @param includeVirtual whether or not to expect values for the virtual columns
+	 * @param skipColumns a set of columns not to expect values for
+	 * @return this ValueSet
+	 * @throws ParseException
+	 * @throws IllegalArgumentException
+	 * @throws NullPointerException
+	 * @see #parse(String, boolean, Set)
+	 */
+	ValueSet<CS> parse(String serialisedValueSet, int start, int end, boolean includeVirtual, Set<? extends Column<?>> skipColumns) throws ParseException, IllegalArgumentException, NullPointerException
+	{
 		// Get columns included in serialisedValueSet:
 		List<Column<?>> expectedColumns = columnSet.getColumns(includeVirtual, skipColumns);
 
-		// Add trailing separator (this simplifies the code below):
-		serialisedValueSet += SERIALISATION_SEPARATOR;
-		
 		// Parse serialisedValueSet column by column (splitting the string by looking for separators outside of delimited values):
 		Iterator<Column<?>> colIter = expectedColumns.iterator();
 		int valueCount = 0;
 		Column<?> col = null;
 		char colDelimiter = DEFAULT_SERIALISATION_DELIMITER;
 		int colDelimiterCount = 0;
-		StringBuilder valueStringBldr = new StringBuilder();
-		for(char c : serialisedValueSet.toCharArray())
+		int valueStart = start;
+		for(int i = start; i <= end; i++)
 		{
+			// Treat end of region as a trailing separator (this simplifies the code below):
+			char c = i < end ? serialisedValueSet.charAt(i) : SERIALISATION_SEPARATOR;
 			// Get column:
 			if(col == null)
 			{
 				if(colIter.hasNext())
 				{
 					col = colIter.next();
-					colDelimiter = col.getSerialisationDelimiter() != null ? col.getSerialisationDelimiter() : DEFAULT_SERIALISATION_DELIMITER;
+					colDelimiter = col.isApplyingSerialisationDelimiting() ? col.getSerialisationDelimiter() : DEFAULT_SERIALISATION_DELIMITER;
 					colDelimiterCount = 0; // !!!
 				}
 				else
@@ -654,22 +860,18 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 			}
 			// Treat character:
 			if(c == colDelimiter)
-			{	// count the number of colDelimiters we've passed
+				// count the number of colDelimiters we've passed
 				colDelimiterCount++;
-				// Append char:
-				valueStringBldr.append(c); // !!!
-			}
 			else if(c == SERIALISATION_SEPARATOR && colDelimiterCount % 2 == 0)
 			{	// if delimiterCount is even this means we are not *inside* a value and this is an actual serialisation separator
 				// Parse value, unless this is a virtual column:
 				if(	(!includeVirtual || !(col instanceof VirtualColumn)))	// ignore virtual column values as they never store their own value
 				{
-					String valueString = valueStringBldr.toString();
-					
 					// If the column does not apply it's own serialisation delimiting then
 					//	it could be that valueString is wrapped using the default serialisation delimiters:
-					if(!col.isApplyingSerialisationDelimiting())
-						valueString = StringUtils.deescapeByDoublingAndWrapping(valueString, DEFAULT_SERIALISATION_DELIMITER);
+					String valueString = col.isApplyingSerialisationDelimiting() ?
+						serialisedValueSet.substring(valueStart, i) :
+						StringUtils.deescapeByDoublingAndWrapping(serialisedValueSet, valueStart, i, DEFAULT_SERIALISATION_DELIMITER);
 					
 					// Parse & store:
 					col.storeString(this, valueString); // if the column applies it's own delimiters these will be removed/deescaped; validation will be performed
@@ -678,12 +880,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 				// We are done with this column:
 				valueCount++;
 				col = null;
-				valueStringBldr.setLength(0); // reset valueString builder!
-			}
-			else
-			{	
-				// Append char:
-				valueStringBldr.append(c); // !!!
+				valueStart = i + 1;
 			}
 		}
 		
@@ -778,7 +975,27 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	public void writeToBitStream(BitOutputStream bitStream, boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless) throws IOException
 	{
-		writeColumnsToBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+		writeToBitStream(bitStream, columnSet.getSerialisationPlan(includeVirtual, skipColumns, lossless));
+	}
+	
+	/**
+	 * Write ValueSet values to the given bitStream, using the given plan.
+	 * Useful to avoid looking up the plan for every ValueSet when writing many of them.
+	 * 
+	 * @param bitStream
+	 * @param plan obtained from {@link ColumnSet#getSerialisationPlan(boolean, Set, boolean)}
+	 * @throws IOException
+	 */
+	public void writeToBitStream(BitOutputStream bitStream, SerialisationPlan plan) throws IOException
+	{
+		try
+		{	// Write fields:
+			plan.write(this, bitStream);
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on attempting to write record", e);
+		}
 	}
 	
 	/**
@@ -856,7 +1073,27 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	 */
 	public void readFromBitStream(BitInputStream bitStream, boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless) throws IOException
 	{
-		readColumnsFromBitStream(bitStream, columnSet.getColumns(includeVirtual, skipColumns), lossless);
+		readFromBitStream(bitStream, columnSet.getSerialisationPlan(includeVirtual, skipColumns, lossless));
+	}
+	
+	/**
+	 * Read ValueSet values from the given bitStream, using the given plan.
+	 * Useful to avoid looking up the plan for every ValueSet when reading many of them.
+	 * 
+	 * @param bitStream
+	 * @param plan obtained from {@link ColumnSet#getSerialisationPlan(boolean, Set, boolean)}
+	 * @throws IOException
+	 */
+	public void readFromBitStream(BitInputStream bitStream, SerialisationPlan plan) throws IOException
+	{
+		try
+		{	// Read fields:
+			plan.read(this, bitStream);
+		}
+		catch(Exception e)
+		{
+			throw new IOException("Error on attempting to read record. Read so far: " + this.toString(), e);
+		}
 	}
 	
 	/**
@@ -888,19 +1125,41 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	/**
 	 * Gets the size of this ValueSet in number of bits, when written to binary representation.
 	 * 
+	 * The size of each value is computed analytically by its column (see {@link Column#getSize(Object, boolean)}),
+	 * only values of which the size cannot be determined that way are actually encoded (to a throwaway stream).
+	 * 
+	 * @param includeVirtual whether or not to include the values corresponding to virtual columns
+	 * @param skipColumns columns *not* to include the values of
 	 * @param lossless whether to use lossless ({@code true}) or lossy ({@code false}) encoding
-	 * @return
+	 * @return the size in number of bits, or -1 in case of an error (e.g. a {@code null} value for a non-optional column)
 	 */
 	public int getSize(boolean includeVirtual, Set<? extends Column<?>> skipColumns, boolean lossless)
 	{
-		BitOutputStream out = null;
+		BitOutputStream trialOut = null;
 		try
 		{
-			out = new BitWrapOutputStream(new ByteArrayOutputStream());
-			this.writeToBitStream(out, includeVirtual, skipColumns, lossless);
-			return out.getNumberOfBitsWritten();
+			List<Column<?>> columns = columnSet.getColumns(includeVirtual);
+			boolean skip = skipColumns != null && !skipColumns.isEmpty();
+			int total = 0;
+			for(int c = 0, n = columns.size(); c < n; c++)
+			{
+				Column<?> col = columns.get(c);
+				if(skip && skipColumns.contains(col))
+					continue;
+				int colSize = col.retrieveSize(this, lossless);
+				if(colSize == Column.UNKNOWN_SIZE)
+				{	// Fall back to trial encoding of this value:
+					if(trialOut == null)
+						trialOut = new BitWrapOutputStream(new ByteArrayOutputStream());
+					int before = trialOut.getNumberOfBitsWritten();
+					col.retrieveAndWriteValue(this, trialOut, lossless);
+					colSize = trialOut.getNumberOfBitsWritten() - before;
+				}
+				total += colSize;
+			}
+			return total;
 		}
-		catch(IOException e)
+		catch(Exception e)
 		{
 			System.err.println("Error upon calculating record size: " + e.getLocalizedMessage());
 			e.printStackTrace(System.err);
@@ -908,7 +1167,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		}
 		finally
 		{
-			StreamHelpers.SilentClose(out);
+			StreamHelpers.SilentClose(trialOut);
 		}
 	}
 	
@@ -962,7 +1221,7 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 	{
 		int hash = 1;
 		hash = 31 * hash + columnSet.hashCode();
-		hash = 31 * hash + Arrays.deepHashCode(values);
+		hash = 31 * hash + getLayout().hashCode(values, primitives);
 		return hash;
 	}
 	
@@ -1052,7 +1311,27 @@ public class ValueSet<CS extends ColumnSet> implements Serializable
 		return other == null ?	false :
 								(!skipColumns.isEmpty() || asLossyEncoded ?
 									hasEqualValuesForColumns(other, this.columnSet.getColumns(false, skipColumns), asLossyEncoded) :
-									this == other || Arrays.deepEquals(this.values, other.values));
+									this == other || hasEqualValuesAtAllPositions(other));
+	}
+	
+	/**
+	 * Compare the values at all positions, the number of values is assumed to be the same.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	private boolean hasEqualValuesAtAllPositions(ValueSet<?> other)
+	{
+		ValueSetLayout thisLayout = this.getLayout();
+		if(thisLayout.equals(other.getLayout()))
+			return Arrays.deepEquals(this.values, other.values) && Arrays.equals(this.primitives, other.primitives);
+		// Different layouts (one is unpacked or the columnSets differ):
+		if(thisLayout.size != other.getNumberOfValues())
+			return false;
+		for(int p = 0; p < thisLayout.size; p++)
+			if(!Objects.deepEquals(this.getValueAt(p), other.getValueAt(p)))
+				return false;
+		return true;
 	}
 	
 	/**
@@ -66,6 +66,14 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 	private Set<Integer> skipColumnPositions;
 	private transient Set<Column<?>> skipColumns;
 	private Map<Integer, Column<?>> swapColumns;
+	
+	/**
+	 * Compiled plans for writing/reading subcolumn values to/from binary representations (lazily initialised).
+	 * 
+	 * @see #getSerialisationPlan(boolean)
+	 */
+	private transient volatile SerialisationPlan losslessPlan;
+	private transient volatile SerialisationPlan lossyPlan;
 
 	/**
 	 * @param name
@@ -168,6 +176,7 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 			skipColumnPositions = new HashSet<Integer>();
 		skipColumnPositions.add(position);
 		skipColumns = null; // to ensure the set of Column<?>s is recreated
+		clearSerialisationPlans();
 	}
 	
 	protected Set<Column<?>> getSkipColumns(boolean forceNone)
@@ -213,6 +222,7 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 		if(swapColumns == null)
 			swapColumns = new HashMap<Integer, Column<?>>();
 		swapColumns.put(schemaColPos, binaryColumn);
+		clearSerialisationPlans();
 	}
 	
 	/**
@@ -236,6 +246,30 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 		return schemaColumn;
 	}
 	
+	/**
+	 * @param lossless whether to use lossless ({@code true}) or lossy ({@code false}) encoding
+	 * @return the plan to use for writing/reading subcolumn values to/from binary representations, taking skipped and swapped subcolumns into account
+	 */
+	protected SerialisationPlan getSerialisationPlan(boolean lossless)
+	{
+		SerialisationPlan plan = lossless ? losslessPlan : lossyPlan;
+		if(plan == null)
+		{	// benign race: at worst the plan gets compiled twice
+			plan = SerialisationPlan.Compile(this, lossless);
+			if(lossless)
+				losslessPlan = plan;
+			else
+				lossyPlan = plan;
+		}
+		return plan;
+	}
+	
+	private void clearSerialisationPlans()
+	{
+		losslessPlan = null;
+		lossyPlan = null;
+	}
+	
 	/**
 	 * @return whether or not all subcolumns are optional
 	 */
@@ -305,18 +339,14 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 	@Override
 	protected void write(VS record, BitOutputStream bitStream, boolean lossless) throws IOException
 	{
-		for(Column<?> subCol : columnSet.getColumns(false))
-			if(lossless || !isColumnSkipped(subCol)) // never skip a column if lossless
-				getBinaryColumn(subCol).writeObject(subCol.retrieveValue(record), bitStream, lossless); // will also write optional bit of the subcolumn if it is optional
+		getSerialisationPlan(lossless).write(record, bitStream); // skips subcolumns if not lossless, uses binary columns & will also write optional bits of optional subcolumns
 	}
 	
 	@Override
 	protected VS read(BitInputStream bitStream, boolean lossless) throws IOException
 	{
 		VS valueSet = getNewValueSet();
-		for(Column<?> subCol : columnSet.getColumns(false))
-			if(lossless || !isColumnSkipped(subCol)) // never skip a column if lossless
-				subCol.storeObject(valueSet, getBinaryColumn(subCol).readValue(bitStream, lossless));
+		getSerialisationPlan(lossless).read(valueSet, bitStream); // skips subcolumns if not lossless & uses binary columns
 		return valueSet;
 	}
 	
@@ -478,6 +508,21 @@ public abstract class ValueSetColumn<VS extends ValueSet<CS>, CS extends ColumnS
 		return total;
 	}
 
+	@Override
+	protected int getValueSize(VS record, boolean lossless)
+	{
+		int total = 0;
+		for(Column<?> subCol : columnSet.getColumns(false))
+			if(lossless || !isColumnSkipped(subCol)) // never skip a column if lossless
+			{
+				int subSize = getBinaryColumn(subCol).getObjectSize(subCol.retrieveValue(record), lossless); // includes optional bit of the subcolumn if it is optional
+				if(subSize == UNKNOWN_SIZE)
+					return UNKNOWN_SIZE;
+				total += subSize;
+			}
+		return total;
+	}
+
 	@Override
 	protected int getMinimumValueSize(boolean lossless)
 	{
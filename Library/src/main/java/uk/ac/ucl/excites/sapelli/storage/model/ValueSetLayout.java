@@ -0,0 +1,604 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.model;
+
+import java.util.Arrays;
+
+import uk.ac.ucl.excites.sapelli.shared.util.Objects;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
+
+/**
+ * Describes how the values of a {@link ValueSet} are laid out in memory.
+ *
+ * In a packed layout the values of {@link IntegerColumn}s, {@link FloatColumn}s, {@link BooleanColumn}s and {@link TimeStampColumn}s
+ * are kept in a single {@code long[]} (without boxing), while all other values are kept in an {@code Object[]}.
+ * The {@code long[]} holds 1 slot per integer, float or time stamp value (the ms since epoch shifted left by 8 bits, with the quarter
+ * hour offset in the lowest 8 bits), followed by a bitmap which holds 1 presence bit per primitive value (to tell {@code null} apart)
+ * and the boolean values themselves. Time stamps too far from the epoch to fit in a slot (more than about a million years) are not
+ * packed: a value set holding one switches to the unpacked layout.
+ * A slot is always 0 when its value is {@code null}, so packed value sets with the same layout can be compared slot by slot.
+ *
+ * In an unpacked layout all values are kept in the {@code Object[]}, at the position of their column. This is the layout of
+ * column sets without any primitive columns, and of value sets which were stored or serialised before packed layouts existed.
+ *
+ * @author mstevens
+ */
+final class ValueSetLayout
+{
+
+	// STATIC -------------------------------------------------------
+	static final byte KIND_OBJECT = 0;
+	static final byte KIND_LONG = 1;
+	static final byte KIND_DOUBLE = 2;
+	static final byte KIND_BOOLEAN = 3;
+	static final byte KIND_TIMESTAMP = 4;
+
+	static private final int TIMESTAMP_OFFSET_BITS = 8;
+
+	/**
+	 * Shared by all value sets without any objects.
+	 */
+	static private final Object[] NO_OBJECTS = new Object[0];
+
+	/**
+	 * @param size number of values
+	 * @return an unpacked layout
+	 */
+	static ValueSetLayout Unpacked(int size)
+	{
+		return new ValueSetLayout(size, null, null, null, size, 0, 0);
+	}
+
+	/**
+	 * @param columnSet
+	 * @return a packed layout for the (non-virtual) columns of the given columnSet, or an unpacked one if there are no primitive columns
+	 */
+	static ValueSetLayout Compile(ColumnSet columnSet)
+	{
+		int size = columnSet.getNumberOfColumns(false);
+		byte[] kinds = new byte[size];
+		int[] slots = new int[size];
+		int[] presenceBits = new int[size];
+		int numberOfObjects = 0;
+		int numberOfSlots = 0;
+		int numberOfBits = 0;
+		// Objects, primitive slots & presence bits:
+		for(int p = 0; p < size; p++)
+		{
+			Column<?> column = columnSet.getColumn(p);
+			if(column instanceof IntegerColumn)
+				kinds[p] = KIND_LONG;
+			else if(column instanceof FloatColumn)
+				kinds[p] = KIND_DOUBLE;
+			else if(column instanceof BooleanColumn)
+				kinds[p] = KIND_BOOLEAN;
+			else if(column instanceof TimeStampColumn)
+				kinds[p] = KIND_TIMESTAMP;
+			else
+				kinds[p] = KIND_OBJECT;
+			switch(kinds[p])
+			{
+				case KIND_OBJECT :
+					slots[p] = numberOfObjects++;
+					presenceBits[p] = -1;
+					continue;
+				case KIND_BOOLEAN :
+					break; // value bit is assigned below
+				default :
+					slots[p] = numberOfSlots++;
+			}
+			presenceBits[p] = numberOfBits++;
+		}
+		if(numberOfObjects == size)
+			return Unpacked(size);
+		// Boolean value bits:
+		for(int p = 0; p < size; p++)
+			if(kinds[p] == KIND_BOOLEAN)
+				slots[p] = numberOfBits++;
+		return new ValueSetLayout(size, kinds, slots, presenceBits, numberOfObjects, numberOfSlots, (numberOfBits + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	/**
+	 * Same as {@link Arrays#deepHashCode(Object[])} applies to elements.
+	 *
+	 * @param element
+	 * @return
+	 */
+	static private int deepHashCode(Object element)
+	{
+		if(element instanceof Object[])
+			return Arrays.deepHashCode((Object[]) element);
+		else if(element instanceof byte[])
+			return Arrays.hashCode((byte[]) element);
+		else if(element instanceof boolean[])
+			return Arrays.hashCode((boolean[]) element);
+		else if(element instanceof int[])
+			return Arrays.hashCode((int[]) element);
+		else if(element instanceof long[])
+			return Arrays.hashCode((long[]) element);
+		else if(element instanceof float[])
+			return Arrays.hashCode((float[]) element);
+		else if(element instanceof double[])
+			return Arrays.hashCode((double[]) element);
+		else if(element instanceof short[])
+			return Arrays.hashCode((short[]) element);
+		else if(element instanceof char[])
+			return Arrays.hashCode((char[]) element);
+		else
+			return Objects.hashCode(element);
+	}
+
+	static private int longHashCode(long value)
+	{
+		return (int) (value ^ (value >>> Integer.SIZE)); // same as Long#hashCode()
+	}
+
+	/**
+	 * @param msSinceEpoch
+	 * @param quarterHourOffsetWrtUTC
+	 * @return whether the time stamp can be packed into a single slot
+	 */
+	static private boolean fitsInSlot(long msSinceEpoch, int quarterHourOffsetWrtUTC)
+	{
+		return	(msSinceEpoch << TIMESTAMP_OFFSET_BITS) >> TIMESTAMP_OFFSET_BITS == msSinceEpoch &&
+				(byte) quarterHourOffsetWrtUTC == quarterHourOffsetWrtUTC;
+	}
+
+	static private long packTimeStamp(long msSinceEpoch, int quarterHourOffsetWrtUTC)
+	{
+		return (msSinceEpoch << TIMESTAMP_OFFSET_BITS) | (quarterHourOffsetWrtUTC & 0xFF);
+	}
+
+	static private long unpackMsSinceEpoch(long slot)
+	{
+		return slot >> TIMESTAMP_OFFSET_BITS;
+	}
+
+	static private int unpackQuarterHourOffset(long slot)
+	{
+		return (byte) slot;
+	}
+
+	// DYNAMIC ------------------------------------------------------
+	final int size;
+
+	/**
+	 * Kind per value position, {@code null} if unpacked.
+	 */
+	private final byte[] kinds;
+
+	/**
+	 * Per value position: index in the objects array, or in the primitives array, or, for booleans, the value bit.
+	 */
+	private final int[] slots;
+
+	/**
+	 * Per value position: the presence bit, or -1 for objects.
+	 */
+	private final int[] presenceBits;
+
+	final int numberOfObjects;
+
+	/**
+	 * Index at which the bitmap starts in the primitives array.
+	 */
+	private final int bitmapOffset;
+
+	/**
+	 * Length of the primitives array, 0 if unpacked.
+	 */
+	final int numberOfPrimitives;
+
+	private ValueSetLayout(int size, byte[] kinds, int[] slots, int[] presenceBits, int numberOfObjects, int numberOfSlots, int numberOfBitmapWords)
+	{
+		this.size = size;
+		this.kinds = kinds;
+		this.slots = slots;
+		this.presenceBits = presenceBits;
+		this.numberOfObjects = numberOfObjects;
+		this.bitmapOffset = numberOfSlots;
+		this.numberOfPrimitives = numberOfSlots + numberOfBitmapWords;
+	}
+
+	/**
+	 * @return whether or not this layout uses a primitives array
+	 */
+	boolean isPacked()
+	{
+		return kinds != null;
+	}
+
+	/**
+	 * @param position
+	 * @return the kind of value at the given position ({@link #KIND_OBJECT} for all positions of an unpacked layout)
+	 */
+	byte getKind(int position)
+	{
+		return kinds == null ? KIND_OBJECT : kinds[position];
+	}
+
+	/**
+	 * @return a new objects array for this layout (or a shared empty one, if there are no objects)
+	 */
+	Object[] newObjects()
+	{
+		return numberOfObjects == 0 ? NO_OBJECTS : new Object[numberOfObjects];
+	}
+
+	/**
+	 * @return a new primitives array for this layout, or {@code null} if unpacked
+	 */
+	long[] newPrimitives()
+	{
+		return kinds != null ? new long[numberOfPrimitives] : null;
+	}
+
+	private boolean isBitSet(long[] primitives, int bit)
+	{
+		return (primitives[bitmapOffset + (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	private void setBit(long[] primitives, int bit, boolean value)
+	{
+		if(value)
+			primitives[bitmapOffset + (bit >>> 6)] |= (1L << bit);
+		else
+			primitives[bitmapOffset + (bit >>> 6)] &= ~(1L << bit);
+	}
+
+	/**
+	 * @param objects
+	 * @param primitives
+	 * @param position
+	 * @return the value at the given position (boxed if needed), may be {@code null}
+	 */
+	Object get(Object[] objects, long[] primitives, int position)
+	{
+		if(kinds == null)
+			return objects[position];
+		int slot = slots[position];
+		switch(kinds[position])
+		{
+			case KIND_OBJECT :
+				return objects[slot];
+			case KIND_LONG :
+				return isBitSet(primitives, presenceBits[position]) ? Long.valueOf(primitives[slot]) : null;
+			case KIND_DOUBLE :
+				return isBitSet(primitives, presenceBits[position]) ? Double.valueOf(Double.longBitsToDouble(primitives[slot])) : null;
+			case KIND_BOOLEAN :
+				return isBitSet(primitives, presenceBits[position]) ? Boolean.valueOf(isBitSet(primitives, slot)) : null;
+			case KIND_TIMESTAMP :
+				return isBitSet(primitives, presenceBits[position]) ? new TimeStamp(unpackMsSinceEpoch(primitives[slot]), unpackQuarterHourOffset(primitives[slot])) : null;
+			default :
+				throw new IllegalStateException("Unknown kind");
+		}
+	}
+
+	/**
+	 * To be used only if the value at the given position is of kind {@link #KIND_LONG} or {@link #KIND_DOUBLE} (in which case the bits are returned),
+	 * and not {@code null}.
+	 * 
+	 * @param primitives
+	 * @param position
+	 * @return the primitive slot of the value at the given position
+	 */
+	long getSlot(long[] primitives, int position)
+	{
+		return primitives[slots[position]];
+	}
+
+	/**
+	 * To be used only if the value at the given position is of kind {@link #KIND_TIMESTAMP}, and not {@code null}.
+	 * 
+	 * @param primitives
+	 * @param position
+	 * @return the ms since the epoch of the time stamp at the given position
+	 */
+	long getTimeStampMsSinceEpoch(long[] primitives, int position)
+	{
+		return unpackMsSinceEpoch(primitives[slots[position]]);
+	}
+
+	/**
+	 * To be used only if the value at the given position is of kind {@link #KIND_TIMESTAMP}, and not {@code null}.
+	 * 
+	 * @param primitives
+	 * @param position
+	 * @return the quarter hour offset wrt UTC of the time stamp at the given position
+	 */
+	int getTimeStampOffset(long[] primitives, int position)
+	{
+		return unpackQuarterHourOffset(primitives[slots[position]]);
+	}
+
+	/**
+	 * To be used only if the value at the given position is of kind {@link #KIND_BOOLEAN}, and not {@code null}.
+	 * 
+	 * @param primitives
+	 * @param position
+	 * @return the boolean value at the given position
+	 */
+	boolean getBoolean(long[] primitives, int position)
+	{
+		return isBitSet(primitives, slots[position]);
+	}
+
+	/**
+	 * @param primitives
+	 * @param position
+	 * @param value
+	 * @return whether or not the value could be stored, {@code false} means the value at the given position is not of kind {@link #KIND_LONG}
+	 */
+	boolean setLong(long[] primitives, int position, long value)
+	{
+		if(kinds == null || kinds[position] != KIND_LONG)
+			return false;
+		primitives[slots[position]] = value;
+		setBit(primitives, presenceBits[position], true);
+		return true;
+	}
+
+	/**
+	 * @param primitives
+	 * @param position
+	 * @param value
+	 * @return whether or not the value could be stored, {@code false} means the value at the given position is not of kind {@link #KIND_DOUBLE}
+	 */
+	boolean setDouble(long[] primitives, int position, double value)
+	{
+		if(kinds == null || kinds[position] != KIND_DOUBLE)
+			return false;
+		primitives[slots[position]] = Double.doubleToLongBits(value);
+		setBit(primitives, presenceBits[position], true);
+		return true;
+	}
+
+	/**
+	 * @param primitives
+	 * @param position
+	 * @param value
+	 * @return whether or not the value could be stored, {@code false} means the value at the given position is not of kind {@link #KIND_BOOLEAN}
+	 */
+	boolean setBoolean(long[] primitives, int position, boolean value)
+	{
+		if(kinds == null || kinds[position] != KIND_BOOLEAN)
+			return false;
+		setBit(primitives, slots[position], value);
+		setBit(primitives, presenceBits[position], true);
+		return true;
+	}
+
+	/**
+	 * @param primitives
+	 * @param position
+	 * @param msSinceEpoch
+	 * @param quarterHourOffsetWrtUTC
+	 * @return whether or not the value could be stored, {@code false} means the value at the given position is not of kind {@link #KIND_TIMESTAMP}, or the time stamp does not fit in a slot
+	 */
+	boolean setTimeStamp(long[] primitives, int position, long msSinceEpoch, int quarterHourOffsetWrtUTC)
+	{
+		if(kinds == null || kinds[position] != KIND_TIMESTAMP || !fitsInSlot(msSinceEpoch, quarterHourOffsetWrtUTC))
+			return false;
+		primitives[slots[position]] = packTimeStamp(msSinceEpoch, quarterHourOffsetWrtUTC);
+		setBit(primitives, presenceBits[position], true);
+		return true;
+	}
+
+	/**
+	 * @param objects
+	 * @param primitives
+	 * @param position
+	 * @return whether or not the value at the given position is {@code null}
+	 */
+	boolean isNull(Object[] objects, long[] primitives, int position)
+	{
+		if(kinds == null)
+			return objects[position] == null;
+		if(kinds[position] == KIND_OBJECT)
+			return objects[slots[position]] == null;
+		return !isBitSet(primitives, presenceBits[position]);
+	}
+
+	/**
+	 * Integer values are returned as is, time stamps as their ms since epoch, other {@link Number}s are converted.
+	 *
+	 * @param objects
+	 * @param primitives
+	 * @param position
+	 * @param nullReplacement
+	 * @return the value at the given position as a long, or the nullReplacement if the value is {@code null}
+	 * @throws ClassCastException if the value is not a {@link Number} nor a {@link TimeStamp}
+	 */
+	long getLong(Object[] objects, long[] primitives, int position, long nullReplacement) throws ClassCastException
+	{
+		if(kinds != null)
+			switch(kinds[position])
+			{
+				case KIND_LONG :
+					return isBitSet(primitives, presenceBits[position]) ? primitives[slots[position]] : nullReplacement;
+				case KIND_TIMESTAMP :
+					return isBitSet(primitives, presenceBits[position]) ? unpackMsSinceEpoch(primitives[slots[position]]) : nullReplacement;
+				case KIND_DOUBLE :
+					return isBitSet(primitives, presenceBits[position]) ? (long) Double.longBitsToDouble(primitives[slots[position]]) : nullReplacement;
+				default :
+					break;
+			}
+		Object value = get(objects, primitives, position);
+		if(value == null)
+			return nullReplacement;
+		if(value instanceof TimeStamp)
+			return ((TimeStamp) value).getMsSinceEpoch();
+		return ((Number) value).longValue();
+	}
+
+	/**
+	 * @param objects
+	 * @param primitives
+	 * @param position
+	 * @param nullReplacement
+	 * @return the value at the given position as a double, or the nullReplacement if the value is {@code null}
+	 * @throws ClassCastException if the value is not a {@link Number}
+	 */
+	double getDouble(Object[] objects, long[] primitives, int position, double nullReplacement) throws ClassCastException
+	{
+		if(kinds != null)
+			switch(kinds[position])
+			{
+				case KIND_DOUBLE :
+					return isBitSet(primitives, presenceBits[position]) ? Double.longBitsToDouble(primitives[slots[position]]) : nullReplacement;
+				case KIND_LONG :
+					return isBitSet(primitives, presenceBits[position]) ? (double) primitives[slots[position]] : nullReplacement;
+				default :
+					break;
+			}
+		Object value = get(objects, primitives, position);
+		return value == null ? nullReplacement : ((Number) value).doubleValue();
+	}
+
+	/**
+	 * @param objects
+	 * @param primitives
+	 * @param position
+	 * @param value may be {@code null}
+	 * @return whether or not the value could be stored, {@code false} means the value does not have the type this layout expects at the given position
+	 */
+	boolean set(Object[] objects, long[] primitives, int position, Object value)
+	{
+		if(kinds == null)
+		{
+			objects[position] = value;
+			return true;
+		}
+		int slot = slots[position];
+		byte kind = kinds[position];
+		if(kind == KIND_OBJECT)
+		{
+			objects[slot] = value;
+			return true;
+		}
+		if(value == null)
+		{
+			setBit(primitives, presenceBits[position], false);
+			if(kind == KIND_BOOLEAN)
+				setBit(primitives, slot, false);
+			else
+				primitives[slot] = 0L;
+			return true;
+		}
+		switch(kind)
+		{
+			case KIND_LONG :
+				if(!(value instanceof Long))
+					return false;
+				primitives[slot] = ((Long) value).longValue();
+				break;
+			case KIND_DOUBLE :
+				if(!(value instanceof Double))
+					return false;
+				primitives[slot] = Double.doubleToLongBits(((Double) value).doubleValue()); // (canonical NaN, matching Double#equals())
+				break;
+			case KIND_BOOLEAN :
+				if(!(value instanceof Boolean))
+					return false;
+				setBit(primitives, slot, ((Boolean) value).booleanValue());
+				break;
+			case KIND_TIMESTAMP :
+				if(value.getClass() != TimeStamp.class) // subclasses would not survive the round trip
+					return false;
+				TimeStamp timeStamp = (TimeStamp) value;
+				if(!fitsInSlot(timeStamp.getMsSinceEpoch(), timeStamp.getQuarterHourOffsetWrtUTC()))
+					return false;
+				primitives[slot] = packTimeStamp(timeStamp.getMsSinceEpoch(), timeStamp.getQuarterHourOffsetWrtUTC());
+				break;
+		}
+		setBit(primitives, presenceBits[position], true);
+		return true;
+	}
+
+	/**
+	 * @param objects
+	 * @param primitives
+	 * @return the same hash code {@link Arrays#deepHashCode(Object[])} would return for an array holding the (boxed) values
+	 */
+	int hashCode(Object[] objects, long[] primitives)
+	{
+		if(kinds == null)
+			return Arrays.deepHashCode(objects);
+		int hash = 1;
+		for(int p = 0; p < size; p++)
+		{
+			int elementHash;
+			int slot = slots[p];
+			if(kinds[p] == KIND_OBJECT)
+				elementHash = deepHashCode(objects[slot]);
+			else if(!isBitSet(primitives, presenceBits[p]))
+				elementHash = 0;
+			else
+				switch(kinds[p])
+				{
+					case KIND_BOOLEAN :
+						elementHash = isBitSet(primitives, slot) ? 1231 : 1237; // same as Boolean#hashCode()
+						break;
+					case KIND_TIMESTAMP :
+						elementHash = 31 * (31 + longHashCode(unpackMsSinceEpoch(primitives[slot]))) + unpackQuarterHourOffset(primitives[slot]); // same as TimeStamp#hashCode()
+						break;
+					default : // long & double (bits)
+						elementHash = longHashCode(primitives[slot]);
+				}
+			hash = 31 * hash + elementHash;
+		}
+		return hash;
+	}
+
+	/**
+	 * Layouts are equal if they place the same kinds of values in the same places.
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true;
+		if(obj instanceof ValueSetLayout)
+		{
+			ValueSetLayout that = (ValueSetLayout) obj;
+			return	this.size == that.size &&
+					this.numberOfPrimitives == that.numberOfPrimitives &&
+					Arrays.equals(this.kinds, that.kinds) &&
+					Arrays.equals(this.slots, that.slots);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		hash = 31 * hash + size;
+		hash = 31 * hash + Arrays.hashCode(kinds);
+		hash = 31 * hash + Arrays.hashCode(slots);
+		return hash;
+	}
+
+}
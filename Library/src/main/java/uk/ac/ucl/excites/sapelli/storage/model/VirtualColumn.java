@@ -176,6 +176,12 @@ public class VirtualColumn<TT, ST> extends Column<TT>
 		return targetColumn.getMinimumValueSize(lossless);
 	}
 
+	@Override
+	protected int getValueSize(TT value, boolean lossless)
+	{
+		return targetColumn.getValueSize(value, lossless);
+	}
+
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.storage.model.Column#canBeLossy()
 	 */
@@ -148,6 +148,12 @@ public class ByteArrayColumn extends Column<byte[]>
 		return Arrays.copyOf(value, value.length);
 	}
 
+	@Override
+	protected int getValueSize(byte[] value, boolean lossless)
+	{
+		return sizeField.size() + value.length * Byte.SIZE;
+	}
+
 	@Override
 	protected int getMinimumValueSize(boolean lossless)
 	{
@@ -119,10 +119,7 @@ public class FloatColumn extends NumberColumn<Double>
 	 */
 	public double getPrimitiveDouble(ValueSet<?> valueSet, double nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Double doubleValue = retrieveValue(valueSet);
-		if(doubleValue == null)
-			return nullReplacement;
-		return doubleValue.doubleValue();
+		return retrievePrimitiveDouble(valueSet, nullReplacement);
 	}
 	
 	/**
@@ -134,10 +131,7 @@ public class FloatColumn extends NumberColumn<Double>
 	 */
 	public float getPrimitiveFloat(ValueSet<?> valueSet, float nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Double doubleValue = retrieveValue(valueSet);
-		if(doubleValue == null)
-			return nullReplacement;
-		return doubleValue.floatValue();
+		return (float) retrievePrimitiveDouble(valueSet, nullReplacement);
 	}
 
 	/**
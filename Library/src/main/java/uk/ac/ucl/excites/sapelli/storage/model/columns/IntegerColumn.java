@@ -339,10 +339,7 @@ public class IntegerColumn extends NumberColumn<Long>
 	 */
 	public long getPrimitiveLong(ValueSet<?> valueSet, long nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Long longValue = retrieveValue(valueSet);
-		if(longValue == null)
-			return nullReplacement;
-		return longValue.longValue();
+		return retrievePrimitiveLong(valueSet, nullReplacement);
 	}
 	
 	/**
@@ -354,10 +351,7 @@ public class IntegerColumn extends NumberColumn<Long>
 	 */
 	public int getPrimitiveInt(ValueSet<?> valueSet, int nullReplacement) throws NullPointerException, InvalidColumnException
 	{
-		Long longValue = retrieveValue(valueSet);
-		if(longValue == null)
-			return nullReplacement;
-		return longValue.intValue();
+		return (int) retrievePrimitiveLong(valueSet, nullReplacement);
 	}
 	
 	/**
@@ -387,18 +381,30 @@ public class IntegerColumn extends NumberColumn<Long>
 	
 	public long getMinValue()
 	{
-		return (rangeMapping != null ?	rangeMapping.lowBound() :
-										BigIntegerUtils.GetMinValue(size, signed)).longValue();
+		return rangeMapping != null ?	rangeMapping.lowBound().longValue() :
+										BigIntegerUtils.GetMinLongValue(size, signed);
 	}
 
 	public long getMaxValue()
 	{
-		return (rangeMapping != null ?	rangeMapping.highBound() :
-										BigIntegerUtils.GetMaxValue(size, signed)).longValue();
+		return rangeMapping != null ?	rangeMapping.highBound().longValue() :
+										BigIntegerUtils.GetMaxLongValue(size, signed);
 	}
 	
 	@Override
 	protected void write(Long value, BitOutputStream bitStream, boolean lossless) throws IOException
+	{
+		writePrimitive(value, bitStream);
+	}
+
+	/**
+	 * Writes the given value without boxing it. No presence bit is written and the value is not validated.
+	 * 
+	 * @param value
+	 * @param bitStream
+	 * @throws IOException
+	 */
+	public void writePrimitive(long value, BitOutputStream bitStream) throws IOException
 	{
 		if(rangeMapping != null)
 			rangeMapping.write(value, bitStream);
@@ -408,9 +414,21 @@ public class IntegerColumn extends NumberColumn<Long>
 
 	@Override
 	protected Long read(BitInputStream bitStream, boolean lossless) throws IOException
+	{
+		return readPrimitive(bitStream);
+	}
+
+	/**
+	 * Reads a value without boxing it. No presence bit is read and the value is not validated.
+	 * 
+	 * @param bitStream
+	 * @return the value
+	 * @throws IOException
+	 */
+	public long readPrimitive(BitInputStream bitStream) throws IOException
 	{
 		if(rangeMapping != null)
-			return rangeMapping.read(bitStream).longValue();
+			return rangeMapping.readLong(bitStream);
 		else
 			return bitStream.readInteger(size, signed);
 	}
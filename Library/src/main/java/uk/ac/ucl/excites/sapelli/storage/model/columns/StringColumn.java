@@ -438,6 +438,12 @@ public class StringColumn extends ComparableColumn<String> implements ListLikeCo
 		bitStream.write(value, getCharset());
 	}
 
+	@Override
+	protected int getValueSize(String value, boolean lossless)
+	{
+		return sizeField.size() + StringUtils.sizeBytes(value, getCharset()) * Byte.SIZE;
+	}
+
 	@Override
 	protected String read(BitInputStream bitStream, boolean lossless) throws IOException
 	{
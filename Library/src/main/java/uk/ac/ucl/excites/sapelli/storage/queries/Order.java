@@ -23,9 +23,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.ListIterator;
 
+import uk.ac.ucl.excites.sapelli.storage.model.BoundColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
 import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
 
 /**
@@ -107,6 +117,11 @@ public class Order implements Comparator<Record>
 
 	static public final Ordering BY_MODEL_SCHEMA = BY_MODEL_SCHEMA_ASC;
 	
+	/**
+	 * Lists with fewer records are sorted without extracting sort keys first.
+	 */
+	static private final int MIN_SIZE_FOR_KEY_EXTRACTION = 32;
+	
 	// DYNAMICS -----------------------------------------------------
 	public final List<Ordering> orderings;
 	
@@ -164,11 +179,50 @@ public class Order implements Comparator<Record>
 	}
 	
 	/**
+	 * Sorts the given records (stable).
+	 * For larger lists the sort keys are first extracted from each record, once, after which the records are sorted by comparing those
+	 * keys (i.e. a Schwartzian transform). Keys for top-level integer, float, boolean, time stamp and string columns are extracted as
+	 * unboxed values, by columns bound to their position in each schema, and compared without any further lookups.
+	 * 
 	 * @param records - should not be null!
 	 */
 	public void sort(List<Record> records)
 	{
-		Collections.sort(records, this);
+		if(records.size() < MIN_SIZE_FOR_KEY_EXTRACTION || orderings.size() > Long.SIZE /* see SortEntry#nulls */)
+		{
+			Collections.sort(records, this);
+			return;
+		}
+		
+		// Extract keys:
+		SortKey[] keys = new SortKey[orderings.size()];
+		boolean objectKeys = false;
+		for(int k = 0; k < keys.length; k++)
+			objectKeys |= (keys[k] = SortKey.For(orderings.get(k), k)) instanceof StringKey;
+		SortEntry[] entries = new SortEntry[records.size()];
+		int e = 0;
+		for(Record record : records)
+		{
+			if(record == null)
+			{	// let the Orderings deal with null records
+				Collections.sort(records, this);
+				return;
+			}
+			SortEntry entry = entries[e++] = new SortEntry(record, keys.length, objectKeys);
+			for(SortKey key : keys)
+				key.extract(entry);
+		}
+		
+		// Sort (stable, like Collections#sort()):
+		Arrays.sort(entries, new SortEntryComparator(keys));
+		
+		// Put records in sorted order:
+		ListIterator<Record> iterator = records.listIterator();
+		for(SortEntry entry : entries)
+		{
+			iterator.next();
+			iterator.set(entry.record);
+		}
 	}
 	
 	/**
@@ -249,6 +303,7 @@ public class Order implements Comparator<Record>
 		}
 		
 		private final ColumnPointer<?> by;
+		private final Comparator<ValueSet<?>> comparator;
 
 		/**
 		 * @param by
@@ -267,6 +322,8 @@ public class Order implements Comparator<Record>
 		{
 			super(direction);
 			this.by = by;
+			Comparator<ValueSet<?>> byComparator = by != null ? by.getComparator() : null;
+			this.comparator = byComparator == null || isAsc() ? byComparator : Collections.reverseOrder(byComparator);
 		}
 
 		/**
@@ -280,7 +337,7 @@ public class Order implements Comparator<Record>
 		@Override
 		public int compare(Record r1, Record r2)
 		{
-			return (isAsc() ? by.getComparator() : Collections.reverseOrder(by.getComparator())).compare(r1, r2);
+			return comparator.compare(r1, r2);
 		}
 
 		@Override
@@ -298,7 +355,7 @@ public class Order implements Comparator<Record>
 	private static class ModelSchemaOrdering extends Ordering
 	{
 		
-		static private final Comparator<Record> COMPARATOR = new Comparator<Record>()
+		static private final Comparator<Record> ASC_COMPARATOR = new Comparator<Record>()
 		{
 			@Override
 			public int compare(Record r1, Record r2)
@@ -318,6 +375,8 @@ public class Order implements Comparator<Record>
 				}
 			}
 		};
+		
+		static private final Comparator<Record> DESC_COMPARATOR = Collections.reverseOrder(ASC_COMPARATOR);
 
 		/**
 		 * @param direction
@@ -330,7 +389,7 @@ public class Order implements Comparator<Record>
 		@Override
 		public int compare(Record r1, Record r2)
 		{
-			return (isAsc() ? COMPARATOR : Collections.reverseOrder(COMPARATOR)).compare(r1, r2);
+			return (isAsc() ? ASC_COMPARATOR : DESC_COMPARATOR).compare(r1, r2);
 		}
 
 		@Override
@@ -341,4 +400,320 @@ public class Order implements Comparator<Record>
 		
 	}
 	
+	
+	/**
+	 * A record with the sort keys extracted from it
+	 */
+	static private final class SortEntry
+	{
+		
+		final Record record;
+		
+		/**
+		 * Integer, boolean (0/1), time stamp (ms since epoch), float (bits) and model/schema keys, per ordering index
+		 */
+		final long[] longs;
+		
+		/**
+		 * String keys, per ordering index ({@code null} if there are none)
+		 */
+		final Object[] objects;
+		
+		/**
+		 * Bit per ordering index, set when the key is {@code null}
+		 */
+		long nulls;
+		
+		SortEntry(Record record, int numberOfKeys, boolean objectKeys)
+		{
+			this.record = record;
+			this.longs = new long[numberOfKeys];
+			this.objects = objectKeys ? new Object[numberOfKeys] : null;
+		}
+		
+	}
+	
+	/**
+	 * Extracts and compares the key of a single {@link Ordering}
+	 */
+	static private abstract class SortKey
+	{
+		
+		/**
+		 * @param ordering
+		 * @param index
+		 * @return a SortKey for the given ordering
+		 */
+		static SortKey For(Ordering ordering, int index)
+		{
+			if(ordering instanceof ModelSchemaOrdering)
+				return new ModelSchemaKey(index, ordering.isAsc());
+			if(ordering instanceof ColumnOrdering && ((ColumnOrdering) ordering).getBy() != null && ((ColumnOrdering) ordering).getBy().isTopLevelColumn())
+			{
+				Column<?> column = ((ColumnOrdering) ordering).getBy().getColumn();
+				if(column instanceof IntegerColumn || column instanceof BooleanColumn || column instanceof TimeStampColumn) // TimeStamp#compareTo() only compares the ms since epoch
+					return new LongKey(index, ordering.isAsc(), column);
+				if(column instanceof FloatColumn)
+					return new DoubleKey(index, ordering.isAsc(), column);
+				if(column instanceof StringColumn)
+					return new StringKey(index, ordering.isAsc(), column);
+			}
+			return new OrderingKey(index, ordering);
+		}
+		
+		final int index;
+		
+		/**
+		 * 1 for ascending, -1 for descending order
+		 */
+		final int sign;
+		
+		SortKey(int index, boolean asc)
+		{
+			this.index = index;
+			this.sign = asc ? 1 : -1;
+		}
+		
+		abstract void extract(SortEntry entry);
+		
+		abstract int compare(SortEntry e1, SortEntry e2);
+		
+	}
+	
+	/**
+	 * Compares records using the {@link Ordering} itself, without extracting anything
+	 */
+	static private final class OrderingKey extends SortKey
+	{
+		
+		final Ordering ordering;
+		
+		OrderingKey(int index, Ordering ordering)
+		{
+			super(index, ordering.isAsc());
+			this.ordering = ordering;
+		}
+		
+		@Override
+		void extract(SortEntry entry)
+		{
+			// nothing to extract
+		}
+		
+		@Override
+		int compare(SortEntry e1, SortEntry e2)
+		{
+			return ordering.compare(e1.record, e2.record);
+		}
+		
+	}
+	
+	/**
+	 * Same order as {@link ModelSchemaOrdering}, using {@link Schema.Comparator#getSortCode(Schema)}
+	 */
+	static private final class ModelSchemaKey extends SortKey
+	{
+		
+		final Schema.Comparator schemaComparator = new Schema.Comparator();
+		
+		ModelSchemaKey(int index, boolean asc)
+		{
+			super(index, asc);
+		}
+		
+		@Override
+		void extract(SortEntry entry)
+		{
+			entry.longs[index] = schemaComparator.getSortCode(entry.record.getSchema());
+		}
+		
+		@Override
+		int compare(SortEntry e1, SortEntry e2)
+		{
+			long l1 = e1.longs[index];
+			long l2 = e2.longs[index];
+			return l1 == l2 ? 0 : (l1 < l2 ? -sign : sign);
+		}
+		
+	}
+	
+	/**
+	 * Key of a top-level column, {@code null} values come first in ascending order (as in {@link Column#compareValues(Object, Object)})
+	 */
+	static private abstract class ColumnKey extends SortKey
+	{
+		
+		final Column<?> column;
+		private Schema lastSchema;
+		private BoundColumn lastBound;
+		
+		ColumnKey(int index, boolean asc, Column<?> column)
+		{
+			super(index, asc);
+			this.column = column;
+		}
+		
+		@Override
+		final void extract(SortEntry entry)
+		{
+			Schema schema = entry.record.getSchema();
+			if(schema != lastSchema)
+			{
+				lastBound = BoundColumn.Bind(schema, column);
+				lastSchema = schema;
+			}
+			if(lastBound == null)
+			{	// e.g. virtual column:
+				Object value = column.retrieveValue(entry.record);
+				if(value == null)
+					entry.nulls |= 1L << index;
+				else
+					extractNonNull(entry, value);
+			}
+			else if(lastBound.isNull(entry.record))
+				entry.nulls |= 1L << index;
+			else
+				extractNonNull(entry, lastBound);
+		}
+		
+		abstract void extractNonNull(SortEntry entry, BoundColumn bound);
+		
+		abstract void extractNonNull(SortEntry entry, Object value);
+		
+		@Override
+		final int compare(SortEntry e1, SortEntry e2)
+		{
+			boolean null1 = (e1.nulls & (1L << index)) != 0;
+			boolean null2 = (e2.nulls & (1L << index)) != 0;
+			if(null1 || null2)
+				return null1 == null2 ? 0 : (null1 ? -sign : sign);
+			return sign * compareNonNull(e1, e2);
+		}
+		
+		/**
+		 * @return -1, 0 or 1
+		 */
+		abstract int compareNonNull(SortEntry e1, SortEntry e2);
+		
+	}
+	
+	static private final class LongKey extends ColumnKey
+	{
+		
+		final boolean booleanColumn;
+		
+		LongKey(int index, boolean asc, Column<?> column)
+		{
+			super(index, asc, column);
+			this.booleanColumn = column instanceof BooleanColumn;
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, BoundColumn bound)
+		{
+			entry.longs[index] = booleanColumn ? (bound.getBoolean(entry.record) ? 1L : 0L) : bound.getLong(entry.record);
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, Object value)
+		{
+			if(value instanceof Boolean)
+				entry.longs[index] = ((Boolean) value).booleanValue() ? 1L : 0L;
+			else if(value instanceof TimeStamp)
+				entry.longs[index] = ((TimeStamp) value).getMsSinceEpoch();
+			else
+				entry.longs[index] = ((Number) value).longValue();
+		}
+		
+		@Override
+		int compareNonNull(SortEntry e1, SortEntry e2)
+		{
+			long l1 = e1.longs[index];
+			long l2 = e2.longs[index];
+			return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+		}
+		
+	}
+	
+	static private final class DoubleKey extends ColumnKey
+	{
+		
+		DoubleKey(int index, boolean asc, Column<?> column)
+		{
+			super(index, asc, column);
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, BoundColumn bound)
+		{
+			entry.longs[index] = Double.doubleToLongBits(bound.getDouble(entry.record));
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, Object value)
+		{
+			entry.longs[index] = Double.doubleToLongBits(((Number) value).doubleValue());
+		}
+		
+		@Override
+		int compareNonNull(SortEntry e1, SortEntry e2)
+		{
+			return Double.compare(Double.longBitsToDouble(e1.longs[index]), Double.longBitsToDouble(e2.longs[index])); // same as Double#compareTo(Double)
+		}
+		
+	}
+	
+	static private final class StringKey extends ColumnKey
+	{
+		
+		StringKey(int index, boolean asc, Column<?> column)
+		{
+			super(index, asc, column);
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, BoundColumn bound)
+		{
+			entry.objects[index] = bound.getValue(entry.record);
+		}
+		
+		@Override
+		void extractNonNull(SortEntry entry, Object value)
+		{
+			entry.objects[index] = value;
+		}
+		
+		@Override
+		int compareNonNull(SortEntry e1, SortEntry e2)
+		{
+			int result = ((String) e1.objects[index]).compareTo((String) e2.objects[index]);
+			return result < 0 ? -1 : (result == 0 ? 0 : 1);
+		}
+		
+	}
+	
+	static private final class SortEntryComparator implements Comparator<SortEntry>
+	{
+		
+		final SortKey[] keys;
+		
+		SortEntryComparator(SortKey[] keys)
+		{
+			this.keys = keys;
+		}
+		
+		@Override
+		public int compare(SortEntry e1, SortEntry e2)
+		{
+			for(SortKey key : keys)
+			{
+				int result = key.compare(e1, e2);
+				if(result != 0)
+					return result;
+			}
+			return 0;
+		}
+		
+	}
+	
 }
\ No newline at end of file
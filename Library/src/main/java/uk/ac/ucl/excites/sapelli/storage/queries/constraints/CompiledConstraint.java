@@ -0,0 +1,630 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ucl.excites.sapelli.storage.model.BoundColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.queries.constraints.RuleConstraint.Comparison;
+import uk.ac.ucl.excites.sapelli.storage.queries.sources.Source;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStampColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.ColumnPointer;
+
+/**
+ * A {@link Constraint} compiled for the fast in-memory evaluation of many {@link Record}s.
+ * 
+ * The constraint is compiled once per {@link Schema} into a tree of predicates, in which:
+ * <ul>
+ * <li>{@link Source}s and {@link DummyConstraint}s are evaluated once, and the resulting constants are folded away;</li>
+ * <li>nested ANDs/ORs are flattened and their operands are ordered so that cheap ones are evaluated first;</li>
+ * <li>comparisons of top-level integer, float, boolean, time stamp and string columns with literal values, and bit flag checks,
+ * are bound to the column's position and compare unboxed values.</li>
+ * </ul>
+ * Anything else (e.g. comparisons of subcolumns, or between columns) is evaluated by the constraint itself, as are all comparisons
+ * involving a {@code null} value. Therefore the result is always the same as that of {@link Constraint#isValid(Record)}.
+ * 
+ * Instances are not thread-safe and are meant to be short-lived (e.g. one per query execution).
+ * 
+ * @author mstevens
+ */
+public final class CompiledConstraint
+{
+
+	// STATICS-------------------------------------------------------
+	static private final int COST_CONSTANT = 0;
+	static private final int COST_PRIMITIVE = 1;
+	static private final int COST_OBJECT = 2;
+	static private final int COST_INTERPRETED = 8;
+	
+	/**
+	 * @param constraint may be {@code null} (meaning all records are valid)
+	 * @return
+	 */
+	static public CompiledConstraint Compile(Constraint constraint)
+	{
+		return new CompiledConstraint(Constraint.Reduce(constraint));
+	}
+	
+	static private boolean Matches(Comparison comparison, int compResult)
+	{
+		switch(comparison)
+		{
+			case SMALLER:
+				return compResult < 0;
+			case SMALLER_OR_EQUAL:
+				return compResult <= 0;
+			case EQUAL:
+				return compResult == 0;
+			case NOT_EQUAL:
+				return compResult != 0;
+			case GREATER_OR_EQUAL:
+				return compResult >= 0;
+			case GREATER:
+				return compResult > 0;
+			default:
+				throw new IllegalStateException("Unknown comparison: " + comparison.name());
+		}
+	}
+	
+	/**
+	 * Same as {@link Long#compareTo(Long)}, but without boxing.
+	 */
+	static private int Compare(long lhs, long rhs)
+	{
+		return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+	}
+	
+	static private final Comparator<Predicate> CHEAPEST_FIRST = new Comparator<Predicate>()
+	{
+		@Override
+		public int compare(Predicate lhs, Predicate rhs)
+		{
+			return lhs.cost - rhs.cost;
+		}
+	};
+	
+	/**
+	 * A compiled (sub)constraint
+	 */
+	static private abstract class Predicate
+	{
+		
+		final int cost;
+		
+		Predicate(int cost)
+		{
+			this.cost = cost;
+		}
+		
+		/**
+		 * @param record a guaranteed non-null {@link Record} of the {@link Schema} the predicate was compiled for
+		 * @return
+		 */
+		abstract boolean test(Record record);
+		
+	}
+	
+	static private final class Constant extends Predicate
+	{
+		
+		final boolean value;
+		
+		Constant(boolean value)
+		{
+			super(COST_CONSTANT);
+			this.value = value;
+		}
+		
+		@Override
+		boolean test(Record record)
+		{
+			return value;
+		}
+		
+	}
+	
+	static private final Constant TRUE = new Constant(true);
+	static private final Constant FALSE = new Constant(false);
+	
+	/**
+	 * Evaluates the original constraint
+	 */
+	static private final class Interpreted extends Predicate
+	{
+		
+		final Constraint constraint;
+		
+		Interpreted(Constraint constraint)
+		{
+			super(COST_INTERPRETED);
+			this.constraint = constraint;
+		}
+		
+		@Override
+		boolean test(Record record)
+		{
+			return constraint._isValid(record);
+		}
+		
+	}
+	
+	static private final class And extends Predicate
+	{
+		
+		final Predicate[] operands;
+		
+		And(Predicate[] operands, int cost)
+		{
+			super(cost);
+			this.operands = operands;
+		}
+		
+		@Override
+		boolean test(Record record)
+		{
+			for(Predicate operand : operands)
+				if(!operand.test(record))
+					return false;
+			return true;
+		}
+		
+	}
+	
+	static private final class Or extends Predicate
+	{
+		
+		final Predicate[] operands;
+		
+		Or(Predicate[] operands, int cost)
+		{
+			super(cost);
+			this.operands = operands;
+		}
+		
+		@Override
+		boolean test(Record record)
+		{
+			for(Predicate operand : operands)
+				if(operand.test(record))
+					return true;
+			return false;
+		}
+		
+	}
+	
+	static private final class Not extends Predicate
+	{
+		
+		final Predicate operand;
+		
+		Not(Predicate operand)
+		{
+			super(operand.cost);
+			this.operand = operand;
+		}
+		
+		@Override
+		boolean test(Record record)
+		{
+			return !operand.test(record);
+		}
+		
+	}
+	
+	/**
+	 * Predicate on the value of a bound column, {@code null} values are handed to the original constraint
+	 */
+	static private abstract class ColumnPredicate extends Predicate
+	{
+		
+		final Constraint constraint;
+		final BoundColumn column;
+		
+		ColumnPredicate(int cost, Constraint constraint, BoundColumn column)
+		{
+			super(cost);
+			this.constraint = constraint;
+			this.column = column;
+		}
+		
+		@Override
+		final boolean test(Record record)
+		{
+			return column.isNull(record) ? testNull(record) : testNonNull(record);
+		}
+		
+		boolean testNull(Record record)
+		{
+			return constraint._isValid(record);
+		}
+		
+		abstract boolean testNonNull(Record record);
+		
+	}
+	
+	static private final class IsNull extends ColumnPredicate
+	{
+		
+		final boolean isNull;
+		
+		IsNull(EqualityConstraint constraint, BoundColumn column)
+		{
+			super(COST_PRIMITIVE, constraint, column);
+			this.isNull = constraint.isEqual();
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			return !isNull;
+		}
+		
+	}
+	
+	static private final class LongComparison extends ColumnPredicate
+	{
+		
+		final Comparison comparison;
+		final long rhs;
+		
+		LongComparison(Constraint constraint, BoundColumn column, Comparison comparison, long rhs)
+		{
+			super(COST_PRIMITIVE, constraint, column);
+			this.comparison = comparison;
+			this.rhs = rhs;
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			return Matches(comparison, Compare(column.getLong(record), rhs));
+		}
+		
+	}
+	
+	static private final class DoubleComparison extends ColumnPredicate
+	{
+		
+		final Comparison comparison;
+		final double rhs;
+		
+		DoubleComparison(Constraint constraint, BoundColumn column, Comparison comparison, double rhs)
+		{
+			super(COST_PRIMITIVE, constraint, column);
+			this.comparison = comparison;
+			this.rhs = rhs;
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			return Matches(comparison, Double.compare(column.getDouble(record), rhs)); // same as Double#compareTo(Double) & Double#equals(Object)
+		}
+		
+	}
+	
+	static private final class BooleanComparison extends ColumnPredicate
+	{
+		
+		final Comparison comparison;
+		final boolean rhs;
+		
+		BooleanComparison(Constraint constraint, BoundColumn column, Comparison comparison, boolean rhs)
+		{
+			super(COST_PRIMITIVE, constraint, column);
+			this.comparison = comparison;
+			this.rhs = rhs;
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			boolean lhs = column.getBoolean(record);
+			return Matches(comparison, lhs == rhs ? 0 : (lhs ? 1 : -1)); // same as Boolean#compareTo(Boolean)
+		}
+		
+	}
+	
+	static private final class StringComparison extends ColumnPredicate
+	{
+		
+		final Comparison comparison;
+		final String rhs;
+		
+		StringComparison(Constraint constraint, BoundColumn column, Comparison comparison, String rhs)
+		{
+			super(COST_OBJECT, constraint, column);
+			this.comparison = comparison;
+			this.rhs = rhs;
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			String lhs = (String) column.getValue(record);
+			if(comparison == Comparison.EQUAL)
+				return lhs.equals(rhs);
+			if(comparison == Comparison.NOT_EQUAL)
+				return !lhs.equals(rhs);
+			return Matches(comparison, lhs.compareTo(rhs));
+		}
+		
+	}
+	
+	static private final class BitFlags extends ColumnPredicate
+	{
+		
+		final int flagsPattern;
+		
+		BitFlags(BitFlagConstraint constraint, BoundColumn column)
+		{
+			super(COST_PRIMITIVE, constraint, column);
+			this.flagsPattern = constraint.getFlagsPattern();
+		}
+		
+		/**
+		 * BitFlagConstraint#_isValid() would throw a NullPointerException, which (as operands are reordered) could surface where
+		 * the interpreted constraint would have short-circuited before reaching it. {@code null} has no flags set, hence {@code false}.
+		 * 
+		 * @see uk.ac.ucl.excites.sapelli.storage.queries.constraints.CompiledConstraint.ColumnPredicate#testNull(uk.ac.ucl.excites.sapelli.storage.model.Record)
+		 */
+		@Override
+		boolean testNull(Record record)
+		{
+			return false;
+		}
+		
+		@Override
+		boolean testNonNull(Record record)
+		{
+			return ((int) column.getLong(record) & flagsPattern) == flagsPattern;
+		}
+		
+	}
+	
+	/**
+	 * Compiles a constraint tree for a given schema
+	 */
+	static private final class Compiler implements ConstraintVisitor
+	{
+		
+		private final Schema schema;
+		private Predicate result;
+		
+		Compiler(Schema schema)
+		{
+			this.schema = schema;
+		}
+		
+		Predicate compile(Constraint constraint)
+		{
+			if(constraint instanceof Source)
+				return ((Source) constraint).isValid(schema) ? TRUE : FALSE;
+			result = null;
+			constraint.accept(this);
+			return result != null ? result : new Interpreted(constraint);
+		}
+		
+		/**
+		 * @param columnPointer
+		 * @return the bound column, or {@code null} if the pointer does not point to a top-level column of the schema
+		 */
+		private BoundColumn bind(ColumnPointer<?> columnPointer)
+		{
+			return columnPointer.isTopLevelColumn() ? BoundColumn.Bind(schema, columnPointer.getColumn()) : null;
+		}
+		
+		/**
+		 * @param constraint
+		 * @param column
+		 * @param comparison
+		 * @param rhs non-{@code null} value, of the column's type
+		 * @return a predicate comparing the column value to the rhs value, or {@code null} if there is no specialised predicate for the column type
+		 */
+		private Predicate compare(Constraint constraint, BoundColumn column, Comparison comparison, Object rhs)
+		{
+			Column<?> col = column.column;
+			if(col instanceof IntegerColumn && rhs instanceof Long)
+				return new LongComparison(constraint, column, comparison, ((Long) rhs).longValue());
+			if(col instanceof FloatColumn && rhs instanceof Double)
+				return new DoubleComparison(constraint, column, comparison, ((Double) rhs).doubleValue());
+			if(col instanceof BooleanColumn && rhs instanceof Boolean)
+				return new BooleanComparison(constraint, column, comparison, ((Boolean) rhs).booleanValue());
+			if(col instanceof StringColumn && rhs instanceof String)
+				return new StringComparison(constraint, column, comparison, (String) rhs);
+			return null;
+		}
+		
+		private Predicate[] compileOperands(CompositeConstraint composite, boolean and)
+		{
+			List<Predicate> operands = new ArrayList<Predicate>();
+			for(Constraint subConstraint : composite.getSubConstraints())
+			{
+				Predicate operand = compile(subConstraint);
+				if(operand instanceof Constant)
+				{
+					if(((Constant) operand).value != and)
+						return new Predicate[] { operand }; // AND with false operand is false, OR with true operand is true
+					continue; // AND with true operand or OR with false operand: skip the operand
+				}
+				if(and && operand instanceof And)
+					operands.addAll(Arrays.asList(((And) operand).operands));
+				else if(!and && operand instanceof Or)
+					operands.addAll(Arrays.asList(((Or) operand).operands));
+				else
+					operands.add(operand);
+			}
+			Predicate[] array = operands.toArray(new Predicate[operands.size()]);
+			Arrays.sort(array, CHEAPEST_FIRST); // stable
+			return array;
+		}
+		
+		private void visitComposite(CompositeConstraint composite, boolean and)
+		{
+			Predicate[] operands = compileOperands(composite, and);
+			if(operands.length == 0)
+				result = and ? TRUE : FALSE;
+			else if(operands.length == 1)
+				result = operands[0];
+			else
+			{
+				int cost = 0;
+				for(Predicate operand : operands)
+					cost += operand.cost;
+				result = and ? new And(operands, cost) : new Or(operands, cost);
+			}
+		}
+		
+		@Override
+		public void visit(AndConstraint andConstr)
+		{
+			visitComposite(andConstr, true);
+		}
+		
+		@Override
+		public void visit(OrConstraint orConstr)
+		{
+			visitComposite(orConstr, false);
+		}
+		
+		@Override
+		public void visit(NotConstraint notConstr)
+		{
+			Predicate operand = compile(notConstr.getNegatedConstraint());
+			if(operand instanceof Constant)
+				result = ((Constant) operand).value ? FALSE : TRUE;
+			else if(operand instanceof Not)
+				result = ((Not) operand).operand;
+			else
+				result = new Not(operand);
+		}
+		
+		@Override
+		public void visit(EqualityConstraint equalityConstr)
+		{
+			BoundColumn column = bind(equalityConstr.getColumnPointer());
+			if(column == null)
+				return;
+			if(equalityConstr.isValueNull())
+				result = new IsNull(equalityConstr, column);
+			else if(!(column.column instanceof TimeStampColumn)) // TimeStamp#equals() also compares the offset
+				result = compare(equalityConstr, column, equalityConstr.isEqual() ? Comparison.EQUAL : Comparison.NOT_EQUAL, equalityConstr.getValue());
+		}
+		
+		@Override
+		public void visit(RuleConstraint ruleConstr)
+		{
+			if(ruleConstr.isRHSColumn() || ruleConstr.getRHSValue() == null)
+				return;
+			BoundColumn column = bind(ruleConstr.getLHSColumnPointer());
+			if(column == null)
+				return;
+			if(column.column instanceof TimeStampColumn && ruleConstr.getRHSValue() instanceof TimeStamp) // TimeStamp#compareTo() only compares the ms since epoch
+				result = new LongComparison(ruleConstr, column, ruleConstr.getComparison(), ((TimeStamp) ruleConstr.getRHSValue()).getMsSinceEpoch());
+			else
+				result = compare(ruleConstr, column, ruleConstr.getComparison(), ruleConstr.getRHSValue());
+		}
+		
+		@Override
+		public void visit(BitFlagConstraint bitFlagConstr)
+		{
+			BoundColumn column = bind(bitFlagConstr.getFlagsColumnPointer());
+			if(column != null)
+				result = new BitFlags(bitFlagConstr, column);
+		}
+		
+		@Override
+		public void visit(DummyConstraint dummyConstr)
+		{
+			result = dummyConstr.allValid ? TRUE : FALSE;
+		}
+		
+	}
+	
+	// DYNAMICS------------------------------------------------------
+	private final Constraint constraint;
+	private final Map<Schema, Predicate> predicates = new IdentityHashMap<Schema, Predicate>();
+	private Schema lastSchema;
+	private Predicate lastPredicate;
+	
+	private CompiledConstraint(Constraint constraint)
+	{
+		this.constraint = constraint;
+	}
+	
+	/**
+	 * @param record
+	 * @return whether the record meets the constraint, same as {@link Constraint#isValid(Record)}
+	 */
+	public boolean isValid(Record record)
+	{
+		if(record == null)
+			return false;
+		if(constraint == null)
+			return true;
+		return getPredicate(record.getSchema()).test(record);
+	}
+	
+	/**
+	 * Filters a collection of records based on the criteria defined by the constraint
+	 * 
+	 * @param records
+	 * @return
+	 */
+	public List<Record> filter(Collection<Record> records)
+	{
+		List<Record> result = new ArrayList<Record>();
+		for(Record r : records)
+			if(isValid(r))
+				result.add(r);
+		return result;
+	}
+	
+	/**
+	 * @param schema
+	 * @return the predicate compiled for the given schema
+	 */
+	private Predicate getPredicate(Schema schema)
+	{
+		if(schema != lastSchema || lastPredicate == null)
+		{
+			Predicate predicate = predicates.get(schema);
+			if(predicate == null)
+				predicates.put(schema, predicate = new Compiler(schema).compile(constraint));
+			lastSchema = schema;
+			lastPredicate = predicate;
+		}
+		return lastPredicate;
+	}
+	
+}
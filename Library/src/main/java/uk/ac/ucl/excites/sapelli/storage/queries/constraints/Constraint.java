@@ -18,7 +18,6 @@
 
 package uk.ac.ucl.excites.sapelli.storage.queries.constraints;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -47,18 +46,15 @@ public abstract class Constraint
 	
 	// DYNAMICS------------------------------------------------------
 	/**
-	 * Filters a collection of records based on the criteria defined by the constraint
+	 * Filters a collection of records based on the criteria defined by the constraint.
+	 * The constraint is compiled first, see {@link CompiledConstraint}.
 	 * 
 	 * @param records
 	 * @return
 	 */
 	public List<Record> filter(Collection<Record> records)
 	{
-		List<Record> result = new ArrayList<Record>();
-		for(Record r : records)
-			if(isValid(r))
-				result.add(r);
-		return result;
+		return CompiledConstraint.Compile(this).filter(records);
 	}
 
 	public boolean isValid(Record record)
@@ -229,7 +229,7 @@ public abstract class Source extends Constraint
 	 * @param schema
 	 * @return
 	 */
-	protected abstract boolean isValid(Schema schema);
+	public abstract boolean isValid(Schema schema);
 	
 	/**
 	 * Filters a collection of schemata based on whether they are included in this Source
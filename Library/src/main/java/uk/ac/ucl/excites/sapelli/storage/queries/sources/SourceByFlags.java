@@ -91,7 +91,7 @@ public class SourceByFlags extends Source
 	 * @see uk.ac.ucl.excites.sapelli.storage.queries.Source#isValid(uk.ac.ucl.excites.sapelli.storage.model.Schema)
 	 */
 	@Override
-	protected boolean isValid(Schema schema)
+	public boolean isValid(Schema schema)
 	{
 		return match == schema.hasFlags(flags);
 	}
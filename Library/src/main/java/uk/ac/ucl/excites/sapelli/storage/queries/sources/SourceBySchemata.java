@@ -98,7 +98,7 @@ public class SourceBySchemata extends Source
 	 * @see uk.ac.ucl.excites.sapelli.storage.queries.sources.Source#isValid(uk.ac.ucl.excites.sapelli.storage.model.Schema)
 	 */
 	@Override
-	protected boolean isValid(Schema schema)
+	public boolean isValid(Schema schema)
 	{
 		return inclusion == schemata.contains(schema);
 	}
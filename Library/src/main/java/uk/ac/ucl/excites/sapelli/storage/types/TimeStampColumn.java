@@ -32,12 +32,15 @@ import uk.ac.ucl.excites.sapelli.shared.util.IntegerRangeMapping;
 import uk.ac.ucl.excites.sapelli.shared.util.Objects;
 import uk.ac.ucl.excites.sapelli.shared.util.TimeUtils;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.ColumnSet;
 import uk.ac.ucl.excites.sapelli.storage.model.ComparableColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.UnmodifiableValueSet;
+import uk.ac.ucl.excites.sapelli.storage.model.ValueSet;
 import uk.ac.ucl.excites.sapelli.storage.model.VirtualColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
 import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.util.InvalidColumnException;
 import uk.ac.ucl.excites.sapelli.storage.visitors.ColumnVisitor;
 
 /**
@@ -60,6 +63,7 @@ public class TimeStampColumn extends ComparableColumn<TimeStamp>
 	
 	static private final TimeStamp START_21ST_CENTURY = new TimeStamp(new DateTime(2000, 01, 01, 00, 00, 00, DateTimeZone.UTC));
 	static private final TimeStamp END_21ST_CENTURY = new TimeStamp(new DateTime(2100, 01, 01, 00, 00, 00, DateTimeZone.UTC));
+	static private final long ONE_DAY_MS = 24L * TimeUtils.ONE_HOUR_MS;
 	static private final TimeStamp START_2008 = new TimeStamp(new DateTime(2008, 01, 01, 00, 00, 00, DateTimeZone.UTC));
 	
 	/**
@@ -379,6 +383,11 @@ public class TimeStampColumn extends ComparableColumn<TimeStamp>
 	@Override
 	public TimeStamp parse(String value) throws IllegalArgumentException
 	{
+		// Fast path for the canonical format produced by toString(TimeStamp):
+		TimeStamp timeStamp = parseCanonicalISO(value);
+		if(timeStamp != null)
+			return timeStamp;
+		// Other (or unusual) formats:
 		try
 		{
 			return parse(value, TimeUtils.ISOWithMSFormatter);
@@ -397,10 +406,173 @@ public class TimeStampColumn extends ComparableColumn<TimeStamp>
 	@Override
 	public String toString(TimeStamp value)
 	{
+		// Fast path for the common case:
+		String canonical = toCanonicalISO(value);
+		if(canonical != null)
+			return canonical;
+		// Years outside of 0-9999:
 		DateTime dt = value.toDateTime();
 		// Note: we always keep milliseconds & UTC offset (keepMS & keepLocalTimeZone only affect binary storage)
 		return TimeUtils.ISOWithMSFormatter.withZone(dt.getZone()).print(dt);
 	}
+	
+	/**
+	 * Formats the given TimeStamp in the canonical ISO format (i.e. "yyyy-MM-ddTHH:mm:ss.SSS" followed by
+	 * "Z" or "±HH:mm"), exactly as {@link TimeUtils#ISOWithMSFormatter} would, but without going through
+	 * Joda-Time.
+	 * 
+	 * @param value
+	 * @return the formatted String, or {@code null} if the (local) year is outside of the 0-9999 range
+	 */
+	static private String toCanonicalISO(TimeStamp value)
+	{
+		final int offsetMinutes = value.getQuarterHourOffsetWrtUTC() * 15;
+		final long localMS = value.getMsSinceEpoch() + offsetMinutes * 60000L;
+		final long days = (localMS >= 0 ? localMS : localMS - (ONE_DAY_MS - 1)) / ONE_DAY_MS;
+		final int msOfDay = (int) (localMS - days * ONE_DAY_MS);
+		// Civil date from days since 1970-01-01 (see http://howardhinnant.github.io/date_algorithms.html#civil_from_days):
+		final long z = days + 719468;
+		final long era = (z >= 0 ? z : z - 146096) / 146097;
+		final long dayOfEra = z - era * 146097;
+		final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final long mp = (5 * dayOfYear + 2) / 153;
+		final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if(year < 0 || year > 9999)
+			return null;
+		// Format:
+		StringBuilder bldr = new StringBuilder(29);
+		appendDigits(bldr, (int) year, 4).append('-');
+		appendDigits(bldr, month, 2).append('-');
+		appendDigits(bldr, day, 2).append('T');
+		appendDigits(bldr, msOfDay / 3600000, 2).append(':');
+		appendDigits(bldr, (msOfDay / 60000) % 60, 2).append(':');
+		appendDigits(bldr, (msOfDay / 1000) % 60, 2).append('.');
+		appendDigits(bldr, msOfDay % 1000, 3);
+		if(offsetMinutes == 0)
+			bldr.append('Z');
+		else
+		{
+			bldr.append(offsetMinutes < 0 ? '-' : '+');
+			appendDigits(bldr, Math.abs(offsetMinutes) / 60, 2).append(':');
+			appendDigits(bldr, Math.abs(offsetMinutes) % 60, 2);
+		}
+		return bldr.toString();
+	}
+	
+	/**
+	 * Appends the given non-negative value as exactly {@code count} decimal digits (zero-padded).
+	 */
+	static private StringBuilder appendDigits(StringBuilder bldr, int value, int count)
+	{
+		int divisor = 1;
+		for(int d = 1; d < count; d++)
+			divisor *= 10;
+		for(; divisor > 0; divisor /= 10)
+			bldr.append((char) ('0' + (value / divisor) % 10));
+		return bldr;
+	}
+	
+	/**
+	 * Parses Strings in the canonical ISO format produced by {@link #toString(TimeStamp)}
+	 * (i.e. "yyyy-MM-ddTHH:mm:ss.SSS" followed by "Z" or "±HH:mm"), without going through
+	 * the (considerably slower) Joda-Time parser.
+	 * 
+	 * @param value
+	 * @return the parsed TimeStamp, or {@code null} if the value is not in the canonical format (or has a UTC offset which is not a whole number of quarter hours)
+	 */
+	static private TimeStamp parseCanonicalISO(String value)
+	{
+		final int length = value.length();
+		if(	(length != 24 && length != 29) ||
+			value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T' ||
+			value.charAt(13) != ':' || value.charAt(16) != ':' || value.charAt(19) != '.')
+			return null;
+		int year = parseDigits(value, 0, 4);
+		int month = parseDigits(value, 5, 2);
+		int day = parseDigits(value, 8, 2);
+		int hour = parseDigits(value, 11, 2);
+		int minute = parseDigits(value, 14, 2);
+		int second = parseDigits(value, 17, 2);
+		int ms = parseDigits(value, 20, 3);
+		if(	year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+			hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || ms < 0)
+			return null;
+		// UTC offset:
+		int offsetMinutes;
+		char sign = value.charAt(23);
+		if(length == 24)
+		{
+			if(sign != 'Z')
+				return null;
+			offsetMinutes = 0;
+		}
+		else
+		{
+			int offsetHours = parseDigits(value, 24, 2);
+			int offsetMins = parseDigits(value, 27, 2);
+			if((sign != '+' && sign != '-') || value.charAt(26) != ':' || offsetHours < 0 || offsetHours > 23 || offsetMins < 0 || offsetMins > 59)
+				return null;
+			offsetMinutes = (sign == '-' ? -1 : 1) * (offsetHours * 60 + offsetMins);
+		}
+		if(offsetMinutes % 15 != 0)
+			return null; // let Joda-Time deal with this
+		long localMS = ((((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60 + second) * 1000L) + ms;
+		return new TimeStamp(localMS - offsetMinutes * 60000L, offsetMinutes / 15);
+	}
+	
+	/**
+	 * @param str
+	 * @param start
+	 * @param count
+	 * @return the value of the {@code count} decimal digits at {@code start} in {@code str}, or -1 if any of them is not a digit
+	 */
+	static private int parseDigits(String str, int start, int count)
+	{
+		int value = 0;
+		for(int i = start; i < start + count; i++)
+		{
+			char c = str.charAt(i);
+			if(c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	static private int daysInMonth(int year, int month)
+	{
+		switch(month)
+		{
+			case 2 :
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4 : case 6 : case 9 : case 11 :
+				return 30;
+			default :
+				return 31;
+		}
+	}
+	
+	/**
+	 * Number of days since 1970-01-01 in the proleptic Gregorian calendar (as used by the ISO chronology).
+	 * 
+	 * @param year
+	 * @param month
+	 * @param day
+	 * @return
+	 * @see <a href="http://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+	 */
+	static private long daysFromCivil(int year, int month, int day)
+	{
+		year -= month <= 2 ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
 
 	@Override
 	public TimeStamp convert(Object value) throws ClassCastException
@@ -420,6 +592,18 @@ public class TimeStampColumn extends ComparableColumn<TimeStamp>
 		// Number (ms since epoch, usually a long):
 		return new TimeStamp(((Number) value).longValue()); // will fail if object is not a Number instance
 	}
+	
+	/**
+	 * @param valueSet
+	 * @param nullReplacement
+	 * @return the ms since the epoch of the stored time stamp, or the nullReplacement if there is none
+	 * @throws NullPointerException if the given {@link ValueSet} is {@code null}
+	 * @throws InvalidColumnException when this column is not part of the valueSet's {@link ColumnSet}, nor compatible with a column by the same name that is
+	 */
+	public long getPrimitiveMsSinceEpoch(ValueSet<?> valueSet, long nullReplacement) throws NullPointerException, InvalidColumnException
+	{
+		return retrievePrimitiveLong(valueSet, nullReplacement);
+	}
 
 	@Override
 	protected void write(TimeStamp value, BitOutputStream bitStream, boolean lossless) throws IOException
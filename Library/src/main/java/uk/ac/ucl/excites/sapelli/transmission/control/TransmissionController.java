@@ -31,6 +31,9 @@ import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
 import uk.ac.ucl.excites.sapelli.shared.io.FileStorageException;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Histogram;
+import uk.ac.ucl.excites.sapelli.shared.metrics.MetricsRegistry;
 import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
 import uk.ac.ucl.excites.sapelli.shared.util.Logger;
 import uk.ac.ucl.excites.sapelli.shared.util.StringUtils;
@@ -38,6 +41,7 @@ import uk.ac.ucl.excites.sapelli.shared.util.TransactionalStringBuilder;
 import uk.ac.ucl.excites.sapelli.storage.db.RecordStore;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
 import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
 import uk.ac.ucl.excites.sapelli.storage.util.UnknownModelException;
@@ -81,6 +85,15 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 	
 	static protected final String LOG_FILENAME_PREFIX = "Transmission_";
 	
+	// Metrics:
+	static private final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+	static private final Histogram PREPARE_LATENCY = METRICS.histogram("transmission.prepare.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Histogram PARTS_PER_TRANSMISSION = METRICS.histogram("transmission.parts", Histogram.UNIT_COUNT);
+	static private final Histogram RECEIVE_QUEUE_LATENCY = METRICS.histogram("transmission.receive.queue.latency", Histogram.UNIT_MILLISECONDS);
+	static private final Histogram RECEIVE_LATENCY = METRICS.histogram("transmission.receive.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Counter TRANSMISSIONS_SENT = METRICS.counter("transmission.sent");
+	static private final Counter TRANSMISSIONS_RECEIVED = METRICS.counter("transmission.received");
+	
 	static public enum ModelQueryStatus
 	{
 		Pending,
@@ -157,7 +170,7 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 	 */
 	protected Logger createLogger(File logsFolder) throws FileStorageException, IOException
 	{
-		return new Logger(logsFolder.getAbsolutePath(), LOG_FILENAME_PREFIX + DateTime.now().toString("yyyy-mm-dd"), true);
+		return new Logger(logsFolder.getAbsolutePath(), LOG_FILENAME_PREFIX + DateTime.now().toString("yyyy-mm-dd"), true, true, Logger.DEFAULT_ASYNC_BUFFER_CAPACITY, Logger.OverflowPolicy.BLOCK);
 	}
 	
 	/**
@@ -331,7 +344,11 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 		try
 		{
 			// Prepare transmission for storage & sending:
+			long prepareStartNS = PREPARE_LATENCY.startTimer();
 			transmission.prepare();
+			PREPARE_LATENCY.recordSince(prepareStartNS);
+			if(transmission instanceof SMSTransmission)
+				PARTS_PER_TRANSMISSION.record(((SMSTransmission<?>) transmission).getTotalNumberOfParts());
 			
 			// Store "in-flight transmissions" to get local ID:
 			transmissionStore.store(transmission); // update record now that it is prepared (payload hash has been computed, etc.)
@@ -341,6 +358,7 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 			
 			// actually send the transmission:
 			transmission.send(this);
+			TRANSMISSIONS_SENT.increment();
 			
 			// Success:
 			return true;
@@ -384,6 +402,11 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 	{	
 		addLogLine(	"INCOMING", "Transmission", transmission.getType().toString(),
 					"From: " + transmission.getCorrespondent());
+		
+		// Metrics: time between reception (of the last part) and processing
+		if(METRICS.isEnabled() && transmission.getReceivedAt() != null)
+			RECEIVE_QUEUE_LATENCY.record(System.currentTimeMillis() - transmission.getReceivedAt().getMsSinceEpoch());
+		long receiveStartNS = RECEIVE_LATENCY.startTimer();
 
 		// "Receive" the transmission (merge parts, decode, verify):
 		transmission.receive(); // throws TransmissionReceivingException
@@ -408,6 +431,9 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 		// Delete transmission (and parts) from store if needed:
 		if(deleteTransmissionUponReception(transmission))
 			transmissionStore.deleteTransmission(transmission, true); // (delete by hiding)
+		
+		RECEIVE_LATENCY.recordSince(receiveStartNS);
+		TRANSMISSIONS_RECEIVED.increment();
 	}
 	
 	// ----- "handle"/"receive" methods for different transmission types:
@@ -664,11 +690,15 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 			}
 			try
 			{
-				// Store received records...
-				recordStore.store(recordsPayload.getRecords());
+				// Store received records (in a single transaction), batch by batch...
+				recordStore.startTransaction();
+				for(RecordBatch batch : recordsPayload.getRecordBatches())
+					recordStore.store(batch);
+				recordStore.commitTransaction();
 			}
 			catch (Exception e)
 			{
+				recordStore.rollbackTransactions();
 				throw new Exception("Unable to store records that were received from transmission", e);
 			}
 		}
@@ -935,6 +965,11 @@ public abstract class TransmissionController implements StoreHandle.StoreUser
 	
 	public void discard()
 	{
+		if(logger != null)
+		{
+			logger.close(); // writes out any buffered lines
+			logger = null;
+		}
 		transmissionClient.recordStoreHandle.doneUsing(this);
 		transmissionClient.transmissionStoreHandle.doneUsing(this);
 	}
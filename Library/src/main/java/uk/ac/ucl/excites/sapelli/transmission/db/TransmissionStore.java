@@ -249,6 +249,17 @@ public class TransmissionStore extends RecordStoreWrapper<TransmissionClient>
 	{
 		return incoming ? inCache : outCache;
 	}
+
+	/**
+	 * Empties the caches of incoming and outgoing transmissions.
+	 * Must be called after a roll-back of a transaction which was opened (on the underlying RecordStore) by the caller,
+	 * because cached Transmission objects may then reflect changes (e.g. local IDs) which never made it into the database.
+	 */
+	public void clearCache()
+	{
+		inCache.clear();
+		outCache.clear();
+	}
 	
 	public void store(Correspondent correspondent) throws DBException
 	{
@@ -712,7 +712,7 @@ public abstract class Transmission<C extends Correspondent>
 	
 	protected int computePayloadHash(BitArray payloadBits)
 	{
-		return Hashing.getCRC16Hash(payloadBits.toByteArray());
+		return Hashing.getCRC16Hash(payloadBits);
 	}
 	
 	public abstract boolean isComplete();
@@ -36,11 +36,16 @@ import uk.ac.ucl.excites.sapelli.shared.io.BitArrayOutputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.BitInputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.BitOutputStream;
 import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Histogram;
+import uk.ac.ucl.excites.sapelli.shared.metrics.MetricsRegistry;
 import uk.ac.ucl.excites.sapelli.shared.util.IntegerRangeMapping;
 import uk.ac.ucl.excites.sapelli.storage.model.Column;
 import uk.ac.ucl.excites.sapelli.storage.model.Model;
 import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.RecordBatch;
 import uk.ac.ucl.excites.sapelli.storage.model.Schema;
+import uk.ac.ucl.excites.sapelli.storage.model.SerialisationPlan;
 import uk.ac.ucl.excites.sapelli.storage.util.UnknownModelException;
 import uk.ac.ucl.excites.sapelli.transmission.TransmissionClient;
 import uk.ac.ucl.excites.sapelli.transmission.model.Payload;
@@ -86,6 +91,21 @@ public class RecordsPayload extends Payload
 	static protected final Compression[] COMPRESSION_MODES = { Compression.NONE, Compression.DEFLATE, Compression.LZMA };
 	static protected final IntegerRangeMapping COMPRESSION_FLAG_FIELD = new IntegerRangeMapping(0, COMPRESSION_MODES.length - 1);
 	
+	/**
+	 * Metrics: compressed/uncompressed size ratio (in permille) achieved by each compression mode, and how often each mode was chosen
+	 */
+	static private final Histogram[] COMPRESSION_RATIOS = new Histogram[COMPRESSION_MODES.length];
+	static private final Counter[] COMPRESSION_CHOSEN = new Counter[COMPRESSION_MODES.length];
+	static
+	{
+		for(int c = 0; c < COMPRESSION_MODES.length; c++)
+		{
+			String prefix = "transmission.compression." + COMPRESSION_MODES[c].name();
+			COMPRESSION_RATIOS[c] = MetricsRegistry.getDefault().histogram(prefix + ".ratio", Histogram.UNIT_PERMILLE);
+			COMPRESSION_CHOSEN[c] = MetricsRegistry.getDefault().counter(prefix + ".chosen");
+		}
+	}
+	
 	static public int GetType()
 	{
 		return BuiltinType.Records.ordinal();
@@ -100,6 +120,11 @@ public class RecordsPayload extends Payload
 	protected Model model;
 	protected final Map<Schema, List<Record>> recordsBySchema;
 	
+	/**
+	 * Batches holding the decoded records (receiving side only)
+	 */
+	protected final Map<Schema, RecordBatch> batchesBySchema;
+	
 	/**
 	 * Whether or not to force lossless encoding across all columns.
 	 */
@@ -119,6 +144,7 @@ public class RecordsPayload extends Payload
 	{
 		this.lossless = lossless;
 		this.recordsBySchema = new HashMap<Schema, List<Record>>();
+		this.batchesBySchema = new HashMap<Schema, RecordBatch>();
 	}
 	
 	@Override
@@ -194,6 +220,22 @@ public class RecordsPayload extends Payload
 		return recordsBySchema;
 	}
 	
+	/**
+	 * On the receiving side these are the batches the records were decoded into, on the sending side batches are created from the added records.
+	 * 
+	 * @return records grouped by schema, in batches
+	 */
+	public List<RecordBatch> getRecordBatches()
+	{
+		List<RecordBatch> batches = new ArrayList<RecordBatch>();
+		for(Entry<Schema, List<Record>> entry : recordsBySchema.entrySet())
+		{
+			RecordBatch batch = batchesBySchema.get(entry.getKey());
+			batches.add(batch != null ? batch : RecordBatch.Of(entry.getKey(), entry.getValue()));
+		}
+		return batches;
+	}
+	
 	/**
 	 * @return flat list of records (sorted by Schema)
 	 */
@@ -304,6 +346,11 @@ public class RecordsPayload extends Payload
 			for(int c = 1; c < COMPRESSION_MODES.length; c++)
 				if(comprResults[c].length < comprResults[bestComprIdx].length)
 					bestComprIdx = c;
+			//	Metrics (COMPRESSION_MODES[0] is NONE):
+			if(comprResults[0].length > 0)
+				for(int c = 0; c < COMPRESSION_MODES.length; c++)
+					COMPRESSION_RATIOS[c].record(comprResults[c].length * 1000L / comprResults[0].length);
+			COMPRESSION_CHOSEN[bestComprIdx].increment();
 			
 			// Write HEADER PART 2 ----------------------------------
 			//	Compression flag (2 bits):
@@ -459,8 +506,9 @@ public class RecordsPayload extends Payload
 				// Write record data, skipping ...
 				Set<Column<?>> skipColumns = new HashSet<Column<?>>(nonTransmittableColumns); 	// ... non-transmittable,
 				skipColumns.addAll(factoredOutValues.keySet());									// factored-out, ...
+				SerialisationPlan plan = schema.getSerialisationPlan(false /* ... and virtual columns */, skipColumns, lossless);
 				for(Record r : recordsBySchema.get(schema))
-					r.writeToBitStream(out, false /* ... and virtual columns */, skipColumns, lossless);
+					r.writeToBitStream(out, plan);
 			}
 			
 			// Close the stream & return bits:
@@ -478,6 +526,8 @@ public class RecordsPayload extends Payload
 	}
 	
 	/**
+	 * Decodes the records of each schema into a {@link RecordBatch}. The lists in {@link #recordsBySchema} are views on these batches.
+	 * 
 	 * @param schemataInT
 	 * @param recordsBits
 	 * @throws RecordsPayloadDecodeException
@@ -485,7 +535,7 @@ public class RecordsPayload extends Payload
 	protected void decodeRecords(List<Schema> schemataInT, BitArray recordsBits) throws RecordsPayloadDecodeException
 	{		
 		BitInputStream in = null;
-		Record record = null;
+		RecordBatch batch = null;
 		try
 		{
 			in = new BitArrayInputStream(recordsBits);
@@ -496,13 +546,14 @@ public class RecordsPayload extends Payload
 				// Get columns which should *not* be transmitted:
 				Set<Column<?>> nonTransmittableColumns = transmission.client.getNonTransmittableColumns(schema); // includes auto-incr-PK columns
 				
-				// Create & store list for the records that will be decoded:
-				List<Record> records = new ArrayList<Record>();
-				recordsBySchema.put(schema, records);
-				
 				// Read number of records:
 				int numberOfRecordsForSchema = numberOfRecordsPerSchemaField.readInt(in);
 				
+				// Create & store batch for the records that will be decoded:
+				batch = new RecordBatch(schema, numberOfRecordsForSchema);
+				batchesBySchema.put(schema, batch);
+				recordsBySchema.put(schema, batch.asRecordList());
+				
 				// Factoring-out logic ...
 				Map<Column<?>, Object> factoredOutValues = Collections.<Column<?>, Object> emptyMap();
 				if(numberOfRecordsForSchema > 1)
@@ -525,26 +576,26 @@ public class RecordsPayload extends Payload
 				// Read record data, skipping ...
 				Set<Column<?>> skipColumns = new HashSet<Column<?>>(nonTransmittableColumns); 	// ... non-transmittable,
 				skipColumns.addAll(factoredOutValues.keySet());									// factored-out, ...
-				while(	records.size() < numberOfRecordsForSchema &&					
-						in.bitsAvailable() >= schema.getMinimumSize(false /* ... and virtual columns */, skipColumns, lossless))
+				SerialisationPlan plan = schema.getSerialisationPlan(false /* ... and virtual columns */, skipColumns, lossless);
+				int minimumRecordSize = schema.getMinimumSize(false /* ... and virtual columns */, skipColumns, lossless);
+				while(	batch.size() < numberOfRecordsForSchema &&					
+						in.bitsAvailable() >= minimumRecordSize)
 				{
-					// Get new Record instance:
-					record = schema.createRecord();
 					// Read record values from the stream, skipping virtual columns and factored-out columns:
-					record.readFromBitStream(in, false /* ... and virtual columns */, skipColumns, lossless);
+					batch.readFromBitStream(in, plan, 1);
 					// Set factored-out values:
 					for(Entry<Column<?>, Object> fEntry : factoredOutValues.entrySet())
-						fEntry.getKey().storeObject(record, fEntry.getValue());
-					// Add the record:
-					records.add(record);
+						SetFactoredOutValue(batch, batch.size() - 1, fEntry.getKey(), fEntry.getValue());
 				}
 			}
 		}
 		catch(Exception e)
 		{
 			RecordsPayloadDecodeException de = new RecordsPayloadDecodeException(this, "Error on decoding records.", e); //pass schema used for decoding and records decoded so far 
-			de.addPartialRecord(record); //add last (partially decoded) record (will be ignored if null)
+			if(batch != null && !batch.isEmpty())
+				de.addPartialRecord(batch.getRecord(batch.size() - 1)); //add last decoded record (a row which failed to decode is not added to the batch)
 			recordsBySchema.clear(); //remove partially decoded records
+			batchesBySchema.clear();
 			throw de;
 		}
 		finally
@@ -553,6 +604,17 @@ public class RecordsPayload extends Payload
 		}
 	}
 	
+	/**
+	 * @param batch
+	 * @param row
+	 * @param column
+	 * @param valueObject a value read using the column (and therefore valid)
+	 */
+	static private <T> void SetFactoredOutValue(RecordBatch batch, int row, Column<T> column, Object valueObject)
+	{
+		batch.setValue(row, column, column.convert(valueObject));
+	}
+	
 	/**
 	 * The number of bits available to encode all records (*including* the space used by the "numberOfRecordPerSchemaFields"),
 	 * under the assumption no compression will be used (i.e. "without compression" should *not* be interpreted as "before compression").
@@ -18,13 +18,29 @@
 
 package uk.ac.ucl.excites.sapelli.transmission.protocol.geokey;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.Charsets;
 
 import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreOperation;
 import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
-import uk.ac.ucl.excites.sapelli.storage.eximport.ExportResult;
+import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
+import uk.ac.ucl.excites.sapelli.shared.io.text.UnicodeBOM;
+import uk.ac.ucl.excites.sapelli.shared.util.ThreadUtils;
 import uk.ac.ucl.excites.sapelli.storage.eximport.csv.CSVRecordsExporter;
 import uk.ac.ucl.excites.sapelli.storage.eximport.csv.CSVRecordsExporter.Separator;
 import uk.ac.ucl.excites.sapelli.storage.model.Attachment;
@@ -43,6 +59,7 @@ import uk.ac.ucl.excites.sapelli.transmission.model.content.RecordsPayload;
 import uk.ac.ucl.excites.sapelli.transmission.model.content.ResendRequestPayload;
 import uk.ac.ucl.excites.sapelli.transmission.model.transport.geokey.GeoKeyServer;
 import uk.ac.ucl.excites.sapelli.transmission.model.transport.geokey.GeoKeyTransmission;
+import uk.ac.ucl.excites.sapelli.transmission.protocol.http.HTTPClient;
 
 public abstract class GeoKeyClient implements Payload.Handler
 {
@@ -86,9 +103,17 @@ public abstract class GeoKeyClient implements Payload.Handler
 	 */
 	static protected final CSVRecordsExporter.Separator CSV_SEPARATOR = Separator.COMMA;
 	
+	static public final int DEFAULT_MAX_PARALLEL_UPLOADS = 4;
+	static public final int DEFAULT_MAX_UPLOAD_ATTEMPTS = 3;
+	static protected final int UPLOAD_RETRY_DELAY_MS = 2 * 1000;
+	
 	// DYNAMIC ----------------------------------------------------------------
 	protected final TransmissionClient client;
 	
+	private volatile int maxParallelUploads = DEFAULT_MAX_PARALLEL_UPLOADS;
+	private volatile int maxUploadAttempts = DEFAULT_MAX_UPLOAD_ATTEMPTS;
+	private volatile UploadProgressListener uploadProgressListener;
+	
 	public GeoKeyClient(TransmissionClient client)
 	{
 		this.client = client;
@@ -219,32 +244,86 @@ public abstract class GeoKeyClient implements Payload.Handler
 			success = false;
 		else
 		{
-			// Upload records (as CSV) per Schema:
-			CSVRecordsExporter exporter = new CSVRecordsExporter(getTempFolder(), CSV_SEPARATOR);
-			for(Map.Entry<Schema, List<Record>> entry : recordsPayload.getRecordsBySchema().entrySet())
+			/* Upload records (as CSV) per Schema, and the attachments of each Schema's records as soon as its CSV is
+			 * uploaded (GeoKey needs the observations to exist before media can be attached to them). Attachments
+			 * are uploaded in the background, over a bounded number of parallel connections, while the CSV for the
+			 * next Schema is being streamed to the server. */
+			final AttachmentUploader uploader = new AttachmentUploader(session, recordsPayload.getRecords().size());
+			try
 			{
-				// Generate CSV file:
-				ExportResult result = exporter.export(entry.getValue(), "for_upload_" + entry.getKey().getName());
-				
-				// Upload if CSV was generated:
-				success &= result.wasSuccessful() && session.uploadCSV(result.getFiles().get(0), true, true);
+				CSVRecordsExporter exporter = new CSVRecordsExporter(getTempFolder(), CSV_SEPARATOR);
+				for(Map.Entry<Schema, List<Record>> entry : recordsPayload.getRecordsBySchema().entrySet())
+				{
+					// Stream CSV straight into the request body:
+					if(!session.uploadCSV(new CSVBody(exporter, entry.getKey(), entry.getValue())))
+					{
+						success = false;
+						continue; // don't bother uploading attachments for records the server doesn't have
+					}
+					
+					// Schedule upload of attachments (looked up for all of the Schema's records at once):
+					Map<Record, ? extends List<? extends Attachment>> attachmentsByRecord = client.getRecordAttachments(entry.getValue());
+					for(Record record : entry.getValue())
+					{
+						List<? extends Attachment> attachments = attachmentsByRecord.get(record);
+						if(attachments != null && !attachments.isEmpty())
+							uploader.schedule(record, attachments);
+					}
+				}
 			}
-			
-			// Upload attachments:
-			for(Record record : recordsPayload.getRecords())
+			finally
 			{
-				// Get files:
-				List<? extends Attachment> attachments = client.getRecordAttachments(record);
-				
-				// Upload files:
-				if(attachments != null && !attachments.isEmpty())
-					success &= session.uploadAttachments(record, attachments);
+				success &= uploader.awaitCompletion();
 			}
 		}
 		
 		if(!success)
 			throw new Exception("Failed to handle RecordsPayload without errors.");
 	}
+	
+	/**
+	 * @return the maximum number of attachment uploads that run in parallel
+	 */
+	public int getMaxParallelUploads()
+	{
+		return maxParallelUploads;
+	}
+
+	/**
+	 * @param maxParallelUploads the maximum number of attachment uploads that run in parallel (must be at least 1)
+	 */
+	public void setMaxParallelUploads(int maxParallelUploads)
+	{
+		if(maxParallelUploads < 1)
+			throw new IllegalArgumentException("maxParallelUploads must be at least 1");
+		this.maxParallelUploads = maxParallelUploads;
+	}
+
+	/**
+	 * @return the number of times uploading the attachments of a single record is attempted before giving up
+	 */
+	public int getMaxUploadAttempts()
+	{
+		return maxUploadAttempts;
+	}
+
+	/**
+	 * @param maxUploadAttempts the number of times uploading the attachments of a single record is attempted before giving up (must be at least 1)
+	 */
+	public void setMaxUploadAttempts(int maxUploadAttempts)
+	{
+		if(maxUploadAttempts < 1)
+			throw new IllegalArgumentException("maxUploadAttempts must be at least 1");
+		this.maxUploadAttempts = maxUploadAttempts;
+	}
+
+	/**
+	 * @param uploadProgressListener may be {@code null}
+	 */
+	public void setUploadProgressListener(UploadProgressListener uploadProgressListener)
+	{
+		this.uploadProgressListener = uploadProgressListener;
+	}
 
 	/* (non-Javadoc)
 	 * @see uk.ac.ucl.excites.sapelli.transmission.model.Payload.Handler#handle(uk.ac.ucl.excites.sapelli.transmission.model.content.ModelQueryPayload)
@@ -292,20 +371,24 @@ public abstract class GeoKeyClient implements Payload.Handler
 	}
 
 	/**
+	 * Implementations must be safe for use by multiple threads at once, as attachments of different records
+	 * are uploaded in parallel.
+	 * 
 	 * @author mstevens
 	 */
 	protected interface ModelSession
 	{
 
 		/**
-		 * @param csvFile
-		 * @param deleteUponSuccess
-		 * @param deleteUponFailure
+		 * @param csv CSV content, to be streamed into the request body
 		 * @return whether or not uploading was successful
 		 */
-		public boolean uploadCSV(File csvFile, boolean deleteUponSuccess, boolean deleteUponFailure);
+		public boolean uploadCSV(HTTPClient.Body csv);
 		
 		/**
+		 * Implementations are expected to skip attachments which already exist on the server,
+		 * such that retrying after a (partial) failure resumes rather than restarts the upload.
+		 * 
 		 * @param record
 		 * @param attachments
 		 * @return whether or not uploading was successful
@@ -314,4 +397,200 @@ public abstract class GeoKeyClient implements Payload.Handler
 		
 	}
 	
+	/**
+	 * Receives aggregate progress updates about the uploading of record attachments.
+	 * Methods may be called from background threads.
+	 * 
+	 * @author mstevens
+	 */
+	public interface UploadProgressListener
+	{
+		
+		/**
+		 * Attachments are counted once all attachments of their record have been handled (i.e. uploaded, found to exist on the server already, or given up on).
+		 * 
+		 * @param filesDone number of attachment files which were uploaded successfully
+		 * @param filesFailed number of attachment files for which uploading failed (after all attempts)
+		 * @param filesScheduled number of attachment files scheduled for uploading so far
+		 * @param bytesDone total size of the files counted in filesDone
+		 * @param bytesScheduled total size of the files counted in filesScheduled
+		 */
+		public void uploadProgress(int filesDone, int filesFailed, int filesScheduled, long bytesDone, long bytesScheduled);
+		
+	}
+	
+	/**
+	 * {@link HTTPClient.Body} which writes the CSV for the records of a single schema directly to the request stream.
+	 * 
+	 * @author mstevens
+	 */
+	static private class CSVBody implements HTTPClient.Body
+	{
+		
+		private final CSVRecordsExporter exporter;
+		private final Schema schema;
+		private final List<Record> records;
+		private byte[] csv;
+		
+		public CSVBody(CSVRecordsExporter exporter, Schema schema, List<Record> records)
+		{
+			this.exporter = exporter;
+			this.schema = schema;
+			this.records = records;
+		}
+
+		@Override
+		public String getFileName()
+		{
+			return FileHelpers.makeValidFileName("for_upload_" + schema.getName() + "." + CSVRecordsExporter.FILE_EXTENSION);
+		}
+
+		@Override
+		public String getContentType()
+		{
+			return "text/csv";
+		}
+
+		/**
+		 * The CSV is generated once and kept in memory (it is small compared to the attachments), so that its length is
+		 * known and it can be sent in fixed-length mode, and so it does not have to be generated again when it is written.
+		 * 
+		 * @return the CSV bytes
+		 * @throws IOException
+		 */
+		private byte[] getCSV() throws IOException
+		{
+			if(csv == null)
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				exporter.export(schema, records, new BufferedWriter(UnicodeBOM.GetWriter(buffer, Charsets.UTF_8))); // with UTF-8 BOM, like CSV files written by the exporter
+				csv = buffer.toByteArray();
+			}
+			return csv;
+		}
+
+		@Override
+		public long getContentLength() throws IOException
+		{
+			return getCSV().length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException
+		{
+			out.write(getCSV());
+		}
+		
+	}
+	
+	/**
+	 * Uploads attachments of records over a bounded number of parallel connections, with retries.
+	 * 
+	 * @author mstevens
+	 */
+	private class AttachmentUploader
+	{
+		
+		private final ModelSession session;
+		private final ExecutorService executor;
+		private final List<Future<Boolean>> results;
+		private final int attempts;
+		private final UploadProgressListener listener;
+		private final AtomicInteger filesDone = new AtomicInteger(0);
+		private final AtomicInteger filesFailed = new AtomicInteger(0);
+		private final AtomicInteger filesScheduled = new AtomicInteger(0);
+		private final AtomicLong bytesDone = new AtomicLong(0);
+		private final AtomicLong bytesScheduled = new AtomicLong(0);
+		
+		public AttachmentUploader(ModelSession session, int expectedTasks)
+		{
+			this.session = session;
+			this.executor = Executors.newFixedThreadPool(maxParallelUploads);
+			this.results = new ArrayList<Future<Boolean>>(expectedTasks);
+			this.attempts = maxUploadAttempts;
+			this.listener = uploadProgressListener;
+		}
+		
+		public void schedule(final Record record, final List<? extends Attachment> attachments)
+		{
+			final int files = attachments.size();
+			long size = 0;
+			for(Attachment attachment : attachments)
+				size += attachment.file.length(); // 0 if the file does not exist
+			final long bytes = size;
+			filesScheduled.addAndGet(files);
+			bytesScheduled.addAndGet(bytes);
+			results.add(executor.submit(new Callable<Boolean>()
+			{
+				@Override
+				public Boolean call() throws Exception
+				{
+					boolean success = false;
+					for(int attempt = 1; !success && attempt <= attempts; attempt++)
+					{
+						if(attempt > 1)
+						{
+							client.logInfo("Retrying upload of attachments for record (PK: " + record.getReference().toString() + "), attempt " + attempt + "/" + attempts);
+							ThreadUtils.sleep(UPLOAD_RETRY_DELAY_MS * (attempt - 1)); // linear back-off
+						}
+						try
+						{
+							success = session.uploadAttachments(record, attachments);
+						}
+						catch(Exception e)
+						{
+							client.logError("Error upon uploading attachments for record (PK: " + record.getReference().toString() + ")", e);
+						}
+					}
+					if(success)
+					{
+						bytesDone.addAndGet(bytes);
+						filesDone.addAndGet(files);
+					}
+					else
+						filesFailed.addAndGet(files);
+					reportProgress();
+					return success;
+				}
+			}));
+			reportProgress();
+		}
+		
+		private void reportProgress()
+		{
+			if(listener != null)
+				listener.uploadProgress(filesDone.get(), filesFailed.get(), filesScheduled.get(), bytesDone.get(), bytesScheduled.get());
+		}
+		
+		/**
+		 * Waits for all scheduled uploads to finish and shuts down the executor.
+		 * 
+		 * @return whether all scheduled uploads succeeded
+		 */
+		public boolean awaitCompletion()
+		{
+			executor.shutdown();
+			boolean success = true;
+			for(Future<Boolean> result : results)
+			{
+				try
+				{
+					success &= result.get();
+				}
+				catch(InterruptedException ie)
+				{
+					executor.shutdownNow();
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				catch(ExecutionException ee)
+				{
+					success = false;
+				}
+			}
+			return success;
+		}
+		
+	}
+	
 }
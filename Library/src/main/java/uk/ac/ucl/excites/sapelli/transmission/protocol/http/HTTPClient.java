@@ -18,11 +18,167 @@
 
 package uk.ac.ucl.excites.sapelli.transmission.protocol.http;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+
 /**
- * @author mstevens
+ * Minimal, blocking HTTP client abstraction used by the transmission protocols.
+ * Implementations must be safe for use by multiple threads at once.
  *
+ * @author mstevens
  */
 public interface HTTPClient
 {
 
+	/**
+	 * @param url absolute URL
+	 * @param headers may be {@code null}
+	 * @return the server response
+	 * @throws IOException when the connection fails
+	 */
+	public Response get(String url, Map<String, String> headers) throws IOException;
+
+	/**
+	 * Posts a multipart/form-data request. {@link Body} contents are streamed straight into the
+	 * request (i.e. they are never buffered as a whole). When the lengths of all bodies are known
+	 * the request is sent with a Content-Length header, as not all servers accept chunked requests.
+	 *
+	 * @param url absolute URL
+	 * @param headers may be {@code null}
+	 * @param fields plain form fields, may be {@code null}
+	 * @param files file fields, may be {@code null}
+	 * @return the server response
+	 * @throws IOException when the connection fails or a {@link Body} cannot be written
+	 */
+	public Response post(String url, Map<String, String> headers, Map<String, String> fields, Map<String, Body> files) throws IOException;
+
+	/**
+	 * Content of a file field in a multipart request.
+	 *
+	 * @author mstevens
+	 */
+	public interface Body
+	{
+
+		public String getFileName();
+
+		public String getContentType();
+
+		/**
+		 * @return the number of bytes {@link #writeTo(OutputStream)} will write, or {@code -1} if this is not known in advance
+		 * @throws IOException
+		 */
+		public long getContentLength() throws IOException;
+
+		/**
+		 * Writes the content to the given stream, which must not be closed.
+		 *
+		 * @param out
+		 * @throws IOException
+		 */
+		public void writeTo(OutputStream out) throws IOException;
+
+	}
+
+	/**
+	 * {@link Body} backed by a file.
+	 *
+	 * @author mstevens
+	 */
+	public class FileBody implements Body
+	{
+
+		private final File file;
+		private final String contentType;
+
+		public FileBody(File file, String contentType)
+		{
+			this.file = file;
+			this.contentType = contentType;
+		}
+
+		@Override
+		public String getFileName()
+		{
+			return file.getName();
+		}
+
+		@Override
+		public String getContentType()
+		{
+			return contentType;
+		}
+
+		@Override
+		public long getContentLength()
+		{
+			return file.length();
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException
+		{
+			InputStream in = null;
+			try
+			{
+				in = new FileInputStream(file);
+				IOUtils.copy(in, out);
+			}
+			finally
+			{
+				StreamHelpers.SilentClose(in);
+			}
+		}
+
+	}
+
+	/**
+	 * @author mstevens
+	 */
+	public class Response
+	{
+
+		private final int statusCode;
+		private final String body;
+
+		public Response(int statusCode, String body)
+		{
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+
+		/**
+		 * @return the HTTP status code
+		 */
+		public int getStatusCode()
+		{
+			return statusCode;
+		}
+
+		/**
+		 * @return whether the status code is in the 2xx range
+		 */
+		public boolean isSuccessful()
+		{
+			return statusCode >= 200 && statusCode < 300;
+		}
+
+		/**
+		 * @return the response body (may be empty, never {@code null})
+		 */
+		public String getBody()
+		{
+			return body;
+		}
+
+	}
+
 }
@@ -0,0 +1,224 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ *
+ * Copyright 2012-2016 University College London - ExCiteS group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.protocol.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import uk.ac.ucl.excites.sapelli.shared.io.StreamHelpers;
+
+/**
+ * {@link HTTPClient} implementation on top of {@link HttpURLConnection}, which is available both on
+ * Android and on the JVM. Connections are kept alive and pooled by the platform, and multipart bodies
+ * are streamed so file contents are never buffered in memory: in fixed-length mode when the lengths of
+ * all bodies are known, in chunked mode otherwise.
+ *
+ * @author mstevens
+ */
+public class JavaHTTPClient implements HTTPClient
+{
+
+	// STATIC -----------------------------------------------------------------
+	static public final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+	static public final int DEFAULT_READ_TIMEOUT_MS = 60 * 1000;
+
+	static private final int CHUNK_SIZE = 16 * 1024;
+	static private final String CRLF = "\r\n";
+	static private final String TWO_HYPHENS = "--";
+
+	// DYNAMIC ----------------------------------------------------------------
+	private final int connectTimeoutMS;
+	private final int readTimeoutMS;
+
+	public JavaHTTPClient()
+	{
+		this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param connectTimeoutMS
+	 * @param readTimeoutMS
+	 */
+	public JavaHTTPClient(int connectTimeoutMS, int readTimeoutMS)
+	{
+		this.connectTimeoutMS = connectTimeoutMS;
+		this.readTimeoutMS = readTimeoutMS;
+	}
+
+	@Override
+	public Response get(String url, Map<String, String> headers) throws IOException
+	{
+		HttpURLConnection connection = openConnection(url, "GET", headers);
+		try
+		{
+			return readResponse(connection);
+		}
+		catch(IOException ioe)
+		{
+			connection.disconnect(); // don't put a broken connection back in the keep-alive pool
+			throw ioe;
+		}
+	}
+
+	@Override
+	public Response post(String url, Map<String, String> headers, Map<String, String> fields, Map<String, Body> files) throws IOException
+	{
+		HttpURLConnection connection = openConnection(url, "POST", headers);
+		try
+		{
+			String boundary = "----sapelli" + UUID.randomUUID().toString().replace("-", "");
+			connection.setDoOutput(true);
+			long contentLength = getContentLength(boundary, fields, files);
+			if(contentLength >= 0 && contentLength <= Integer.MAX_VALUE) // (the long variant requires Android API 19)
+				connection.setFixedLengthStreamingMode((int) contentLength);
+			else
+				connection.setChunkedStreamingMode(CHUNK_SIZE);
+			connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+			OutputStream out = connection.getOutputStream();
+			try
+			{
+				writeMultipart(out, boundary, fields, files, true);
+			}
+			finally
+			{
+				out.close();
+			}
+			return readResponse(connection);
+		}
+		catch(IOException ioe)
+		{
+			connection.disconnect(); // don't put a broken connection back in the keep-alive pool
+			throw ioe;
+		}
+	}
+
+	/**
+	 * @param boundary
+	 * @param fields
+	 * @param files
+	 * @return the length of the multipart request body in bytes, or -1 if the length of a {@link Body} is unknown
+	 * @throws IOException
+	 */
+	private long getContentLength(String boundary, Map<String, String> fields, Map<String, Body> files) throws IOException
+	{
+		long length = 0;
+		if(files != null)
+			for(Body body : files.values())
+			{
+				long bodyLength = body.getContentLength();
+				if(bodyLength < 0)
+					return -1;
+				length += bodyLength;
+			}
+		CountingOutputStream counter = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		writeMultipart(counter, boundary, fields, files, false);
+		return length + counter.getByteCount();
+	}
+
+	/**
+	 * @param out
+	 * @param boundary
+	 * @param fields
+	 * @param files
+	 * @param writeBodies when {@code false} only the parts surrounding the {@link Body} contents are written
+	 * @throws IOException
+	 */
+	private void writeMultipart(OutputStream out, String boundary, Map<String, String> fields, Map<String, Body> files, boolean writeBodies) throws IOException
+	{
+		if(fields != null)
+			for(Map.Entry<String, String> field : fields.entrySet())
+			{
+				writePartHeader(out, boundary, "form-data; name=\"" + field.getKey() + "\"", null);
+				write(out, field.getValue() != null ? field.getValue() : "");
+				write(out, CRLF);
+			}
+		if(files != null)
+			for(Map.Entry<String, Body> file : files.entrySet())
+			{
+				Body body = file.getValue();
+				writePartHeader(out, boundary, "form-data; name=\"" + file.getKey() + "\"; filename=\"" + body.getFileName() + "\"", body.getContentType());
+				if(writeBodies)
+					body.writeTo(out);
+				write(out, CRLF);
+			}
+		write(out, TWO_HYPHENS + boundary + TWO_HYPHENS + CRLF);
+	}
+
+	private HttpURLConnection openConnection(String url, String method, Map<String, String> headers) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(connectTimeoutMS);
+		connection.setReadTimeout(readTimeoutMS);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("Connection", "keep-alive");
+		if(headers != null)
+			for(Map.Entry<String, String> header : headers.entrySet())
+				connection.setRequestProperty(header.getKey(), header.getValue());
+		return connection;
+	}
+
+	private void writePartHeader(OutputStream out, String boundary, String contentDisposition, String contentType) throws IOException
+	{
+		write(out, TWO_HYPHENS + boundary + CRLF);
+		write(out, "Content-Disposition: " + contentDisposition + CRLF);
+		if(contentType != null)
+			write(out, "Content-Type: " + contentType + CRLF);
+		write(out, CRLF);
+	}
+
+	private void write(OutputStream out, String str) throws IOException
+	{
+		out.write(str.getBytes(Charsets.UTF_8));
+	}
+
+	/**
+	 * Reads the full response body, also in case of an error status, so that the underlying
+	 * connection can be returned to the keep-alive pool.
+	 *
+	 * @param connection
+	 * @return
+	 * @throws IOException
+	 */
+	private Response readResponse(HttpURLConnection connection) throws IOException
+	{
+		int statusCode = connection.getResponseCode();
+		InputStream in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		try
+		{
+			return new Response(statusCode, in != null ? IOUtils.toString(in, Charsets.UTF_8) : "");
+		}
+		finally
+		{
+			StreamHelpers.SilentClose(in);
+		}
+	}
+
+}
@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -56,6 +58,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.telephony.SmsManager;
 import android.telephony.SmsMessage;
 import android.util.Base64;
 import android.webkit.URLUtil;
@@ -69,6 +72,17 @@ import android.webkit.URLUtil;
 public class BackgroundService extends Service
 {
 
+	/**
+	 * Port on which binary SMS messages are received and to which they are sent
+	 */
+	private static final short BINARY_SMS_PORT = 2013;
+
+	/**
+	 * Number of times in a row an uploaded batch may be left entirely unacknowledged (e.g. because the server is overloaded) before we
+	 * give up until the next scheduled run
+	 */
+	private static final int MAX_BATCH_RETRIES = 3;
+
 	// Define some variables
 	private Context mContext;
 	private boolean mAllowRebind; // indicates whether onRebind should be used
@@ -156,9 +170,115 @@ public class BackgroundService extends Service
 	}
 
 	/**
-	 * Method to retrieve and try to post all the Sms Objects of the db
+	 * Method to retrieve and try to send all the Sms Objects of the db to the server
 	 */
 	private void sendSmsObjects()
+	{
+		if(Preferences.isBatchUpload(mContext))
+			uploadSmsBatches();
+		else
+			postSmsObjects();
+	}
+
+	/**
+	 * Method to upload all the unsent Sms Objects of the db in batches (oldest first), reusing the same connection. Acknowledged Sms
+	 * Objects are marked as sent per batch, in a single transaction.
+	 */
+	private void uploadSmsBatches()
+	{
+		if(SERVER_URL == null || !URLUtil.isValidUrl(SERVER_URL))
+		{
+			Debug.d("--!-- SERVER_URL ERROR --!--");
+			return;
+		}
+		SmsBatchUploader uploader;
+		try
+		{
+			uploader = new SmsBatchUploader(new URL(SERVER_URL), Preferences.getRelayID(mContext));
+		}
+		catch(MalformedURLException e)
+		{
+			Debug.e(e);
+			return;
+		}
+
+		int retries = 0;
+		List<SmsObject> batch;
+		while(!(batch = dao.getUnsentSms(SmsBatchUploader.DEFAULT_BATCH_SIZE)).isEmpty())
+		{
+			// Check if there is connectivity
+			if(!Utilities.isOnline(mContext))
+			{
+				Debug.d("No Internet Connection");
+				return;
+			}
+
+			SmsBatchUploader.Result result;
+			try
+			{
+				result = uploader.upload(batch);
+			}
+			catch(IOException e)
+			{
+				// Try again upon the next scheduled run (the batch ID makes resubmitting safe)
+				Debug.e(e);
+				return;
+			}
+			Debug.d("Uploaded batch of " + batch.size() + " SMS, acknowledged: " + result.acknowledged.size() + ", outgoing: " + result.outgoing.size());
+
+			// Update the sms table
+			dao.updateSent(result.acknowledged);
+
+			// Send the messages the server has for others
+			sendOutgoingSms(result.outgoing);
+
+			if(result.acknowledged.isEmpty())
+			{
+				// No progress was made, back off before resubmitting
+				if(++retries > MAX_BATCH_RETRIES)
+					return;
+				try
+				{
+					Thread.sleep(Math.max(1, result.retryAfterS) * 1000L);
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+			}
+			else
+				retries = 0;
+		}
+	}
+
+	/**
+	 * Sends SMS messages on behalf of the server
+	 * 
+	 * @param outgoing
+	 */
+	private void sendOutgoingSms(List<SmsBatchUploader.OutgoingSms> outgoing)
+	{
+		SmsManager smsManager = SmsManager.getDefault();
+		for(SmsBatchUploader.OutgoingSms sms : outgoing)
+		{
+			try
+			{
+				if(sms.binary)
+					smsManager.sendDataMessage(sms.receiver, null, BINARY_SMS_PORT, Base64.decode(sms.data, Base64.DEFAULT), null, null);
+				else
+					smsManager.sendMultipartTextMessage(sms.receiver, null, smsManager.divideMessage(sms.data), null, null);
+			}
+			catch(Exception e)
+			{
+				Debug.e(e);
+			}
+		}
+	}
+
+	/**
+	 * Method to retrieve and try to post all the Sms Objects of the db, one by one
+	 */
+	private void postSmsObjects()
 	{
 		List<SmsObject> smsList = dao.getUnsentSms();
 
@@ -350,7 +470,7 @@ public class BackgroundService extends Service
 		mIntentFilter.addAction("android.intent.action.DATA_SMS_RECEIVED");
 		mIntentFilter.addDataScheme("sms");
 		// Set the Port that is listening to
-		mIntentFilter.addDataAuthority("*", "2013");
+		mIntentFilter.addDataAuthority("*", String.valueOf(BINARY_SMS_PORT));
 		// mIntentFilter.addDataType(type)
 		registerReceiver(smsReceiver, mIntentFilter);
 		Debug.d("Set up BinarySMS receiver.");
@@ -18,6 +18,7 @@
 
 package uk.ac.ucl.excites.sapelli.relay;
 
+import java.util.UUID;
 import java.util.regex.Pattern;
 
 import uk.ac.ucl.excites.sapelli.relay.R;
@@ -79,6 +80,36 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
 		return Integer.parseInt(mSharedPreferences.getString("timeSchedule", "10"));
 	}
 
+	/**
+	 * Whether to upload messages to the server in compressed batches (rather than POSTing them one by one)
+	 * 
+	 * @param mContext
+	 * @return
+	 */
+	public static boolean isBatchUpload(Context mContext)
+	{
+		SharedPreferences mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		return mSharedPreferences.getBoolean("batchUpload", true);
+	}
+
+	/**
+	 * Get the ID which identifies this relay to the server, it is generated the first time it is needed
+	 * 
+	 * @param mContext
+	 * @return
+	 */
+	public static String getRelayID(Context mContext)
+	{
+		SharedPreferences mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		String relayID = mSharedPreferences.getString("relayID", null);
+		if(relayID == null)
+		{
+			relayID = UUID.randomUUID().toString();
+			mSharedPreferences.edit().putString("relayID", relayID).commit();
+		}
+		return relayID;
+	}
+
 	public static SharedPreferences getSharedPreferences(Context context)
 	{
 		SharedPreferences mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
@@ -109,7 +140,7 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
 				startService(mIntent);
 			}
 		}
-		else if(key.equals("timeSchedule"))
+		else if(key.equals("timeSchedule") || key.equals("batchUpload"))
 		{
 			// Call the Service
 			Intent mIntent = new Intent(this, BackgroundService.class);
@@ -122,5 +153,6 @@ public class Preferences extends PreferenceActivity implements OnSharedPreferenc
 		Debug.d("------------ Preferences: -------------");
 		Debug.d("ServerAddress: " + getServerAddress(context));
 		Debug.d("TimeSchedule: " + getTimeSchedule(context));
+		Debug.d("BatchUpload: " + isBatchUpload(context));
 	}
 }
\ No newline at end of file
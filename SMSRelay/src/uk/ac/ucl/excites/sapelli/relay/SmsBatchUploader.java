@@ -0,0 +1,297 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uk.ac.ucl.excites.sapelli.relay.sms.SmsObject;
+
+/**
+ * Uploads batches of {@link SmsObject}s to a Sapelli transmission server in a single gzip-compressed JSON request each.
+ * 
+ * Request: {@code {"messages": [{"id": "12", "sender": "+447700900123", "timestamp": 1453890000000, "binary": true, "data": "base64..."}, ...]}}<br/>
+ * Response: {@code {"results": [{"id": "12", "status": "ok"}, ...], "outgoing": [{"receiver": "+447700900123", "binary": true, "data": "base64..."}, ...]}}
+ * 
+ * Each request carries a batch ID derived from the relay ID and the ids of the SMSs in the batch, so that a batch which is resubmitted
+ * (e.g. because the response was lost) is recognised by the server instead of being received again.<br/>
+ * The same uploader (and thus, through {@link HttpURLConnection}'s connection pool, the same keep-alive connection) should be used to
+ * upload consecutive batches. This class only depends on the standard Java and org.json APIs, so it can be run against a local HTTP
+ * stand-in outside of Android.
+ * 
+ * @author mstevens
+ */
+public class SmsBatchUploader
+{
+
+	// STATICS ------------------------------------------------------
+	static public final int DEFAULT_BATCH_SIZE = 250;
+	static public final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+	static public final int DEFAULT_READ_TIMEOUT_MS = 90 * 1000;
+
+	static public final String HEADER_BATCH_ID = "X-Batch-ID";
+
+	static private final String CONTENT_TYPE_JSON = "application/json";
+	static private final String ENCODING_GZIP = "gzip";
+	static private final String UTF8 = "UTF-8";
+
+	static private final String STATUS_RETRY = "retry";
+
+	/**
+	 * The result of uploading a batch
+	 */
+	static public class Result
+	{
+
+		/**
+		 * SMSs which have been handled by the server (either received or rejected in a way resubmitting won't help)
+		 */
+		public final List<SmsObject> acknowledged = new ArrayList<SmsObject>();
+
+		/**
+		 * SMSs which must be resubmitted
+		 */
+		public final List<SmsObject> unacknowledged = new ArrayList<SmsObject>();
+
+		/**
+		 * Messages the server wants the relay to send
+		 */
+		public final List<OutgoingSms> outgoing = new ArrayList<OutgoingSms>();
+
+		/**
+		 * Number of seconds the server asked us to wait before retrying (0 if the batch was processed)
+		 */
+		public int retryAfterS = 0;
+
+	}
+
+	/**
+	 * A message to be sent by the relay on behalf of the server
+	 */
+	static public class OutgoingSms
+	{
+
+		public final String receiver;
+		public final boolean binary;
+
+		/**
+		 * Base64-encoded for binary messages
+		 */
+		public final String data;
+
+		public OutgoingSms(String receiver, boolean binary, String data)
+		{
+			this.receiver = receiver;
+			this.binary = binary;
+			this.data = data;
+		}
+
+	}
+
+	// DYNAMICS -----------------------------------------------------
+	private final URL url;
+	private final String relayID;
+
+	public SmsBatchUploader(URL url, String relayID)
+	{
+		this.url = url;
+		this.relayID = relayID;
+	}
+
+	/**
+	 * Uploads the given batch
+	 * 
+	 * @param batch
+	 * @return the result, with all SMSs unacknowledged (and {@link Result#retryAfterS} set) if the server was unable to process the batch
+	 * @throws IOException
+	 *             when the request fails or the response cannot be parsed
+	 */
+	public Result upload(List<SmsObject> batch) throws IOException
+	{
+		Result result = new Result();
+		if(batch.isEmpty())
+			return result;
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try
+		{
+			connection.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT_MS);
+			connection.setReadTimeout(DEFAULT_READ_TIMEOUT_MS);
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", CONTENT_TYPE_JSON + "; charset=" + UTF8);
+			connection.setRequestProperty("Content-Encoding", ENCODING_GZIP);
+			// Setting this ourselves disables transparent decompression on Android, we deal with it below:
+			connection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+			connection.setRequestProperty(HEADER_BATCH_ID, getBatchID(batch));
+
+			// Compress the request up front, to be able to send a Content-Length header (rather than using chunked streaming):
+			byte[] body = toRequestBody(batch);
+			connection.setFixedLengthStreamingMode(body.length);
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+
+			int status = connection.getResponseCode();
+			if(status == HttpURLConnection.HTTP_UNAVAILABLE)
+			{
+				result.unacknowledged.addAll(batch);
+				result.retryAfterS = parseRetryAfter(connection.getHeaderField("Retry-After"));
+				readFully(connection.getErrorStream()); // allows the connection to be reused
+				return result;
+			}
+			if(status != HttpURLConnection.HTTP_OK)
+			{
+				String error = readFully(connection.getErrorStream());
+				throw new IOException("Server responded with " + status + (error.isEmpty() ? "" : ": " + error));
+			}
+
+			InputStream in = connection.getInputStream();
+			if(ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding()))
+				in = new GZIPInputStream(in);
+			parseResponse(readFully(in), batch, result);
+			return result;
+		}
+		catch(JSONException e)
+		{
+			throw new IOException("Invalid response: " + e.getMessage());
+		}
+		// Note: we don't call connection.disconnect() as that would close the underlying (keep-alive) connection
+	}
+
+	/**
+	 * The batch ID only depends on the relay and the SMSs in the batch, so resubmitting the same SMSs results in the same ID.
+	 * 
+	 * @param batch
+	 * @return
+	 */
+	protected String getBatchID(List<SmsObject> batch)
+	{
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		int hash = 1;
+		for(SmsObject sms : batch)
+		{
+			first = Math.min(first, sms.getId());
+			last = Math.max(last, sms.getId());
+			hash = 31 * hash + (int) (sms.getId() ^ (sms.getId() >>> 32));
+		}
+		return relayID + ":" + first + "-" + last + ":" + batch.size() + ":" + Integer.toHexString(hash);
+	}
+
+	private byte[] toRequestBody(List<SmsObject> batch) throws IOException, JSONException
+	{
+		JSONArray messages = new JSONArray();
+		for(SmsObject sms : batch)
+		{
+			JSONObject message = new JSONObject();
+			message.put("id", String.valueOf(sms.getId()));
+			message.put("sender", sms.getTelephoneNumber());
+			message.put("timestamp", sms.getMessageTimestamp());
+			message.put("binary", true);
+			message.put("data", sms.getMessageData());
+			messages.put(message);
+		}
+		JSONObject request = new JSONObject();
+		request.put("messages", messages);
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+		gzip.write(request.toString().getBytes(UTF8));
+		gzip.close();
+		return buffer.toByteArray();
+	}
+
+	private void parseResponse(String body, List<SmsObject> batch, Result result) throws JSONException
+	{
+		Map<String, SmsObject> byID = new HashMap<String, SmsObject>();
+		for(SmsObject sms : batch)
+			byID.put(String.valueOf(sms.getId()), sms);
+
+		JSONObject response = new JSONObject(body);
+		JSONArray results = response.optJSONArray("results");
+		for(int r = 0; results != null && r < results.length(); r++)
+		{
+			JSONObject smsResult = results.getJSONObject(r);
+			SmsObject sms = byID.get(smsResult.optString("id"));
+			// "ok", "error" and "invalid" all mean the SMS is handled (resubmitting the latter two won't help):
+			if(sms != null && !STATUS_RETRY.equals(smsResult.optString("status", STATUS_RETRY)))
+			{
+				result.acknowledged.add(sms);
+				byID.remove(smsResult.optString("id"));
+			}
+		}
+		for(SmsObject sms : batch)
+			if(byID.containsKey(String.valueOf(sms.getId())))
+				result.unacknowledged.add(sms);
+
+		JSONArray outgoing = response.optJSONArray("outgoing");
+		for(int o = 0; outgoing != null && o < outgoing.length(); o++)
+		{
+			JSONObject message = outgoing.getJSONObject(o);
+			result.outgoing.add(new OutgoingSms(message.getString("receiver"), message.optBoolean("binary", true), message.getString("data")));
+		}
+	}
+
+	static private int parseRetryAfter(String value)
+	{
+		try
+		{
+			return value != null ? Math.max(1, Integer.parseInt(value.trim())) : 1;
+		}
+		catch(NumberFormatException e)
+		{
+			return 1;
+		}
+	}
+
+	static private String readFully(InputStream in) throws IOException
+	{
+		if(in == null)
+			return "";
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try
+		{
+			byte[] bytes = new byte[4096];
+			int read;
+			while((read = in.read(bytes)) != -1)
+				buffer.write(bytes, 0, read);
+		}
+		finally
+		{
+			in.close();
+		}
+		return new String(buffer.toByteArray(), UTF8);
+	}
+
+}
@@ -32,6 +32,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Environment;
 import android.widget.Toast;
 
@@ -142,16 +143,61 @@ public class SmsDatabaseSQLite extends SQLiteOpenHelper
 		db.close();
 	}
 
+	/**
+	 * Update the Sent info of a list of SmsObjects, in a single transaction
+	 * 
+	 * @param smsList
+	 */
+	public void updateSent(List<SmsObject> smsList)
+	{
+		if(smsList.isEmpty())
+			return;
+
+		SQLiteDatabase db = this.getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_SMS + " SET " + KEY_SENT + "=? WHERE " + KEY_ID + "=?");
+			long now = System.currentTimeMillis();
+			for(SmsObject sms : smsList)
+			{
+				statement.clearBindings();
+				statement.bindLong(1, now);
+				statement.bindLong(2, sms.getId());
+				statement.execute();
+			}
+			statement.close();
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+			db.close();
+		}
+	}
+
 	/**
 	 * Retrieve all SmsObjects
 	 * 
 	 * @return
 	 */
 	public List<SmsObject> getUnsentSms()
+	{
+		return getUnsentSms(0);
+	}
+
+	/**
+	 * Retrieve the oldest unsent SmsObjects
+	 * 
+	 * @param limit
+	 *            maximum number of SmsObjects to return (0 for all)
+	 * @return
+	 */
+	public List<SmsObject> getUnsentSms(int limit)
 	{
 		List<SmsObject> smsList = new ArrayList<SmsObject>();
 
-		String selectQuery = "SELECT * FROM " + TABLE_SMS + " WHERE " + KEY_SENT + " IS NULL";
+		String selectQuery = "SELECT * FROM " + TABLE_SMS + " WHERE " + KEY_SENT + " IS NULL ORDER BY " + KEY_ID + (limit > 0 ? " LIMIT " + limit : "");
 
 		SQLiteDatabase db = this.getWritableDatabase();
 		Cursor cursor = db.rawQuery(selectQuery, null);
@@ -167,6 +213,7 @@ public class SmsDatabaseSQLite extends SQLiteOpenHelper
 			smsList.add(sms);
 		}
 
+		cursor.close();
 		db.close();
 		Debug.d("Found: " + smsList.size());
 
@@ -0,0 +1,381 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+import uk.ac.ucl.excites.sapelli.collector.CollectorClient;
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.io.FileStorageException;
+import uk.ac.ucl.excites.sapelli.shared.util.Logger;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.transmission.control.TransmissionController;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.InvalidMessageException;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.Message;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.SMSCorrespondent;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.binary.BinaryMessage;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.text.TextMessage;
+import uk.ac.ucl.excites.sapelli.transmission.protocol.geokey.GeoKeyClient;
+import uk.ac.ucl.excites.sapelli.transmission.protocol.sms.SMSClient;
+
+/**
+ * {@link TransmissionController} for use on a machine without a GSM modem, such as a server which receives SMS messages through a relay.
+ * 
+ * Outgoing SMS messages (ACKs, resend requests, etc.) are not sent but captured in an outbox, from which they must be taken
+ * (see {@link #takeOutgoing()}) in order to be handed to a relay. Messages are only marked as sent when they are taken, so that
+ * messages created within a transaction which is rolled back (see {@link #rollbackTransaction()}) can be discarded without a trace.
+ * Messages taken upon committing a transaction (see {@link #commitTransaction()}) are not marked as sent until the relay has actually
+ * received them (see {@link #markSent(List)}).
+ * 
+ * GeoKey transmissions are not supported.
+ * 
+ * @author mstevens
+ */
+public class HeadlessTransmissionController extends TransmissionController
+{
+
+	// STATICS ------------------------------------------------------
+	static public final String APPLICATION_INFO = "Sapelli Transmission Server";
+	
+	/**
+	 * An SMS message which is ready to be sent by a relay.
+	 * 
+	 * @author mstevens
+	 */
+	static public class OutgoingSMS
+	{
+		
+		public final SMSCorrespondent receiver;
+		
+		public final Message<?, ?> message;
+		
+		public OutgoingSMS(SMSCorrespondent receiver, Message<?, ?> message)
+		{
+			this.receiver = receiver;
+			this.message = message;
+		}
+		
+		/**
+		 * @return the phone number of the receiver in E164 format
+		 */
+		public String getReceiverNumber()
+		{
+			return SMSCorrespondent.formatDialable(receiver.getPhoneNumber());
+		}
+		
+		public boolean isBinary()
+		{
+			return message instanceof BinaryMessage;
+		}
+		
+		/**
+		 * @return the full content (header + body) of the binary message
+		 * @throws InvalidMessageException
+		 */
+		public byte[] getBinaryContent() throws InvalidMessageException
+		{
+			return ((BinaryMessage) message).getContent();
+		}
+		
+		/**
+		 * @return the full content (header + body) of the text message
+		 * @throws InvalidMessageException
+		 */
+		public String getTextContent() throws InvalidMessageException
+		{
+			return ((TextMessage) message).getContent();
+		}
+		
+	}
+	
+	// DYNAMICS -----------------------------------------------------
+	private final CollectorClient client;
+	private final boolean logToFile;
+	
+	private final List<OutgoingSMS> outbox = new ArrayList<OutgoingSMS>();
+	private final SMSClient smsClient = new SMSClient()
+	{
+		
+		@Override
+		public boolean send(SMSCorrespondent receiver, BinaryMessage binarySMS)
+		{
+			return capture(receiver, binarySMS);
+		}
+
+		@Override
+		public boolean send(SMSCorrespondent receiver, TextMessage textSMS)
+		{
+			return capture(receiver, textSMS);
+		}
+		
+	};
+	
+	private ScheduledExecutorService resendRequestScheduler;
+	private final Map<Integer, ScheduledFuture<?>> scheduledResendRequests = new HashMap<Integer, ScheduledFuture<?>>();
+	private Executor resendRequestExecutor;
+	
+	/**
+	 * @param client
+	 * @param logToFile whether or not to keep a transmission log (in the logs folder of the client)
+	 * @throws DBException
+	 */
+	public HeadlessTransmissionController(CollectorClient client, boolean logToFile) throws DBException
+	{
+		super(client);
+		this.client = client;
+		this.logToFile = logToFile;
+		initialise();
+	}
+	
+	/**
+	 * @return the client
+	 */
+	public CollectorClient getClient()
+	{
+		return client;
+	}
+	
+	@Override
+	protected File getLogsFolder() throws FileStorageException
+	{
+		return client.getFileStorageProvider().getLogsFolder(true);
+	}
+	
+	/**
+	 * Unlike on a device the log is not echoed to the console, and lines are dropped rather than stalling reception when the log writer falls behind.
+	 * 
+	 * @see uk.ac.ucl.excites.sapelli.transmission.control.TransmissionController#createLogger(java.io.File)
+	 */
+	@Override
+	protected Logger createLogger(File logsFolder) throws FileStorageException, IOException
+	{
+		if(!logToFile)
+			return null;
+		return new Logger(logsFolder.getAbsolutePath(), LOG_FILENAME_PREFIX + DateTime.now().toString("yyyy-MM-dd"), true, false, Logger.DEFAULT_ASYNC_BUFFER_CAPACITY, Logger.OverflowPolicy.DROP);
+	}
+
+	@Override
+	public SMSClient getSMSClient()
+	{
+		return smsClient;
+	}
+
+	/**
+	 * @return null, GeoKey transmissions are not supported
+	 * @see uk.ac.ucl.excites.sapelli.transmission.control.TransmissionController#getGeoKeyClient()
+	 */
+	@Override
+	public GeoKeyClient getGeoKeyClient()
+	{
+		return null;
+	}
+
+	@Override
+	protected String getApplicationInfo()
+	{
+		return APPLICATION_INFO;
+	}
+	
+	private synchronized boolean capture(SMSCorrespondent receiver, Message<?, ?> message)
+	{
+		outbox.add(new OutgoingSMS(receiver, message));
+		return true;
+	}
+	
+	/**
+	 * Takes all messages from the outbox and marks them as sent.
+	 * When called within a transaction the marking is part of that transaction.
+	 * 
+	 * @return the messages which were in the outbox
+	 */
+	public synchronized List<OutgoingSMS> takeOutgoing()
+	{
+		List<OutgoingSMS> taken = takeCaptured();
+		markSent(taken);
+		return taken;
+	}
+	
+	private List<OutgoingSMS> takeCaptured()
+	{
+		if(outbox.isEmpty())
+			return Collections.<OutgoingSMS> emptyList();
+		List<OutgoingSMS> taken = new ArrayList<OutgoingSMS>(outbox);
+		outbox.clear();
+		return taken;
+	}
+	
+	/**
+	 * Marks the given messages, which were taken from the outbox, as sent.
+	 * When called within a transaction the marking is part of that transaction.
+	 * 
+	 * @param messages
+	 */
+	public synchronized void markSent(List<OutgoingSMS> messages)
+	{
+		for(OutgoingSMS sms : messages)
+			sms.message.getTransmission().getSentCallback().onSent(sms.message.getPartNumber());
+	}
+	
+	/**
+	 * Starts a transaction on the RecordStore which is shared by the TransmissionStore and the received records.
+	 * 
+	 * @throws DBException
+	 */
+	public synchronized void startTransaction() throws DBException
+	{
+		recordStore.startTransaction();
+	}
+	
+	/**
+	 * @return whether or not there is an open transaction (stores roll back all open transactions when an operation fails)
+	 */
+	public synchronized boolean isInTransaction()
+	{
+		return recordStore.isInTransaction();
+	}
+	
+	/**
+	 * Takes the messages from the outbox and commits the current transaction.
+	 * Unlike {@link #takeOutgoing()} this does not mark the messages as sent, that is up to the caller once they have been handed
+	 * to a relay (see {@link #markSent(List)}). If this method throws an exception the caller must call {@link #rollbackTransaction()}.
+	 * 
+	 * @return the messages which were in the outbox (not yet marked as sent)
+	 * @throws DBException
+	 */
+	public synchronized List<OutgoingSMS> commitTransaction() throws DBException
+	{
+		List<OutgoingSMS> taken = takeCaptured();
+		recordStore.commitTransaction();
+		return taken;
+	}
+	
+	/**
+	 * Rolls back all open transactions, discards the outbox and clears the TransmissionStore caches.
+	 */
+	public synchronized void rollbackTransaction()
+	{
+		try
+		{
+			recordStore.rollbackTransactions();
+		}
+		catch(DBException e)
+		{
+			client.logError("Error upon rolling back transaction", e);
+		}
+		outbox.clear();
+		transmissionStore.clearCache();
+	}
+	
+	/**
+	 * @param resendRequestExecutor the executor on which scheduled resend requests will be sent, if null they are sent on the scheduler thread
+	 */
+	public synchronized void setResendRequestExecutor(Executor resendRequestExecutor)
+	{
+		this.resendRequestExecutor = resendRequestExecutor;
+	}
+	
+	@Override
+	public synchronized void scheduleSMSResendRequest(final int localID, TimeStamp time)
+	{
+		if(time == null)
+			return;
+		
+		// Replace existing request:
+		cancelSMSResendRequest(localID);
+		
+		if(resendRequestScheduler == null)
+		{
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "SMSResendRequestScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.setRemoveOnCancelPolicy(true);
+			resendRequestScheduler = scheduler;
+		}
+		
+		final Runnable sendRequest = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				sendSMSResendRequest(localID, false);
+			}
+		};
+		long delayMS = Math.max(0, time.getMsSinceEpoch() - System.currentTimeMillis());
+		scheduledResendRequests.put(localID, resendRequestScheduler.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				synchronized(HeadlessTransmissionController.this)
+				{
+					scheduledResendRequests.remove(localID);
+				}
+				if(resendRequestExecutor != null)
+					resendRequestExecutor.execute(sendRequest);
+				else
+					sendRequest.run();
+			}
+		}, delayMS, TimeUnit.MILLISECONDS));
+	}
+
+	@Override
+	protected synchronized void cancelSMSResendRequest(int localID)
+	{
+		ScheduledFuture<?> request = scheduledResendRequests.remove(localID);
+		if(request != null)
+			request.cancel(false);
+	}
+	
+	@Override
+	public void discard()
+	{
+		synchronized(this)
+		{
+			if(resendRequestScheduler != null)
+			{
+				resendRequestScheduler.shutdownNow();
+				resendRequestScheduler = null;
+			}
+			scheduledResendRequests.clear();
+		}
+		super.discard();
+	}
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.util.Locale;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.transmission.control.TransmissionController;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.Message;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.SMSCorrespondent;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.binary.BinaryMessage;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.text.TextMessage;
+
+/**
+ * An SMS message as handed to the server by a relay, together with the outcome of processing it.
+ * 
+ * Instances are created on the HTTP threads, while the conversion to {@link Message} objects (which requires database
+ * access to look up the sender) and the actual reception happen on the {@link IncomingSMSProcessor} thread.
+ * 
+ * @author mstevens
+ */
+public class IncomingSMS
+{
+
+	// STATICS ------------------------------------------------------
+	static public enum Status
+	{
+		/**
+		 * Not processed (yet)
+		 */
+		Pending,
+		
+		/**
+		 * Message was received and stored
+		 */
+		OK,
+		
+		/**
+		 * Message was parsed but could not be received (e.g. because the transmission it completes could not be decoded), resubmitting it will not help
+		 */
+		Error,
+		
+		/**
+		 * Message could not be parsed (e.g. invalid header, sender or encoding), resubmitting it will not help
+		 */
+		Invalid,
+		
+		/**
+		 * Message was not (durably) received due to a database problem or server overload, it should be resubmitted later
+		 */
+		Retry;
+		
+		/**
+		 * @return the key used to represent the status in JSON responses
+		 */
+		public String getKey()
+		{
+			return name().toLowerCase(Locale.ENGLISH);
+		}
+		
+	}
+	
+	// DYNAMICS -----------------------------------------------------
+	/**
+	 * Relay-assigned identifier (may be null), only used to correlate results
+	 */
+	public final String id;
+	
+	/**
+	 * Phone number of the sender, international format unless a default country is configured on the server
+	 */
+	public final String sender;
+	
+	/**
+	 * Time of reception by the relay (ms since the epoch), may be null
+	 */
+	public final Long receivedAt;
+	
+	public final boolean binary;
+	
+	private final byte[] binaryContent;
+	
+	private final String textContent;
+	
+	private volatile Status status = Status.Pending;
+	
+	private volatile String error;
+	
+	/**
+	 * @param id
+	 * @param sender
+	 * @param receivedAt
+	 * @param binaryContent
+	 */
+	public IncomingSMS(String id, String sender, Long receivedAt, byte[] binaryContent)
+	{
+		this(id, sender, receivedAt, true, binaryContent, null);
+	}
+	
+	/**
+	 * @param id
+	 * @param sender
+	 * @param receivedAt
+	 * @param textContent
+	 */
+	public IncomingSMS(String id, String sender, Long receivedAt, String textContent)
+	{
+		this(id, sender, receivedAt, false, null, textContent);
+	}
+	
+	private IncomingSMS(String id, String sender, Long receivedAt, boolean binary, byte[] binaryContent, String textContent)
+	{
+		this.id = id;
+		this.sender = sender;
+		this.receivedAt = receivedAt;
+		this.binary = binary;
+		this.binaryContent = binaryContent;
+		this.textContent = textContent;
+	}
+	
+	/**
+	 * Creates the {@link Message} object representing this SMS, looking up the sender in the controller's TransmissionStore.
+	 * Must be called on the thread which owns the controller's stores.
+	 * 
+	 * @param controller
+	 * @param defaultCountryISOCode the ISO 3166-1 two-letter region code to assume for numbers which are not in international format, may be null
+	 * @return
+	 * @throws Exception when the sender or the content is invalid, or when the sender cannot be looked up
+	 */
+	public Message<?, ?> toMessage(TransmissionController controller, String defaultCountryISOCode) throws Exception
+	{
+		if(sender == null)
+			throw new IllegalArgumentException("No sender given");
+		if((binary ? binaryContent : textContent) == null)
+			throw new IllegalArgumentException("No content given");
+		PhoneNumber phoneNumber = SMSCorrespondent.toPhoneNumber(sender, defaultCountryISOCode); // throws IllegalArgumentException
+		SMSCorrespondent correspondent = controller.getSendingCorrespondentFor(phoneNumber, binary);
+		TimeStamp at = receivedAt != null ? new TimeStamp(receivedAt) : TimeStamp.now();
+		if(binary)
+			return new BinaryMessage(correspondent, binaryContent, at);
+		else
+			return new TextMessage(correspondent, textContent, at);
+	}
+	
+	/**
+	 * @return the binaryContent, or null if this is a text message
+	 */
+	public byte[] getBinaryContent()
+	{
+		return binaryContent;
+	}
+	
+	/**
+	 * @return the textContent, or null if this is a binary message
+	 */
+	public String getTextContent()
+	{
+		return textContent;
+	}
+	
+	/**
+	 * @return the status
+	 */
+	public Status getStatus()
+	{
+		return status;
+	}
+	
+	/**
+	 * @return a description of the error which occurred while processing this message, or null
+	 */
+	public String getError()
+	{
+		return error;
+	}
+	
+	public void setStatus(Status status)
+	{
+		setStatus(status, (String) null);
+	}
+	
+	public void setStatus(Status status, Throwable cause)
+	{
+		setStatus(status, cause != null ? ExceptionHelpers.getMessageAndCause(cause) : null);
+	}
+	
+	public void setStatus(Status status, String error)
+	{
+		this.status = status;
+		this.error = error;
+	}
+	
+}
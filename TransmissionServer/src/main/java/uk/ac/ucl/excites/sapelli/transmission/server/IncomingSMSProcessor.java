@@ -0,0 +1,374 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.ucl.excites.sapelli.shared.db.exceptions.DBException;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Counter;
+import uk.ac.ucl.excites.sapelli.shared.metrics.Histogram;
+import uk.ac.ucl.excites.sapelli.shared.metrics.MetricsRegistry;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.InvalidMessageException;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.Message;
+import uk.ac.ucl.excites.sapelli.transmission.server.HeadlessTransmissionController.OutgoingSMS;
+import uk.ac.ucl.excites.sapelli.transmission.server.IncomingSMS.Status;
+
+/**
+ * Receives the messages in submitted {@link SMSBatch}es, on a single thread which is the only one to use the controller's stores.
+ * 
+ * Batches which are waiting in the queue are grouped, up to a maximum number of messages, and the messages of a group are received
+ * within a single transaction ("group commit"), which saves a database commit (and thus a disk sync) per message. Only when that
+ * transaction cannot be committed, or is rolled back by a store after a database error, the messages of the group are received again,
+ * each in a transaction of its own, so that a single problematic message cannot cause the others to be lost.
+ * 
+ * Outgoing messages (ACKs, resend requests, etc.) are only released to the outbox (see {@link #takeOutgoing(int)}) once the
+ * transaction in which they were created has been committed. They are only marked as sent once the relay has received them
+ * (see {@link #confirmSent(List)}), and are returned to the outbox when handing them to the relay fails (see {@link #requeue(List)}).
+ * 
+ * @author mstevens
+ */
+public class IncomingSMSProcessor implements Executor
+{
+
+	// STATICS ------------------------------------------------------
+	static public final int DEFAULT_MAX_GROUP_SIZE = 1000; // messages
+	static public final int DEFAULT_QUEUE_CAPACITY = 50000; // messages
+	
+	static private final long POLL_INTERVAL_MS = 100;
+	
+	// Metrics:
+	static private final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+	static private final Histogram GROUP_SIZE = METRICS.histogram("ingest.group.size", Histogram.UNIT_COUNT);
+	static private final Histogram GROUP_LATENCY = METRICS.histogram("ingest.group.latency", Histogram.UNIT_NANOSECONDS);
+	static private final Counter MESSAGES_RECEIVED = METRICS.counter("ingest.messages.received");
+	static private final Counter MESSAGES_NOT_RECEIVED = METRICS.counter("ingest.messages.notreceived");
+	static private final Counter GROUPS_ABORTED = METRICS.counter("ingest.group.aborted");
+	
+	// DYNAMICS -----------------------------------------------------
+	private final HeadlessTransmissionController controller;
+	private final String defaultCountryISOCode;
+	private final int maxGroupSize;
+	private final int maxBatchSize;
+	private final Semaphore capacity;
+	
+	private final BlockingQueue<SMSBatch> batches = new LinkedBlockingQueue<SMSBatch>();
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final Deque<OutgoingSMS> outbox = new ConcurrentLinkedDeque<OutgoingSMS>();
+	
+	private Future<?> loop;
+	private volatile boolean running = false;
+	
+	/**
+	 * @param controller
+	 * @param defaultCountryISOCode the ISO 3166-1 two-letter region code to assume for sender numbers which are not in international format, may be null
+	 * @param maxGroupSize maximum number of messages to receive in a single transaction
+	 * @param queueCapacity maximum number of messages waiting to be processed, further batches are refused
+	 */
+	public IncomingSMSProcessor(HeadlessTransmissionController controller, String defaultCountryISOCode, int maxGroupSize, int queueCapacity)
+	{
+		this.controller = controller;
+		this.defaultCountryISOCode = defaultCountryISOCode;
+		this.maxGroupSize = Math.max(1, maxGroupSize);
+		this.maxBatchSize = Math.max(this.maxGroupSize, queueCapacity);
+		this.capacity = new Semaphore(maxBatchSize);
+	}
+	
+	/**
+	 * @param storeExecutor single-threaded executor on which the controller's stores were opened, the processing loop is run on it
+	 * 			(a SQLite4Java connection can only be used on the thread which opened it)
+	 */
+	public void start(ExecutorService storeExecutor)
+	{
+		running = true;
+		loop = storeExecutor.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				processLoop();
+			}
+		});
+	}
+	
+	/**
+	 * Stops accepting new batches, processes those which are already queued and waits for the processing loop to finish.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException
+	{
+		running = false;
+		if(loop == null)
+			return;
+		try
+		{
+			loop.get();
+		}
+		catch(ExecutionException ee)
+		{
+			controller.getClient().logError("Error in processing loop", ee.getCause());
+		}
+	}
+	
+	/**
+	 * @return the maximum number of messages in a batch, larger batches can never be accepted (see {@link #submit(SMSBatch)})
+	 */
+	public int getMaxBatchSize()
+	{
+		return maxBatchSize;
+	}
+	
+	/**
+	 * @param batch
+	 * @return whether the batch was accepted, if not the server is stopping or overloaded and the batch should be resubmitted later
+	 * 			(unless it is larger than {@link #getMaxBatchSize()})
+	 */
+	public boolean submit(SMSBatch batch)
+	{
+		if(!running || !capacity.tryAcquire(batch.size()))
+			return false;
+		batches.add(batch);
+		return true;
+	}
+	
+	/**
+	 * Runs the given task on the processing thread, within a transaction of its own.
+	 * Used to send scheduled resend requests.
+	 * 
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		tasks.add(task);
+	}
+	
+	/**
+	 * @param max maximum number of messages to take
+	 * @return outgoing messages which are to be sent by the relay, the caller must pass them to either {@link #confirmSent(List)} or {@link #requeue(List)}
+	 */
+	public List<OutgoingSMS> takeOutgoing(int max)
+	{
+		List<OutgoingSMS> taken = null;
+		OutgoingSMS sms;
+		while((taken == null || taken.size() < max) && (sms = outbox.poll()) != null)
+		{
+			if(taken == null)
+				taken = new ArrayList<OutgoingSMS>();
+			taken.add(sms);
+		}
+		return taken != null ? taken : Collections.<OutgoingSMS> emptyList();
+	}
+	
+	/**
+	 * Marks the given messages, taken from the outbox and received by the relay, as sent.
+	 * This happens on the processing thread, within a transaction of its own.
+	 * 
+	 * @param messages
+	 */
+	public void confirmSent(final List<OutgoingSMS> messages)
+	{
+		if(messages.isEmpty())
+			return;
+		execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				controller.markSent(messages);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the given messages, taken from the outbox but not received by the relay, to the front of the outbox.
+	 * 
+	 * @param messages
+	 */
+	public void requeue(List<OutgoingSMS> messages)
+	{
+		for(ListIterator<OutgoingSMS> i = messages.listIterator(messages.size()); i.hasPrevious();)
+			outbox.addFirst(i.previous());
+	}
+	
+	private void processLoop()
+	{
+		List<SMSBatch> group = new ArrayList<SMSBatch>();
+		List<IncomingSMS> messages = new ArrayList<IncomingSMS>(maxGroupSize);
+		while(running || !batches.isEmpty())
+		{
+			runTasks();
+			
+			// Wait for the next batch:
+			SMSBatch batch;
+			try
+			{
+				batch = batches.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException ie)
+			{
+				continue;
+			}
+			if(batch == null)
+				continue;
+			
+			// Group with waiting batches (single consumer, so peek-then-poll is safe):
+			group.add(batch);
+			messages.addAll(batch.getMessages());
+			while((batch = batches.peek()) != null && messages.size() + batch.size() <= maxGroupSize)
+			{
+				group.add(batches.poll());
+				messages.addAll(batch.getMessages());
+			}
+			
+			process(messages);
+			
+			// Release capacity & wake up waiting request handlers:
+			for(SMSBatch done : group)
+			{
+				capacity.release(done.size());
+				done.complete();
+			}
+			group.clear();
+			messages.clear();
+		}
+		runTasks();
+	}
+	
+	private void process(List<IncomingSMS> messages)
+	{
+		long startNS = GROUP_LATENCY.startTimer();
+		GROUP_SIZE.record(messages.size());
+		if(!receiveInTransaction(messages) && messages.size() > 1)
+		{
+			GROUPS_ABORTED.increment();
+			// Receive messages one by one:
+			List<IncomingSMS> single = new ArrayList<IncomingSMS>(1);
+			for(IncomingSMS sms : messages)
+			{
+				single.add(sms);
+				receiveInTransaction(single);
+				single.clear();
+			}
+		}
+		for(IncomingSMS sms : messages)
+		{
+			if(sms.getStatus() == Status.OK)
+				MESSAGES_RECEIVED.increment();
+			else
+				MESSAGES_NOT_RECEIVED.increment();
+		}
+		GROUP_LATENCY.recordSince(startNS);
+	}
+	
+	/**
+	 * @param messages
+	 * @return whether the transaction was committed
+	 */
+	private boolean receiveInTransaction(List<IncomingSMS> messages)
+	{
+		try
+		{
+			controller.startTransaction();
+			for(IncomingSMS sms : messages)
+			{
+				receive(sms);
+				if(!controller.isInTransaction())
+					throw new DBException("Transaction was rolled back upon receiving message" + (sms.id != null ? " " + sms.id : ""));
+			}
+			outbox.addAll(controller.commitTransaction());
+			return true;
+		}
+		catch(Exception e)
+		{
+			controller.rollbackTransaction();
+			for(IncomingSMS sms : messages)
+				if(sms.getStatus() != Status.Invalid) // (invalid ones will be invalid next time as well)
+					sms.setStatus(Status.Retry, e);
+			controller.getClient().logError("Error upon receiving " + messages.size() + " message(s)", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * @param sms
+	 * @throws Exception when the message could not be received for reasons other than its content (e.g. a database error), the transaction must then be rolled back
+	 */
+	private void receive(IncomingSMS sms) throws Exception
+	{
+		if(sms.getStatus() == Status.Invalid) // e.g. undecodable content
+			return;
+		Message<?, ?> msg;
+		try
+		{
+			msg = sms.toMessage(controller, defaultCountryISOCode);
+		}
+		catch(IllegalArgumentException | InvalidMessageException e)
+		{	// only problems with the message itself make it invalid, others (e.g. a DBException upon looking up the sender) are thrown so the message is retried
+			sms.setStatus(Status.Invalid, e);
+			return;
+		}
+		if(!controller.isInTransaction()) // the store rolled back upon looking up the sender
+			throw new DBException("Transaction was rolled back upon looking up the sender of message" + (sms.id != null ? " " + sms.id : ""));
+		try
+		{
+			controller.receiveSMS(msg);
+			sms.setStatus(Status.OK);
+		}
+		catch(Exception e)
+		{	// Note: exceptions thrown while decoding/handling a completed transmission do not affect the storage of the message itself
+			sms.setStatus(Status.Error, e);
+		}
+	}
+	
+	private void runTasks()
+	{
+		Runnable task;
+		while((task = tasks.poll()) != null)
+		{
+			try
+			{
+				controller.startTransaction();
+				task.run();
+				outbox.addAll(controller.commitTransaction());
+			}
+			catch(Exception e)
+			{
+				controller.rollbackTransaction();
+				controller.getClient().logError("Error upon running task", e);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,97 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of {@link IncomingSMS}s, as submitted in a single request by a relay.
+ * 
+ * @author mstevens
+ */
+public class SMSBatch
+{
+
+	private final List<IncomingSMS> messages;
+	private final CountDownLatch done = new CountDownLatch(1);
+	
+	public SMSBatch(List<IncomingSMS> messages)
+	{
+		this.messages = Collections.unmodifiableList(messages);
+	}
+	
+	/**
+	 * @return the messages
+	 */
+	public List<IncomingSMS> getMessages()
+	{
+		return messages;
+	}
+	
+	public int size()
+	{
+		return messages.size();
+	}
+	
+	/**
+	 * Called by the {@link IncomingSMSProcessor} once all messages have been processed
+	 */
+	void complete()
+	{
+		done.countDown();
+	}
+	
+	/**
+	 * @return whether all messages have been processed
+	 */
+	public boolean isComplete()
+	{
+		return done.getCount() == 0;
+	}
+	
+	/**
+	 * @return whether the batch has been processed but (some of) its messages need to be resubmitted
+	 */
+	public boolean needsRetry()
+	{
+		if(!isComplete())
+			return false;
+		for(IncomingSMS sms : messages)
+			if(sms.getStatus() == IncomingSMS.Status.Retry)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Waits for all messages to be processed.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return whether or not all messages have been processed
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return done.await(timeout, unit);
+	}
+	
+}
@@ -0,0 +1,318 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import uk.ac.ucl.excites.sapelli.shared.util.ExceptionHelpers;
+import uk.ac.ucl.excites.sapelli.transmission.server.HeadlessTransmissionController.OutgoingSMS;
+import uk.ac.ucl.excites.sapelli.transmission.server.IncomingSMS.Status;
+
+/**
+ * Handles HTTP requests from relays:
+ * <ul>
+ * <li>{@code POST} with a JSON body (see {@link SMSBatchJSON}), optionally gzip-compressed (Content-Encoding: gzip): receives a batch of messages and
+ * responds with the result per message and any pending outgoing messages;</li>
+ * <li>{@code POST} with a form-encoded body ({@code smsID}, {@code smsPhoneNumber}, {@code smsTimestamp}, {@code smsData}): receives a single binary
+ * message as posted by older versions of the SMSRelay app, and responds with "OK:smsID" (outgoing messages are kept for the next JSON request);</li>
+ * <li>{@code GET}: responds with pending outgoing messages only.</li>
+ * </ul>
+ * A JSON request may carry an {@value #HEADER_BATCH_ID} header. When a batch with the same ID is resubmitted (e.g. because the response was
+ * lost or timed out) the results of the earlier submission are returned, waiting for it if it is still being processed, instead of receiving
+ * the messages again. Only when (some of) the earlier results are "retry" is the batch submitted anew.
+ * 
+ * @author mstevens
+ */
+public class SMSBatchHandler implements HttpHandler
+{
+
+	static public final String CONTENT_TYPE_JSON = "application/json";
+	static public final String CONTENT_TYPE_FORM = "application/x-www-form-urlencoded";
+	static public final String ENCODING_GZIP = "gzip";
+	static public final String HEADER_BATCH_ID = "X-Batch-ID";
+	
+	static public final int DEFAULT_MAX_OUTGOING_PER_RESPONSE = 1000;
+	static public final int MAX_REMEMBERED_BATCHES = 1000;
+	
+	static private final Charset UTF8 = Charset.forName("UTF-8");
+	
+	static private final String RETRY_AFTER_S = "1";
+	
+	private final IncomingSMSProcessor processor;
+	private final long timeoutMS;
+	private final int maxOutgoingPerResponse;
+	private final Map<String, SMSBatch> recentBatches = new LinkedHashMap<String, SMSBatch>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 2L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SMSBatch> eldest)
+		{
+			return size() > MAX_REMEMBERED_BATCHES;
+		}
+	};
+	
+	/**
+	 * @param processor
+	 * @param timeoutMS maximum time to wait for a batch to be processed
+	 * @param maxOutgoingPerResponse maximum number of outgoing messages to include in a response
+	 */
+	public SMSBatchHandler(IncomingSMSProcessor processor, long timeoutMS, int maxOutgoingPerResponse)
+	{
+		this.processor = processor;
+		this.timeoutMS = timeoutMS;
+		this.maxOutgoingPerResponse = maxOutgoingPerResponse;
+	}
+	
+	@Override
+	public void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+			if("GET".equalsIgnoreCase(method))
+				respondJSON(exchange, Collections.<IncomingSMS> emptyList());
+			else if("POST".equalsIgnoreCase(method))
+			{
+				Headers headers = exchange.getRequestHeaders();
+				InputStream in = exchange.getRequestBody();
+				if(containsToken(headers.getFirst("Content-Encoding"), ENCODING_GZIP))
+					in = new GZIPInputStream(in);
+				
+				if(containsToken(headers.getFirst("Content-Type"), CONTENT_TYPE_FORM))
+					handleForm(exchange, in);
+				else
+					handleJSON(exchange, in);
+			}
+			else
+				respondText(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Unsupported method: " + method);
+		}
+		catch(Exception e)
+		{
+			try
+			{
+				respondText(exchange, HttpURLConnection.HTTP_BAD_REQUEST, ExceptionHelpers.getMessageAndCause(e));
+			}
+			catch(Exception ignore) {} // response may already have been (partially) sent
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+	
+	private void handleJSON(HttpExchange exchange, InputStream in) throws IOException, InterruptedException
+	{
+		List<IncomingSMS> messages = SMSBatchJSON.readMessages(in);
+		if(messages.isEmpty())
+		{
+			respondJSON(exchange, messages);
+			return;
+		}
+		if(messages.size() > processor.getMaxBatchSize())
+		{	// would never be accepted, so a 503 would make the relay retry forever
+			respondText(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Batch too large (" + messages.size() + " messages), the maximum is " + processor.getMaxBatchSize());
+			return;
+		}
+		String batchID = exchange.getRequestHeaders().getFirst(HEADER_BATCH_ID);
+		SMSBatch batch = null;
+		boolean resubmission = false;
+		if(batchID != null)
+		{
+			synchronized(recentBatches)
+			{
+				batch = recentBatches.get(batchID);
+				if(batch == null || batch.needsRetry())
+					recentBatches.put(batchID, batch = new SMSBatch(messages));
+				else
+					resubmission = true;
+			}
+		}
+		else
+			batch = new SMSBatch(messages);
+		
+		if(!resubmission && !submit(exchange, batch))
+		{
+			if(batchID != null)
+				synchronized(recentBatches)
+				{
+					recentBatches.remove(batchID);
+				}
+			return;
+		}
+		if(!await(exchange, batch))
+			return;
+		respondJSON(exchange, batch.getMessages());
+	}
+	
+	private void handleForm(HttpExchange exchange, InputStream in) throws IOException, InterruptedException
+	{
+		Map<String, String> params = parseForm(readFully(in));
+		String smsID = params.get("smsID");
+		String timestamp = params.get("smsTimestamp");
+		Long receivedAt = null;
+		try
+		{
+			receivedAt = timestamp != null ? Long.valueOf(timestamp.trim()) : null;
+		}
+		catch(NumberFormatException ignore) {}
+		byte[] content = null;
+		try
+		{
+			content = params.get("smsData") != null ? Base64Variants.MIME.decode(params.get("smsData")) : null;
+		}
+		catch(IllegalArgumentException ignore) {} // results in Invalid status below
+		IncomingSMS sms = new IncomingSMS(smsID, params.get("smsPhoneNumber"), receivedAt, content);
+		if(content == null)
+			sms.setStatus(Status.Invalid, "Missing or invalid smsData");
+		else
+		{
+			SMSBatch batch = new SMSBatch(Collections.singletonList(sms));
+			if(!submit(exchange, batch) || !await(exchange, batch))
+				return;
+		}
+		
+		if(sms.getStatus() == Status.Retry)
+			respondText(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "RETRY:" + smsID);
+		else // OK, Error or Invalid (resubmitting the latter two won't help)
+			respondText(exchange, HttpURLConnection.HTTP_OK, "OK:" + smsID);
+	}
+	
+	/**
+	 * @param exchange
+	 * @param batch
+	 * @return whether the batch was accepted for processing, if not a response has already been sent
+	 * @throws IOException
+	 */
+	private boolean submit(HttpExchange exchange, SMSBatch batch) throws IOException
+	{
+		if(!processor.submit(batch))
+		{
+			exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_S);
+			respondText(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "Server overloaded or stopping, retry later");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param exchange
+	 * @param batch
+	 * @return whether the batch was processed, if not a response has already been sent
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean await(HttpExchange exchange, SMSBatch batch) throws IOException, InterruptedException
+	{
+		if(!batch.await(timeoutMS, TimeUnit.MILLISECONDS))
+		{	// the batch will still be processed, but the relay will need to resubmit to learn the results (receiving messages is idempotent)
+			exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_S);
+			respondText(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "Timed out, retry later");
+			return false;
+		}
+		return true;
+	}
+	
+	private void respondJSON(HttpExchange exchange, List<IncomingSMS> results) throws IOException
+	{
+		List<OutgoingSMS> outgoing = processor.takeOutgoing(maxOutgoingPerResponse);
+		try
+		{
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_JSON + "; charset=UTF-8");
+			if(containsToken(exchange.getRequestHeaders().getFirst("Accept-Encoding"), ENCODING_GZIP))
+			{
+				exchange.getResponseHeaders().set("Content-Encoding", ENCODING_GZIP);
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0); // chunked
+				SMSBatchJSON.writeResponse(results, outgoing, new GZIPOutputStream(exchange.getResponseBody())); // closes the stream
+			}
+			else
+			{	// Buffer to be able to send a Content-Length header:
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				SMSBatchJSON.writeResponse(results, outgoing, buffer);
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, buffer.size());
+				OutputStream out = exchange.getResponseBody();
+				buffer.writeTo(out);
+				out.close();
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{	// The relay did not get the outgoing messages, hand them out again with the next response:
+			processor.requeue(outgoing);
+			throw e;
+		}
+		processor.confirmSent(outgoing);
+	}
+	
+	private void respondText(HttpExchange exchange, int status, String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	static private boolean containsToken(String headerValue, String token)
+	{
+		return headerValue != null && headerValue.toLowerCase().contains(token);
+	}
+	
+	static private String readFully(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] bytes = new byte[4096];
+		int read;
+		while((read = in.read(bytes)) != -1)
+			buffer.write(bytes, 0, read);
+		return new String(buffer.toByteArray(), UTF8);
+	}
+	
+	static private Map<String, String> parseForm(String body) throws IOException
+	{
+		Map<String, String> params = new HashMap<String, String>();
+		for(String pair : body.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			if(eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+	
+}
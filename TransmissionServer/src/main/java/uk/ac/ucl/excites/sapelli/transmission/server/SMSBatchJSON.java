@@ -0,0 +1,299 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.SMSCorrespondent;
+import uk.ac.ucl.excites.sapelli.transmission.server.HeadlessTransmissionController.OutgoingSMS;
+import uk.ac.ucl.excites.sapelli.transmission.server.IncomingSMS.Status;
+
+/**
+ * Reads and writes the JSON documents exchanged between relays and the {@link TransmissionServer}.
+ * 
+ * Request:
+ * <pre>
+ * {"messages": [{"id": "12", "sender": "+447700900123", "timestamp": 1453890000000, "binary": true, "data": "base64..."}, ...]}
+ * </pre>
+ * The content ({@code data}) of binary messages is Base64-encoded, that of text messages is given as is. The {@code id} (echoed in
+ * the response), {@code timestamp} (ms since the epoch) and {@code binary} (default: {@code true}) fields are optional.
+ * 
+ * Response:
+ * <pre>
+ * {"results": [{"id": "12", "status": "ok"}, {"id": "13", "status": "error", "error": "..."}, ...],
+ *  "outgoing": [{"receiver": "+447700900123", "binary": true, "data": "base64..."}, ...]}
+ * </pre>
+ * The results are given in the order of the request. The relay should resubmit messages with status "retry" and should send the
+ * outgoing messages (which have already been marked as sent by the server).
+ * 
+ * @author mstevens
+ */
+public final class SMSBatchJSON
+{
+	
+	static private final JsonFactory FACTORY = new JsonFactory();
+	
+	static public final String FIELD_MESSAGES = "messages";
+	static public final String FIELD_RESULTS = "results";
+	static public final String FIELD_OUTGOING = "outgoing";
+	static public final String FIELD_ID = "id";
+	static public final String FIELD_SENDER = "sender";
+	static public final String FIELD_RECEIVER = "receiver";
+	static public final String FIELD_TIMESTAMP = "timestamp";
+	static public final String FIELD_BINARY = "binary";
+	static public final String FIELD_DATA = "data";
+	static public final String FIELD_STATUS = "status";
+	static public final String FIELD_ERROR = "error";
+	
+	private SMSBatchJSON() {}
+	
+	/**
+	 * Reads a request. Messages with undecodable content are returned with status {@link Status#Invalid}.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException when the JSON is malformed or not structured as expected
+	 */
+	static public List<IncomingSMS> readMessages(InputStream in) throws IOException
+	{
+		List<IncomingSMS> messages = new ArrayList<IncomingSMS>();
+		try(JsonParser parser = FACTORY.createParser(in))
+		{
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+			while(parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if(FIELD_MESSAGES.equals(field))
+				{
+					expect(parser, value, JsonToken.START_ARRAY);
+					while((value = parser.nextToken()) != JsonToken.END_ARRAY)
+					{
+						expect(parser, value, JsonToken.START_OBJECT);
+						messages.add(readMessage(parser));
+					}
+				}
+				else
+					parser.skipChildren();
+			}
+		}
+		return messages;
+	}
+	
+	static private IncomingSMS readMessage(JsonParser parser) throws IOException
+	{
+		String id = null;
+		String sender = null;
+		Long timestamp = null;
+		boolean binary = SMSCorrespondent.DEFAULT_BINARY_SMS;
+		String data = null;
+		while(parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			switch(field)
+			{
+				case FIELD_ID :
+					id = parser.getValueAsString();
+					break;
+				case FIELD_SENDER :
+					sender = parser.getValueAsString();
+					break;
+				case FIELD_TIMESTAMP :
+					timestamp = parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsLong();
+					break;
+				case FIELD_BINARY :
+					binary = parser.getValueAsBoolean(SMSCorrespondent.DEFAULT_BINARY_SMS);
+					break;
+				case FIELD_DATA :
+					data = parser.getValueAsString();
+					break;
+				default :
+					parser.skipChildren();
+			}
+		}
+		if(!binary)
+			return new IncomingSMS(id, sender, timestamp, data);
+		byte[] content = null;
+		String error = null;
+		if(data != null)
+		{
+			try
+			{
+				content = Base64Variants.getDefaultVariant().decode(data);
+			}
+			catch(IllegalArgumentException iae)
+			{
+				error = "Invalid Base64 content: " + iae.getMessage();
+			}
+		}
+		IncomingSMS sms = new IncomingSMS(id, sender, timestamp, content);
+		if(error != null)
+			sms.setStatus(Status.Invalid, error);
+		return sms;
+	}
+	
+	static private void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException
+	{
+		if(actual != expected)
+			throw new JsonParseException(parser, "Expected " + expected + " but got " + actual);
+	}
+	
+	/**
+	 * Writes a request.
+	 * 
+	 * @param messages
+	 * @param out
+	 * @throws IOException
+	 */
+	static public void writeMessages(List<IncomingSMS> messages, OutputStream out) throws IOException
+	{
+		try(JsonGenerator json = FACTORY.createGenerator(out, JsonEncoding.UTF8))
+		{
+			json.writeStartObject();
+			json.writeArrayFieldStart(FIELD_MESSAGES);
+			for(IncomingSMS sms : messages)
+			{
+				json.writeStartObject();
+				if(sms.id != null)
+					json.writeStringField(FIELD_ID, sms.id);
+				json.writeStringField(FIELD_SENDER, sms.sender);
+				if(sms.receivedAt != null)
+					json.writeNumberField(FIELD_TIMESTAMP, sms.receivedAt);
+				json.writeBooleanField(FIELD_BINARY, sms.binary);
+				if(sms.binary)
+					json.writeBinaryField(FIELD_DATA, sms.getBinaryContent());
+				else
+					json.writeStringField(FIELD_DATA, sms.getTextContent());
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+	
+	/**
+	 * Writes a response.
+	 * 
+	 * @param results the processed messages (may be empty)
+	 * @param outgoing
+	 * @param out
+	 * @throws IOException
+	 */
+	static public void writeResponse(List<IncomingSMS> results, List<OutgoingSMS> outgoing, OutputStream out) throws IOException
+	{
+		try(JsonGenerator json = FACTORY.createGenerator(out, JsonEncoding.UTF8))
+		{
+			json.writeStartObject();
+			json.writeArrayFieldStart(FIELD_RESULTS);
+			for(IncomingSMS sms : results)
+			{
+				json.writeStartObject();
+				if(sms.id != null)
+					json.writeStringField(FIELD_ID, sms.id);
+				json.writeStringField(FIELD_STATUS, sms.getStatus().getKey());
+				if(sms.getError() != null)
+					json.writeStringField(FIELD_ERROR, sms.getError());
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeArrayFieldStart(FIELD_OUTGOING);
+			for(OutgoingSMS sms : outgoing)
+			{
+				json.writeStartObject();
+				json.writeStringField(FIELD_RECEIVER, sms.getReceiverNumber());
+				json.writeBooleanField(FIELD_BINARY, sms.isBinary());
+				try
+				{
+					if(sms.isBinary())
+						json.writeBinaryField(FIELD_DATA, sms.getBinaryContent());
+					else
+						json.writeStringField(FIELD_DATA, sms.getTextContent());
+				}
+				catch(Exception e)
+				{
+					throw new IOException("Could not get content of outgoing message", e);
+				}
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+	
+	/**
+	 * Reads a response, only counting the results per status and the outgoing messages.
+	 * 
+	 * @param in
+	 * @param statusCounts array to add the number of results per {@link Status} to (indexed by ordinal)
+	 * @return the number of outgoing messages
+	 * @throws IOException
+	 */
+	static public int readResponse(InputStream in, int[] statusCounts) throws IOException
+	{
+		int outgoing = 0;
+		try(JsonParser parser = FACTORY.createParser(in))
+		{
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+			while(parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if(value == JsonToken.START_ARRAY && (FIELD_RESULTS.equals(field) || FIELD_OUTGOING.equals(field)))
+				{
+					while(parser.nextToken() == JsonToken.START_OBJECT)
+					{
+						if(FIELD_OUTGOING.equals(field))
+						{
+							outgoing++;
+							parser.skipChildren();
+							continue;
+						}
+						while(parser.nextToken() == JsonToken.FIELD_NAME)
+						{
+							boolean status = FIELD_STATUS.equals(parser.getCurrentName());
+							parser.nextToken();
+							if(status)
+								for(Status s : Status.values())
+									if(s.getKey().equals(parser.getValueAsString()))
+										statusCounts[s.ordinal()]++;
+							parser.skipChildren();
+						}
+					}
+				}
+				else
+					parser.skipChildren();
+			}
+		}
+		return outgoing;
+	}
+	
+}
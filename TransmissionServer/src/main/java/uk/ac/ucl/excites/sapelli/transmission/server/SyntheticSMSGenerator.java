@@ -0,0 +1,496 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import uk.ac.ucl.excites.sapelli.collector.JavaCollectorClient;
+import uk.ac.ucl.excites.sapelli.collector.db.ProjectStore;
+import uk.ac.ucl.excites.sapelli.collector.load.ProjectLoader;
+import uk.ac.ucl.excites.sapelli.collector.model.Form;
+import uk.ac.ucl.excites.sapelli.collector.model.Project;
+import uk.ac.ucl.excites.sapelli.collector.transmission.SendSchedule;
+import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreUser;
+import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
+import uk.ac.ucl.excites.sapelli.storage.db.RecordStore;
+import uk.ac.ucl.excites.sapelli.storage.model.Column;
+import uk.ac.ucl.excites.sapelli.storage.model.Record;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.BooleanColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.FloatColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.IntegerColumn;
+import uk.ac.ucl.excites.sapelli.storage.model.columns.StringColumn;
+import uk.ac.ucl.excites.sapelli.storage.types.TimeStamp;
+import uk.ac.ucl.excites.sapelli.transmission.model.Transmission;
+import uk.ac.ucl.excites.sapelli.transmission.model.transport.sms.SMSCorrespondent;
+import uk.ac.ucl.excites.sapelli.transmission.server.HeadlessTransmissionController.OutgoingSMS;
+import uk.ac.ucl.excites.sapelli.transmission.server.IncomingSMS.Status;
+
+/**
+ * Generates synthetic, but real (i.e. decodable), SMS traffic for a given project and uses it to load-test a {@link TransmissionServer}.
+ * 
+ * Messages are produced by a sending-side client with its own database, which stores randomly filled records for the forms of the
+ * project and sends them to the server's number using a {@link HeadlessTransmissionController}. The resulting transmissions are
+ * spread over a number of virtual sender numbers (this is safe because a receiver identifies transmissions by sender, sending-side
+ * ID and payload hash). All request bodies are prepared before the clock starts, so only the server is measured.
+ * 
+ * When no server URL is given a server is started in-process, with a temporary working directory.
+ * 
+ * @author mstevens
+ */
+public class SyntheticSMSGenerator implements StoreUser
+{
+
+	// STATICS ------------------------------------------------------
+	static public final String DEFAULT_SERVER_NUMBER = "+447700900000";
+	static public final String SENDER_NUMBER_PREFIX = "+4477009"; // followed by 5 digits
+	static public final int MAX_SENDERS = 99999;
+	
+	static private final int MAX_STRING_CHARS = 24;
+	static private final int MAX_ATTEMPTS = 100;
+	static private final long RETRY_DELAY_MS = 100;
+	
+	static private Options options = new Options();
+	static
+	{
+		options.addOption(Option.builder("load").hasArg().argName("sap_file").required().desc("Sapelli project (*.sap) for which to generate records").build());
+		options.addOption(Option.builder("url").hasArg().argName("url").desc("URL of the server to post to (default: start a server in-process)").build());
+		options.addOption(Option.builder("records").hasArg().argName("n").desc("Number of records to generate (default: 10000)").build());
+		options.addOption(Option.builder("senders").hasArg().argName("n").desc("Number of virtual senders (default: 100)").build());
+		options.addOption(Option.builder("batch").hasArg().argName("n").desc("Number of messages per request (default: 100)").build());
+		options.addOption(Option.builder("connections").hasArg().argName("n").desc("Number of concurrent requests (default: 4)").build());
+		options.addOption(Option.builder("seed").hasArg().argName("n").desc("Random seed (default: 0)").build());
+		options.addOption("text", false, "Generate textual instead of binary SMS messages");
+		options.addOption("shuffle", false, "Post messages in random order (instead of transmission by transmission)");
+		options.addOption("nogzip", false, "Do not compress request bodies");
+		options.addOption("p", true, "Working directory for the generator's (and in-process server's) databases (default: a temporary directory)");
+		options.addOption(Option.builder("group").hasArg().argName("n").desc("In-process server: maximum number of messages received in a single transaction").build());
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args)
+	{
+		CommandLine cmd = null;
+		try
+		{
+			cmd = new DefaultParser().parse(options, args);
+		}
+		catch(ParseException exp)
+		{
+			System.err.println("Parsing failed.  Reason: " + exp.getMessage());
+			new HelpFormatter().printHelp(SyntheticSMSGenerator.class.getSimpleName(), options);
+			System.exit(1);
+		}
+		
+		int exitCode = 0;
+		TransmissionServer server = null;
+		SyntheticSMSGenerator generator = null;
+		try
+		{
+			File workFolder = cmd.hasOption("p") ? new File(cmd.getOptionValue("p")) : new File(System.getProperty("java.io.tmpdir"), "SapelliSMSLoadTest_" + System.currentTimeMillis());
+			File sapFile = new File(cmd.getOptionValue("load"));
+			
+			// Generate:
+			generator = new SyntheticSMSGenerator(new File(workFolder, "Sender"), sapFile);
+			long startMS = System.currentTimeMillis();
+			List<List<IncomingSMS>> transmissions = generator.generate(
+				TransmissionServer.getInt(cmd, "records", 10000),
+				TransmissionServer.getInt(cmd, "senders", 100),
+				!cmd.hasOption("text"),
+				DEFAULT_SERVER_NUMBER,
+				TransmissionServer.getInt(cmd, "seed", 0));
+			int messages = 0;
+			for(List<IncomingSMS> parts : transmissions)
+				messages += parts.size();
+			System.out.println("Generated " + messages + " messages in " + transmissions.size() + " transmissions (" + (System.currentTimeMillis() - startMS) + "ms)");
+			
+			// Server:
+			String url = cmd.getOptionValue("url");
+			if(url == null)
+			{
+				server = new TransmissionServer(new File(workFolder, "Server"), false, null, TransmissionServer.getInt(cmd, "group", IncomingSMSProcessor.DEFAULT_MAX_GROUP_SIZE), IncomingSMSProcessor.DEFAULT_QUEUE_CAPACITY);
+				server.install(sapFile);
+				server.start(new InetSocketAddress(TransmissionServer.DEFAULT_HOST, 0), Runtime.getRuntime().availableProcessors(), TransmissionServer.DEFAULT_TIMEOUT_MS);
+				url = server.getURL();
+				System.out.println("Started in-process server at " + url);
+			}
+			
+			// Post:
+			LoadTest test = new LoadTest(new URL(url), !cmd.hasOption("nogzip"));
+			test.run(
+				transmissions,
+				TransmissionServer.getInt(cmd, "batch", 100),
+				TransmissionServer.getInt(cmd, "connections", 4),
+				cmd.hasOption("shuffle") ? new Random(TransmissionServer.getInt(cmd, "seed", 0)) : null);
+			test.printResults();
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace(System.err);
+			exitCode = 2;
+		}
+		finally
+		{
+			if(server != null)
+				server.stop();
+			if(generator != null)
+				generator.discard();
+		}
+		System.exit(exitCode);
+	}
+	
+	static private void fill(Record record, Random random)
+	{
+		for(Column<?> column : record.getSchema().getColumns(false))
+		{
+			if(column.isValuePresent(record))
+				continue;
+			Object value = null;
+			if(column instanceof IntegerColumn)
+			{
+				IntegerColumn intCol = (IntegerColumn) column;
+				double range = (double) intCol.getMaxValue() - (double) intCol.getMinValue();
+				value = Math.min(intCol.getMaxValue(), intCol.getMinValue() + (long) (random.nextDouble() * range));
+			}
+			else if(column instanceof BooleanColumn)
+				value = random.nextBoolean();
+			else if(column instanceof FloatColumn)
+				value = random.nextFloat();
+			else if(column instanceof StringColumn)
+			{
+				char[] chars = new char[1 + random.nextInt(Math.max(1, Math.min(MAX_STRING_CHARS, ((StringColumn) column).getMaximumChars())))];
+				for(int c = 0; c < chars.length; c++)
+					chars[c] = (char) ('a' + random.nextInt(26));
+				value = new String(chars);
+			}
+			// other column types are left empty (the record will be skipped if any of them is non-optional)
+			if(value != null)
+			{
+				try
+				{
+					column.storeObject(record, value, true);
+				}
+				catch(Exception ignore) {}
+			}
+		}
+	}
+	
+	// DYNAMICS -----------------------------------------------------
+	private final JavaCollectorClient client;
+	private final ProjectStore projectStore;
+	private final RecordStore recordStore;
+	private final Project project;
+	private final HeadlessTransmissionController controller;
+	
+	/**
+	 * @param sapelliFolder working directory for the sending side
+	 * @param sapFile project to generate records for
+	 * @throws Exception
+	 */
+	public SyntheticSMSGenerator(File sapelliFolder, File sapFile) throws Exception
+	{
+		FileHelpers.createDirectory(sapelliFolder);
+		this.client = new JavaCollectorClient(sapelliFolder, new File(System.getProperty("java.io.tmpdir")), getClass().getSimpleName());
+		this.projectStore = client.projectStoreHandle.getStore(this);
+		this.recordStore = client.recordStoreHandle.getStore(this);
+		this.project = projectStore.add(new ProjectLoader(client.getFileStorageProvider()).load(sapFile));
+		this.controller = new HeadlessTransmissionController(client, false);
+	}
+	
+	/**
+	 * Generates records and the messages which transmit them.
+	 * 
+	 * @param numberOfRecords
+	 * @param numberOfSenders number of virtual sender numbers to spread the transmissions over
+	 * @param binary whether to generate binary or textual messages
+	 * @param serverNumber phone number of the receiving server
+	 * @param seed
+	 * @return the messages, grouped by transmission
+	 * @throws Exception
+	 */
+	public List<List<IncomingSMS>> generate(int numberOfRecords, int numberOfSenders, boolean binary, String serverNumber, long seed) throws Exception
+	{
+		if(numberOfSenders < 1 || numberOfSenders > MAX_SENDERS)
+			throw new IllegalArgumentException("Number of senders must be in [1, " + MAX_SENDERS + "]");
+		
+		// Forms to generate records for:
+		List<Form> forms = new ArrayList<Form>();
+		for(Form form : project.getForms())
+			if(form.isProducesRecords())
+				forms.add(form);
+		if(forms.isEmpty())
+			throw new IllegalArgumentException("Project " + project.toString(false) + " has no forms which produce records");
+		
+		// Generate & store records:
+		Random random = new Random(seed);
+		long deviceID = random.nextInt() & 0xFFFFFFFFL;
+		long firstStartMS = System.currentTimeMillis() - numberOfRecords; // (1 ms apart, which keeps the primary keys unique)
+		List<Record> records = new ArrayList<Record>(numberOfRecords);
+		for(int r = 0; r < numberOfRecords; r++)
+		{
+			Form form = forms.get(r % forms.size());
+			Record record = form.newRecord(deviceID);
+			Form.COLUMN_TIMESTAMP_START.storeValue(record, new TimeStamp(firstStartMS + r));
+			fill(record, random);
+			form.finish(record);
+			records.add(record);
+		}
+		// Schedule sending to the server (records stored from now on are registered as to be transmitted to it):
+		SMSCorrespondent server = new SMSCorrespondent("Server", serverNumber, binary);
+		projectStore.storeSendSchedule(new SendSchedule(project, server, true));
+		recordStore.store(records);
+		
+		// "Send" them:
+		controller.sendRecords(project.getModel(), server);
+		List<OutgoingSMS> sent = controller.takeOutgoing();
+		
+		// Group messages by transmission:
+		Map<Transmission<?>, List<OutgoingSMS>> byTransmission = new LinkedHashMap<Transmission<?>, List<OutgoingSMS>>();
+		for(OutgoingSMS sms : sent)
+		{
+			List<OutgoingSMS> parts = byTransmission.get(sms.message.getTransmission());
+			if(parts == null)
+			{
+				parts = new ArrayList<OutgoingSMS>();
+				byTransmission.put(sms.message.getTransmission(), parts);
+			}
+			parts.add(sms);
+		}
+		
+		// Convert to incoming messages from virtual senders:
+		List<List<IncomingSMS>> transmissions = new ArrayList<List<IncomingSMS>>(byTransmission.size());
+		long id = 0;
+		for(List<OutgoingSMS> parts : byTransmission.values())
+		{
+			String sender = SENDER_NUMBER_PREFIX + String.format("%05d", 1 + transmissions.size() % numberOfSenders);
+			List<IncomingSMS> incoming = new ArrayList<IncomingSMS>(parts.size());
+			for(OutgoingSMS sms : parts)
+				incoming.add(binary ?
+					new IncomingSMS(Long.toString(id++), sender, null, sms.getBinaryContent()) :
+					new IncomingSMS(Long.toString(id++), sender, null, sms.getTextContent()));
+			transmissions.add(incoming);
+		}
+		return transmissions;
+	}
+	
+	public void discard()
+	{
+		controller.discard();
+		client.recordStoreHandle.doneUsing(this);
+		client.projectStoreHandle.doneUsing(this);
+	}
+	
+	/**
+	 * Posts batches of messages to a server and collects the results.
+	 * 
+	 * @author mstevens
+	 */
+	static public class LoadTest
+	{
+		
+		private final URL url;
+		private final boolean gzip;
+		
+		private final int[] statusCounts = new int[Status.values().length];
+		private final AtomicInteger outgoing = new AtomicInteger();
+		private final AtomicInteger rejectedRequests = new AtomicInteger();
+		private int messages;
+		private int transmissions;
+		private long elapsedMS;
+		
+		public LoadTest(URL url, boolean gzip)
+		{
+			this.url = url;
+			this.gzip = gzip;
+		}
+		
+		/**
+		 * @param transmissions messages grouped by transmission
+		 * @param batchSize number of messages per request
+		 * @param connections number of concurrent requests
+		 * @param shuffle if not null messages are posted in random order, otherwise transmission by transmission
+		 * @throws Exception
+		 */
+		public void run(List<List<IncomingSMS>> transmissions, int batchSize, int connections, Random shuffle) throws Exception
+		{
+			List<IncomingSMS> all = new ArrayList<IncomingSMS>();
+			for(List<IncomingSMS> parts : transmissions)
+				all.addAll(parts);
+			if(shuffle != null)
+				Collections.shuffle(all, shuffle);
+			this.transmissions = transmissions.size();
+			this.messages = all.size();
+			
+			// Prepare request bodies:
+			final List<byte[]> bodies = new ArrayList<byte[]>();
+			for(int from = 0; from < all.size(); from += batchSize)
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				SMSBatchJSON.writeMessages(all.subList(from, Math.min(all.size(), from + batchSize)), gzip ? new GZIPOutputStream(buffer) : buffer);
+				bodies.add(buffer.toByteArray());
+			}
+			
+			// Post them:
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, connections));
+			List<Future<?>> posts = new ArrayList<Future<?>>(bodies.size());
+			long startMS = System.currentTimeMillis();
+			for(final byte[] body : bodies)
+				posts.add(executor.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							post(body);
+						}
+						catch(IOException e)
+						{
+							throw new RuntimeException(e);
+						}
+					}
+				}));
+			try
+			{
+				for(Future<?> post : posts)
+					post.get();
+				elapsedMS = System.currentTimeMillis() - startMS;
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+			
+			// Collect remaining outgoing messages:
+			while(post(null) > 0);
+		}
+		
+		/**
+		 * @param body request body, or null to only collect outgoing messages
+		 * @return number of outgoing messages in the response
+		 * @throws IOException
+		 */
+		private int post(byte[] body) throws IOException
+		{
+			for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+			{
+				HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+				connection.setRequestProperty("Accept-Encoding", SMSBatchHandler.ENCODING_GZIP);
+				if(body != null)
+				{
+					connection.setDoOutput(true);
+					connection.setRequestMethod("POST");
+					connection.setRequestProperty("Content-Type", SMSBatchHandler.CONTENT_TYPE_JSON);
+					if(gzip)
+						connection.setRequestProperty("Content-Encoding", SMSBatchHandler.ENCODING_GZIP);
+					connection.setFixedLengthStreamingMode(body.length);
+					try(OutputStream out = connection.getOutputStream())
+					{
+						out.write(body);
+					}
+				}
+				int responseCode = connection.getResponseCode();
+				if(responseCode == HttpURLConnection.HTTP_UNAVAILABLE)
+				{
+					rejectedRequests.incrementAndGet();
+					drain(connection.getErrorStream());
+					try
+					{
+						Thread.sleep(RETRY_DELAY_MS);
+					}
+					catch(InterruptedException ie)
+					{
+						throw new IOException("Interrupted", ie);
+					}
+					continue;
+				}
+				if(responseCode != HttpURLConnection.HTTP_OK)
+				{
+					drain(connection.getErrorStream());
+					throw new IOException("Server responded with HTTP status " + responseCode);
+				}
+				InputStream in = connection.getInputStream();
+				if(SMSBatchHandler.ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding()))
+					in = new GZIPInputStream(in);
+				int[] counts = new int[Status.values().length];
+				int out = SMSBatchJSON.readResponse(in, counts);
+				synchronized(statusCounts)
+				{
+					for(int s = 0; s < counts.length; s++)
+						statusCounts[s] += counts[s];
+				}
+				outgoing.addAndGet(out);
+				return out;
+			}
+			throw new IOException("Server still unavailable after " + MAX_ATTEMPTS + " attempts");
+		}
+		
+		static private void drain(InputStream in) throws IOException
+		{
+			if(in != null)
+				try(InputStream stream = in)
+				{
+					byte[] buffer = new byte[1024];
+					while(stream.read(buffer) != -1);
+				}
+		}
+		
+		public void printResults()
+		{
+			System.out.println("Posted " + messages + " messages (" + transmissions + " transmissions) in " + elapsedMS + "ms: " + (elapsedMS > 0 ? (messages * 1000L / elapsedMS) : messages) + " messages/s");
+			StringBuilder bldr = new StringBuilder("Results:");
+			for(Status status : Status.values())
+				if(statusCounts[status.ordinal()] > 0)
+					bldr.append(" ").append(status.getKey()).append("=").append(statusCounts[status.ordinal()]);
+			System.out.println(bldr.toString());
+			System.out.println("Outgoing messages (ACKs etc.): " + outgoing.get() + (outgoing.get() < transmissions ? " (fewer than the number of transmissions!)" : ""));
+			if(rejectedRequests.get() > 0)
+				System.out.println("Requests refused (server overloaded, retried): " + rejectedRequests.get());
+		}
+		
+	}
+	
+}
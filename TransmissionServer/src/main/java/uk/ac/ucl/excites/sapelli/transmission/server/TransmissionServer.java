@@ -0,0 +1,362 @@
+/**
+ * Sapelli data collection platform: http://sapelli.org
+ * 
+ * Copyright 2012-2016 University College London - ExCiteS group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package uk.ac.ucl.excites.sapelli.transmission.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.ucl.excites.sapelli.collector.JavaCollectorClient;
+import uk.ac.ucl.excites.sapelli.collector.db.ProjectStore;
+import uk.ac.ucl.excites.sapelli.collector.load.ProjectLoader;
+import uk.ac.ucl.excites.sapelli.collector.model.Project;
+import uk.ac.ucl.excites.sapelli.shared.db.StoreHandle.StoreUser;
+import uk.ac.ucl.excites.sapelli.shared.io.FileHelpers;
+import uk.ac.ucl.excites.sapelli.shared.metrics.MetricsRegistry;
+
+/**
+ * Headless server which receives Sapelli SMS transmissions, as forwarded in batches by relays over HTTP.
+ * 
+ * Messages are reassembled into transmissions, decoded and the records they contain stored, by a {@link HeadlessTransmissionController}
+ * on top of a SQLite database (see {@link JavaCollectorClient}). Projects must be installed (see {@link #install(File)}) before
+ * records of their forms can be decoded. ACKs and other responses are returned to relays as outgoing messages (see {@link SMSBatchHandler}).
+ * 
+ * @author mstevens
+ */
+public class TransmissionServer implements StoreUser
+{
+
+	// STATICS ------------------------------------------------------
+	static public final String DEFAULT_HOST = "localhost";
+	static public final int DEFAULT_PORT = 8080;
+	static public final String SMS_CONTEXT = "/sms";
+	static public final String METRICS_CONTEXT = "/metrics";
+	static public final long DEFAULT_TIMEOUT_MS = 60 * 1000;
+	
+	static private Options options = new Options();
+	static
+	{
+		options.addOption("p", true, "Sapelli working directory (default: ./SapelliServer)");
+		options.addOption(Option.builder("load").hasArgs().argName("sap_file").desc("Sapelli project(s) (*.sap) to install").build());
+		options.addOption(Option.builder("host").hasArg().argName("host").desc("Host/address to listen on (default: " + DEFAULT_HOST + ")").build());
+		options.addOption(Option.builder("port").hasArg().argName("port").desc("Port to listen on (default: " + DEFAULT_PORT + ")").build());
+		options.addOption(Option.builder("threads").hasArg().argName("n").desc("Number of HTTP threads (default: number of processors)").build());
+		options.addOption(Option.builder("group").hasArg().argName("n").desc("Maximum number of messages received in a single transaction (default: " + IncomingSMSProcessor.DEFAULT_MAX_GROUP_SIZE + ")").build());
+		options.addOption(Option.builder("queue").hasArg().argName("n").desc("Maximum number of messages waiting to be received (default: " + IncomingSMSProcessor.DEFAULT_QUEUE_CAPACITY + ")").build());
+		options.addOption(Option.builder("country").hasArg().argName("iso_code").desc("Country to assume for sender numbers which are not in international format").build());
+		options.addOption("nolog", false, "Do not keep a transmission log");
+		options.addOption("metrics", false, "Collect metrics (served at " + METRICS_CONTEXT + ")");
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args)
+	{
+		CommandLine cmd = null;
+		try
+		{
+			CommandLineParser parser = new DefaultParser();
+			cmd = parser.parse(options, args);
+		}
+		catch(ParseException exp)
+		{
+			System.err.println("Parsing failed.  Reason: " + exp.getMessage());
+			new HelpFormatter().printHelp(TransmissionServer.class.getSimpleName(), options);
+			System.exit(1);
+		}
+		
+		File baseFolder = new File(cmd.getOptionValue("p", new File(System.getProperty("user.dir"), "SapelliServer").getPath()));
+		
+		try
+		{
+			if(cmd.hasOption("metrics"))
+				MetricsRegistry.getDefault().setEnabled(true);
+			
+			final TransmissionServer server = new TransmissionServer(
+				baseFolder,
+				!cmd.hasOption("nolog"),
+				cmd.getOptionValue("country"),
+				getInt(cmd, "group", IncomingSMSProcessor.DEFAULT_MAX_GROUP_SIZE),
+				getInt(cmd, "queue", IncomingSMSProcessor.DEFAULT_QUEUE_CAPACITY));
+			if(cmd.hasOption("load"))
+				for(String sapPath : cmd.getOptionValues("load"))
+				{
+					Project project = server.install(new File(sapPath));
+					System.out.println("Installed project: " + project.toString(true));
+				}
+			server.start(
+				new InetSocketAddress(cmd.getOptionValue("host", DEFAULT_HOST), getInt(cmd, "port", DEFAULT_PORT)),
+				getInt(cmd, "threads", Runtime.getRuntime().availableProcessors()),
+				DEFAULT_TIMEOUT_MS);
+			System.out.println("Listening at " + server.getURL());
+			
+			Runtime.getRuntime().addShutdownHook(new Thread()
+			{
+				@Override
+				public void run()
+				{
+					server.stop();
+				}
+			});
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace(System.err);
+			System.exit(2);
+		}
+	}
+	
+	static int getInt(CommandLine cmd, String option, int defaultValue)
+	{
+		if(!cmd.hasOption(option))
+			return defaultValue;
+		try
+		{
+			return Integer.parseInt(cmd.getOptionValue(option).trim());
+		}
+		catch(NumberFormatException nfe)
+		{
+			System.err.println("Invalid value for -" + option + ": " + cmd.getOptionValue(option));
+			System.exit(1);
+			return defaultValue;
+		}
+	}
+	
+	// DYNAMICS -----------------------------------------------------
+	/**
+	 * The single thread on which the stores are opened, used (by the {@link IncomingSMSProcessor}) and closed,
+	 * because a SQLite4Java connection can only be used on the thread which opened it.
+	 */
+	private final ExecutorService storeThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			return new Thread(r, IncomingSMSProcessor.class.getSimpleName());
+		}
+	});
+	private final JavaCollectorClient client;
+	private final ProjectStore projectStore;
+	private final HeadlessTransmissionController controller;
+	private final IncomingSMSProcessor processor;
+	
+	private HttpServer httpServer;
+	private ExecutorService httpExecutor;
+	private boolean stopped = false;
+	
+	/**
+	 * @param sapelliFolder
+	 * @param logTransmissions whether or not to keep a transmission log
+	 * @param defaultCountryISOCode the ISO 3166-1 two-letter region code to assume for sender numbers which are not in international format, may be null
+	 * @param maxGroupSize maximum number of messages to receive in a single transaction
+	 * @param queueCapacity maximum number of messages waiting to be received
+	 * @throws Exception
+	 */
+	public TransmissionServer(File sapelliFolder, final boolean logTransmissions, String defaultCountryISOCode, int maxGroupSize, int queueCapacity) throws Exception
+	{
+		FileHelpers.createDirectory(sapelliFolder);
+		final JavaCollectorClient client = new JavaCollectorClient(sapelliFolder, new File(System.getProperty("java.io.tmpdir")), getClass().getSimpleName());
+		this.client = client;
+		try
+		{
+			// Keep the ProjectStore open (it is used to look up the model of every received RecordsPayload):
+			this.projectStore = onStoreThread(new Callable<ProjectStore>()
+			{
+				@Override
+				public ProjectStore call() throws Exception
+				{
+					return client.projectStoreHandle.getStore(TransmissionServer.this);
+				}
+			});
+			this.controller = onStoreThread(new Callable<HeadlessTransmissionController>()
+			{
+				@Override
+				public HeadlessTransmissionController call() throws Exception
+				{
+					return new HeadlessTransmissionController(client, logTransmissions);
+				}
+			});
+		}
+		catch(Exception e)
+		{
+			storeThread.shutdown();
+			throw e;
+		}
+		this.processor = new IncomingSMSProcessor(controller, defaultCountryISOCode, maxGroupSize, queueCapacity);
+		controller.setResendRequestExecutor(processor);
+	}
+	
+	/**
+	 * Runs the given task on the store thread and waits for it to finish.
+	 * 
+	 * @param task
+	 * @return the result of the task
+	 * @throws Exception thrown by the task
+	 */
+	private <T> T onStoreThread(Callable<T> task) throws Exception
+	{
+		try
+		{
+			return storeThread.submit(task).get();
+		}
+		catch(ExecutionException ee)
+		{
+			if(ee.getCause() instanceof Exception)
+				throw (Exception) ee.getCause();
+			throw ee;
+		}
+	}
+	
+	/**
+	 * Loads the given project and adds it to the ProjectStore (if it is not already there).
+	 * Should be called before {@link #start(InetSocketAddress, int, long)}.
+	 * 
+	 * @param sapFile
+	 * @return the project
+	 * @throws Exception
+	 */
+	public Project install(File sapFile) throws Exception
+	{
+		final Project project = new ProjectLoader(client.getFileStorageProvider()).load(sapFile);
+		return onStoreThread(new Callable<Project>()
+		{
+			@Override
+			public Project call() throws Exception
+			{
+				return projectStore.add(project);
+			}
+		});
+	}
+	
+	/**
+	 * @param address
+	 * @param httpThreads
+	 * @param timeoutMS maximum time a request waits for its messages to be received
+	 * @throws Exception
+	 */
+	public void start(InetSocketAddress address, int httpThreads, long timeoutMS) throws Exception
+	{
+		// Reschedule resend requests for incomplete transmissions (e.g. from before a restart):
+		onStoreThread(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				controller.scheduleSMSResendRequests();
+				return null;
+			}
+		});
+		processor.start(storeThread);
+		
+		httpServer = HttpServer.create(address, 0);
+		httpServer.createContext(SMS_CONTEXT, new SMSBatchHandler(processor, timeoutMS, SMSBatchHandler.DEFAULT_MAX_OUTGOING_PER_RESPONSE));
+		if(MetricsRegistry.getDefault().isEnabled())
+			httpServer.createContext(METRICS_CONTEXT, new HttpHandler()
+			{
+				@Override
+				public void handle(HttpExchange exchange) throws IOException
+				{
+					byte[] json = MetricsRegistry.getDefault().toJSON().getBytes(Charset.forName("UTF-8"));
+					exchange.getResponseHeaders().set("Content-Type", SMSBatchHandler.CONTENT_TYPE_JSON + "; charset=UTF-8");
+					exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, json.length);
+					try(OutputStream out = exchange.getResponseBody())
+					{
+						out.write(json);
+					}
+				}
+			});
+		httpExecutor = Executors.newFixedThreadPool(Math.max(1, httpThreads));
+		httpServer.setExecutor(httpExecutor);
+		httpServer.start();
+	}
+	
+	/**
+	 * @return the URL at which batches of messages are to be posted
+	 */
+	public String getURL()
+	{
+		InetSocketAddress address = httpServer.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort() + SMS_CONTEXT;
+	}
+	
+	/**
+	 * Stops accepting requests, receives any queued messages and releases the stores.
+	 */
+	public synchronized void stop()
+	{
+		if(stopped)
+			return;
+		stopped = true;
+		try
+		{
+			processor.stop(); // refuses new batches, but those already queued are received (and the waiting request handlers respond)
+			if(httpServer != null)
+			{
+				httpServer.stop(1);
+				httpExecutor.shutdown();
+				httpExecutor.awaitTermination(DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+		}
+		try
+		{
+			onStoreThread(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					controller.discard();
+					client.projectStoreHandle.doneUsing(TransmissionServer.this);
+					return null;
+				}
+			});
+		}
+		catch(Exception e)
+		{
+			client.logError("Error upon releasing stores", e);
+		}
+		storeThread.shutdown();
+	}
+	
+}